@@ -54,6 +54,22 @@ public class MainActivity extends BasicActivity {
         requestPermissions();
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (mController != null) {
+            mController.onActivityResult(requestCode, resultCode);
+        }
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus && mController != null) {
+            mController.onBridgeFocused();
+        }
+    }
+
     private void requestPermissions() {
         XXPermissions.with(this)
                 .permission(Permission.MANAGE_EXTERNAL_STORAGE)
@@ -1,8 +1,12 @@
 package org.square16.ictdroid.testbridge.controller;
 
 import android.content.Intent;
+import android.util.Log;
 
+import com.alibaba.fastjson.JSONObject;
+import org.square16.ictdroid.testbridge.Constants;
 import org.square16.ictdroid.testbridge.activities.BasicActivity;
+import org.square16.ictdroid.testbridge.controller.rpc.RPCClientHandler;
 import org.square16.ictdroid.testbridge.controller.rpc.RPCServer;
 import org.square16.ictdroid.testbridge.utils.CSVTestCaseMgr;
 
@@ -11,6 +15,10 @@ public class TestController {
     private final BasicActivity mActivity;
     private final RPCServer mServer;
     private CSVTestCaseMgr mTestCaseMgr;
+    // Lifecycle events of the running case are reported to this client
+    private volatile RPCClientHandler mCaseClient;
+    private volatile int mCaseId = -1;
+    private volatile boolean mIsCaseRunning = false;
 
     public TestController(BasicActivity activity) {
         this.mActivity = activity;
@@ -25,8 +33,59 @@ public class TestController {
         return mTestCaseMgr;
     }
 
-    public void startActivity(Intent i) {
+    public void startActivity(Intent i, RPCClientHandler clientHandler, int caseId) {
         // i.setClassName(mActivity, i.getComponent().getClassName());
-        mActivity.startActivityForResult(i, 64206);
+        mCaseClient = clientHandler;
+        mCaseId = caseId;
+        mIsCaseRunning = false;
+        try {
+            mActivity.startActivityForResult(i, Constants.REQUEST_CODE_RUN_CASE);
+        } catch (RuntimeException e) {
+            JSONObject dataObj = new JSONObject();
+            dataObj.put("exception", e.getClass().getName());
+            dataObj.put("message", e.getMessage());
+            sendEvent(Constants.EVENT_START_FAILED, dataObj);
+            throw e;
+        }
+        mIsCaseRunning = true;
+        sendEvent(Constants.EVENT_LAUNCHED, null);
+    }
+
+    /**
+     * Called when the component under test returns to the test bridge.
+     */
+    public void onActivityResult(int requestCode, int resultCode) {
+        if (requestCode != Constants.REQUEST_CODE_RUN_CASE || !mIsCaseRunning) {
+            return;
+        }
+        JSONObject dataObj = new JSONObject();
+        dataObj.put("resultCode", resultCode);
+        sendEvent(Constants.EVENT_RESULT, dataObj);
+    }
+
+    /**
+     * Called when the test bridge regains window focus, i.e. the component under test is gone.
+     */
+    public void onBridgeFocused() {
+        if (!mIsCaseRunning) {
+            return;
+        }
+        mIsCaseRunning = false;
+        sendEvent(Constants.EVENT_BRIDGE_FOCUSED, null);
+    }
+
+    private void sendEvent(int event, JSONObject dataObj) {
+        RPCClientHandler client = mCaseClient;
+        if (client == null) {
+            return;
+        }
+        JSONObject eventObj = new JSONObject();
+        eventObj.put("event", event);
+        eventObj.put("caseId", mCaseId);
+        if (dataObj != null) {
+            eventObj.put("data", dataObj);
+        }
+        Log.d(TAG, "Send event: " + eventObj.toJSONString());
+        client.sendEvent(eventObj);
     }
 }
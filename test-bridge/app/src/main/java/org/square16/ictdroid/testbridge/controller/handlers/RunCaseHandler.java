@@ -38,7 +38,7 @@ public class RunCaseHandler extends RPCHandler {
                 Intent i = testCaseMgr.getTestCaseIntent(caseId);
                 i.setClassName(loadParams.getString("pkgName"), loadParams.getString("compName"));
                 Log.i(TAG, "Generated Intent=" + i + ", extra=" + (i.getExtras() != null ? i.getExtras().toString() : "null"));
-                mController.startActivity(i);
+                mController.startActivity(i, clientHandler, caseId);
                 resObj.put("code", Constants.CODE_SUCCESS);
             }
         } catch (Exception e) {
@@ -13,7 +13,6 @@ import java.io.IOException;
 import java.net.Socket;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Objects;
 
 public class RPCClientHandler extends Thread {
     private static final String TAG = "RPCClientHandler";
@@ -21,7 +20,11 @@ public class RPCClientHandler extends Thread {
     private final Socket mSocket;
     private final DataInputStream mDis;
     private final DataOutputStream mDos;
-    private Integer mSeq;
+    /**
+     * Seq of the last accepted request, and seq of the request being handled
+     */
+    private int mLastSeq;
+    private Integer mReqSeq;
 
     private final Map<String, Object> mContextVars;
 
@@ -31,7 +34,8 @@ public class RPCClientHandler extends Thread {
         this.mSocket = soc;
         this.mDis = new DataInputStream(soc.getInputStream());
         this.mDos = new DataOutputStream(soc.getOutputStream());
-        this.mSeq = 0;
+        this.mLastSeq = 0;
+        this.mReqSeq = null;
         this.mContextVars = new HashMap<>();
     }
 
@@ -43,12 +47,28 @@ public class RPCClientHandler extends Thread {
         return mContextVars.get(key);
     }
 
+    /**
+     * Send the response of the request being handled, which echoes the seq of the request.
+     *
+     * @param resultObj Response object
+     */
     public void sendResponse(JSONObject resultObj) {
-        resultObj.put("seq", mSeq);
+        resultObj.put("seq", mReqSeq);
         this.sendResponse(resultObj.toJSONString());
     }
 
-    private void sendResponse(String result) {
+    /**
+     * Send an unsolicited event, which is not bound to any request and carries no sequence number.
+     *
+     * @param eventObj Event object
+     */
+    public void sendEvent(JSONObject eventObj) {
+        eventObj.put("action", Constants.ACTION_EVENT);
+        eventObj.put("code", Constants.CODE_SUCCESS);
+        this.sendResponse(eventObj.toJSONString());
+    }
+
+    private synchronized void sendResponse(String result) {
         try {
             mDos.writeUTF(result);
             Log.d(TAG, "Sent Text: " + result);
@@ -66,14 +86,16 @@ public class RPCClientHandler extends Thread {
                 Log.d(TAG, "Received Text: " + recvText);
                 JSONObject recvObj = JSON.parseObject(recvText);
 
-                // Check sequence number
-                if (!Objects.equals(recvObj.get("seq"), mSeq + 1)) {
+                // Check sequence number, requests may be pipelined so any newer seq is accepted
+                Integer seq = recvObj.getInteger("seq");
+                mReqSeq = seq;
+                if (seq == null || seq <= mLastSeq) {
                     JSONObject resObj = new JSONObject();
                     resObj.put("code", Constants.CODE_ERROR_INVALID_SEQ);
                     sendResponse(resObj);
                     continue;
                 }
-                mSeq++;
+                mLastSeq = seq;
                 Integer action = recvObj.getInteger("action");
                 RPCHandler[] handlers = mServer.getHandlerManager().getHandlersByAction(action);
                 if (handlers == null) {
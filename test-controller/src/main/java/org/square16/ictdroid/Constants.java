@@ -9,6 +9,8 @@ public class Constants {
     public static final String CLIENT_ACT_NAME = CLIENT_PKG_NAME + ".activities.MainActivity";
     public static final String CLIENT_COMP_NAME = CLIENT_PKG_NAME + "/.activities.MainActivity";
     public static final String CLIENT_CASE_ROOT = "/sdcard/ICTDroid/testcases";
+    public static final String LOG_MARKER_TAG = "ICTDroidMarker";
+    public static final String DEFAULT_RESULT_PATH = "results";
 
     public static final String MIST_TYPE_MAY_IA = "mayIA";
     public static final String MIST_TYPE_MUST_IA = "mustIA";
@@ -27,11 +29,43 @@ public class Constants {
     public static final long TIMEOUT_START_MS = 5000;
     public static final long TIME_DISPLAY_REQUIRE_MS = 1000;
     public static final long COMP_CHECK_INTERVAL = 200;
+    public static final long TIMEOUT_START_MIN_MS = 1500;
+    public static final long TIMEOUT_START_MAX_MS = 20000;
+    public static final long TIME_DISPLAY_REQUIRE_MAX_MS = 5000;
+    public static final long COMP_CHECK_INTERVAL_MIN = 50;
+    public static final int LATENCY_SAMPLE_NUM = 64;
+    public static final int LATENCY_MIN_SAMPLE_NUM = 5;
+    public static final double LATENCY_PERCENTILE = 0.95;
+    public static final double LATENCY_CRASH_PERCENTILE = 0.99;
+    public static final double LATENCY_MARGIN = 1.5;
+    public static final long TIMEOUT_RPC_MS = 30000;
+    public static final long TIMEOUT_RPC_READY_MS = 60000;
+    public static final long TIMEOUT_LOAD_TESTCASE_MS = 60000;
+    public static final long TIMEOUT_CASE_RESULT_MS = 60000;
+    public static final long TIMEOUT_LOG_DRAIN_MS = 1000;
+    public static final int LOGCAT_UID_MIN_SDK = 28;
+    public static final int DEFAULT_LOGCAT_QUEUE_SIZE = 65536;
+    public static final int SYSTEM_UID = 1000;
+    public static final int SHELL_UID = 2000;
+    public static final long TIMEOUT_ADB_SHELL_MS = 30000;
+    public static final int ADB_BATCH_CMD_NUM = 100;
+    public static final int EVENT_STREAM_MAX_RESTART = 3;
+    public static final long EVENT_STREAM_GRACE_MS = 1000;
+    public static final long BRIDGE_RETURN_SETTLE_MS = 300;
+    public static final int ADB_SHELL_SESSION_MAX = 2;
+    public static final long TIMEOUT_ADB_MS = 60000;
+    public static final long TIMEOUT_ADB_INSTALL_MS = 300000;
+    public static final long TIMEOUT_ADB_DRAIN_MS = 2000;
+    public static final int ADB_OUTPUT_MAX_BYTES = 16 * 1024 * 1024;
 
     public static final int DEFAULT_RAND_VAL_NUM = 5;
     public static final int DEFAULT_RAND_STR_MIN_LENGTH = 1;
     public static final int DEFAULT_RAND_STR_MAX_LENGTH = 20;
     public static final int CASE_MAX_RETRY = 3;
+    public static final int DEFAULT_GEN_LOOKAHEAD = 2;
+    public static final int DEFAULT_GEN_WORKERS = 1;
+    public static final int DEFAULT_INSTALL_LOOKAHEAD = 2;
+    public static final int DEFAULT_INSTALL_BUDGET_MB = 2048;
     public static final int NUM_OF_PATH_THRESHOLD = 2;
 
     public static final String DEFAULT_SCOPE_CONFIG = """
@@ -1,12 +1,25 @@
 package org.square16.ictdroid;
 
+import org.square16.ictdroid.pool.DevicePool;
+import org.square16.ictdroid.pool.ParallelGenerator;
 import org.square16.ictdroid.utils.ArgParser;
+import org.square16.ictdroid.utils.Config;
+import org.square16.ictdroid.utils.TestGenMode;
 
 public class Main {
     public static void main(String[] args) {
         if (!ArgParser.parse(args)) {
             return;
         }
+        Config config = Config.getInstance();
+        if (config.getTestGenMode() == TestGenMode.ONLY && config.getGenWorkers() > 1) {
+            new ParallelGenerator(config.getGenWorkers()).start();
+            return;
+        }
+        if (config.getTestGenMode() != TestGenMode.ONLY && config.getDeviceSerials().size() > 1) {
+            new DevicePool(config.getDeviceSerials()).start();
+            return;
+        }
         TestController controller = new TestController();
         controller.start();
     }
@@ -5,15 +5,23 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.square16.ictdroid.logcat.LogcatMonitor;
 import org.square16.ictdroid.logcat.handler.StackTraceHandler;
+import org.square16.ictdroid.logcat.interfaces.ILogcatParser;
+import org.square16.ictdroid.logcat.utils.LogSegment;
+import org.square16.ictdroid.logcat.utils.ThrowableInfo;
 import org.square16.ictdroid.logcat.utils.TraceBlock;
+import org.square16.ictdroid.pool.WorkUnit;
+import org.square16.ictdroid.result.CaseResult;
+import org.square16.ictdroid.result.CrashFingerprint;
+import org.square16.ictdroid.result.CrashIndex;
+import org.square16.ictdroid.result.ProgressJournal;
+import org.square16.ictdroid.result.ResultStore;
 import org.square16.ictdroid.rpc.CompStateMonitor;
 import org.square16.ictdroid.rpc.RPCController;
-import org.square16.ictdroid.testcase.ACTSTestcaseBuilder;
-import org.square16.ictdroid.testcase.BaseTestcaseBuilder;
+import org.square16.ictdroid.testcase.IntentFingerprint;
 import org.square16.ictdroid.testcase.ScopeConfig;
-import org.square16.ictdroid.testcase.provider.ValueProviderICCBot;
-import org.square16.ictdroid.testcase.provider.ValueProviderPreset;
-import org.square16.ictdroid.testcase.provider.ValueProviderRandomWithStruct;
+import org.square16.ictdroid.testcase.TestcaseDeliverer;
+import org.square16.ictdroid.testcase.TestcaseGenPipeline;
+import org.square16.ictdroid.testcase.TestcaseGenTask;
 import org.square16.ictdroid.utils.*;
 
 import java.io.IOException;
@@ -21,6 +29,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -34,23 +44,61 @@ public class TestController {
     public static final int STATE_RUNNING_TESTCASE = 3;
     public static final int STATE_ERROR = 4;
 
+    public static final int RUN_FINISHED = 0;
+    public static final int RUN_SKIP_COMPONENT = 1;
+    public static final int RUN_ABORT = 2;
+    public static final int RUN_DEVICE_LOST = 3;
+
     private static final Config GlobalConfig = Config.getInstance();
-    private static final ADBInterface adb = ADBInterface.getInstance();
+    /**
+     * ACTS keeps its generation profile in a global singleton,
+     * so testcase generation must not run concurrently.
+     */
+    private static final Object GEN_LOCK = new Object();
+    private final String deviceSerial;
+    private final ADBInterface adb;
     private final LogcatMonitor logcatMonitor;
     private final CompStateMonitor compStateMonitor;
     private final ScopeConfig scopeConfig;
+    private final ProgressJournal journal;
+    private final ResultStore resultStore;
+    private final CrashIndex crashIndex;
+    /**
+     * Fingerprints of Intents which are already sent to the current component, and the key of the component.
+     * In pool mode the set is kept across units of the same component run on this device,
+     * Intents sent by other devices are not known.
+     */
+    private final Set<String> sentIntents = new HashSet<>();
+    private String sentIntentsCompKey;
+    private final TestcaseDeliverer testcaseDeliverer;
+    private final ApkInstallPipeline apkInstaller;
     private RPCController rpcController;
     private List<Path> apksPath;
+    private Path currApkPath;
     private AppModel currAppModel;
     private CompModel currCompModel;
-    private Integer currCompState = STATE_READY;
+    private volatile Integer currCompState = STATE_READY;
     private Integer currCaseCount = 0;
+    private Integer currCaseIndex = 0;
 
     public TestController() {
-        logcatMonitor = new LogcatMonitor(this);
-        compStateMonitor = new CompStateMonitor();
+        this(GlobalConfig.getDeviceSerial(), ADBInterface.getInstance());
+    }
+
+    public TestController(String deviceSerial, ADBInterface adb) {
+        this.deviceSerial = deviceSerial;
+        this.adb = adb;
+        logcatMonitor = new LogcatMonitor(this, Boolean.TRUE.equals(GlobalConfig.getLogcatBinary()) ?
+                ILogcatParser.LOGCAT_BINARY : ILogcatParser.LOGCAT_V_YEAR);
+        compStateMonitor = new CompStateMonitor(adb, logcatMonitor);
         rpcController = null;
         scopeConfig = new ScopeConfig();
+        journal = GlobalConfig.getTestGenMode() != TestGenMode.ONLY ? ProgressJournal.getInstance() : null;
+        resultStore = GlobalConfig.getTestGenMode() != TestGenMode.ONLY ? ResultStore.getInstance() : null;
+        crashIndex = GlobalConfig.getTestGenMode() != TestGenMode.ONLY ? CrashIndex.getInstance() : null;
+        testcaseDeliverer = new TestcaseDeliverer(adb, GlobalConfig.getTestcasePath(), Constants.CLIENT_CASE_ROOT);
+        apkInstaller = new ApkInstallPipeline(adb, GlobalConfig.getInstallLookahead(),
+                GlobalConfig.getInstallBudgetMB() * 1024L * 1024L);
         boolean hasPath = GlobalConfig.getScopeConfigPath() != null;
         scopeConfig.loadScopeConfig(
                 hasPath ? GlobalConfig.getScopeConfigPath().toString() : Constants.DEFAULT_SCOPE_CONFIG, hasPath
@@ -59,74 +107,121 @@ public class TestController {
 
     public void start() {
         // Load APKs
-        this.loadApks();
+        this.apksPath = findApks();
 
-        if (GlobalConfig.getTestGenMode() != TestGenMode.ONLY) {
-            // Initialize ADB
-            adb.setADBExecPath(GlobalConfig.getAdbPath().toString());
-            if (!adb.connect(GlobalConfig.getDeviceSerial())) {
-                return;
-            }
+        if (GlobalConfig.getTestGenMode() != TestGenMode.ONLY && !this.setupDevice()) {
+            return;
+        }
+        this.process();
+    }
 
-            // Initialize logcat
-            this.logcatMonitor.start();
+    /**
+     * Connect to the device, start logcat monitor and wait until the test bridge is ready.
+     *
+     * @return true if the device is ready for testing, false otherwise
+     */
+    public boolean setupDevice() {
+        // Initialize ADB
+        adb.setADBExecPath(GlobalConfig.getAdbPath().toString());
+        adb.setShellSessionEnabled(GlobalConfig.getShellSession());
+        adb.setWireClientEnabled(GlobalConfig.getAdbWire());
+        if (!adb.connect(deviceSerial)) {
+            return false;
+        }
+        // The device may be reset while disconnected
+        testcaseDeliverer.reset();
+
+        // Initialize logcat
+        this.logcatMonitor.start();
+
+        if (GlobalConfig.getBridgePort() == 0) {
+            // Restart test bridge
+            adb.forceStopApp(Constants.CLIENT_PKG_NAME);
+            // We have to stop all apps for at least once.
+            ApkCatalog catalog = ApkCatalog.getInstance();
+            catalog.update(this.apksPath);
+            adb.forceStopApps(this.apksPath.stream()
+                    .map(catalog::getPackageName).filter(Objects::nonNull).distinct().toList());
+            currApkPath = null;
+            adb.startActivity(Constants.CLIENT_PKG_NAME, Constants.CLIENT_ACT_NAME);
+        } else {
+            this.initRPC(GlobalConfig.getBridgePort());
+        }
 
-            if (GlobalConfig.getBridgePort() == 0) {
-                // Restart test bridge
-                adb.forceStopApp(Constants.CLIENT_PKG_NAME);
-                // We have to stop all apps for at least once.
-                for (Path apkPath : this.apksPath) {
-                    this.loadApk(apkPath);
-                    adb.forceStopApp(currAppModel.getPackageName());
+        // Wait until RPCController ready
+        long deadline = System.currentTimeMillis() + Constants.TIMEOUT_RPC_READY_MS;
+        synchronized (this) {
+            while (rpcController == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
                 }
-                adb.startActivity(Constants.CLIENT_PKG_NAME, Constants.CLIENT_ACT_NAME);
-            } else {
-                this.initRPC(GlobalConfig.getBridgePort());
-            }
-
-            // Wait until RPCController ready
-            while (rpcController == null || !rpcController.isReady()) {
-                Thread.yield();
             }
         }
-        this.process();
+        if (rpcController == null ||
+                !rpcController.waitReady(Math.max(deadline - System.currentTimeMillis(), 0))) {
+            log.error("Test bridge is not ready in {} ms on device [{}]", Constants.TIMEOUT_RPC_READY_MS, deviceSerial);
+            return false;
+        }
+        return true;
     }
 
     public void initRPC(Integer remotePort) {
         Integer localPort = adb.forward(remotePort);
-        if (this.rpcController == null) {
-            this.rpcController = new RPCController(this, localPort);
-        } else {
-            this.rpcController.setForwardPort(localPort);
+        synchronized (this) {
+            if (this.rpcController == null) {
+                this.rpcController = new RPCController(this, localPort);
+            } else {
+                this.rpcController.setForwardPort(localPort);
+            }
+            notifyAll();
         }
         this.rpcController.init();
     }
 
     public void process() {
+        List<String> strategies = getStrategyNames();
+        TestcaseGenPipeline genPipeline = null;
+        if (GlobalConfig.getTestGenMode().equals(TestGenMode.AUTO) && GlobalConfig.getGenLookahead() > 0) {
+            genPipeline = new TestcaseGenPipeline(
+                    compModel -> prepareStrategies(compModel, strategies), GlobalConfig.getGenLookahead());
+        }
+        try {
+            processApks(strategies, genPipeline);
+        } finally {
+            if (genPipeline != null) {
+                genPipeline.shutdown();
+            }
+            apkInstaller.shutdown();
+            logcatMonitor.getLogQueue().logStats();
+        }
+    }
+
+    private void processApks(List<String> strategies, TestcaseGenPipeline genPipeline) {
         int currApkIndex = GlobalConfig.getStartApkIndex();
         int currCompIndex = GlobalConfig.getStartCompIndex();
-        int currCaseIndex = GlobalConfig.getStartCaseIndex();
+        currCaseIndex = GlobalConfig.getStartCaseIndex();
         while (currApkIndex < apksPath.size()) {
             // int apkUniqueCrashesCnt = 0;
             log.info("Processing APK [{}] ({}/{})", apksPath.get(currApkIndex), currApkIndex + 1, apksPath.size());
             Path apkPath = apksPath.get(currApkIndex);
-            boolean apkSkipFlag = false;
 
-            if (!loadApk(apkPath)) {
-                log.error("Failed to load APK #{}: {}, skipped", currApkIndex + 1, apkPath);
-                apkSkipFlag = true;
+            boolean isApkFinished = journal != null && journal.isApkFinished(apkPath);
+            if (isApkFinished) {
+                log.info("APK [{}] is already finished in progress journal, skipped", apkPath);
             }
-
-            // Check whether the APK is installed
-            if (!apkSkipFlag && GlobalConfig.getTestGenMode() != TestGenMode.ONLY && !adb.isPackageInstalled(currAppModel.getPackageName())) {
-                log.error("APK [{}] ({}) is not installed! Installing...", currAppModel.getPackageName(), apkPath);
-                if (!adb.installSync(apkPath.toString())) {
-                    log.error("Failed to install apk [{}] ({})! Skip test", currAppModel.getPackageName(), apkPath);
-                    apkSkipFlag = true;
-                }
+            ApkCatalog.Entry catalogEntry = ApkCatalog.getInstance().get(apkPath);
+            boolean hasNoComp = catalogEntry != null && catalogEntry.hasModel() && catalogEntry.getCompCount() == 0;
+            if (hasNoComp) {
+                log.info("APK [{}] has no component in ICCBot model, skipped", apkPath);
             }
-
-            if (apkSkipFlag) {
+            if (isApkFinished || hasNoComp || !prepareApk(currApkIndex, apkPath)) {
                 // Reset recovery parameters
                 GlobalConfig.setStartStrategy(null);
                 currCaseIndex = 0;
@@ -136,41 +231,19 @@ public class TestController {
                 // Continue for next apk
                 continue;
             }
+            if (GlobalConfig.getTestGenMode() != TestGenMode.ONLY) {
+                // Install the upcoming APKs while testing the current one
+                apkInstaller.schedule(getUpcomingApks(currApkIndex + 1, apkInstaller.getLookahead()));
+            }
 
             while (currCompIndex < currAppModel.getCompCount()) {
                 // Stack trace body -> Failed Message
                 // Map<String, String> uniqueStackTraces = new HashMap<>();
 
                 currCompModel = currAppModel.getCompModelByIndex(currCompIndex);
-                boolean skipFlag = false;
-
-                // Skip inner class
-                if (currCompModel.getClassName().contains("$")) {
-                    log.warn("Component [{}] is an inner class, skip test", currCompModel.getClassName());
-                    skipFlag = true;
-                }
-
-                // Check whether the component is enabled
-                if (!skipFlag && Boolean.FALSE.equals(currCompModel.getEnabled())) {
-                    log.warn("Component [{} is not enabled, skip test", currCompModel.getClassName());
-                    skipFlag = true;
-                }
-
-                // Check whether the component is exported
-                if (!skipFlag && Boolean.FALSE.equals(currCompModel.getExported()) && GlobalConfig.getOnlyExported()) {
-                    log.warn("Component [{}] is not exported, skip test", currCompModel.getClassName());
-                    skipFlag = true;
-                }
-
-                // -------------- Only support activity now --------------
-                if (!skipFlag && !currCompModel.getType().equals(CompModel.TYPE_ACTIVITY)) {
-                    log.warn("Component [{}] has unsupported type [{}], skip test",
-                            currCompModel.getClassName(), currCompModel.getType());
-                    skipFlag = true;
-                }
 
                 // Skip current component
-                if (skipFlag) {
+                if (!isCompTestable(currCompModel)) {
                     GlobalConfig.setStartStrategy(null);
                     currCaseIndex = 0;
                     currCompIndex++;
@@ -180,258 +253,50 @@ public class TestController {
                 log.info("Processing component [{}] ({}/{})",
                         currCompModel.getClassName(), currCompIndex + 1, currAppModel.getCompCount());
 
-                // Detect current strategy settings
-                Collection<String> readyStrategies = new HashSet<>();
-                Collection<String> pendingStrategies = new HashSet<>();
-                String valueStrategy = GlobalConfig.getStrategy();
-                List<String> strategyGroups = Arrays.stream(valueStrategy.split(";"))
-                        .distinct().filter(Predicate.not(String::isBlank)).map(String::trim).toList();
-                for (String strategyGroup : strategyGroups) {
-                    List<String> providerNames = Arrays.stream(strategyGroup.split("\\+"))
-                            .distinct().filter(Predicate.not(String::isBlank)).sorted().map(String::trim).toList();
-                    String strategyName = String.join("+", providerNames);
-
-                    Path compTestcasePath = Paths.get(GlobalConfig.getTestcasePath().toString(),
-                            currAppModel.getPackageName() + "/" + currCompModel.getClassName() + "_" +
-                                    strategyName + ".csv");
-                    if (Files.exists(compTestcasePath)) {
-                        log.info("Testcases of strategy [{}] are already exist", strategyName);
-                        readyStrategies.add(strategyName);
-                    } else {
-                        pendingStrategies.add(strategyName);
-                    }
-                }
-
-                if (!GlobalConfig.getTestGenMode().equals(TestGenMode.NONE)) {
-                    // Only generate pending strategies
-                    /* Map<String, BaseValueProvider> valueProviders = new HashMap<>() {
-                        {
-                            put("preset", new ValueProviderPreset(currCompModel));
-                            put("iccBot", new ValueProviderICCBot(
-                                    currCompModel, currCompModel.getFullValueSet(), scopeConfig
-                            ));
-                            put("random", new ValueProviderRandom(
-                                    currCompModel, GlobalConfig.getRandValNum(),
-                                    GlobalConfig.getStrMinLength(), GlobalConfig.getStrMaxLength()
-                            ));
-                            put("randomWithStruct", new ValueProviderRandomWithStruct(
-                                    currCompModel, currCompModel.getFullValueSet(),
-                                    scopeConfig, GlobalConfig.getRandValNum(),
-                                    GlobalConfig.getStrMinLength(), GlobalConfig.getStrMaxLength()
-                            ));
-                        }
-                    }; */
-                    for (String strategyName : pendingStrategies) {
-                        Path outputPath = Paths.get(
-                                GlobalConfig.getTestcasePath().toString(), currAppModel.getPackageName(),
-                                currCompModel.getClassName() + "_" + strategyName + ".csv");
-                        Path outputDir = outputPath.getParent().toAbsolutePath();
-                        if (!Files.exists(outputDir)) {
-                            try {
-                                Files.createDirectories(outputDir);
-                            } catch (IOException e) {
-                                log.error("Failed to create directory [" + outputDir + "]");
-                                System.exit(1);
-                            }
-                        }
-                        log.info("Generating by " + strategyName);
-                        BaseTestcaseBuilder builder = new ACTSTestcaseBuilder(currCompModel, scopeConfig);
-                        /* List<String> providerNames = Arrays.stream(strategyName.split("\\+"))
-                                .map(String::trim).toList();
-                        for (String providerName : providerNames) {
-                            builder.addValueProvider(valueProviders.get(providerName));
-                        } */
-                        builder.addValueProvider(new ValueProviderPreset(currCompModel));
-                        builder.addValueProvider(new ValueProviderICCBot(
-                                currCompModel, currCompModel.getFullValueSet(), scopeConfig
-                        ));
-                        builder.addValueProvider(new ValueProviderRandomWithStruct(
-                                currCompModel, currCompModel.getFullValueSet(),
-                                scopeConfig, GlobalConfig.getRandValNum(),
-                                GlobalConfig.getStrMinLength(), GlobalConfig.getStrMaxLength()
-                        ));
-                        builder.collect();
-                        builder.build(outputPath.toString());
-                        if (Files.exists(outputPath)) {
-                            readyStrategies.add(strategyName);
-                            log.info("Finished generating by " + strategyName);
-                        } else {
-                            log.warn("No testcase generated by " + strategyName);
-                        }
-                    }
-                    pendingStrategies.removeAll(readyStrategies);
-
-                    if (GlobalConfig.getTestGenMode().equals(TestGenMode.ONLY)) {
-                        currCompIndex++;
-                        continue;
-                    }
+                Collection<String> readyStrategies;
+                if (genPipeline != null) {
+                    // Generate testcases of the upcoming components while running the current one
+                    genPipeline.schedule(getTestableComps(currCompIndex, genPipeline.getLookahead() + 1));
+                    readyStrategies = genPipeline.take(currCompModel);
+                } else {
+                    readyStrategies = prepareStrategies(currCompModel, strategies);
                 }
-                if (pendingStrategies.size() > 0) {
-                    // Report error if there are still pending strategies
-                    log.warn("No testcases under strategies [{}] for component [{}]",
-                            String.join(", ", pendingStrategies), currCompModel.getClassName());
+                if (GlobalConfig.getTestGenMode().equals(TestGenMode.ONLY)) {
+                    currCompIndex++;
+                    continue;
                 }
-                log.info("{} strategies [{}] are ready for testing component [{}]", readyStrategies.size(),
-                        String.join(", ", readyStrategies), currCompModel.getClassName());
-
-                // Resort ready strategies
-                SortedArrayList<String> sortedReadyStrategies = new SortedArrayList<>();
-                sortedReadyStrategies.addAll(readyStrategies);
-                readyStrategies = sortedReadyStrategies;
 
                 // Push all testcases
-                for (String strategy : readyStrategies) {
-                    Path localPath = Paths.get(
-                            GlobalConfig.getTestcasePath().toString(), currAppModel.getPackageName(),
-                            currCompModel.getClassName() + "_" + strategy + ".csv");
-                    Path remotePath = Paths.get(
-                            Constants.CLIENT_CASE_ROOT, currAppModel.getPackageName(),
-                            currCompModel.getClassName() + "_" + strategy + ".csv");
-                    log.debug("Pushing testcase [{}]", localPath.getFileName());
-                    if (!adb.pushSync(localPath.toString(), remotePath.toString().replaceAll("\\\\", "/"))) {
-                        log.error("Failed to push testcase [{}] to [{}]!", localPath, remotePath);
-                        if (!GlobalConfig.getContinueIfError()) {
-                            return;
-                        }
-                    }
+                if (!pushTestcases(readyStrategies)) {
+                    return;
                 }
-                log.info("Finished pushing all testcases to client");
 
+                logcatMonitor.setScope(currAppModel.getPackageName());
                 compStateMonitor.setComponent(currAppModel.getPackageName(), currCompModel.getClassName(),
                         currCompModel.getType());
+                resetSentIntents();
                 for (String strategy : readyStrategies) {
                     if (GlobalConfig.getStartStrategy() != null && !GlobalConfig.getStartStrategy().equals(strategy)) {
                         continue;
                     }
                     GlobalConfig.setStartStrategy(null);
-                    log.info("Using strategy [{}]", strategy);
-                    // Waiting for testcase load finished
-                    setCurrCompState(STATE_LOADING_TESTCASE);
-                    rpcController.loadTestcase(currAppModel.getPackageName(), currCompModel.getClassName(),
-                            currCompModel.getType(), strategy);
-                    while (currCompState == STATE_LOADING_TESTCASE) {
-                        Thread.yield();
-                    }
-                    if (currCompState != STATE_LOADED_TESTCASE) {
-                        log.error("Unexpected state after loading case! state={}, comp={}, strategy={}",
-                                currCompState, currCompModel.getClassName(), strategy);
-                        if (GlobalConfig.getContinueIfError()) {
-                            currCompIndex++;
+                    if (journal != null) {
+                        if (journal.isUnitFinished(apkPath, currCompModel.getClassName(), strategy)) {
+                            log.info("Strategy [{}] is already finished in progress journal, skipped", strategy);
+                            currCaseIndex = 0;
                             continue;
-                        } else {
-                            return;
                         }
+                        currCaseIndex = Math.max(currCaseIndex,
+                                journal.getNextCaseIndex(apkPath, currCompModel.getClassName(), strategy));
                     }
-
-                    // Run testcases
-                    int caseRetryCnt = 0;
-                    while (currCaseIndex < currCaseCount) {
-                        String recoveryInfo = String.format(
-                                "compName=%s, apkIndex=%s, compIndex=%s, caseIndex=%s, strategy=%s",
-                                currCompModel.getClassName(), currApkIndex, currCompIndex, currCaseIndex, strategy
-                        );
-
-                        adb.forceStopApp(currAppModel.getPackageName());
-                        log.info("Start to run testcase #{}/{}", currCaseIndex + 1, currCaseCount);
-                        // Waiting for testcase run finished
-                        setCurrCompState(STATE_RUNNING_TESTCASE);
-                        rpcController.runTestcase(currCaseIndex);
-                        compStateMonitor.setCompState(CompStateMonitor.STATE_UNK);
-
-                        compStateMonitor.setComponent(currAppModel.getPackageName(),
-                                currCompModel.getClassName(), currCompModel.getType());
-                        compStateMonitor.start();
-
-                        while (compStateMonitor.getCompState() < CompStateMonitor.STATE_RESULT) {
-                            Thread.yield();
-                        }
-
-                        // Waiting for consuming all trace blocks
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException ignored) {
-                        }
-                        StackTraceHandler stHandler = logcatMonitor.getHandlerByClass(StackTraceHandler.class);
-                        TraceBlock mergedTraceBlock = new TraceBlock();
-                        while (stHandler.hasTraceBlock()) {
-                            TraceBlock tb = stHandler.getTraceBlock();
-                            if (tb.body.contains(currAppModel.getPackageName()) ||
-                                    tb.body.contains(Constants.CLIENT_PKG_NAME)) {
-                                if (mergedTraceBlock.headInfo == null) {
-                                    mergedTraceBlock.headInfo = tb.headInfo;
-                                }
-                                if (mergedTraceBlock.body != null) {
-                                    mergedTraceBlock.body += "\n" + tb.body;
-                                } else {
-                                    mergedTraceBlock.body = tb.body;
-                                }
-                            }
-                        }
-
-                        if (compStateMonitor.getCompState() <= CompStateMonitor.STATE_CLIENT_ERROR) {
-                            log.error("Case running ERROR! Try to rollback! state={}, mFocusedActivity={}, {}",
-                                    compStateMonitor.getCompStateName(), compStateMonitor.getFocusedActivity(),
-                                    recoveryInfo);
-                            caseRetryCnt++;
-                            if (caseRetryCnt > Constants.CASE_MAX_RETRY) {
-                                log.error("Max retry time of running case exceed! Skip the current case!");
-                                currCaseIndex++;
-                            }
-                            continue;
-                        }
-                        caseRetryCnt = 0;
-
-                        // Retrieve stack trace block
-                        if (mergedTraceBlock.headInfo == null) {
-                            if (compStateMonitor.getCompState() < CompStateMonitor.STATE_JUMPED) {
-                                log.error("No stacktrace is caught!");
-                            }
-                        } else {
-                            log.warn("Stacktrace caught: {}\n{}", mergedTraceBlock.headInfo, mergedTraceBlock.body);
-                            if (mergedTraceBlock.body.contains("android.content.ActivityNotFoundException")) {
-                                // If ActivityNotFoundException detected, it means the component is failed to find.
-                                // Usually it is due to the android:enabled="false" defined in AndroidManifest.xml.
-                                // Should skip the component directly.
-                                log.error("ActivityNotFoundException occurred, skip the current component!");
-                                log.info("Finished running testcase #{}", currCaseIndex + 1);
-                                break;
-                            }
-                        }
-
-                        if (compStateMonitor.getCompState() < CompStateMonitor.STATE_JUMPED) {
-                            log.error("Case FAILED! state={}, mFocusedActivity={}, {}",
-                                    compStateMonitor.getCompStateName(), compStateMonitor.getFocusedActivity(),
-                                    recoveryInfo);
-
-                            if (compStateMonitor.getCompState() >= CompStateMonitor.STATE_APP_CRASHED) {
-                                // if (mergedTraceBlock.headInfo != null &&
-                                //         !uniqueStackTraces.containsKey(mergedTraceBlock.body)) {
-                                //     String resultMsg = String.format(
-                                //             "state=%s, %s", compStateMonitor.getCompStateName(), recoveryInfo
-                                //     );
-                                //     uniqueStackTraces.put(mergedTraceBlock.body, resultMsg);
-                                //     log.info("Unique crash #{} detected! " + resultMsg, uniqueStackTraces.size());
-                                // }
-                                if (!GlobalConfig.getContinueIfError()) {
-                                    return;
-                                }
-                            }
-
-                            // Close all system dialogs to avoid window stack overflow
-                            adb.closeSystemDialogs();
-                        } else if (compStateMonitor.getCompState().equals(CompStateMonitor.STATE_JUMPED)) {
-                            log.info("Case JUMPED! mFocusedActivity={}, {}",
-                                    compStateMonitor.getFocusedActivity(), recoveryInfo);
-                        } else {
-                            log.info("Case PASSED! state={}, mFocusedActivity={}, {}",
-                                    compStateMonitor.getCompStateName(), compStateMonitor.getFocusedActivity(),
-                                    recoveryInfo);
-                        }
-                        // Testcase finished
-                        log.info("Finished running testcase #{}", currCaseIndex + 1);
-                        currCaseIndex++;
+                    int runResult = runStrategy(strategy, currApkIndex, currCompIndex);
+                    if (runResult == RUN_ABORT || runResult == RUN_DEVICE_LOST) {
+                        return;
                     }
                     currCaseIndex = 0;
+                    if (runResult == RUN_SKIP_COMPONENT) {
+                        break;
+                    }
                 }
                 adb.forceStopApp(currAppModel.getPackageName());
                 log.info("Finished testing component [{}]", currCompModel.getClassName());
@@ -444,16 +309,548 @@ public class TestController {
                 adb.forceStopApp(currAppModel.getPackageName());
                 // log.info("Finished testing APK [{}], with {} unique crashes", apksPath.get(currApkIndex), apkUniqueCrashesCnt);
                 log.info("Finished testing APK [{}]", apksPath.get(currApkIndex));
+                if (journal != null) {
+                    journal.apkFinished(apkPath);
+                }
+                apkInstaller.finish(apkPath);
             } else {
                 log.info("Finished generating testcases for APK [{}]", apksPath.get(currApkIndex));
             }
+            if (genPipeline != null) {
+                genPipeline.clear();
+            }
             currCompIndex = 0;
             currApkIndex++;
         }
     }
 
-    private void loadApks() {
-        apksPath = new ArrayList<>();
+    /**
+     * Run a single work unit dispatched by {@link org.square16.ictdroid.pool.DevicePool}.
+     *
+     * Units are dispatched from a shared queue, so the APK of the previous unit is marked as finished
+     * when switching to another one, it will be installed again if a later unit of it comes to this device.
+     *
+     * @param unit         Work unit to run
+     * @param upcomingApks APKs of the pending work units, in the order of dispatching
+     * @return One of RUN_FINISHED, RUN_SKIP_COMPONENT, RUN_ABORT and RUN_DEVICE_LOST
+     */
+    public int runUnit(WorkUnit unit, List<Path> upcomingApks) {
+        if (!unit.apkPath().equals(currApkPath)) {
+            if (currApkPath != null) {
+                apkInstaller.finish(currApkPath);
+            }
+            if (!prepareApk(unit.apkIndex(), unit.apkPath())) {
+                return adb.isConnected() ? RUN_SKIP_COMPONENT : RUN_DEVICE_LOST;
+            }
+        }
+        // Install the upcoming APKs while testing the current one
+        apkInstaller.schedule(upcomingApks.stream().filter(p -> !p.equals(currApkPath)).toList());
+        currCompModel = currAppModel.getCompModelByIndex(unit.compIndex());
+        log.info("Processing component [{}] ({}/{}) under strategy [{}]", currCompModel.getClassName(),
+                unit.compIndex() + 1, currAppModel.getCompCount(), unit.strategy());
+
+        Collection<String> readyStrategies = prepareStrategies(currCompModel, List.of(unit.strategy()));
+        if (!readyStrategies.contains(unit.strategy())) {
+            return RUN_SKIP_COMPONENT;
+        }
+        if (!pushTestcases(readyStrategies)) {
+            return adb.isConnected() ? RUN_ABORT : RUN_DEVICE_LOST;
+        }
+
+        logcatMonitor.setScope(currAppModel.getPackageName());
+        compStateMonitor.setComponent(currAppModel.getPackageName(), currCompModel.getClassName(),
+                currCompModel.getType());
+        resetSentIntents();
+        currCaseIndex = unit.startCaseIndex();
+        int runResult = runStrategy(unit.strategy(), unit.apkIndex(), unit.compIndex());
+        if (runResult != RUN_DEVICE_LOST) {
+            adb.forceStopApp(currAppModel.getPackageName());
+            log.info("Finished testing component [{}] under strategy [{}]",
+                    currCompModel.getClassName(), unit.strategy());
+        }
+        return runResult;
+    }
+
+    /**
+     * Stop installing APKs ahead, called when the device worker of the pool exits.
+     */
+    public void finishUnits() {
+        apkInstaller.shutdown();
+    }
+
+    /**
+     * Load the APK model and make sure the APK is installed on the device.
+     *
+     * @return true if the APK is ready for testing, false if it should be skipped
+     */
+    private boolean prepareApk(int apkIndex, Path apkPath) {
+        currApkPath = null;
+        if (!loadApk(apkPath)) {
+            log.error("Failed to load APK #{}: {}, skipped", apkIndex + 1, apkPath);
+            return false;
+        }
+
+        // Make sure the APK is installed, it may be installed ahead in background
+        if (GlobalConfig.getTestGenMode() != TestGenMode.ONLY
+                && !apkInstaller.require(apkPath, currAppModel.getPackageName())) {
+            log.error("Failed to install apk [{}] ({})! Skip test", currAppModel.getPackageName(), apkPath);
+            return false;
+        }
+        currApkPath = apkPath;
+        return true;
+    }
+
+    /**
+     * Check whether a component can be tested.
+     *
+     * @param compModel Component model
+     * @return true if testable, false otherwise
+     */
+    public static boolean isCompTestable(CompModel compModel) {
+        return isCompTestable(compModel, true);
+    }
+
+    private static boolean isCompTestable(CompModel compModel, boolean logReason) {
+        // Skip inner class
+        if (compModel.getClassName().contains("$")) {
+            if (logReason) log.warn("Component [{}] is an inner class, skip test", compModel.getClassName());
+            return false;
+        }
+
+        // Check whether the component is enabled
+        if (Boolean.FALSE.equals(compModel.getEnabled())) {
+            if (logReason) log.warn("Component [{} is not enabled, skip test", compModel.getClassName());
+            return false;
+        }
+
+        // Check whether the component is exported
+        if (Boolean.FALSE.equals(compModel.getExported()) && GlobalConfig.getOnlyExported()) {
+            if (logReason) log.warn("Component [{}] is not exported, skip test", compModel.getClassName());
+            return false;
+        }
+
+        // -------------- Only support activity now --------------
+        if (!compModel.getType().equals(CompModel.TYPE_ACTIVITY)) {
+            if (logReason) log.warn("Component [{}] has unsupported type [{}], skip test",
+                    compModel.getClassName(), compModel.getType());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Detect current strategy settings.
+     *
+     * @return Distinct strategy names
+     */
+    public static List<String> getStrategyNames() {
+        String valueStrategy = GlobalConfig.getStrategy();
+        List<String> strategyNames = new ArrayList<>();
+        List<String> strategyGroups = Arrays.stream(valueStrategy.split(";"))
+                .distinct().filter(Predicate.not(String::isBlank)).map(String::trim).toList();
+        for (String strategyGroup : strategyGroups) {
+            List<String> providerNames = Arrays.stream(strategyGroup.split("\\+"))
+                    .distinct().filter(Predicate.not(String::isBlank)).sorted().map(String::trim).toList();
+            String strategyName = String.join("+", providerNames);
+            if (!strategyNames.contains(strategyName)) {
+                strategyNames.add(strategyName);
+            }
+        }
+        return strategyNames;
+    }
+
+    /**
+     * Collect APKs to test after the current one.
+     *
+     * @param fromIndex Index of the first APK to check
+     * @param maxCount  Max number of APKs to collect
+     * @return Paths of APKs which are not finished yet, in index order
+     */
+    private List<Path> getUpcomingApks(int fromIndex, int maxCount) {
+        List<Path> apkPaths = new ArrayList<>();
+        for (int i = fromIndex; i < apksPath.size() && apkPaths.size() < maxCount; i++) {
+            if (journal == null || !journal.isApkFinished(apksPath.get(i))) {
+                apkPaths.add(apksPath.get(i));
+            }
+        }
+        return apkPaths;
+    }
+
+    /**
+     * Collect testable components of current APK.
+     *
+     * @param fromIndex Index of the first component to check
+     * @param maxCount  Max number of components to collect
+     * @return Testable components in index order
+     */
+    private List<CompModel> getTestableComps(int fromIndex, int maxCount) {
+        List<CompModel> compModels = new ArrayList<>();
+        for (int i = fromIndex; i < currAppModel.getCompCount() && compModels.size() < maxCount; i++) {
+            CompModel compModel = currAppModel.getCompModelByIndex(i);
+            if (isCompTestable(compModel, false)) {
+                compModels.add(compModel);
+            }
+        }
+        return compModels;
+    }
+
+    private static Path getLocalTestcasePath(CompModel compModel, String strategyName) {
+        return Paths.get(GlobalConfig.getTestcasePath().toString(), compModel.getPackageName(),
+                compModel.getClassName() + "_" + strategyName + ".csv");
+    }
+
+    /**
+     * Find existing testcases of a component and generate the missing ones if required.
+     * Only the given component is touched, so it is safe to be called from the generation pipeline.
+     *
+     * @param compModel  Component model
+     * @param strategies Strategies to prepare
+     * @return Sorted strategies which are ready for testing
+     */
+    private Collection<String> prepareStrategies(CompModel compModel, Collection<String> strategies) {
+        Collection<String> readyStrategies = new HashSet<>();
+        Collection<String> pendingStrategies = new HashSet<>();
+        for (String strategyName : strategies) {
+            if (Files.exists(getLocalTestcasePath(compModel, strategyName))) {
+                log.info("Testcases of strategy [{}] are already exist", strategyName);
+                readyStrategies.add(strategyName);
+            } else {
+                pendingStrategies.add(strategyName);
+            }
+        }
+
+        if (!GlobalConfig.getTestGenMode().equals(TestGenMode.NONE)) {
+            // Only generate pending strategies
+            for (String strategyName : pendingStrategies) {
+                if (generateTestcases(compModel, strategyName)) {
+                    readyStrategies.add(strategyName);
+                }
+            }
+            pendingStrategies.removeAll(readyStrategies);
+
+            if (GlobalConfig.getTestGenMode().equals(TestGenMode.ONLY)) {
+                return readyStrategies;
+            }
+        }
+        if (pendingStrategies.size() > 0) {
+            // Report error if there are still pending strategies
+            log.warn("No testcases under strategies [{}] for component [{}]",
+                    String.join(", ", pendingStrategies), compModel.getClassName());
+        }
+        log.info("{} strategies [{}] are ready for testing component [{}]", readyStrategies.size(),
+                String.join(", ", readyStrategies), compModel.getClassName());
+
+        // Resort ready strategies
+        SortedArrayList<String> sortedReadyStrategies = new SortedArrayList<>();
+        sortedReadyStrategies.addAll(readyStrategies);
+        return sortedReadyStrategies;
+    }
+
+    private boolean generateTestcases(CompModel compModel, String strategyName) {
+        /* Map<String, BaseValueProvider> valueProviders = new HashMap<>() {
+            {
+                put("preset", new ValueProviderPreset(currCompModel));
+                put("iccBot", new ValueProviderICCBot(
+                        currCompModel, currCompModel.getFullValueSet(), scopeConfig
+                ));
+                put("random", new ValueProviderRandom(
+                        currCompModel, GlobalConfig.getRandValNum(),
+                        GlobalConfig.getStrMinLength(), GlobalConfig.getStrMaxLength()
+                ));
+                put("randomWithStruct", new ValueProviderRandomWithStruct(
+                        currCompModel, currCompModel.getFullValueSet(),
+                        scopeConfig, GlobalConfig.getRandValNum(),
+                        GlobalConfig.getStrMinLength(), GlobalConfig.getStrMaxLength()
+                ));
+            }
+        }; */
+        Path outputPath = getLocalTestcasePath(compModel, strategyName);
+        Path outputDir = outputPath.getParent().toAbsolutePath();
+        if (!Files.exists(outputDir)) {
+            try {
+                Files.createDirectories(outputDir);
+            } catch (IOException e) {
+                log.error("Failed to create directory [" + outputDir + "]");
+                System.exit(1);
+            }
+        }
+        log.info("Generating by " + strategyName);
+        /* List<String> providerNames = Arrays.stream(strategyName.split("\\+"))
+                .map(String::trim).toList();
+        for (String providerName : providerNames) {
+            builder.addValueProvider(valueProviders.get(providerName));
+        } */
+        boolean generated;
+        synchronized (GEN_LOCK) {
+            generated = TestcaseGenTask.generate(compModel, scopeConfig, outputPath.toString());
+        }
+        if (generated) {
+            log.info("Finished generating by " + strategyName);
+            return true;
+        }
+        log.warn("No testcase generated by " + strategyName);
+        return false;
+    }
+
+    /**
+     * Push testcases of current component to the test bridge.
+     *
+     * @param strategies Strategies to push
+     * @return false if the test should be stopped
+     */
+    private boolean pushTestcases(Collection<String> strategies) {
+        List<Path> localPaths = strategies.stream().map(s -> getLocalTestcasePath(currCompModel, s)).toList();
+        if (localPaths.stream().allMatch(testcaseDeliverer::isDelivered)) {
+            log.debug("Testcases of [{}] are already on device", currCompModel.getClassName());
+            return true;
+        }
+        if (!testcaseDeliverer.deliver(localPaths)) {
+            log.error("Failed to push testcases of [{}]!", currCompModel.getClassName());
+            if (!GlobalConfig.getContinueIfError() || !adb.isConnected()) {
+                return false;
+            }
+        }
+        log.info("Finished pushing all testcases to client");
+        return true;
+    }
+
+    /**
+     * Run testcases of current component under the given strategy, starting from currCaseIndex.
+     *
+     * @return One of RUN_FINISHED, RUN_SKIP_COMPONENT, RUN_ABORT and RUN_DEVICE_LOST
+     */
+    private int runStrategy(String strategy, int apkIndex, int compIndex) {
+        log.info("Using strategy [{}]", strategy);
+        // Waiting for testcase load finished, the reply is handled by LoadRecvHandler before the future completes
+        setCurrCompState(STATE_LOADING_TESTCASE);
+        try {
+            rpcController.loadTestcase(currAppModel.getPackageName(), currCompModel.getClassName(),
+                    currCompModel.getType(), strategy).join();
+        } catch (CompletionException | CancellationException e) {
+            log.error("Failed to load testcases: {}", e.getCause() != null ? e.getCause() : e);
+            setCurrCompState(STATE_ERROR);
+        }
+        if (currCompState != STATE_LOADED_TESTCASE) {
+            log.error("Unexpected state after loading case! state={}, comp={}, strategy={}",
+                    currCompState, currCompModel.getClassName(), strategy);
+            if (!adb.isConnected()) {
+                return RUN_DEVICE_LOST;
+            }
+            return GlobalConfig.getContinueIfError() ? RUN_SKIP_COMPONENT : RUN_ABORT;
+        }
+
+        List<String> intentFingerprints = loadIntentFingerprints(strategy);
+        int dedupCnt = 0;
+
+        // Run testcases
+        int caseRetryCnt = 0;
+        while (currCaseIndex < currCaseCount) {
+            String recoveryInfo = String.format(
+                    "compName=%s, apkIndex=%s, compIndex=%s, caseIndex=%s, strategy=%s",
+                    currCompModel.getClassName(), apkIndex, compIndex, currCaseIndex, strategy
+            );
+            if (intentFingerprints != null && sentIntents.contains(intentFingerprints.get(currCaseIndex))) {
+                log.debug("Skip testcase #{} with duplicated Intent", currCaseIndex + 1);
+                dedupCnt++;
+                recordCaseFinished(strategy);
+                currCaseIndex++;
+                continue;
+            }
+
+            adb.forceStopApp(currAppModel.getPackageName());
+            log.info("Start to run testcase #{}/{}", currCaseIndex + 1, currCaseCount);
+            // Waiting for testcase run finished
+            setCurrCompState(STATE_RUNNING_TESTCASE);
+            // Start monitor before sending the case, so that no response or event of the case is missed
+            compStateMonitor.setCompState(CompStateMonitor.STATE_UNK);
+            compStateMonitor.setComponent(currAppModel.getPackageName(),
+                    currCompModel.getClassName(), currCompModel.getType());
+            compStateMonitor.start(currCaseIndex);
+            logcatMonitor.setSegment(new LogSegment(apkIndex, currAppModel.getPackageName(),
+                    currCompModel.getClassName(), strategy, currCaseIndex));
+            int runCaseIndex = currCaseIndex;
+            rpcController.runTestcase(currCaseIndex).exceptionally(e -> {
+                // Not sent, timeout or disconnected before the reply, the case is run again
+                if (compStateMonitor.setResultIfRunning(runCaseIndex, CompStateMonitor.STATE_CLIENT_ERROR)) {
+                    log.error("Failed to run testcase #{}: {}", runCaseIndex + 1,
+                            e.getCause() != null ? e.getCause() : e);
+                }
+                return null;
+            });
+
+            if (!compStateMonitor.waitForResult(Constants.TIMEOUT_CASE_RESULT_MS)) {
+                log.warn("No result in {} ms, treat as timeout! {}", Constants.TIMEOUT_CASE_RESULT_MS, recoveryInfo);
+                compStateMonitor.setCompState(CompStateMonitor.STATE_TIMEOUT);
+            }
+
+            if (!adb.isConnected()) {
+                // The result is unreliable if the device is lost, run the case again elsewhere
+                log.error("Device [{}] lost when running testcase! {}", deviceSerial, recoveryInfo);
+                return RUN_DEVICE_LOST;
+            }
+
+            // Waiting for consuming all trace blocks, until the log marker is reached
+            if (!logcatMonitor.drain(Constants.TIMEOUT_LOG_DRAIN_MS)) {
+                log.debug("Log drain timeout, trace blocks may be incomplete");
+            }
+            logcatMonitor.setSegment(new LogSegment(apkIndex, currAppModel.getPackageName(),
+                    currCompModel.getClassName(), strategy, -1));
+            StackTraceHandler stHandler = logcatMonitor.getHandlerByClass(StackTraceHandler.class);
+            TraceBlock mergedTraceBlock = new TraceBlock();
+            List<ThrowableInfo> caughtExceptions = new ArrayList<>();
+            StringBuilder mergedBody = new StringBuilder();
+            TraceBlock tb;
+            while ((tb = stHandler.pollTraceBlock()) != null) {
+                if (tb.exception.mentions(currAppModel.getPackageName()) ||
+                        tb.exception.mentions(Constants.CLIENT_PKG_NAME)) {
+                    if (mergedTraceBlock.headInfo == null) {
+                        mergedTraceBlock.headInfo = tb.headInfo;
+                    }
+                    if (!mergedBody.isEmpty()) {
+                        mergedBody.append('\n');
+                    }
+                    tb.exception.render(mergedBody);
+                    caughtExceptions.add(tb.exception);
+                }
+            }
+            if (!caughtExceptions.isEmpty()) {
+                mergedTraceBlock.body = mergedBody.toString();
+            }
+
+            if (compStateMonitor.getCompState() <= CompStateMonitor.STATE_CLIENT_ERROR) {
+                log.error("Case running ERROR! Try to rollback! state={}, mFocusedActivity={}, {}",
+                        compStateMonitor.getCompStateName(), compStateMonitor.getFocusedActivity(),
+                        recoveryInfo);
+                caseRetryCnt++;
+                if (caseRetryCnt > Constants.CASE_MAX_RETRY) {
+                    log.error("Max retry time of running case exceed! Skip the current case!");
+                    recordCaseFinished(strategy);
+                    currCaseIndex++;
+                }
+                continue;
+            }
+            caseRetryCnt = 0;
+            if (intentFingerprints != null) {
+                sentIntents.add(intentFingerprints.get(currCaseIndex));
+            }
+            CaseResult caseResult = new CaseResult(System.currentTimeMillis(), currAppModel.getPackageName(),
+                    currCompModel.getClassName(), strategy, apkIndex, compIndex, currCaseIndex,
+                    compStateMonitor.getCompState(), compStateMonitor.getFocusedActivity(),
+                    mergedTraceBlock.body);
+            if (resultStore != null) {
+                resultStore.append(caseResult);
+            }
+
+            // Retrieve stack trace block
+            if (mergedTraceBlock.headInfo == null) {
+                if (compStateMonitor.getCompState() < CompStateMonitor.STATE_JUMPED) {
+                    log.error("No stacktrace is caught!");
+                }
+            } else {
+                log.warn("Stacktrace caught: {}\n{}", mergedTraceBlock.headInfo, mergedTraceBlock.body);
+                if (caughtExceptions.stream()
+                        .anyMatch(e -> e.hasType("android.content.ActivityNotFoundException"))) {
+                    // If ActivityNotFoundException detected, it means the component is failed to find.
+                    // Usually it is due to the android:enabled="false" defined in AndroidManifest.xml.
+                    // Should skip the component directly.
+                    log.error("ActivityNotFoundException occurred, skip the current component!");
+                    log.info("Finished running testcase #{}", currCaseIndex + 1);
+                    break;
+                }
+            }
+
+            if (compStateMonitor.getCompState() < CompStateMonitor.STATE_JUMPED) {
+                log.error("Case FAILED! state={}, mFocusedActivity={}, {}",
+                        compStateMonitor.getCompStateName(), compStateMonitor.getFocusedActivity(),
+                        recoveryInfo);
+
+                if (compStateMonitor.getCompState() >= CompStateMonitor.STATE_APP_CRASHED) {
+                    if (crashIndex != null && mergedTraceBlock.headInfo != null) {
+                        CrashFingerprint fingerprint = CrashFingerprint.of(caughtExceptions);
+                        if (!crashIndex.record(fingerprint, caseResult)) {
+                            log.info("Duplicated crash [{}], hits={}, state={}, {}", fingerprint.hash(),
+                                    crashIndex.getHitCount(fingerprint.hash()),
+                                    compStateMonitor.getCompStateName(), recoveryInfo);
+                        }
+                    }
+                    if (!GlobalConfig.getContinueIfError()) {
+                        return RUN_ABORT;
+                    }
+                }
+
+                // Close all system dialogs to avoid window stack overflow
+                adb.closeSystemDialogs();
+            } else if (compStateMonitor.getCompState().equals(CompStateMonitor.STATE_JUMPED)) {
+                log.info("Case JUMPED! mFocusedActivity={}, {}",
+                        compStateMonitor.getFocusedActivity(), recoveryInfo);
+            } else {
+                log.info("Case PASSED! state={}, mFocusedActivity={}, {}",
+                        compStateMonitor.getCompStateName(), compStateMonitor.getFocusedActivity(),
+                        recoveryInfo);
+            }
+            // Testcase finished
+            log.info("Finished running testcase #{}", currCaseIndex + 1);
+            recordCaseFinished(strategy);
+            currCaseIndex++;
+        }
+        if (intentFingerprints != null) {
+            log.info("Finished strategy [{}], skipped {}/{} testcases with duplicated Intent",
+                    strategy, dedupCnt, currCaseCount);
+        }
+        if (journal != null) {
+            journal.unitFinished(currApkPath, currCompModel.getClassName(), strategy);
+        }
+        return RUN_FINISHED;
+    }
+
+    /**
+     * Load Intent fingerprints of testcases for deduplication.
+     * Testcases before the start index are treated as sent.
+     *
+     * @param strategy Strategy name
+     * @return Fingerprints indexed by case index, or null if deduplication is not available
+     */
+    private List<String> loadIntentFingerprints(String strategy) {
+        if (!GlobalConfig.getIntentDedup()) {
+            return null;
+        }
+        List<String> fingerprints = IntentFingerprint.load(getLocalTestcasePath(currCompModel, strategy));
+        if (fingerprints == null) {
+            return null;
+        }
+        if (fingerprints.size() != currCaseCount) {
+            log.warn("Local testcases count {} not equals to loaded count {}, Intent deduplication disabled",
+                    fingerprints.size(), currCaseCount);
+            return null;
+        }
+        sentIntents.addAll(fingerprints.subList(0, Math.min(currCaseIndex, fingerprints.size())));
+        return fingerprints;
+    }
+
+    /**
+     * Clear the sent Intents if the current component is not the one they are sent to.
+     */
+    private void resetSentIntents() {
+        String compKey = currAppModel.getPackageName() + "/" + currCompModel.getClassName();
+        if (!compKey.equals(sentIntentsCompKey)) {
+            sentIntents.clear();
+            sentIntentsCompKey = compKey;
+        }
+    }
+
+    private void recordCaseFinished(String strategy) {
+        if (journal != null) {
+            journal.caseFinished(currApkPath, currCompModel.getClassName(), strategy, currCaseIndex);
+        }
+    }
+
+    /**
+     * Find all APKs under the configured APK path.
+     *
+     * @return Paths of APKs to run
+     */
+    public static List<Path> findApks() {
+        List<Path> apksPath = new ArrayList<>();
         if (!GlobalConfig.isApkPathDirectory()) {
             apksPath.add(GlobalConfig.getApkPath());
         } else {
@@ -471,6 +868,7 @@ public class TestController {
             apksPath.sort((p1, p2) -> -p1.compareTo(p2));
         }
         log.info("Found totally {} apks to run", apksPath.size());
+        return apksPath;
     }
 
     private boolean loadApk(Path apkPath) {
@@ -483,11 +881,12 @@ public class TestController {
         return true;
     }
 
-    public void setCurrCompState(int state) {
+    public synchronized void setCurrCompState(int state) {
         if (state < STATE_READY || state > STATE_ERROR) {
             throw new IllegalArgumentException("Invalid component state: " + state);
         }
         this.currCompState = state;
+        notifyAll();
     }
 
     public void setCurrCaseCount(int caseCount) {
@@ -0,0 +1,129 @@
+package org.square16.ictdroid.logcat;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.logcat.annotations.LogcatHandler;
+import org.square16.ictdroid.logcat.interfaces.ILogcatHandler;
+import org.square16.ictdroid.logcat.utils.KeywordMatcher;
+import org.square16.ictdroid.logcat.utils.LogInfo;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Dispatch table of logcat handlers, compiled once from their {@link LogcatHandler} annotations.
+ * <p>
+ * Candidate handlers of a log line are selected by the tag of the line and
+ * by the keywords found by a single {@link KeywordMatcher} pass,
+ * so that handlers whose tag or keywords do not appear in the line are never checked.
+ * Regular expressions are compiled once, and those without metacharacters are matched as keywords.
+ * Handlers are called in the order given on construction.
+ */
+@Slf4j
+public class LogcatDispatcher {
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+    private final CompiledHandler[] mHandlers;
+    private final BitSet mUnconditional = new BitSet();
+    private final Map<String, BitSet> mTagRoutes = new HashMap<>();
+    private final BitSet[] mKeywordRoutes;
+    private final KeywordMatcher mKeywordMatcher;
+    private final BitSet mFoundKeywords = new BitSet();
+    private final BitSet mCandidates = new BitSet();
+
+    /**
+     * @param handlers Handlers, in the order of dispatching
+     */
+    public LogcatDispatcher(List<ILogcatHandler> handlers) {
+        mHandlers = new CompiledHandler[handlers.size()];
+        Map<String, Integer> keywordIds = new LinkedHashMap<>();
+        List<BitSet> keywordRoutes = new ArrayList<>();
+        for (int i = 0; i < handlers.size(); i++) {
+            ILogcatHandler handler = handlers.get(i);
+            LogcatHandler handlerInfo = handler.getClass().getAnnotation(LogcatHandler.class);
+            List<String> keywords = new ArrayList<>(Arrays.asList(handlerInfo.keywords()));
+            Pattern pattern = null;
+            String regex = handlerInfo.regex();
+            if (isLiteral(regex)) {
+                if (!regex.isEmpty()) {
+                    keywords.add(regex);
+                }
+            } else if (!".*".equals(regex)) {
+                pattern = Pattern.compile(regex);
+            }
+            keywords.removeIf(String::isEmpty);
+            int[] ids = new int[keywords.size()];
+            for (int j = 0; j < keywords.size(); j++) {
+                ids[j] = keywordIds.computeIfAbsent(keywords.get(j), k -> {
+                    keywordRoutes.add(new BitSet());
+                    return keywordRoutes.size() - 1;
+                });
+            }
+            String tag = "".equals(handlerInfo.tag()) ? null : handlerInfo.tag();
+            mHandlers[i] = new CompiledHandler(handler, handlerInfo.name(), pattern, tag, ids);
+
+            if (tag != null) {
+                mTagRoutes.computeIfAbsent(tag, k -> new BitSet()).set(i);
+            } else if (ids.length > 0) {
+                // Any of its keywords selects the handler, the rest are checked afterwards
+                keywordRoutes.get(ids[0]).set(i);
+            } else {
+                mUnconditional.set(i);
+            }
+            log.debug("Compiled logcat handler [{}]: tag={}, keywords={}, regex={}",
+                    handlerInfo.name(), tag, keywords, pattern);
+        }
+        mKeywordRoutes = keywordRoutes.toArray(new BitSet[0]);
+        mKeywordMatcher = new KeywordMatcher(new ArrayList<>(keywordIds.keySet()));
+    }
+
+    private static boolean isLiteral(String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            if (REGEX_META_CHARS.indexOf(regex.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Call all handlers whose conditions are satisfied by the log line.
+     * This method is not thread-safe and should be called by the handle thread only.
+     *
+     * @param monitor Logcat monitor passed to handlers
+     * @param logInfo Log line
+     */
+    public void dispatch(LogcatMonitor monitor, LogInfo logInfo) {
+        BitSet candidates = mCandidates;
+        candidates.clear();
+        candidates.or(mUnconditional);
+        if (logInfo.tag != null) {
+            BitSet tagRoute = mTagRoutes.get(logInfo.tag);
+            if (tagRoute != null) {
+                candidates.or(tagRoute);
+            }
+        }
+        if (mKeywordMatcher.match(logInfo.original, mFoundKeywords)) {
+            for (int id = mFoundKeywords.nextSetBit(0); id >= 0; id = mFoundKeywords.nextSetBit(id + 1)) {
+                candidates.or(mKeywordRoutes[id]);
+            }
+        }
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            CompiledHandler compiled = mHandlers[i];
+            if (compiled.matches(logInfo, mFoundKeywords)) {
+                compiled.handler.handle(monitor, logInfo);
+            }
+        }
+    }
+
+    private record CompiledHandler(ILogcatHandler handler, String name, Pattern pattern, String tag,
+                                   int[] keywordIds) {
+        boolean matches(LogInfo logInfo, BitSet foundKeywords) {
+            for (int id : keywordIds) {
+                if (!foundKeywords.get(id)) {
+                    return false;
+                }
+            }
+            return pattern == null || (logInfo.original != null && pattern.matcher(logInfo.original).find());
+        }
+    }
+}
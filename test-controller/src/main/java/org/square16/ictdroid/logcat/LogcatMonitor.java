@@ -2,27 +2,37 @@ package org.square16.ictdroid.logcat;
 
 import lombok.extern.slf4j.Slf4j;
 import org.reflections.Reflections;
+import org.square16.ictdroid.Constants;
 import org.square16.ictdroid.TestController;
 import org.square16.ictdroid.logcat.annotations.LogcatHandler;
 import org.square16.ictdroid.logcat.interfaces.ILogcatHandler;
 import org.square16.ictdroid.logcat.interfaces.ILogcatParser;
 import org.square16.ictdroid.logcat.utils.LogInfo;
+import org.square16.ictdroid.logcat.utils.LogSegment;
+import org.square16.ictdroid.result.LogArchive;
+import org.square16.ictdroid.utils.ADBInterface;
+import org.square16.ictdroid.utils.Config;
 import org.square16.ictdroid.utils.SortedArrayList;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Slf4j
 public class LogcatMonitor {
     private final TestController mTestController;
-    private final BlockingQueue<String> mLogQueue;
+    private final LogcatQueue mLogQueue;
     private final LogcatProxier mLogcatProxier;
     private final SortedArrayList<ILogcatHandler> mHandlerList;
-    private final ILogcatParser mLogcatParser;
+    private LogcatDispatcher mDispatcher;
+    private final String mMarkerPrefix = "mark-" + Long.toHexString(System.nanoTime()) + "-";
+    private final Object mMarkerLock = new Object();
+    private long mMarkerId = 0;
+    private long mReachedMarkerId = 0;
+    private String mScopePkgName;
+    private final LogArchive mLogArchive;
+    private volatile LogSegment mSegment;
+    private Integer mBridgeUid;
 
     public LogcatMonitor(TestController testController) {
         this(testController, ILogcatParser.LOGCAT_V_YEAR);
@@ -30,9 +40,13 @@ public class LogcatMonitor {
 
     public LogcatMonitor(TestController testController, String logcatVerbosity) {
         mTestController = testController;
-        mLogcatParser = LogcatParserFactory.getParser(logcatVerbosity);
-        mLogQueue = new LinkedBlockingQueue<>();
-        mLogcatProxier = new LogcatProxier(mLogQueue, logcatVerbosity);
+        Config config = Config.getInstance();
+        mLogQueue = new LogcatQueue(config.getLogcatQueueSize() > 0 ? config.getLogcatQueueSize() :
+                Constants.DEFAULT_LOGCAT_QUEUE_SIZE, config.getLogcatQueuePolicy() != null ?
+                config.getLogcatQueuePolicy() : LogcatQueue.Policy.DROP_OLDEST_NON_CRITICAL);
+        mLogcatProxier = new LogcatProxier(mLogQueue, logcatVerbosity, testController.getAdb());
+        mLogArchive = Boolean.TRUE.equals(config.getLogArchive()) && config.getResultPath() != null ?
+                LogArchive.getInstance() : null;
         mHandlerList = new SortedArrayList<>();
         registerHandlers();
     }
@@ -41,6 +55,38 @@ public class LogcatMonitor {
         return mTestController;
     }
 
+    /**
+     * Scope logcat to the app under test, the test bridge, system_server and shell (which writes markers).
+     * Logcat is restarted only if the app is changed.
+     * All lines are read if the scope is disabled or not supported by the device.
+     *
+     * @param pkgName Package name of the app under test
+     */
+    public void setScope(String pkgName) {
+        if (!Boolean.TRUE.equals(Config.getInstance().getLogcatFilter()) || pkgName.equals(mScopePkgName)) {
+            return;
+        }
+        mScopePkgName = pkgName;
+        ADBInterface adb = mTestController.getAdb();
+        Integer sdkVersion = adb.getSdkVersion();
+        if (sdkVersion == null || sdkVersion < Constants.LOGCAT_UID_MIN_SDK) {
+            log.debug("Logcat uid filter is not supported on SDK {}", sdkVersion);
+            mLogcatProxier.setUids(null);
+            return;
+        }
+        if (mBridgeUid == null) {
+            mBridgeUid = adb.getPackageUid(Constants.CLIENT_PKG_NAME);
+        }
+        Integer appUid = adb.getPackageUid(pkgName);
+        if (appUid == null || mBridgeUid == null) {
+            log.warn("Cannot get uid of [{}] or test bridge, read all logcat lines", pkgName);
+            mScopePkgName = null;
+            mLogcatProxier.setUids(null);
+            return;
+        }
+        mLogcatProxier.setUids(List.of(appUid, mBridgeUid, Constants.SYSTEM_UID, Constants.SHELL_UID));
+    }
+
     private void registerHandlers() {
         mHandlerList.clear();
         Reflections ref = new Reflections(getClass().getPackageName() + ".handler");
@@ -59,6 +105,7 @@ public class LogcatMonitor {
             }
         }
         Collections.reverse(mHandlerList);
+        mDispatcher = new LogcatDispatcher(mHandlerList);
     }
 
     public ILogcatHandler getHandlerByName(String handlerName) {
@@ -80,50 +127,92 @@ public class LogcatMonitor {
         return null;
     }
 
-    private boolean checkHandlerConditions(LogcatHandler handlerInfo, LogInfo logInfo) {
-        if (!"".equals(handlerInfo.regex())) {
-            Pattern pattern = Pattern.compile(handlerInfo.regex());
-            Matcher matcher = pattern.matcher(logInfo.original);
-            if (!matcher.find()) {
-                return false;
+    private void handle() {
+        while (true) {
+            try {
+                LogInfo res = mLogQueue.take();
+                res.segment = mSegment;
+                if (mLogArchive != null) {
+                    mLogArchive.append(res);
+                } else {
+                    log.debug("logLine: {}", res.original);
+                }
+                mDispatcher.dispatch(this, res);
+            } catch (InterruptedException e) {
+                break;
             }
         }
-        if (!"".equals(handlerInfo.tag())) {
-            if (logInfo.tag == null) {
-                return false;
-            }
-            if (!logInfo.tag.equals(handlerInfo.tag())) {
-                return false;
-            }
+    }
+
+    /**
+     * Write a marker line to the device log, and wait until the marker is handled.
+     * All log lines before the marker are handled when this method returns true.
+     *
+     * @param timeoutMs Max time to wait
+     * @return true if the marker is reached, false if timeout
+     */
+    public boolean drain(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long markerId;
+        synchronized (mMarkerLock) {
+            markerId = ++mMarkerId;
         }
-        for (String keyword : handlerInfo.keywords()) {
-            if (!logInfo.original.contains(keyword)) {
-                return false;
+        if (!mTestController.getAdb().writeLog(Constants.LOG_MARKER_TAG, mMarkerPrefix + markerId)) {
+            log.warn("Failed to write log marker #{}", markerId);
+        }
+        synchronized (mMarkerLock) {
+            while (mReachedMarkerId < markerId) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    log.debug("Log marker #{} not reached in {} ms, {} lines queued, device lag {} ms",
+                            markerId, timeoutMs, mLogQueue.size(), mLogQueue.getDeviceLagMs());
+                    return false;
+                }
+                try {
+                    mMarkerLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
             }
         }
         return true;
     }
 
-    private void handle() {
-        while (true) {
-            try {
-                String logLine = mLogQueue.take();
-                log.debug("logLine: {}", logLine);
-                LogInfo res = this.mLogcatParser.parse(logLine);
-                if (res != null) {
-                    for (ILogcatHandler handler : mHandlerList) {
-                        LogcatHandler handlerInfo = handler.getClass().getAnnotation(LogcatHandler.class);
-                        if (checkHandlerConditions(handlerInfo, res)) {
-                            handler.handle(this, res);
-                        }
-                    }
-                }
-            } catch (InterruptedException e) {
-                break;
+    public void onMarker(String marker) {
+        if (!marker.startsWith(mMarkerPrefix)) {
+            // Written by other monitors
+            return;
+        }
+        long markerId;
+        try {
+            markerId = Long.parseLong(marker.substring(mMarkerPrefix.length()));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid log marker: {}", marker);
+            return;
+        }
+        synchronized (mMarkerLock) {
+            if (markerId > mReachedMarkerId) {
+                mReachedMarkerId = markerId;
+                mMarkerLock.notifyAll();
             }
         }
     }
 
+    /**
+     * Set the testcase which the following handled lines belong to.
+     * Lines before a drained marker are handled before the segment is changed.
+     *
+     * @param segment Running testcase, or null if none
+     */
+    public void setSegment(LogSegment segment) {
+        mSegment = segment;
+    }
+
+    public LogcatQueue getLogQueue() {
+        return mLogQueue;
+    }
+
     public void start() {
         mLogcatProxier.start();
         Thread handleThread = new Thread("LogcatHandleThread") {
@@ -3,8 +3,10 @@ package org.square16.ictdroid.logcat;
 import lombok.extern.slf4j.Slf4j;
 import org.reflections.Reflections;
 import org.square16.ictdroid.logcat.annotations.LogcatParser;
+import org.square16.ictdroid.logcat.interfaces.IBinaryLogcatParser;
 import org.square16.ictdroid.logcat.interfaces.ILogcatParser;
 
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -14,24 +16,54 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 @Slf4j
 public class LogcatParserFactory {
-    private static final Map<String, ILogcatParser> PARSER_CLASSES = new ConcurrentHashMap<>();
+    private static final Map<String, Class<?>> PARSER_CLASSES = new ConcurrentHashMap<>();
     private static volatile boolean IS_INIT = false;
 
     private static void loadParserClasses() {
         Reflections ref = new Reflections(LogcatParserFactory.class.getPackageName() + ".parser");
-        Set<Class<? extends ILogcatParser>> classes = ref.getSubTypesOf(ILogcatParser.class);
-        for (Class<? extends ILogcatParser> clazz : classes) {
+        Set<Class<?>> classes = new HashSet<>(ref.getSubTypesOf(ILogcatParser.class));
+        classes.addAll(ref.getSubTypesOf(IBinaryLogcatParser.class));
+        for (Class<?> clazz : classes) {
             LogcatParser parserInfo = clazz.getAnnotation(LogcatParser.class);
-            try {
-                PARSER_CLASSES.put(parserInfo.verbosity(), clazz.getDeclaredConstructor().newInstance());
-                log.debug("Registered logcat parser [{}] for verbosity [{}]", clazz.getName(), parserInfo.verbosity());
-            } catch (ReflectiveOperationException e) {
-                log.error("Failed to create parser for class [{}]", clazz.getName(), e);
-            }
+            PARSER_CLASSES.put(parserInfo.verbosity(), clazz);
+            log.debug("Registered logcat parser [{}] for verbosity [{}]", clazz.getName(), parserInfo.verbosity());
         }
     }
 
+    /**
+     * Create a text parser for the logcat verbosity.
+     * Parsers may keep state of the stream, so every call returns a new instance.
+     *
+     * @param verbosity Logcat verbosity
+     * @return Logcat parser, or null if not found
+     */
     public static ILogcatParser getParser(String verbosity) {
+        return createParser(verbosity, ILogcatParser.class);
+    }
+
+    /**
+     * Create a binary parser for the logcat verbosity.
+     *
+     * @param verbosity Logcat verbosity
+     * @return Binary logcat parser, or null if not found
+     */
+    public static IBinaryLogcatParser getBinaryParser(String verbosity) {
+        return createParser(verbosity, IBinaryLogcatParser.class);
+    }
+
+    /**
+     * Check whether the logcat output of the verbosity is read by a binary parser.
+     *
+     * @param verbosity Logcat verbosity
+     * @return true if binary
+     */
+    public static boolean isBinary(String verbosity) {
+        ensureInit();
+        Class<?> clazz = PARSER_CLASSES.get(verbosity);
+        return clazz != null && IBinaryLogcatParser.class.isAssignableFrom(clazz);
+    }
+
+    private static void ensureInit() {
         if (!IS_INIT) {
             synchronized (LogcatParserFactory.class) {
                 if (!IS_INIT) {
@@ -40,10 +72,20 @@ public class LogcatParserFactory {
                 }
             }
         }
-        if (!PARSER_CLASSES.containsKey(verbosity)) {
-            log.error("No parser found for logcat verbosity: {}", verbosity);
+    }
+
+    private static <T> T createParser(String verbosity, Class<T> parserType) {
+        ensureInit();
+        Class<?> clazz = PARSER_CLASSES.get(verbosity);
+        if (clazz == null || !parserType.isAssignableFrom(clazz)) {
+            log.error("No {} found for logcat verbosity: {}", parserType.getSimpleName(), verbosity);
+            return null;
+        }
+        try {
+            return parserType.cast(clazz.getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            log.error("Failed to create parser for class [{}]", clazz.getName(), e);
             return null;
         }
-        return PARSER_CLASSES.get(verbosity);
     }
 }
@@ -1,42 +1,173 @@
 package org.square16.ictdroid.logcat;
 
 import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.logcat.interfaces.IBinaryLogcatParser;
+import org.square16.ictdroid.logcat.interfaces.ILogcatParser;
+import org.square16.ictdroid.logcat.utils.LogInfo;
 import org.square16.ictdroid.utils.ADBInterface;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Queue;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 /**
+ * Reads logcat of the device and parses it on the proxy thread,
+ * so that the handle thread only dispatches parsed log entries.
+ * <p>
+ * Logcat can be scoped to some uids by {@link #setUids(List)}, which restarts logcat from the last received line.
+ * Lines which are already received before restarting are skipped.
+ *
  * @author Zsx
  */
 @Slf4j
 public class LogcatProxier {
-    protected Queue<String> mLogQueue;
+    protected LogcatQueue mLogQueue;
     protected String mVerbosity;
+    protected ADBInterface mAdb;
+    protected ILogcatParser mLogcatParser;
+    protected IBinaryLogcatParser mBinaryParser;
 
-    public LogcatProxier(Queue<String> logQueue, String verbosity) {
+    private volatile Process mProcess;
+    private volatile List<Integer> mUids;
+    private volatile boolean mIsRetargeting = false;
+    private long mLineCnt = 0;
+    /**
+     * Time of the last received line, and the lines received at that time
+     */
+    private String mLastTime;
+    private final Set<String> mLastTimeLines = new HashSet<>();
+    /**
+     * Time of the last received line passed to logcat -T, in epoch form if known,
+     * since the formatted time of binary entries is in the host timezone
+     */
+    private String mLastSince;
+    private String mResumeTime;
+    private LogInfo mPendingSeparator;
+
+    public LogcatProxier(LogcatQueue logQueue, String verbosity) {
+        this(logQueue, verbosity, ADBInterface.getInstance());
+    }
+
+    public LogcatProxier(LogcatQueue logQueue, String verbosity, ADBInterface adb) {
         this.mLogQueue = logQueue;
         this.mVerbosity = verbosity;
+        this.mAdb = adb;
+        if (LogcatParserFactory.isBinary(verbosity)) {
+            this.mBinaryParser = LogcatParserFactory.getBinaryParser(verbosity);
+        } else {
+            this.mLogcatParser = LogcatParserFactory.getParser(verbosity);
+        }
+    }
+
+    /**
+     * Only read lines of the given uids, restarting logcat if the uids are changed.
+     *
+     * @param uids uids to read, or null for all lines
+     */
+    public synchronized void setUids(List<Integer> uids) {
+        if (Objects.equals(uids, mUids)) {
+            return;
+        }
+        log.info("Logcat scope changed to uids {}, {} lines received in previous scope",
+                uids != null ? uids : "[all]", mLineCnt);
+        mUids = uids;
+        Process process = mProcess;
+        if (process != null) {
+            mIsRetargeting = true;
+            process.destroy();
+        }
     }
 
     public void readLogcat() {
-        ADBInterface adb = ADBInterface.getInstance();
-        Process logcatProcess = adb.getLogcatProcess(this.mVerbosity);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(logcatProcess.getInputStream()));
-        String s;
+        if (mLogcatParser == null && mBinaryParser == null) {
+            log.error("No parser for logcat verbosity [{}], logcat proxy stopped", mVerbosity);
+            return;
+        }
+        synchronized (this) {
+            // Resume from the last line if restarted for a new scope, otherwise start from a cleared buffer
+            mResumeTime = mIsRetargeting ? mLastTime : null;
+            String since = mResumeTime != null ? mLastSince : null;
+            mPendingSeparator = null;
+            mIsRetargeting = false;
+            mLineCnt = 0;
+            mProcess = mBinaryParser != null ? mAdb.getBinaryLogcatProcess(mUids, since)
+                    : mAdb.getLogcatProcess(mVerbosity, mUids, since);
+        }
         try {
-            while ((s = reader.readLine()) != null) {
-                this.mLogQueue.offer(s);
+            if (mProcess == null) {
+                throw new IOException("Failed to start logcat");
+            }
+            if (mBinaryParser != null) {
+                readBinaryLogcat(mProcess);
+            } else {
+                readTextLogcat(mProcess);
             }
         } catch (IOException e) {
-            log.error("IOException when reading logcat", e);
+            if (!mIsRetargeting) {
+                log.error("IOException when reading logcat", e);
+            }
         }
         // Restart LogcatProxyThread
         this.start();
     }
 
+    private void readTextLogcat(Process logcatProcess) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(logcatProcess.getInputStream(), StandardCharsets.UTF_8));
+        String s;
+        while ((s = reader.readLine()) != null) {
+            LogInfo res = mLogcatParser.parse(s);
+            if (res != null) {
+                offer(res);
+            }
+        }
+    }
+
+    private void readBinaryLogcat(Process logcatProcess) throws IOException {
+        InputStream is = new BufferedInputStream(logcatProcess.getInputStream(), 65536);
+        while (mBinaryParser.read(is, this::offer)) {
+            // Entries are offered by the parser
+        }
+    }
+
+    private void offer(LogInfo res) {
+        if (mResumeTime != null) {
+            if (res.time == null) {
+                // Buffer separator, keep it until the first new line
+                mPendingSeparator = res;
+                return;
+            }
+            int cmp = res.time.compareTo(mResumeTime);
+            if (cmp < 0 || (cmp == 0 && mLastTimeLines.contains(res.original))) {
+                // Only a separator right before the first new line is kept
+                mPendingSeparator = null;
+                return;
+            }
+            mResumeTime = null;
+            if (mPendingSeparator != null) {
+                mLogQueue.offer(mPendingSeparator);
+                mPendingSeparator = null;
+            }
+        }
+        if (res.time != null) {
+            if (!res.time.equals(mLastTime)) {
+                mLastTime = res.time;
+                mLastSince = res.epochTime != null ? res.epochTime : res.time;
+                mLastTimeLines.clear();
+            }
+            mLastTimeLines.add(res.original);
+        }
+        mLineCnt++;
+        mLogQueue.offer(res);
+    }
+
     public void start() {
         Thread proxyThread = new Thread("LogcatProxyThread") {
             @Override
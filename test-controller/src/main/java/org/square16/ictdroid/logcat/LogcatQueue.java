@@ -0,0 +1,398 @@
+package org.square16.ictdroid.logcat;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.Constants;
+import org.square16.ictdroid.logcat.utils.LogInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer between the logcat proxy thread and the logcat handle thread.
+ * <p>
+ * When the buffer is full, the proxy thread is handled by the {@link Policy}:
+ * <ul>
+ *     <li>{@link Policy#BLOCK}: wait until the handle thread takes a line, logcat is throttled by the pipe</li>
+ *     <li>{@link Policy#DROP_OLDEST_NON_CRITICAL}: drop the oldest lines which are not needed for crash detection,
+ *     and block only if all buffered lines are critical</li>
+ *     <li>{@link Policy#SPILL_TO_DISK}: append lines to a spill file, which is read back after the buffer is empty</li>
+ * </ul>
+ * Queue depth, drops, spills, blocking time and lag of handled lines are counted.
+ * The lag is measured from both enqueueing and the device timestamp of the line,
+ * the latter also includes the clock difference between the host and the device.
+ */
+@Slf4j
+public class LogcatQueue {
+    public enum Policy {
+        BLOCK, DROP_OLDEST_NON_CRITICAL, SPILL_TO_DISK
+    }
+
+    private static final Set<String> CRITICAL_TAGS = Set.of(
+            "ActivityManager", "ActivityTaskManager", "AndroidRuntime", "RPCServer", Constants.LOG_MARKER_TAG
+    );
+    private static final String CRITICAL_LEVELS = "WEFA";
+
+    private final LogInfo[] mItems;
+    private final long[] mEnqueuedAt;
+    private final Policy mPolicy;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+    private int mHead = 0;
+    private int mSize = 0;
+
+    private Path mSpillPath;
+    private DataOutputStream mSpillOut;
+    private DataInputStream mSpillIn;
+    private long mSpillWritten = 0;
+    private long mSpillRead = 0;
+
+    private long mMaxDepth = 0;
+    private long mTakenCnt = 0;
+    private long mDropCnt = 0;
+    private long mSpillCnt = 0;
+    private long mBlockedNs = 0;
+    private long mQueueLagTotalMs = 0;
+    private long mQueueLagMaxMs = 0;
+    private long mDeviceLagLastMs = 0;
+    private long mDeviceLagMaxMs = 0;
+    private String mCachedSecond;
+    private long mCachedSecondMs;
+
+    public LogcatQueue(int capacity, Policy policy) {
+        mItems = new LogInfo[Math.max(capacity, 16)];
+        mEnqueuedAt = new long[mItems.length];
+        mPolicy = policy;
+    }
+
+    public Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Check whether a line is needed for crash detection, which are never dropped.
+     */
+    static boolean isCritical(LogInfo logInfo) {
+        if (logInfo.time == null || logInfo.level == null) {
+            // Buffer separators and unknown lines
+            return true;
+        }
+        return CRITICAL_LEVELS.contains(logInfo.level) || CRITICAL_TAGS.contains(logInfo.tag);
+    }
+
+    /**
+     * Put a line into the queue, handling a full queue by the policy.
+     *
+     * @param logInfo Log line
+     * @return true if queued or spilled, false if dropped or interrupted
+     */
+    public boolean offer(LogInfo logInfo) {
+        mLock.lock();
+        try {
+            if (mSpillOut != null) {
+                // Keep the order until the spilled lines are read back
+                return spill(logInfo);
+            }
+            if (mSize == mItems.length) {
+                if (mPolicy == Policy.SPILL_TO_DISK) {
+                    return spill(logInfo);
+                }
+                if (mPolicy == Policy.DROP_OLDEST_NON_CRITICAL) {
+                    evictNonCritical();
+                    if (mSize == mItems.length && !isCritical(logInfo)) {
+                        mDropCnt++;
+                        return false;
+                    }
+                }
+                if (!awaitNotFull()) {
+                    return false;
+                }
+            }
+            enqueue(logInfo, System.currentTimeMillis());
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private boolean awaitNotFull() {
+        long beginNs = System.nanoTime();
+        try {
+            while (mSize == mItems.length) {
+                mNotFull.await();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            mBlockedNs += System.nanoTime() - beginNs;
+        }
+    }
+
+    private void enqueue(LogInfo logInfo, long enqueuedAt) {
+        int index = (mHead + mSize) % mItems.length;
+        mItems[index] = logInfo;
+        mEnqueuedAt[index] = enqueuedAt;
+        mSize++;
+        mMaxDepth = Math.max(mMaxDepth, mSize + mSpillWritten - mSpillRead);
+        mNotEmpty.signal();
+    }
+
+    /**
+     * Remove the oldest non-critical lines, up to 1/8 of the capacity at once so that the cost is amortized.
+     * The order of remaining lines is kept.
+     */
+    private void evictNonCritical() {
+        int target = Math.max(mItems.length / 8, 1);
+        int evicted = 0;
+        int write = 0;
+        for (int read = 0; read < mSize; read++) {
+            int readIndex = (mHead + read) % mItems.length;
+            LogInfo item = mItems[readIndex];
+            if (evicted < target && !isCritical(item)) {
+                evicted++;
+                continue;
+            }
+            int writeIndex = (mHead + write) % mItems.length;
+            mItems[writeIndex] = item;
+            mEnqueuedAt[writeIndex] = mEnqueuedAt[readIndex];
+            write++;
+        }
+        for (int i = write; i < mSize; i++) {
+            mItems[(mHead + i) % mItems.length] = null;
+        }
+        mSize = write;
+        if (evicted > 0) {
+            if (mDropCnt == 0) {
+                log.warn("Logcat queue is full, dropping non-critical lines");
+            }
+            mDropCnt += evicted;
+        }
+    }
+
+    private boolean spill(LogInfo logInfo) {
+        try {
+            if (mSpillOut == null) {
+                mSpillPath = Files.createTempFile("logcat-spill-", ".bin");
+                mSpillPath.toFile().deleteOnExit();
+                mSpillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(mSpillPath)));
+                mSpillIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(mSpillPath)));
+                log.warn("Logcat queue is full, spilling lines to [{}]", mSpillPath);
+            }
+            mSpillOut.writeLong(System.currentTimeMillis());
+            for (String field : new String[]{logInfo.time, logInfo.pid, logInfo.tid, logInfo.level,
+                    logInfo.tag, logInfo.msg, logInfo.original}) {
+                writeString(mSpillOut, field);
+            }
+            mSpillWritten++;
+            mSpillCnt++;
+            mMaxDepth = Math.max(mMaxDepth, mSize + mSpillWritten - mSpillRead);
+            mNotEmpty.signal();
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to spill logcat line, dropped", e);
+            mDropCnt++;
+            return false;
+        }
+    }
+
+    /**
+     * Move spilled lines back to the buffer, and remove the spill file once all lines are read back.
+     */
+    private void unspill() {
+        try {
+            mSpillOut.flush();
+            while (mSize < mItems.length && mSpillRead < mSpillWritten) {
+                long enqueuedAt = mSpillIn.readLong();
+                LogInfo logInfo = new LogInfo();
+                logInfo.time = readString(mSpillIn);
+                logInfo.pid = readString(mSpillIn);
+                logInfo.tid = readString(mSpillIn);
+                logInfo.level = readString(mSpillIn);
+                logInfo.tag = readString(mSpillIn);
+                logInfo.msg = readString(mSpillIn);
+                logInfo.original = readString(mSpillIn);
+                mSpillRead++;
+                int index = (mHead + mSize) % mItems.length;
+                mItems[index] = logInfo;
+                mEnqueuedAt[index] = enqueuedAt;
+                mSize++;
+            }
+        } catch (IOException e) {
+            log.error("Failed to read spilled logcat lines, {} lines lost", mSpillWritten - mSpillRead, e);
+            mDropCnt += mSpillWritten - mSpillRead;
+            mSpillRead = mSpillWritten;
+        }
+        if (mSpillRead == mSpillWritten) {
+            closeSpill();
+        }
+    }
+
+    private void closeSpill() {
+        try {
+            mSpillOut.close();
+            mSpillIn.close();
+            Files.deleteIfExists(mSpillPath);
+        } catch (IOException e) {
+            log.warn("Failed to remove logcat spill file [{}]", mSpillPath, e);
+        }
+        mSpillOut = null;
+        mSpillIn = null;
+        mSpillWritten = 0;
+        mSpillRead = 0;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Take the oldest line, waiting if the queue is empty.
+     *
+     * @return Log line
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public LogInfo take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0) {
+                if (mSpillOut != null) {
+                    unspill();
+                    continue;
+                }
+                mNotEmpty.await();
+            }
+            LogInfo logInfo = mItems[mHead];
+            long enqueuedAt = mEnqueuedAt[mHead];
+            mItems[mHead] = null;
+            mHead = (mHead + 1) % mItems.length;
+            mSize--;
+            mNotFull.signal();
+            updateLag(logInfo, enqueuedAt);
+            return logInfo;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void updateLag(LogInfo logInfo, long enqueuedAt) {
+        long now = System.currentTimeMillis();
+        long queueLag = now - enqueuedAt;
+        mTakenCnt++;
+        mQueueLagTotalMs += queueLag;
+        mQueueLagMaxMs = Math.max(mQueueLagMaxMs, queueLag);
+        long deviceTime = parseDeviceTime(logInfo.time);
+        if (deviceTime > 0) {
+            mDeviceLagLastMs = now - deviceTime;
+            mDeviceLagMaxMs = Math.max(mDeviceLagMaxMs, mDeviceLagLastMs);
+        }
+    }
+
+    /**
+     * Parse time in <b>yyyy-MM-dd HH:mm:ss.SSS</b>, with the part of seconds cached.
+     *
+     * @return Epoch milliseconds, or -1 if failed
+     */
+    long parseDeviceTime(String time) {
+        if (time == null || time.length() < 23 || time.charAt(19) != '.') {
+            return -1;
+        }
+        try {
+            if (mCachedSecond == null || !time.regionMatches(0, mCachedSecond, 0, 19)) {
+                LocalDateTime dateTime = LocalDateTime.of(
+                        Integer.parseInt(time, 0, 4, 10), Integer.parseInt(time, 5, 7, 10),
+                        Integer.parseInt(time, 8, 10, 10), Integer.parseInt(time, 11, 13, 10),
+                        Integer.parseInt(time, 14, 16, 10), Integer.parseInt(time, 17, 19, 10));
+                mCachedSecondMs = dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                mCachedSecond = time.substring(0, 19);
+            }
+            return mCachedSecondMs + Integer.parseInt(time, 20, 23, 10);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    public int size() {
+        mLock.lock();
+        try {
+            return (int) (mSize + mSpillWritten - mSpillRead);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getDropCount() {
+        mLock.lock();
+        try {
+            return mDropCnt;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getSpillCount() {
+        mLock.lock();
+        try {
+            return mSpillCnt;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getMaxDepth() {
+        mLock.lock();
+        try {
+            return mMaxDepth;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getDeviceLagMs() {
+        mLock.lock();
+        try {
+            return mDeviceLagLastMs;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public void logStats() {
+        mLock.lock();
+        try {
+            log.info("Logcat queue: policy={}, capacity={}, depth={}, maxDepth={}, handled={}, dropped={}, " +
+                            "spilled={}, blocked={} ms, queueLag(avg/max)={}/{} ms, deviceLag(last/max)={}/{} ms",
+                    mPolicy, mItems.length, mSize + mSpillWritten - mSpillRead, mMaxDepth, mTakenCnt, mDropCnt,
+                    mSpillCnt, TimeUnit.NANOSECONDS.toMillis(mBlockedNs),
+                    mTakenCnt > 0 ? mQueueLagTotalMs / mTakenCnt : 0, mQueueLagMaxMs,
+                    mDeviceLagLastMs, mDeviceLagMaxMs);
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
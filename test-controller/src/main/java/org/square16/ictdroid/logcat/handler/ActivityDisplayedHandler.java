@@ -16,6 +16,7 @@ import java.util.regex.Pattern;
 @LogcatHandler(name = "ActivityDisplayedHandler", regex = "I ActivityManager: Displayed", priority = 1)
 public class ActivityDisplayedHandler implements ILogcatHandler {
     private static final Pattern PATTERN = Pattern.compile("Displayed (?<compName>[^:]+): (?<startDelay>.*)");
+    private static final Pattern DELAY_PATTERN = Pattern.compile("\\+(?:(?<s>\\d+)s)?(?:(?<ms>\\d+)ms)?");
 
     @Override
     public void handle(LogcatMonitor monitor, LogInfo logInfo) {
@@ -28,6 +29,28 @@ public class ActivityDisplayedHandler implements ILogcatHandler {
             return;
         }
         String compName = matcher.group("compName");
-        monitor.getTestController().getCompStateMonitor().onActivityDisplayed(compName);
+        long startDelay = parseStartDelay(matcher.group("startDelay"));
+        monitor.getTestController().getCompStateMonitor().onActivityDisplayed(compName, startDelay);
+    }
+
+    /**
+     * Parse the launch delay like <b>+1s234ms</b> or <b>+345ms (total +1s2ms)</b>.
+     *
+     * @param startDelay Delay string in log
+     * @return Delay in milliseconds, or -1 if unrecognized
+     */
+    static long parseStartDelay(String startDelay) {
+        Matcher matcher = DELAY_PATTERN.matcher(startDelay);
+        if (!matcher.find() || (matcher.group("s") == null && matcher.group("ms") == null)) {
+            return -1;
+        }
+        long delay = 0;
+        if (matcher.group("s") != null) {
+            delay += Long.parseLong(matcher.group("s")) * 1000;
+        }
+        if (matcher.group("ms") != null) {
+            delay += Long.parseLong(matcher.group("ms"));
+        }
+        return delay;
     }
 }
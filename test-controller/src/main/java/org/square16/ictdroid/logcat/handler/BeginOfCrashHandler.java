@@ -10,7 +10,8 @@ import org.square16.ictdroid.logcat.utils.LogInfo;
  * @author Zsx
  */
 @Slf4j
-@LogcatHandler(name = "BeginOfCrashHandler", regex = "^[-\\s]+beginning of crash", priority = 20)
+@LogcatHandler(name = "BeginOfCrashHandler", regex = "^[-\\s]+beginning of crash",
+        keywords = {"beginning of crash"}, priority = 20)
 public class BeginOfCrashHandler implements ILogcatHandler {
     @Override
     public void handle(LogcatMonitor monitor, LogInfo logInfo) {
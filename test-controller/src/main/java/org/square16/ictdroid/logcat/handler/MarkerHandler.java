@@ -0,0 +1,24 @@
+package org.square16.ictdroid.logcat.handler;
+
+import org.square16.ictdroid.Constants;
+import org.square16.ictdroid.logcat.LogcatMonitor;
+import org.square16.ictdroid.logcat.annotations.LogcatHandler;
+import org.square16.ictdroid.logcat.interfaces.ILogcatHandler;
+import org.square16.ictdroid.logcat.utils.LogInfo;
+
+/**
+ * Detect the marker lines written by {@link LogcatMonitor#drain(long)}.
+ * It has the lowest priority, so all lines before the marker are fully handled when the drain returns.
+ * Unfinished stack traces are ended at the marker.
+ */
+@LogcatHandler(name = "MarkerHandler", tag = Constants.LOG_MARKER_TAG, priority = 0)
+public class MarkerHandler implements ILogcatHandler {
+    @Override
+    public void handle(LogcatMonitor monitor, LogInfo logInfo) {
+        if (logInfo.msg == null) {
+            return;
+        }
+        monitor.getHandlerByClass(StackTraceHandler.class).flush();
+        monitor.onMarker(logInfo.msg.trim());
+    }
+}
@@ -4,69 +4,147 @@ import org.square16.ictdroid.logcat.LogcatMonitor;
 import org.square16.ictdroid.logcat.annotations.LogcatHandler;
 import org.square16.ictdroid.logcat.interfaces.ILogcatHandler;
 import org.square16.ictdroid.logcat.utils.LogInfo;
+import org.square16.ictdroid.logcat.utils.StackFrame;
+import org.square16.ictdroid.logcat.utils.ThrowableInfo;
 import org.square16.ictdroid.logcat.utils.TraceBlock;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Collect stack traces into {@link TraceBlock}s.
+ * <p>
+ * Traces are grouped by pid, so that lines of other processes do not break a trace.
+ * The line before the first frame of a process is the header of the trace.
+ * "... N more" lines are kept in the trace but not rendered.
+ * A trace ends when a line of the same process is not a part of it, or when a log marker is reached.
+ */
 @LogcatHandler(name = "StackTraceHandler", regex = ": (\\t|Caused by:).*")
 public class StackTraceHandler implements ILogcatHandler {
-    private final List<String> mTraceBlock = new ArrayList<>();
-    private final Queue<LogInfo> mTraceHeadInfoQueue = new ConcurrentLinkedQueue<>();
-    private final Queue<String> mTraceBlockQueue = new ConcurrentLinkedQueue<>();
+    private static final int MAX_TRACKED_PIDS = 256;
+    private static final String FRAME_PREFIX = "\tat";
+    private static final String CAUSE_PREFIX = "Caused by:";
+    private static final String MORE_PREFIX = "\t...";
+
+    private final Map<String, OpenBlock> mOpenBlocks = new HashMap<>();
+    private final Map<String, LogInfo> mLastLineInfos = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LogInfo> eldest) {
+            return size() > MAX_TRACKED_PIDS;
+        }
+    };
+    private final Queue<TraceBlock> mTraceBlockQueue = new ConcurrentLinkedQueue<>();
     private LogInfo mLastLineInfo = null;
-    private LogInfo mTraceHeadInfo = null;
+
+    private static String getPid(LogInfo logInfo) {
+        return logInfo.pid != null ? logInfo.pid : "";
+    }
 
     public void setLastLineInfo(LogInfo logInfo) {
         if (logInfo != mLastLineInfo) {
-            // Log block end
-            if (mTraceBlock.size() > 0) {
-                // Put trace block into queue and reset the buffer
-                mTraceHeadInfoQueue.offer(mTraceHeadInfo);
-                mTraceBlockQueue.offer(String.join("\n", mTraceBlock));
-                mTraceBlock.clear();
-                mTraceHeadInfo = null;
+            // Not a part of a trace, end the trace of the process
+            if (logInfo.pid == null) {
+                flush();
+            } else {
+                closeBlock(logInfo.pid);
             }
+            mLastLineInfos.put(getPid(logInfo), logInfo);
         }
         mLastLineInfo = logInfo;
     }
 
+    /**
+     * End all unfinished traces.
+     */
+    public void flush() {
+        Iterator<OpenBlock> it = mOpenBlocks.values().iterator();
+        while (it.hasNext()) {
+            mTraceBlockQueue.offer(it.next().block);
+            it.remove();
+        }
+    }
+
+    private void closeBlock(String pid) {
+        OpenBlock openBlock = mOpenBlocks.remove(pid);
+        if (openBlock != null) {
+            mTraceBlockQueue.offer(openBlock.block);
+        }
+    }
+
     public boolean hasTraceBlock() {
-        assert mTraceHeadInfoQueue.size() == mTraceBlockQueue.size();
-        return mTraceHeadInfoQueue.size() > 0;
+        return !mTraceBlockQueue.isEmpty();
     }
 
+    /**
+     * Get the next trace block, whose body is rendered.
+     *
+     * @return Trace block, or null if no trace block
+     */
     public TraceBlock getTraceBlock() {
-        TraceBlock res = new TraceBlock();
-        assert mTraceHeadInfoQueue.size() == mTraceBlockQueue.size();
-        res.headInfo = mTraceHeadInfoQueue.poll();
-        res.body = mTraceBlockQueue.poll();
-        if (res.headInfo == null || res.body == null) {
-            return null;
+        TraceBlock res = pollTraceBlock();
+        if (res != null) {
+            res.getBody();
         }
         return res;
     }
 
+    /**
+     * Get the next trace block without rendering its body.
+     *
+     * @return Trace block, or null if no trace block
+     */
+    public TraceBlock pollTraceBlock() {
+        return mTraceBlockQueue.poll();
+    }
+
     @Override
     public void handle(LogcatMonitor monitor, LogInfo logInfo) {
         if (logInfo.msg == null) {
             return;
         }
-        if (logInfo.msg.startsWith("Caused by:")) {
-            if (mLastLineInfo == null || !mLastLineInfo.msg.startsWith("\tat")) {
+        String pid = getPid(logInfo);
+        LogInfo lastLineInfo = mLastLineInfos.get(pid);
+        OpenBlock openBlock = mOpenBlocks.get(pid);
+        if (logInfo.msg.startsWith(CAUSE_PREFIX)) {
+            if (openBlock == null || lastLineInfo == null || lastLineInfo.msg == null ||
+                    !lastLineInfo.msg.startsWith(FRAME_PREFIX) && !lastLineInfo.msg.startsWith(MORE_PREFIX)) {
+                return;
+            }
+            ThrowableInfo cause = ThrowableInfo.ofHeader(logInfo.msg.substring(CAUSE_PREFIX.length()).trim());
+            openBlock.current.cause = cause;
+            openBlock.current = cause;
+        } else if (logInfo.msg.startsWith(FRAME_PREFIX)) {
+            if (openBlock == null) {
+                // Trace block start, the last line of the process is the header
+                openBlock = new OpenBlock(logInfo, lastLineInfo);
+                mOpenBlocks.put(pid, openBlock);
+            }
+            openBlock.current.frames.add(StackFrame.parse(logInfo.msg.substring(FRAME_PREFIX.length()).trim()));
+        } else if (logInfo.msg.startsWith(MORE_PREFIX)) {
+            // "... N more" frames in common with the enclosing trace, more causes may follow
+            if (openBlock == null) {
                 return;
             }
-        } else if (!logInfo.msg.startsWith("\tat")) {
+        } else {
             return;
         }
-        if (mTraceBlock.size() < 1 && mLastLineInfo != null) {
-            // Trace block start, mLastLineInfo is the first line
-            mTraceBlock.add(mLastLineInfo.level + " " + mLastLineInfo.tag + ": " + mLastLineInfo.msg);
-            mTraceHeadInfo = mLastLineInfo;
-        }
-        mTraceBlock.add(logInfo.level + " " + logInfo.tag + ": " + logInfo.msg);
+        mLastLineInfos.put(pid, logInfo);
         mLastLineInfo = logInfo;
     }
+
+    private static class OpenBlock {
+        private final TraceBlock block = new TraceBlock();
+        private ThrowableInfo current;
+
+        private OpenBlock(LogInfo firstLineInfo, LogInfo headInfo) {
+            block.headInfo = headInfo != null ? headInfo : firstLineInfo;
+            block.pid = firstLineInfo.pid;
+            block.exception = ThrowableInfo.ofHeader(headInfo != null ? headInfo.msg : null);
+            current = block.exception;
+        }
+    }
 }
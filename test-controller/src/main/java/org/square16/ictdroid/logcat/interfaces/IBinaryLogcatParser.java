@@ -0,0 +1,22 @@
+package org.square16.ictdroid.logcat.interfaces;
+
+import org.square16.ictdroid.logcat.utils.LogInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Parser of logcat output which is read as binary entries instead of text lines, e.g. <b>logcat -B</b>.
+ * Registered by {@link org.square16.ictdroid.logcat.annotations.LogcatParser} like {@link ILogcatParser}.
+ */
+public interface IBinaryLogcatParser {
+    /**
+     * Read the next binary entry from logcat output
+     * @param is logcat output
+     * @param consumer consumer of the parsed lines, an entry may contain more than one line
+     * @return false if end of stream is reached
+     * @throws IOException if failed to read
+     */
+    boolean read(InputStream is, Consumer<LogInfo> consumer) throws IOException;
+}
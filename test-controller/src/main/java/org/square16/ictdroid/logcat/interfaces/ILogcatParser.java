@@ -7,6 +7,7 @@ import org.square16.ictdroid.logcat.utils.LogInfo;
  */
 public interface ILogcatParser {
     public static final String LOGCAT_V_YEAR = "year";
+    public static final String LOGCAT_BINARY = "binary";
 
     /**
      * Parse log line into LogInfo
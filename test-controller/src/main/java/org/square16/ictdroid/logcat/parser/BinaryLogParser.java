@@ -0,0 +1,188 @@
+package org.square16.ictdroid.logcat.parser;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.logcat.annotations.LogcatParser;
+import org.square16.ictdroid.logcat.interfaces.IBinaryLogcatParser;
+import org.square16.ictdroid.logcat.interfaces.ILogcatParser;
+import org.square16.ictdroid.logcat.utils.LogInfo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+
+/**
+ * Parser of <b>logcat -B</b>, which outputs the raw <b>logger_entry</b> structures of liblog.
+ * <p>
+ * Each entry is a little-endian header followed by the payload <b>[priority][tag\0][message\0]</b>.
+ * Headers of v1 have no header size and are 20 bytes long, later versions declare their size.
+ * The buffer id follows the timestamp in v3 (24 bytes) and v4 (28 bytes), while v2 (also 24 bytes) has the euid there.
+ * Messages with line breaks are split into lines, and the original text is rebuilt in <b>-v year</b> format,
+ * so that handlers work the same as on text output.
+ */
+@Slf4j
+@LogcatParser(verbosity = ILogcatParser.LOGCAT_BINARY)
+public class BinaryLogParser implements IBinaryLogcatParser {
+    private static final int HEADER_V1_SIZE = 20;
+    private static final int HEADER_V3_SIZE = 24;
+    private static final int HEADER_V4_SIZE = 28;
+    private static final int HEADER_LID_OFFSET = 20;
+    private static final int HEADER_MAX_SIZE = 100;
+    private static final String LEVELS = "??VDIWEFS";
+    private static final String[] BUFFER_NAMES = {
+            "main", "radio", "events", "system", "crash", "stats", "security", "kernel"
+    };
+    private static final DateTimeFormatter TIME_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final byte[] mHeader = new byte[HEADER_MAX_SIZE];
+    private byte[] mPayload = new byte[4096];
+    private int mLastLid = -1;
+    private long mCachedSec = -1;
+    private String mCachedTime;
+
+    /**
+     * Get the buffer id of the entry, 0 (main) if the header has none.
+     */
+    private int getLid(int headerSize) {
+        if (headerSize >= HEADER_V4_SIZE) {
+            return getI32(mHeader, HEADER_LID_OFFSET);
+        }
+        if (headerSize == HEADER_V3_SIZE) {
+            // v2 has the euid here instead, which is either root (0) or far beyond the buffer ids
+            int lid = getI32(mHeader, HEADER_LID_OFFSET);
+            return lid >= 0 && lid < BUFFER_NAMES.length ? lid : 0;
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean read(InputStream is, Consumer<LogInfo> consumer) throws IOException {
+        if (!readFully(is, mHeader, 0, 4, true)) {
+            return false;
+        }
+        int payloadLen = getU16(mHeader, 0);
+        int headerSize = getU16(mHeader, 2);
+        if (headerSize == 0) {
+            headerSize = HEADER_V1_SIZE;
+        }
+        if (headerSize < HEADER_V1_SIZE || headerSize > HEADER_MAX_SIZE) {
+            throw new IOException("Invalid logger entry header size: " + headerSize);
+        }
+        readFully(is, mHeader, 4, headerSize - 4, false);
+        if (mPayload.length < payloadLen) {
+            mPayload = new byte[Math.max(payloadLen, mPayload.length * 2)];
+        }
+        readFully(is, mPayload, 0, payloadLen, false);
+
+        int pid = getI32(mHeader, 4);
+        int tid = getI32(mHeader, 8);
+        long sec = getI32(mHeader, 12) & 0xFFFFFFFFL;
+        long nsec = getI32(mHeader, 16) & 0xFFFFFFFFL;
+        int lid = getLid(headerSize);
+        if (lid != mLastLid) {
+            // Same as the buffer separators of text output
+            mLastLid = lid;
+            LogInfo separator = new LogInfo();
+            separator.original = "--------- beginning of " +
+                    (lid >= 0 && lid < BUFFER_NAMES.length ? BUFFER_NAMES[lid] : String.valueOf(lid));
+            consumer.accept(separator);
+        }
+        if (payloadLen < 1) {
+            return true;
+        }
+
+        int prio = mPayload[0] & 0xFF;
+        int tagEnd = 1;
+        while (tagEnd < payloadLen && mPayload[tagEnd] != 0) {
+            tagEnd++;
+        }
+        int msgStart = Math.min(tagEnd + 1, payloadLen);
+        int msgEnd = msgStart;
+        while (msgEnd < payloadLen && mPayload[msgEnd] != 0) {
+            msgEnd++;
+        }
+        while (msgEnd > msgStart && mPayload[msgEnd - 1] == '\n') {
+            msgEnd--;
+        }
+
+        String time = formatTime(sec, nsec);
+        String epochTime = formatEpochTime(sec, nsec);
+        String pidStr = String.valueOf(pid);
+        String tidStr = String.valueOf(tid);
+        String level = String.valueOf(prio < LEVELS.length() ? LEVELS.charAt(prio) : '?');
+        String tag = new String(mPayload, 1, tagEnd - 1, StandardCharsets.UTF_8);
+        StringBuilder headerBuilder = new StringBuilder(time.length() + tag.length() + 20).append(time);
+        appendPadded(headerBuilder, pidStr);
+        appendPadded(headerBuilder, tidStr);
+        String header = headerBuilder.append(' ').append(level).append(' ').append(tag).append(": ").toString();
+
+        int lineStart = msgStart;
+        for (int i = msgStart; i <= msgEnd; i++) {
+            if (i == msgEnd || mPayload[i] == '\n') {
+                LogInfo res = new LogInfo();
+                res.time = time;
+                res.epochTime = epochTime;
+                res.pid = pidStr;
+                res.tid = tidStr;
+                res.level = level;
+                res.tag = tag;
+                res.msg = new String(mPayload, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                res.original = header + res.msg;
+                consumer.accept(res);
+                lineStart = i + 1;
+            }
+        }
+        return true;
+    }
+
+    private String formatTime(long sec, long nsec) {
+        if (sec != mCachedSec) {
+            mCachedSec = sec;
+            mCachedTime = TIME_FORMATTER.format(Instant.ofEpochSecond(sec));
+        }
+        long ms = nsec / 1000000;
+        return mCachedTime + (ms < 10 ? ".00" : ms < 100 ? ".0" : ".") + ms;
+    }
+
+    private static String formatEpochTime(long sec, long nsec) {
+        long ms = nsec / 1000000;
+        return sec + (ms < 10 ? ".00" : ms < 100 ? ".0" : ".") + ms;
+    }
+
+    private static void appendPadded(StringBuilder sb, String value) {
+        sb.append(' ');
+        for (int i = value.length(); i < 5; i++) {
+            sb.append(' ');
+        }
+        sb.append(value);
+    }
+
+    private static boolean readFully(InputStream is, byte[] buf, int off, int len, boolean allowEof)
+            throws IOException {
+        int n = 0;
+        while (n < len) {
+            int cnt = is.read(buf, off + n, len - n);
+            if (cnt < 0) {
+                if (allowEof && n == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated logger entry");
+            }
+            n += cnt;
+        }
+        return true;
+    }
+
+    private static int getU16(byte[] buf, int off) {
+        return (buf[off] & 0xFF) | (buf[off + 1] & 0xFF) << 8;
+    }
+
+    private static int getI32(byte[] buf, int off) {
+        return (buf[off] & 0xFF) | (buf[off + 1] & 0xFF) << 8 | (buf[off + 2] & 0xFF) << 16 | (buf[off + 3] & 0xFF) << 24;
+    }
+}
@@ -9,20 +9,28 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
+ * Parser of <b>logcat -v year</b>.
+ * <p>
+ * Lines are scanned by index, and only the substrings of fields are allocated.
+ * Lines which the scanner cannot handle fall back to the regular expression.
+ *
  * @author Zsx
  */
 @Slf4j
 @LogcatParser(verbosity = ILogcatParser.LOGCAT_V_YEAR)
 public class YearLogParser implements ILogcatParser {
-    private static final String LOGCAT_REGEXP_YEAR = "(?<time>[\\d-]+\\s[\\d:.]+)\\s+" +
-            "(?<pid>\\d+)\\s+(?<tid>\\d+)\\s+(?<level>[A-Z])\\s+(?<tag>\\S*)\\s*:\\s";
+    private static final Pattern LOGCAT_PATTERN_YEAR = Pattern.compile("(?<time>[\\d-]+\\s[\\d:.]+)\\s+" +
+            "(?<pid>\\d+)\\s+(?<tid>\\d+)\\s+(?<level>[A-Z])\\s+(?<tag>\\S*)\\s*:\\s");
 
     @Override
     public LogInfo parse(String logLine) {
-        LogInfo res = new LogInfo();
-        Pattern pattern = Pattern.compile(LOGCAT_REGEXP_YEAR);
-        Matcher matcher = pattern.matcher(logLine);
-        if (!matcher.find() || matcher.groupCount() != 5) {
+        LogInfo res = scan(logLine);
+        if (res != null) {
+            return res;
+        }
+        res = new LogInfo();
+        Matcher matcher = LOGCAT_PATTERN_YEAR.matcher(logLine);
+        if (!matcher.find()) {
             log.warn("Unknown log line format: {}", logLine);
             res.original = logLine;
             return res;
@@ -32,8 +40,95 @@ public class YearLogParser implements ILogcatParser {
         res.tid = matcher.group("tid");
         res.level = matcher.group("level");
         res.tag = matcher.group("tag");
-        res.msg = matcher.replaceFirst("");
+        res.msg = logLine.substring(0, matcher.start()) + logLine.substring(matcher.end());
         res.original = logLine;
         return res;
     }
+
+    /**
+     * Scan a line which starts with the header.
+     *
+     * @param line Log line
+     * @return LogInfo, or null if the line is not recognized
+     */
+    static LogInfo scan(String line) {
+        int len = line.length();
+        // Date and time, separated by exactly one whitespace
+        int dateEnd = skip(line, 0, CharClass.DATE);
+        if (dateEnd == 0 || dateEnd >= len || !isSpace(line.charAt(dateEnd))) {
+            return null;
+        }
+        int timeEnd = skip(line, dateEnd + 1, CharClass.TIME);
+        if (timeEnd == dateEnd + 1) {
+            return null;
+        }
+        int pidStart = skip(line, timeEnd, CharClass.SPACE);
+        int pidEnd = skip(line, pidStart, CharClass.DIGIT);
+        if (pidStart == timeEnd || pidEnd == pidStart) {
+            return null;
+        }
+        int tidStart = skip(line, pidEnd, CharClass.SPACE);
+        int tidEnd = skip(line, tidStart, CharClass.DIGIT);
+        if (tidStart == pidEnd || tidEnd == tidStart) {
+            return null;
+        }
+        int levelPos = skip(line, tidEnd, CharClass.SPACE);
+        if (levelPos == tidEnd || levelPos + 1 >= len) {
+            return null;
+        }
+        char level = line.charAt(levelPos);
+        if (level < 'A' || level > 'Z' || !isSpace(line.charAt(levelPos + 1))) {
+            return null;
+        }
+        int tagStart = skip(line, levelPos + 1, CharClass.SPACE);
+        int tagEnd = skip(line, tagStart, CharClass.NON_SPACE);
+        int colonPos;
+        if (tagEnd > tagStart && line.charAt(tagEnd - 1) == ':' && tagEnd < len && isSpace(line.charAt(tagEnd))) {
+            // "Tag: msg"
+            colonPos = tagEnd - 1;
+            tagEnd = colonPos;
+        } else {
+            // "Tag    : msg"
+            colonPos = skip(line, tagEnd, CharClass.SPACE);
+            if (colonPos + 1 >= len || line.charAt(colonPos) != ':' || !isSpace(line.charAt(colonPos + 1))) {
+                return null;
+            }
+        }
+        LogInfo res = new LogInfo();
+        res.time = line.substring(0, timeEnd);
+        res.pid = line.substring(pidStart, pidEnd);
+        res.tid = line.substring(tidStart, tidEnd);
+        res.level = String.valueOf(level);
+        res.tag = line.substring(tagStart, tagEnd);
+        res.msg = line.substring(colonPos + 2);
+        res.original = line;
+        return res;
+    }
+
+    private static int skip(String line, int from, CharClass charClass) {
+        int i = from;
+        int len = line.length();
+        while (i < len && charClass.matches(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private enum CharClass {
+        DATE, TIME, DIGIT, SPACE, NON_SPACE;
+
+        boolean matches(char c) {
+            return switch (this) {
+                case DATE -> (c >= '0' && c <= '9') || c == '-';
+                case TIME -> (c >= '0' && c <= '9') || c == ':' || c == '.';
+                case DIGIT -> c >= '0' && c <= '9';
+                case SPACE -> isSpace(c);
+                case NON_SPACE -> !isSpace(c);
+            };
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package org.square16.ictdroid.logcat.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton which finds all occurrences of a set of keywords in one pass over the text.
+ */
+public class KeywordMatcher {
+    private final List<Node> mNodes = new ArrayList<>();
+    private final int mKeywordCount;
+
+    /**
+     * @param keywords Keywords, the index of a keyword is its id
+     */
+    public KeywordMatcher(List<String> keywords) {
+        mKeywordCount = keywords.size();
+        Node root = new Node();
+        mNodes.add(root);
+        for (int i = 0; i < keywords.size(); i++) {
+            Node node = root;
+            for (char c : keywords.get(i).toCharArray()) {
+                Node next = node.mChildren.get(c);
+                if (next == null) {
+                    next = new Node();
+                    node.mChildren.put(c, next);
+                    mNodes.add(next);
+                }
+                node = next;
+            }
+            node.mOutputs = append(node.mOutputs, i);
+        }
+        // Build failure links in breadth-first order
+        Queue<Node> queue = new ArrayDeque<>();
+        for (Node child : root.mChildren.values()) {
+            child.mFail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Map.Entry<Character, Node> entry : node.mChildren.entrySet()) {
+                Node child = entry.getValue();
+                Node fail = node.mFail;
+                while (fail != root && !fail.mChildren.containsKey(entry.getKey())) {
+                    fail = fail.mFail;
+                }
+                Node target = fail.mChildren.get(entry.getKey());
+                child.mFail = target != null ? target : root;
+                for (int output : child.mFail.mOutputs) {
+                    child.mOutputs = append(child.mOutputs, output);
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    public int getKeywordCount() {
+        return mKeywordCount;
+    }
+
+    /**
+     * Find keywords contained in the text.
+     *
+     * @param text  Text to search
+     * @param found Ids of found keywords, cleared before searching
+     * @return true if any keyword is found, false otherwise
+     */
+    public boolean match(CharSequence text, BitSet found) {
+        found.clear();
+        if (mKeywordCount == 0 || text == null) {
+            return false;
+        }
+        Node root = mNodes.get(0);
+        Node node = root;
+        int foundCnt = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            Node next = node.mChildren.get(c);
+            while (next == null && node != root) {
+                node = node.mFail;
+                next = node.mChildren.get(c);
+            }
+            node = next != null ? next : root;
+            for (int output : node.mOutputs) {
+                if (!found.get(output)) {
+                    found.set(output);
+                    if (++foundCnt == mKeywordCount) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return foundCnt > 0;
+    }
+
+    private static int[] append(int[] arr, int value) {
+        for (int v : arr) {
+            if (v == value) {
+                return arr;
+            }
+        }
+        int[] res = new int[arr.length + 1];
+        System.arraycopy(arr, 0, res, 0, arr.length);
+        res[arr.length] = value;
+        return res;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> mChildren = new HashMap<>();
+        private Node mFail;
+        private int[] mOutputs = new int[0];
+    }
+}
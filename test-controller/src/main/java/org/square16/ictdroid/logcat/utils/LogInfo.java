@@ -11,6 +11,15 @@ public class LogInfo {
     public String tag;
     public String msg;
     public String original;
+    /**
+     * Device time as seconds since epoch in the form of <b>sssss.mmm</b>, which logcat -T accepts
+     * regardless of the device timezone. Only set by binary parsers
+     */
+    public String epochTime;
+    /**
+     * Testcase running when the line is handled, or null if none
+     */
+    public LogSegment segment;
 
     @Override
     public String toString() {
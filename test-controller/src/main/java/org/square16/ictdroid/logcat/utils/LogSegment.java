@@ -0,0 +1,16 @@
+package org.square16.ictdroid.logcat.utils;
+
+/**
+ * Testcase which log lines belong to.
+ *
+ * @param caseIndex Index of the testcase, or -1 for lines between testcases of the component
+ */
+public record LogSegment(int apkIndex, String pkgName, String compName, String strategy, int caseIndex) {
+    public static String getKey(String pkgName, String compName, String strategy, int caseIndex) {
+        return pkgName + "/" + compName + "/" + strategy + "/" + caseIndex;
+    }
+
+    public String getKey() {
+        return getKey(pkgName, compName, strategy, caseIndex);
+    }
+}
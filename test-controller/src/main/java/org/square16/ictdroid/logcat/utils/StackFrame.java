@@ -0,0 +1,84 @@
+package org.square16.ictdroid.logcat.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A frame of a stack trace, e.g. <b>com.example.Foo.bar(Foo.java:42)</b>.
+ * <p>
+ * Frames are interned: parsing the same text returns the same instance,
+ * so the frames shared by repeated crashes are stored only once.
+ * A frame which cannot be parsed keeps its text in {@link #className()}.
+ *
+ * @param className  Class name, or the whole text if not parsed
+ * @param methodName Method name, null if not parsed
+ * @param fileName   File name or "Native Method", null if not parsed
+ * @param lineNumber Line number, -1 if not given
+ */
+public record StackFrame(String className, String methodName, String fileName, int lineNumber) {
+    private static final int MAX_CACHED_FRAMES = 1 << 16;
+    private static final Map<String, StackFrame> FRAME_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Parse a frame, without the leading "\tat ".
+     *
+     * @param text Frame text
+     * @return Interned frame
+     */
+    public static StackFrame parse(String text) {
+        StackFrame frame = FRAME_CACHE.get(text);
+        if (frame != null) {
+            return frame;
+        }
+        frame = doParse(text);
+        if (FRAME_CACHE.size() < MAX_CACHED_FRAMES) {
+            StackFrame prev = FRAME_CACHE.putIfAbsent(text, frame);
+            if (prev != null) {
+                return prev;
+            }
+        }
+        return frame;
+    }
+
+    private static StackFrame doParse(String text) {
+        int paren = text.indexOf('(');
+        int dot = paren > 0 ? text.lastIndexOf('.', paren) : -1;
+        if (dot <= 0 || !text.endsWith(")")) {
+            return new StackFrame(text.intern(), null, null, -1);
+        }
+        String location = text.substring(paren + 1, text.length() - 1);
+        String fileName = location;
+        int lineNumber = -1;
+        int colon = location.lastIndexOf(':');
+        if (colon >= 0) {
+            String lineStr = location.substring(colon + 1);
+            try {
+                int n = Integer.parseInt(lineStr);
+                // Only accept the canonical form, so that toString() gives back the same text
+                if (n >= 0 && String.valueOf(n).equals(lineStr)) {
+                    fileName = location.substring(0, colon);
+                    lineNumber = n;
+                }
+            } catch (NumberFormatException ignored) {
+                // Not a line number, keep it in the file name
+            }
+        }
+        return new StackFrame(text.substring(0, dot).intern(), text.substring(dot + 1, paren).intern(),
+                fileName.intern(), lineNumber);
+    }
+
+    /**
+     * @return Class and method name, e.g. <b>com.example.Foo.bar</b>
+     */
+    public String getMethod() {
+        return methodName == null ? className : className + "." + methodName;
+    }
+
+    @Override
+    public String toString() {
+        if (methodName == null) {
+            return className;
+        }
+        return getMethod() + "(" + fileName + (lineNumber >= 0 ? ":" + lineNumber : "") + ")";
+    }
+}
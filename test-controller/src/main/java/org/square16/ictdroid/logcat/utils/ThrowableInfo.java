@@ -0,0 +1,130 @@
+package org.square16.ictdroid.logcat.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An exception in a stack trace, with its frames and the "Caused by" chain.
+ * <p>
+ * The header line is split into the exception type and message if it starts with a class name,
+ * otherwise the whole header is kept as the message.
+ */
+public class ThrowableInfo {
+    private static final Pattern TYPE_PATTERN = Pattern.compile("[\\w$]+(?:\\.[\\w$]+)+");
+
+    public final String type;
+    public final String message;
+    public final List<StackFrame> frames = new ArrayList<>();
+    public ThrowableInfo cause;
+
+    public ThrowableInfo(String type, String message) {
+        this.type = type;
+        this.message = message;
+    }
+
+    /**
+     * Parse the header line of an exception, without "Caused by: ".
+     *
+     * @param header Header line, null if the trace has no header
+     * @return Exception without frames
+     */
+    public static ThrowableInfo ofHeader(String header) {
+        if (header == null) {
+            return new ThrowableInfo(null, null);
+        }
+        int sep = header.indexOf(": ");
+        String type = sep >= 0 ? header.substring(0, sep) : header;
+        if (!TYPE_PATTERN.matcher(type).matches()) {
+            return new ThrowableInfo(null, header);
+        }
+        return new ThrowableInfo(type.intern(), sep >= 0 ? header.substring(sep + 2) : null);
+    }
+
+    /**
+     * @return Header line, null if the trace has no header
+     */
+    public String getHeader() {
+        if (type == null) {
+            return message;
+        }
+        return message == null ? type : type + ": " + message;
+    }
+
+    /**
+     * @return Innermost cause, or this exception if it has no cause
+     */
+    public ThrowableInfo getRootCause() {
+        ThrowableInfo res = this;
+        while (res.cause != null) {
+            res = res.cause;
+        }
+        return res;
+    }
+
+    /**
+     * Check whether the exception or its causes mention the string, in the header or the class of a frame.
+     *
+     * @param str String to find, e.g. a package name
+     * @return true if found, false otherwise
+     */
+    public boolean mentions(String str) {
+        for (ThrowableInfo t = this; t != null; t = t.cause) {
+            if (t.message != null && t.message.contains(str) || t.type != null && t.type.contains(str)) {
+                return true;
+            }
+            for (StackFrame frame : t.frames) {
+                if (frame.className().contains(str)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the exception or its causes are of the type.
+     *
+     * @param type Exception type, e.g. <b>android.content.ActivityNotFoundException</b>
+     * @return true if found, false otherwise
+     */
+    public boolean hasType(String type) {
+        for (ThrowableInfo t = this; t != null; t = t.cause) {
+            if (type.equals(t.type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Render the exception as in logcat, one line per header and frame, without the "... N more" lines.
+     *
+     * @param sb Builder to append to
+     */
+    public void render(StringBuilder sb) {
+        int start = sb.length();
+        for (ThrowableInfo t = this; t != null; t = t.cause) {
+            String header = t.getHeader();
+            if (t != this) {
+                newLine(sb, start).append("Caused by: ").append(header);
+            } else if (header != null) {
+                sb.append(header);
+            }
+            for (StackFrame frame : t.frames) {
+                newLine(sb, start).append("\tat ").append(frame);
+            }
+        }
+    }
+
+    private static StringBuilder newLine(StringBuilder sb, int start) {
+        return sb.length() > start ? sb.append('\n') : sb;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        render(sb);
+        return sb.toString();
+    }
+}
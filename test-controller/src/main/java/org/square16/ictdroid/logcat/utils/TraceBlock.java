@@ -1,9 +1,25 @@
 package org.square16.ictdroid.logcat.utils;
 
 /**
+ * A stack trace caught from logcat.
+ * <p>
+ * The trace is kept as a {@link ThrowableInfo}, the text body is only rendered when needed by {@link #getBody()}.
+ *
  * @author Zsx
  */
 public class TraceBlock {
     public LogInfo headInfo;
+    public String pid;
+    public ThrowableInfo exception;
     public String body;
+
+    /**
+     * @return Trace text, one line per header and frame
+     */
+    public String getBody() {
+        if (body == null && exception != null) {
+            body = exception.toString();
+        }
+        return body;
+    }
 }
@@ -0,0 +1,210 @@
+package org.square16.ictdroid.pool;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.TestController;
+import org.square16.ictdroid.result.ProgressJournal;
+import org.square16.ictdroid.utils.ADBInterface;
+import org.square16.ictdroid.utils.AppModel;
+import org.square16.ictdroid.utils.CompModel;
+import org.square16.ictdroid.utils.Config;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shard work units across several devices.
+ * Each device is driven by its own {@link TestController}, and units of a lost device are re-queued
+ * so that another device continues from the testcase which was being run.
+ */
+@Slf4j
+public class DevicePool {
+    private static final Config GlobalConfig = Config.getInstance();
+    private static final long POLL_INTERVAL_MS = 500;
+    private final List<String> mDeviceSerials;
+    private final BlockingDeque<WorkUnit> mPendingUnits = new LinkedBlockingDeque<>();
+    /**
+     * Number of work units taken by workers but not finished or re-queued yet
+     */
+    private final AtomicInteger mInFlightCnt = new AtomicInteger(0);
+    private final Object mDispatchLock = new Object();
+    private final AtomicInteger mAliveWorkerCnt = new AtomicInteger(0);
+    private volatile boolean mProducerFinished = false;
+    private volatile boolean mAborted = false;
+    private List<Path> mApksPath;
+
+    public DevicePool(List<String> deviceSerials) {
+        mDeviceSerials = deviceSerials;
+    }
+
+    public void start() {
+        mApksPath = TestController.findApks();
+        Thread producer = new Thread(this::produceUnits, "WorkUnitProducer");
+        producer.setDaemon(true);
+        producer.start();
+
+        List<Thread> workers = new ArrayList<>();
+        for (String serial : mDeviceSerials) {
+            Thread worker = new Thread(() -> runWorker(serial), "DeviceWorker-" + serial);
+            workers.add(worker);
+            mAliveWorkerCnt.incrementAndGet();
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted when waiting for device workers");
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!mPendingUnits.isEmpty()) {
+            log.error("All devices are gone with {} work units left! Next unit: {}",
+                    mPendingUnits.size(), mPendingUnits.peekFirst());
+        } else {
+            log.info("Finished all work units on {} devices", mDeviceSerials.size());
+        }
+    }
+
+    private void produceUnits() {
+        List<String> strategies = TestController.getStrategyNames();
+        int apkIndex = GlobalConfig.getStartApkIndex();
+        int compIndex = GlobalConfig.getStartCompIndex();
+        int caseIndex = GlobalConfig.getStartCaseIndex();
+        String startStrategy = GlobalConfig.getStartStrategy();
+        ProgressJournal journal = ProgressJournal.getInstance();
+        for (; apkIndex < mApksPath.size() && !mAborted; apkIndex++, compIndex = 0) {
+            Path apkPath = mApksPath.get(apkIndex);
+            if (journal != null && journal.isApkFinished(apkPath)) {
+                log.info("APK [{}] is already finished in progress journal, skipped", apkPath);
+                caseIndex = 0;
+                continue;
+            }
+            AppModel appModel;
+            try {
+                appModel = new AppModel(apkPath);
+            } catch (Exception e) {
+                log.error("{} when loading apk #{}: {}, skipped",
+                        e.getClass().getSimpleName(), apkIndex + 1, apkPath, e);
+                continue;
+            }
+            for (; compIndex < appModel.getCompCount(); compIndex++) {
+                CompModel compModel = appModel.getCompModelByIndex(compIndex);
+                if (!TestController.isCompTestable(compModel)) {
+                    continue;
+                }
+                for (String strategy : strategies) {
+                    if (startStrategy != null && !startStrategy.equals(strategy)) {
+                        continue;
+                    }
+                    startStrategy = null;
+                    String compName = compModel.getClassName();
+                    if (journal != null) {
+                        if (journal.isUnitFinished(apkPath, compName, strategy)) {
+                            caseIndex = 0;
+                            continue;
+                        }
+                        caseIndex = Math.max(caseIndex, journal.getNextCaseIndex(apkPath, compName, strategy));
+                    }
+                    mPendingUnits.offerLast(new WorkUnit(apkIndex, apkPath, compIndex,
+                            compName, strategy, caseIndex));
+                    caseIndex = 0;
+                }
+            }
+        }
+        mProducerFinished = true;
+    }
+
+    private void runWorker(String serial) {
+        TestController controller = new TestController(serial, ADBInterface.newInstance());
+        controller.setApksPath(mApksPath);
+        try {
+            if (!controller.setupDevice()) {
+                log.error("Failed to setup device [{}], worker retired", serial);
+                return;
+            }
+            while (true) {
+                WorkUnit unit;
+                try {
+                    unit = takeUnit();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (unit == null) {
+                    return;
+                }
+                try {
+                    log.info("Device [{}] took work unit: {}", serial, unit);
+                    int result = controller.runUnit(unit, getUpcomingApks(GlobalConfig.getInstallLookahead() + 1));
+                    if (result == TestController.RUN_DEVICE_LOST) {
+                        WorkUnit resumed = unit.resumeAt(controller.getCurrCaseIndex());
+                        log.error("Device [{}] lost, re-queue work unit: {}", serial, resumed);
+                        mPendingUnits.offerFirst(resumed);
+                        return;
+                    }
+                    if (result == TestController.RUN_ABORT) {
+                        log.error("Testing aborted by device [{}] at work unit: {}", serial, unit);
+                        mAborted = true;
+                        return;
+                    }
+                } finally {
+                    mInFlightCnt.decrementAndGet();
+                }
+            }
+        } finally {
+            controller.finishUnits();
+            if (mAliveWorkerCnt.decrementAndGet() == 0) {
+                log.info("The last device worker [{}] exited", serial);
+            }
+        }
+    }
+
+    /**
+     * Take the next work unit, waiting while any unit is in flight since it may be re-queued.
+     * Taking a unit and counting it as in flight is atomic to the idle check,
+     * so that no worker exits while a unit is between them.
+     *
+     * @return Next work unit, or null if all units are finished or testing is aborted
+     */
+    private WorkUnit takeUnit() throws InterruptedException {
+        synchronized (mDispatchLock) {
+            while (!mAborted) {
+                WorkUnit unit = mPendingUnits.pollFirst();
+                if (unit != null) {
+                    mInFlightCnt.incrementAndGet();
+                    return unit;
+                }
+                // A unit is re-queued before its in-flight count is released, so check the queue again after the count
+                if (mProducerFinished && mInFlightCnt.get() == 0 && mPendingUnits.isEmpty()) {
+                    return null;
+                }
+                mDispatchLock.wait(POLL_INTERVAL_MS);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collect APKs of the pending work units.
+     *
+     * @param maxCount Max number of APKs to collect
+     * @return Distinct APK paths in the order of dispatching
+     */
+    private List<Path> getUpcomingApks(int maxCount) {
+        Set<Path> apkPaths = new LinkedHashSet<>();
+        for (WorkUnit unit : mPendingUnits) {
+            if (apkPaths.size() >= maxCount) {
+                break;
+            }
+            apkPaths.add(unit.apkPath());
+        }
+        return new ArrayList<>(apkPaths);
+    }
+}
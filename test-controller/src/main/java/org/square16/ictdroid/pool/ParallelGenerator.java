@@ -0,0 +1,202 @@
+package org.square16.ictdroid.pool;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.TestController;
+import org.square16.ictdroid.utils.AppModel;
+import org.square16.ictdroid.utils.CompModel;
+import org.square16.ictdroid.utils.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generate testcases of all APKs with several worker threads (the parallel form of -og).
+ * <p>
+ * ACTS keeps its generation state in JVM-wide singletons, so each worker thread loads ACTS and the
+ * testcase package through its own isolated class loader. Every component is generated with a fresh
+ * builder and a fresh random generator seeded by the global seed, so the output does not depend on
+ * the number of workers or the order in which components are scheduled.
+ */
+@Slf4j
+public class ParallelGenerator {
+    private static final Config GlobalConfig = Config.getInstance();
+    private static final String GEN_ENTRY_CLASS = "org.square16.ictdroid.testcase.TestcaseGenTask";
+    private static final String[] ISOLATED_PREFIXES = {"edu.uta.", "org.square16.ictdroid.testcase."};
+    private final int mWorkerCnt;
+    private final ThreadLocal<Method> mGenEntry = ThreadLocal.withInitial(ParallelGenerator::loadGenEntry);
+    private final AtomicInteger mGeneratedCnt = new AtomicInteger(0);
+    private final AtomicInteger mFailedCnt = new AtomicInteger(0);
+    private final Object mTaskLock = new Object();
+    private int mRunningTaskCnt = 0;
+    private ExecutorService mExecutor;
+
+    public ParallelGenerator(int workerCnt) {
+        mWorkerCnt = workerCnt;
+    }
+
+    public void start() {
+        List<Path> apksPath = TestController.findApks();
+        List<String> strategies = TestController.getStrategyNames();
+        AtomicInteger threadId = new AtomicInteger(0);
+        mExecutor = Executors.newFixedThreadPool(mWorkerCnt, r -> new Thread(r, "GenWorker-" + threadId.incrementAndGet()));
+        long beginTime = System.currentTimeMillis();
+        log.info("Generating testcases with {} workers", mWorkerCnt);
+
+        for (int apkIndex = GlobalConfig.getStartApkIndex(); apkIndex < apksPath.size(); apkIndex++) {
+            int startCompIndex = apkIndex == GlobalConfig.getStartApkIndex() ? GlobalConfig.getStartCompIndex() : 0;
+            int finalApkIndex = apkIndex;
+            submit(() -> generateApk(finalApkIndex, apksPath.get(finalApkIndex), startCompIndex, strategies));
+        }
+
+        synchronized (mTaskLock) {
+            while (mRunningTaskCnt > 0) {
+                try {
+                    mTaskLock.wait();
+                } catch (InterruptedException e) {
+                    log.warn("Interrupted when waiting for generation workers");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        mExecutor.shutdownNow();
+        log.info("Finished generating testcases for {} apks: generated={}, failed={}, time={} ms",
+                apksPath.size(), mGeneratedCnt.get(), mFailedCnt.get(), System.currentTimeMillis() - beginTime);
+    }
+
+    private void submit(Runnable task) {
+        synchronized (mTaskLock) {
+            mRunningTaskCnt++;
+        }
+        mExecutor.submit(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("{} in generation task", e.getClass().getSimpleName(), e);
+            } finally {
+                synchronized (mTaskLock) {
+                    mRunningTaskCnt--;
+                    mTaskLock.notifyAll();
+                }
+            }
+        });
+    }
+
+    private void generateApk(int apkIndex, Path apkPath, int startCompIndex, List<String> strategies) {
+        AppModel appModel;
+        try {
+            appModel = new AppModel(apkPath);
+        } catch (Exception e) {
+            log.error("{} when loading apk #{}: {}, skipped", e.getClass().getSimpleName(), apkIndex + 1, apkPath, e);
+            return;
+        }
+        Path outputDir = Paths.get(GlobalConfig.getTestcasePath().toString(), appModel.getPackageName());
+        try {
+            Files.createDirectories(outputDir);
+        } catch (IOException e) {
+            log.error("Failed to create directory [{}]", outputDir);
+            return;
+        }
+        // Components are independent, split them into separate tasks
+        for (int compIndex = startCompIndex; compIndex < appModel.getCompCount(); compIndex++) {
+            CompModel compModel = appModel.getCompModelByIndex(compIndex);
+            if (!TestController.isCompTestable(compModel)) {
+                continue;
+            }
+            submit(() -> generateComp(compModel, outputDir, strategies));
+        }
+        log.info("Scheduled generation for APK [{}] ({})", apkPath, apkIndex + 1);
+    }
+
+    private void generateComp(CompModel compModel, Path outputDir, List<String> strategies) {
+        for (String strategyName : strategies) {
+            Path outputPath = outputDir.resolve(compModel.getClassName() + "_" + strategyName + ".csv");
+            if (Files.exists(outputPath)) {
+                log.info("Testcases of strategy [{}] are already exist", strategyName);
+                continue;
+            }
+            boolean generated;
+            try {
+                generated = (boolean) mGenEntry.get().invoke(null, compModel, outputPath.toString());
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+                log.error("{} when generating testcases for [{}]",
+                        cause.getClass().getSimpleName(), compModel.getClassName(), cause);
+                generated = false;
+            }
+            if (generated) {
+                mGeneratedCnt.incrementAndGet();
+                log.info("Finished generating by {} for [{}]", strategyName, compModel.getClassName());
+            } else {
+                mFailedCnt.incrementAndGet();
+                log.warn("No testcase generated by {} for [{}]", strategyName, compModel.getClassName());
+            }
+        }
+    }
+
+    private static Method loadGenEntry() {
+        List<URL> urls = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            try {
+                urls.add(Paths.get(entry).toUri().toURL());
+            } catch (MalformedURLException e) {
+                log.warn("Invalid class path entry: {}", entry);
+            }
+        }
+        ClassLoader loader = new IsolatedClassLoader(urls.toArray(new URL[0]), ParallelGenerator.class.getClassLoader());
+        try {
+            return loader.loadClass(GEN_ENTRY_CLASS).getMethod("generate",
+                    CompModel.class, String.class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            throw new RuntimeException("Failed to load isolated generation entry", e);
+        }
+    }
+
+    /**
+     * Child-first class loader for the isolated packages, everything else is loaded by the parent.
+     */
+    private static class IsolatedClassLoader extends URLClassLoader {
+        IsolatedClassLoader(URL[] urls, ClassLoader parent) {
+            super("ictdroid-gen", urls, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!isIsolated(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    clazz = findClass(name);
+                }
+                if (resolve) {
+                    resolveClass(clazz);
+                }
+                return clazz;
+            }
+        }
+
+        private static boolean isIsolated(String name) {
+            for (String prefix : ISOLATED_PREFIXES) {
+                if (name.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
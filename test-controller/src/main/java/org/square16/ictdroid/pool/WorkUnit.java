@@ -0,0 +1,32 @@
+package org.square16.ictdroid.pool;
+
+import java.nio.file.Path;
+
+/**
+ * A schedulable unit of testing: one strategy of one component in one APK.
+ *
+ * @param apkIndex       Index of the APK in the APK list
+ * @param apkPath        Path to the APK
+ * @param compIndex      Index of the component in the APK
+ * @param compName       Class name of the component
+ * @param strategy       Strategy name
+ * @param startCaseIndex Index of the first testcase to run
+ */
+public record WorkUnit(int apkIndex, Path apkPath, int compIndex, String compName,
+                       String strategy, int startCaseIndex) {
+    /**
+     * Create a copy of this unit which starts from the given testcase.
+     *
+     * @param caseIndex Index of the testcase to resume at
+     * @return Resumed work unit
+     */
+    public WorkUnit resumeAt(int caseIndex) {
+        return new WorkUnit(apkIndex, apkPath, compIndex, compName, strategy, caseIndex);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("apkIndex=%s, compIndex=%s, compName=%s, strategy=%s, caseIndex=%s",
+                apkIndex, compIndex, compName, strategy, startCaseIndex);
+    }
+}
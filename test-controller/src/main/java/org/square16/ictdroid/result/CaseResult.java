@@ -0,0 +1,23 @@
+package org.square16.ictdroid.result;
+
+import javax.annotation.Nullable;
+
+/**
+ * Result of running one testcase.
+ *
+ * @param timestamp       Time when the result is recorded
+ * @param pkgName         App package name
+ * @param compName        Component class name
+ * @param strategy        Strategy name
+ * @param apkIndex        Index of the APK
+ * @param compIndex       Index of the component
+ * @param caseIndex       Index of the testcase
+ * @param state           Final state in {@link org.square16.ictdroid.rpc.CompStateMonitor}
+ * @param focusedActivity Focused activity when the result is determined
+ * @param trace           Merged stack traces of the caught exceptions, starting with the first exception line,
+ *                        null if not caught
+ */
+public record CaseResult(long timestamp, String pkgName, String compName, String strategy,
+                         int apkIndex, int compIndex, int caseIndex, int state,
+                         @Nullable String focusedActivity, @Nullable String trace) {
+}
@@ -0,0 +1,134 @@
+package org.square16.ictdroid.result;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.square16.ictdroid.logcat.utils.StackFrame;
+import org.square16.ictdroid.logcat.utils.ThrowableInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Normalized signature of a stack trace block.
+ * <p>
+ * A signature consists of the root exception type and the top frames which are not in the framework,
+ * without line numbers, lambda ids and object hashes, so the same crash gets the same hash across runs.
+ *
+ * @param hash          SHA-1 of the exception type and frames
+ * @param exceptionType Type of the root exception
+ * @param frames        Normalized top frames
+ */
+public record CrashFingerprint(String hash, String exceptionType, List<String> frames) {
+    public static final int DEFAULT_FRAME_NUM = 5;
+    private static final Pattern EXCEPTION_PATTERN = Pattern.compile(
+            "(?:^|\\s|Caused by: )(?<type>[\\w$]+(?:\\.[\\w$]+)+(?:Exception|Error|Throwable))(?::|$)");
+    private static final Pattern FRAME_PATTERN = Pattern.compile("\\tat (?<method>[^(\\s]+)");
+    private static final Pattern LAMBDA_PATTERN = Pattern.compile("\\$\\$Lambda\\$[^.]*");
+    private static final Pattern SYNTHETIC_PATTERN = Pattern.compile("\\$\\d+");
+    private static final String[] FRAMEWORK_PREFIXES = {
+            "android.", "androidx.", "com.android.", "com.google.android.", "dalvik.", "java.", "javax.",
+            "kotlin.", "kotlinx.", "libcore.", "sun.", "org.apache.harmony."
+    };
+
+    public static CrashFingerprint of(String traceBody) {
+        return of(traceBody, DEFAULT_FRAME_NUM);
+    }
+
+    /**
+     * Compute the fingerprint of a trace block from {@link org.square16.ictdroid.logcat.handler.StackTraceHandler}.
+     * Frames are taken from the innermost "Caused by" section.
+     *
+     * @param traceBody Trace block body
+     * @param frameNum  Max number of frames
+     * @return Fingerprint
+     */
+    public static CrashFingerprint of(String traceBody, int frameNum) {
+        String exceptionType = null;
+        List<String> rootFrames = new ArrayList<>();
+        for (String line : traceBody.split("\n")) {
+            Matcher frameMatcher = FRAME_PATTERN.matcher(line);
+            if (frameMatcher.find()) {
+                rootFrames.add(normalizeFrame(frameMatcher.group("method")));
+                continue;
+            }
+            Matcher exceptionMatcher = EXCEPTION_PATTERN.matcher(line);
+            if (exceptionMatcher.find() && (exceptionType == null || line.contains("Caused by: "))) {
+                // A new section, the frames before belong to the outer exception
+                exceptionType = exceptionMatcher.group("type");
+                rootFrames.clear();
+            }
+        }
+        return build(exceptionType, rootFrames, frameNum);
+    }
+
+    public static CrashFingerprint of(List<ThrowableInfo> exceptions) {
+        return of(exceptions, DEFAULT_FRAME_NUM);
+    }
+
+    /**
+     * Compute the fingerprint of parsed stack traces, which is the same as the fingerprint of their rendered body.
+     * Only the headers are matched against the exception pattern, frames are taken as parsed.
+     *
+     * @param exceptions Exceptions of trace blocks, in the order of logging
+     * @param frameNum   Max number of frames
+     * @return Fingerprint
+     */
+    public static CrashFingerprint of(List<ThrowableInfo> exceptions, int frameNum) {
+        String exceptionType = null;
+        List<String> rootFrames = new ArrayList<>();
+        for (ThrowableInfo exception : exceptions) {
+            for (ThrowableInfo t = exception; t != null; t = t.cause) {
+                String header = t.getHeader();
+                if (header != null && (exceptionType == null || t != exception)) {
+                    String line = t != exception ? "Caused by: " + header : header;
+                    Matcher exceptionMatcher = EXCEPTION_PATTERN.matcher(line);
+                    if (exceptionMatcher.find()) {
+                        exceptionType = exceptionMatcher.group("type");
+                        rootFrames.clear();
+                    }
+                }
+                for (StackFrame frame : t.frames) {
+                    rootFrames.add(normalizeFrame(frame.getMethod()));
+                }
+            }
+        }
+        return build(exceptionType, rootFrames, frameNum);
+    }
+
+    private static CrashFingerprint build(String exceptionType, List<String> rootFrames, int frameNum) {
+        if (exceptionType == null) {
+            exceptionType = "unknown";
+        }
+
+        List<String> frames = new ArrayList<>();
+        for (String frame : rootFrames) {
+            if (!isFrameworkFrame(frame)) {
+                frames.add(frame);
+                if (frames.size() >= frameNum) {
+                    break;
+                }
+            }
+        }
+        if (frames.isEmpty()) {
+            // Crashed inside framework, use the top frames
+            frames.addAll(rootFrames.subList(0, Math.min(frameNum, rootFrames.size())));
+        }
+        String hash = DigestUtils.sha1Hex(exceptionType + "\n" + String.join("\n", frames));
+        return new CrashFingerprint(hash, exceptionType, frames);
+    }
+
+    private static String normalizeFrame(String frame) {
+        frame = LAMBDA_PATTERN.matcher(frame).replaceAll(Matcher.quoteReplacement("$$Lambda"));
+        return SYNTHETIC_PATTERN.matcher(frame).replaceAll(Matcher.quoteReplacement("$N"));
+    }
+
+    private static boolean isFrameworkFrame(String frame) {
+        for (String prefix : FRAMEWORK_PREFIXES) {
+            if (frame.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
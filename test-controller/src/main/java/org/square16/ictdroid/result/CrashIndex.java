@@ -0,0 +1,139 @@
+package org.square16.ictdroid.result;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.utils.Config;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent index of unique crashes, keyed by {@link CrashFingerprint} hash.
+ * <p>
+ * Only the first occurrence of a signature is appended to the index file, one line per signature:
+ * <pre>
+ * hash  exceptionType  pkgName  compName  strategy  caseIndex  frame1|frame2|...
+ * </pre>
+ * The whole index is kept in a hash map, so a lookup costs constant time
+ * no matter how many traces have been recorded.
+ */
+@Slf4j
+public class CrashIndex implements Closeable {
+    public static final String FILE_NAME = "crashes.idx";
+    private static CrashIndex sInstance = null;
+
+    private final FileChannel mChannel;
+    private final Map<String, Long> mEntries = new HashMap<>();
+    private long mRecordedCnt = 0;
+
+    public CrashIndex(Path path) throws IOException {
+        if (Files.exists(path)) {
+            load(path);
+        }
+        mChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Get the crash index under the result path, or null if it cannot be opened.
+     *
+     * @return Global crash index
+     */
+    public static synchronized CrashIndex getInstance() {
+        if (sInstance == null) {
+            Path path = Config.getInstance().getResultPath().resolve(FILE_NAME);
+            try {
+                sInstance = new CrashIndex(path);
+            } catch (IOException e) {
+                log.error("Failed to open crash index [{}]", path, e);
+                return null;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(sInstance::close, "CrashIndexCloser"));
+        }
+        return sInstance;
+    }
+
+    private void load(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 7) {
+                    log.warn("Invalid crash index line: {}", line);
+                    continue;
+                }
+                mEntries.putIfAbsent(fields[0], 0L);
+            }
+        }
+        log.info("Loaded {} unique crashes from crash index", mEntries.size());
+    }
+
+    /**
+     * Record a crash.
+     *
+     * @param fingerprint Fingerprint of the trace
+     * @param result      Case result which the trace belongs to
+     * @return true if the crash is never seen before
+     */
+    public synchronized boolean record(CrashFingerprint fingerprint, CaseResult result) {
+        mRecordedCnt++;
+        if (mEntries.computeIfPresent(fingerprint.hash(), (k, v) -> v + 1) != null) {
+            return false;
+        }
+        mEntries.put(fingerprint.hash(), 1L);
+        String line = String.join("\t", fingerprint.hash(), fingerprint.exceptionType(), result.pkgName(),
+                result.compName(), result.strategy(), String.valueOf(result.caseIndex()),
+                String.join("|", fingerprint.frames())) + "\n";
+        try {
+            mChannel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            log.error("Failed to write crash index: {}", line, e);
+        }
+        log.info("Unique crash #{} detected! type={}, hash={}, frames={}", mEntries.size(),
+                fingerprint.exceptionType(), fingerprint.hash(), fingerprint.frames());
+        return true;
+    }
+
+    public synchronized boolean contains(String hash) {
+        return mEntries.containsKey(hash);
+    }
+
+    /**
+     * Get the number of hits of a crash in current session.
+     *
+     * @param hash Fingerprint hash
+     * @return Number of hits, 0 if only loaded from the index file
+     */
+    public synchronized long getHitCount(String hash) {
+        return mEntries.getOrDefault(hash, 0L);
+    }
+
+    public synchronized int getUniqueCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getRecordedCount() {
+        return mRecordedCnt;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (mChannel.isOpen()) {
+                mChannel.force(false);
+                mChannel.close();
+            }
+        } catch (IOException e) {
+            log.error("Failed to close crash index", e);
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+package org.square16.ictdroid.result;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.logcat.utils.LogInfo;
+import org.square16.ictdroid.logcat.utils.LogSegment;
+import org.square16.ictdroid.utils.Config;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only archive of logcat lines, segmented by the running testcase.
+ * <p>
+ * The archive is a directory of two files:
+ * <ul>
+ *     <li><b>logs.dat</b>: deflate-compressed blocks, each block holds lines of one segment</li>
+ *     <li><b>logs.idx</b>: one line per block, <b>key \t offset \t length \t lineCount</b></li>
+ * </ul>
+ * Lines are buffered in one pending block per segment, since lines of several devices are interleaved in pool mode.
+ * A block is written when it is large enough, when it is the least recently appended one of too many pending blocks,
+ * or on reading and closing, so the log of a testcase is usually a single block and fetched with one read.
+ * The index is loaded into memory when opening, entries whose block is torn are dropped.
+ * <p>
+ * A testcase which is run again, e.g. by retrying or resuming, appends more blocks under the same key,
+ * and its log is read as the concatenation of all runs in the order of writing.
+ */
+@Slf4j
+public class LogArchive implements Closeable {
+    public static final String DIR_NAME = "logs";
+    public static final String DATA_FILE = "logs.dat";
+    public static final String INDEX_FILE = "logs.idx";
+    public static final String UNSEGMENTED_KEY = "-";
+    private static final int MAX_BLOCK_SIZE = 1 << 20;
+    private static final int MAX_PENDING_BLOCKS = 32;
+    private static LogArchive sInstance = null;
+
+    private final FileChannel mDataChannel;
+    private final FileChannel mIndexChannel;
+    private final Map<String, List<long[]>> mIndex = new HashMap<>();
+    /**
+     * Segment key -> pending block, in the order of the last append
+     */
+    private final Map<String, PendingBlock> mPendingBlocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private long mRawBytes = 0;
+    private long mCompressedBytes = 0;
+
+    public LogArchive(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        mDataChannel = FileChannel.open(dir.resolve(DATA_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mIndexChannel = FileChannel.open(dir.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        loadIndex(dir.resolve(INDEX_FILE));
+    }
+
+    /**
+     * Get the log archive under the result path, or null if it cannot be opened.
+     *
+     * @return Global log archive
+     */
+    public static synchronized LogArchive getInstance() {
+        if (sInstance == null) {
+            Path dir = Config.getInstance().getResultPath().resolve(DIR_NAME);
+            try {
+                sInstance = new LogArchive(dir);
+            } catch (IOException e) {
+                log.error("Failed to open log archive [{}]", dir, e);
+                return null;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(sInstance::close, "LogArchiveCloser"));
+        }
+        return sInstance;
+    }
+
+    private void loadIndex(Path indexPath) throws IOException {
+        long dataSize = mDataChannel.size();
+        int tornCnt = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                try {
+                    long offset = Long.parseLong(fields[1]);
+                    long length = Long.parseLong(fields[2]);
+                    if (offset + length > dataSize) {
+                        tornCnt++;
+                        continue;
+                    }
+                    mIndex.computeIfAbsent(fields[0], k -> new ArrayList<>()).add(new long[]{offset, length});
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    tornCnt++;
+                }
+            }
+        }
+        if (tornCnt > 0) {
+            log.warn("Dropped {} torn entries in log archive index", tornCnt);
+        }
+    }
+
+    /**
+     * Append a line to the segment of the line.
+     *
+     * @param logInfo Log line, tagged with its segment
+     */
+    public synchronized void append(LogInfo logInfo) {
+        if (logInfo.original == null) {
+            return;
+        }
+        String key = logInfo.segment != null ? logInfo.segment.getKey() : UNSEGMENTED_KEY;
+        PendingBlock block = mPendingBlocks.get(key);
+        if (block == null) {
+            if (mPendingBlocks.size() >= MAX_PENDING_BLOCKS) {
+                // Segments which are not appended for the longest time are usually finished
+                String eldestKey = mPendingBlocks.keySet().iterator().next();
+                flush(eldestKey, mPendingBlocks.remove(eldestKey));
+            }
+            block = new PendingBlock();
+            mPendingBlocks.put(key, block);
+        }
+        byte[] bytes = logInfo.original.getBytes(StandardCharsets.UTF_8);
+        block.data.write(bytes, 0, bytes.length);
+        block.data.write('\n');
+        block.lineCnt++;
+        if (block.data.size() >= MAX_BLOCK_SIZE) {
+            flush(key, mPendingBlocks.remove(key));
+        }
+    }
+
+    /**
+     * Compress and write all pending blocks.
+     */
+    public synchronized void flush() {
+        for (Map.Entry<String, PendingBlock> entry : mPendingBlocks.entrySet()) {
+            flush(entry.getKey(), entry.getValue());
+        }
+        mPendingBlocks.clear();
+    }
+
+    private void flush(String key, PendingBlock block) {
+        if (block == null || block.data.size() == 0 || !mDataChannel.isOpen()) {
+            return;
+        }
+        byte[] raw = block.data.toByteArray();
+        mDeflater.reset();
+        mDeflater.setInput(raw);
+        mDeflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] buf = new byte[8192];
+        while (!mDeflater.finished()) {
+            int len = mDeflater.deflate(buf);
+            compressed.write(buf, 0, len);
+        }
+        try {
+            long offset = mDataChannel.size();
+            mDataChannel.write(ByteBuffer.wrap(compressed.toByteArray()), offset);
+            // The block is written before its index entry
+            String entry = key.replace('\t', ' ').replace('\n', ' ') + "\t" + offset + "\t" +
+                    compressed.size() + "\t" + block.lineCnt + "\n";
+            mIndexChannel.write(ByteBuffer.wrap(entry.getBytes(StandardCharsets.UTF_8)));
+            mIndex.computeIfAbsent(key, k -> new ArrayList<>()).add(new long[]{offset, compressed.size()});
+            mRawBytes += raw.length;
+            mCompressedBytes += compressed.size();
+        } catch (IOException e) {
+            log.error("Failed to write {} log lines of [{}]", block.lineCnt, key, e);
+        }
+    }
+
+    /**
+     * Read the log of a testcase, all runs of the testcase are concatenated.
+     *
+     * @param caseIndex Index of the testcase, or -1 for lines between testcases
+     * @return Log lines separated by '\n', or null if not found
+     */
+    public String read(String pkgName, String compName, String strategy, int caseIndex) {
+        return read(LogSegment.getKey(pkgName, compName, strategy, caseIndex));
+    }
+
+    public synchronized String read(String key) {
+        flush(key, mPendingBlocks.remove(key));
+        List<long[]> blocks = mIndex.get(key);
+        if (blocks == null) {
+            return null;
+        }
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        Inflater inflater = new Inflater();
+        try {
+            for (long[] block : blocks) {
+                ByteBuffer buf = ByteBuffer.allocate((int) block[1]);
+                while (buf.hasRemaining() && mDataChannel.read(buf, block[0] + buf.position()) >= 0) {
+                    // Read until the block is complete
+                }
+                inflater.reset();
+                inflater.setInput(buf.array());
+                byte[] out = new byte[8192];
+                while (!inflater.finished()) {
+                    int len = inflater.inflate(out);
+                    if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("Truncated block at " + block[0]);
+                    }
+                    res.write(out, 0, len);
+                }
+            }
+        } catch (IOException | DataFormatException e) {
+            log.error("Failed to read log of [{}]", key, e);
+            return null;
+        } finally {
+            inflater.end();
+        }
+        return res.toString(StandardCharsets.UTF_8);
+    }
+
+    public synchronized void logStats() {
+        log.info("Log archive: {} segments, {} KB raw, {} KB compressed", mIndex.size(),
+                mRawBytes / 1024, mCompressedBytes / 1024);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (mDataChannel.isOpen()) {
+                flush();
+                mDataChannel.force(false);
+                mIndexChannel.force(false);
+            }
+            mDataChannel.close();
+            mIndexChannel.close();
+            mDeflater.end();
+        } catch (IOException e) {
+            log.error("Failed to close log archive", e);
+        }
+    }
+
+    private static class PendingBlock {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private int lineCnt = 0;
+    }
+}
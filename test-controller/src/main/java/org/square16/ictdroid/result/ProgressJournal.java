@@ -0,0 +1,194 @@
+package org.square16.ictdroid.result;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.utils.Config;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only journal of the testing progress, used by --resume.
+ * <p>
+ * Each line is one record, fields separated by tab:
+ * <pre>
+ * C  apkPath  compName  strategy  caseIndex   (a testcase is finished)
+ * U  apkPath  compName  strategy              (all testcases of a strategy are finished)
+ * A  apkPath                                  (the APK is finished)
+ * </pre>
+ * Records are written to the OS immediately, so they survive a JVM crash,
+ * while fsync is batched to keep the cost per testcase negligible.
+ */
+@Slf4j
+public class ProgressJournal implements Closeable {
+    public static final String FILE_NAME = "progress.journal";
+    private static final String TYPE_CASE = "C";
+    private static final String TYPE_UNIT = "U";
+    private static final String TYPE_APK = "A";
+    private static final int FSYNC_BATCH_SIZE = 128;
+    private static final long FSYNC_INTERVAL_MS = 1000;
+    private static ProgressJournal sInstance = null;
+
+    private final Path mPath;
+    private final FileChannel mChannel;
+    private final Map<String, Integer> mNextCaseIndex = new HashMap<>();
+    private final Set<String> mFinishedUnits = new HashSet<>();
+    private final Set<String> mFinishedApks = new HashSet<>();
+    private int mUnsyncedCnt = 0;
+    private long mLastSyncAt = System.currentTimeMillis();
+
+    public ProgressJournal(Path path, boolean replay) throws IOException {
+        mPath = path;
+        if (replay && Files.exists(path)) {
+            replay();
+        } else if (Files.exists(path)) {
+            // A new run, keep the journal of the last run aside
+            Path backupPath = path.resolveSibling(FILE_NAME + "." + System.currentTimeMillis());
+            Files.move(path, backupPath);
+            log.info("Moved the last progress journal to [{}]", backupPath);
+        }
+        mChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (mChannel.size() > 0 && !endsWithNewLine()) {
+            // The last record is torn by a crash, terminate it
+            mChannel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+    }
+
+    /**
+     * Get the journal under the result path, or null if it cannot be opened.
+     *
+     * @return Global journal
+     */
+    public static synchronized ProgressJournal getInstance() {
+        if (sInstance == null) {
+            Config config = Config.getInstance();
+            Path path = config.getResultPath().resolve(FILE_NAME);
+            try {
+                sInstance = new ProgressJournal(path, Boolean.TRUE.equals(config.getResume()));
+            } catch (IOException e) {
+                log.error("Failed to open progress journal [{}]", path, e);
+                return null;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(sInstance::close, "JournalCloser"));
+        }
+        return sInstance;
+    }
+
+    private boolean endsWithNewLine() throws IOException {
+        try (FileChannel channel = FileChannel.open(mPath, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(1);
+            channel.read(buf, channel.size() - 1);
+            return buf.get(0) == '\n';
+        }
+    }
+
+    private void replay() throws IOException {
+        int recordCnt = 0;
+        try (BufferedReader reader = Files.newBufferedReader(mPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                try {
+                    switch (fields[0]) {
+                        case TYPE_CASE -> {
+                            int caseIndex = Integer.parseInt(fields[4]);
+                            mNextCaseIndex.merge(getUnitKey(fields[1], fields[2], fields[3]), caseIndex + 1, Math::max);
+                        }
+                        case TYPE_UNIT -> mFinishedUnits.add(getUnitKey(fields[1], fields[2], fields[3]));
+                        case TYPE_APK -> mFinishedApks.add(fields[1]);
+                        default -> {
+                            log.warn("Unknown journal record: {}", line);
+                            continue;
+                        }
+                    }
+                    recordCnt++;
+                } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                    // Torn record
+                    log.warn("Invalid journal record: {}", line);
+                }
+            }
+        }
+        log.info("Replayed {} journal records: {} apks and {} strategies are finished",
+                recordCnt, mFinishedApks.size(), mFinishedUnits.size());
+    }
+
+    private static String getUnitKey(String apkPath, String compName, String strategy) {
+        return apkPath + "\t" + compName + "\t" + strategy;
+    }
+
+    private void append(String record) {
+        try {
+            mChannel.write(ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8)));
+            mUnsyncedCnt++;
+            if (mUnsyncedCnt >= FSYNC_BATCH_SIZE || System.currentTimeMillis() - mLastSyncAt >= FSYNC_INTERVAL_MS) {
+                sync();
+            }
+        } catch (IOException e) {
+            log.error("Failed to write progress journal: {}", record, e);
+        }
+    }
+
+    private void sync() throws IOException {
+        mChannel.force(false);
+        mUnsyncedCnt = 0;
+        mLastSyncAt = System.currentTimeMillis();
+    }
+
+    public synchronized void caseFinished(Path apkPath, String compName, String strategy, int caseIndex) {
+        String unitKey = getUnitKey(apkPath.toString(), compName, strategy);
+        mNextCaseIndex.merge(unitKey, caseIndex + 1, Math::max);
+        append(TYPE_CASE + "\t" + unitKey + "\t" + caseIndex);
+    }
+
+    public synchronized void unitFinished(Path apkPath, String compName, String strategy) {
+        String unitKey = getUnitKey(apkPath.toString(), compName, strategy);
+        mFinishedUnits.add(unitKey);
+        append(TYPE_UNIT + "\t" + unitKey);
+    }
+
+    public synchronized void apkFinished(Path apkPath) {
+        mFinishedApks.add(apkPath.toString());
+        append(TYPE_APK + "\t" + apkPath);
+    }
+
+    public synchronized boolean isUnitFinished(Path apkPath, String compName, String strategy) {
+        return mFinishedUnits.contains(getUnitKey(apkPath.toString(), compName, strategy));
+    }
+
+    public synchronized boolean isApkFinished(Path apkPath) {
+        return mFinishedApks.contains(apkPath.toString());
+    }
+
+    /**
+     * Get the index of the first testcase which is not finished.
+     *
+     * @return Next testcase index, 0 if nothing is recorded
+     */
+    public synchronized int getNextCaseIndex(Path apkPath, String compName, String strategy) {
+        return mNextCaseIndex.getOrDefault(getUnitKey(apkPath.toString(), compName, strategy), 0);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!mChannel.isOpen()) {
+            return;
+        }
+        try {
+            sync();
+            mChannel.close();
+        } catch (IOException e) {
+            log.error("Failed to close progress journal", e);
+        }
+    }
+}
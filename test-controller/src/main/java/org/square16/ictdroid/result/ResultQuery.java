@@ -0,0 +1,139 @@
+package org.square16.ictdroid.result;
+
+import org.square16.ictdroid.rpc.CompStateMonitor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Query the result store.
+ * <pre>
+ * java -cp ICTDroid.jar org.square16.ictdroid.result.ResultQuery &lt;result-path&gt; count
+ * java -cp ICTDroid.jar org.square16.ictdroid.result.ResultQuery &lt;result-path&gt; crashes &lt;package&gt;
+ * java -cp ICTDroid.jar org.square16.ictdroid.result.ResultQuery &lt;result-path&gt; histogram [package]
+ * java -cp ICTDroid.jar org.square16.ictdroid.result.ResultQuery &lt;result-path&gt; log &lt;package&gt; &lt;component&gt; &lt;strategy&gt; &lt;case-index&gt;
+ * </pre>
+ */
+public class ResultQuery {
+    private final ResultStore mStore;
+
+    public ResultQuery(ResultStore store) {
+        mStore = store;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: ResultQuery <result-path> count | crashes <package> | histogram [package] | " +
+                    "log <package> <component> <strategy> <case-index>");
+            return;
+        }
+        if ("log".equals(args[1])) {
+            printCaseLog(Paths.get(args[0]), args);
+            return;
+        }
+        Path storeDir = Paths.get(args[0]).resolve(ResultStore.DIR_NAME);
+        try (ResultStore store = new ResultStore(storeDir)) {
+            ResultQuery query = new ResultQuery(store);
+            long beginTime = System.currentTimeMillis();
+            switch (args[1]) {
+                case "count" -> System.out.println(store.size());
+                case "crashes" -> {
+                    if (args.length < 3) {
+                        System.out.println("Package name is required");
+                        return;
+                    }
+                    for (CaseResult result : query.findCrashes(args[2])) {
+                        // The first line of a trace is the exception line
+                        String trace = result.trace();
+                        System.out.printf("%s\t%s\tcase=%d\t%s\t%s%n", result.compName(), result.strategy(),
+                                result.caseIndex(), CompStateMonitor.getStateName(result.state()),
+                                trace == null ? "" : trace.lines().findFirst().orElse(""));
+                    }
+                }
+                case "histogram" -> {
+                    Map<String, Map<String, Long>> histogram = query.getStateHistogram(args.length > 2 ? args[2] : null);
+                    histogram.forEach((compName, states) -> System.out.println(compName + "\t" + states));
+                }
+                default -> {
+                    System.out.println("Unknown command: " + args[1]);
+                    return;
+                }
+            }
+            System.err.printf("Scanned %d records in %d ms%n", store.size(), System.currentTimeMillis() - beginTime);
+        }
+    }
+
+    private static void printCaseLog(Path resultPath, String[] args) throws IOException {
+        if (args.length < 6) {
+            System.out.println("Package, component, strategy and case index are required");
+            return;
+        }
+        try (LogArchive archive = new LogArchive(resultPath.resolve(LogArchive.DIR_NAME))) {
+            long beginTime = System.currentTimeMillis();
+            String caseLog = archive.read(args[2], args[3], args[4], Integer.parseInt(args[5]));
+            if (caseLog == null) {
+                System.out.println("No log of the testcase");
+                return;
+            }
+            System.out.print(caseLog);
+            System.err.printf("Read case log in %d ms%n", System.currentTimeMillis() - beginTime);
+        }
+    }
+
+    /**
+     * Find all crashed cases of a package.
+     *
+     * @param pkgName Package name
+     * @return Crashed cases in recorded order
+     */
+    public List<CaseResult> findCrashes(String pkgName) {
+        List<CaseResult> results = new ArrayList<>();
+        int pkgId = mStore.findStringId(pkgName);
+        if (pkgId < 0) {
+            return results;
+        }
+        mStore.scan(record -> {
+            if (record.pkgId == pkgId && record.state == CompStateMonitor.STATE_APP_CRASHED) {
+                results.add(mStore.decode(record));
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Count the final states of each component.
+     *
+     * @param pkgName Package name, or null for all packages
+     * @return Component name -> state name -> count
+     */
+    public Map<String, Map<String, Long>> getStateHistogram(String pkgName) {
+        Map<String, Map<String, Long>> histogram = new TreeMap<>();
+        int pkgId = pkgName == null ? -1 : mStore.findStringId(pkgName);
+        if (pkgName != null && pkgId < 0) {
+            return histogram;
+        }
+        Map<Integer, long[]> counts = new HashMap<>();
+        mStore.scan(record -> {
+            if (pkgName == null || record.pkgId == pkgId) {
+                counts.computeIfAbsent(record.compId, k -> new long[CompStateMonitor.STATE_SUCCESS + 1])
+                        [record.state]++;
+            }
+        });
+        counts.forEach((compId, stateCounts) -> {
+            Map<String, Long> states = new TreeMap<>();
+            for (int state = 0; state < stateCounts.length; state++) {
+                if (stateCounts[state] > 0) {
+                    states.put(CompStateMonitor.getStateName(state), stateCounts[state]);
+                }
+            }
+            histogram.put(mStore.getString(compId), states);
+        });
+        return histogram;
+    }
+}
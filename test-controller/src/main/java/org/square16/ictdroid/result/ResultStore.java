@@ -0,0 +1,285 @@
+package org.square16.ictdroid.result;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.utils.Config;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Append-only store of {@link CaseResult}s.
+ * <p>
+ * The store is a directory of three files:
+ * <ul>
+ *     <li><b>cases.dat</b>: fixed-size records, so the i-th result is at offset i * RECORD_SIZE</li>
+ *     <li><b>strings.dict</b>: dictionary of strings (package, component, strategy, activity), one per line,
+ *     the id of a string is its line number</li>
+ *     <li><b>traces.dat</b>: length-prefixed stack traces referenced by records</li>
+ * </ul>
+ * Strings in records are dictionary ids, so scanning millions of records for a package or a state
+ * only compares integers. Dictionary entries and traces are written before the record referring to them,
+ * and a torn record at the end is dropped when opening, so the store stays consistent after a crash.
+ */
+@Slf4j
+public class ResultStore implements Closeable {
+    public static final String DIR_NAME = "cases";
+    public static final String CASES_FILE = "cases.dat";
+    public static final String DICT_FILE = "strings.dict";
+    public static final String TRACES_FILE = "traces.dat";
+    /**
+     * timestamp(8) pkgId(4) compId(4) strategyId(4) apkIndex(4) compIndex(4) caseIndex(4)
+     * focusedId(4) traceOffset(8) state(1) padding(3)
+     */
+    public static final int RECORD_SIZE = 48;
+    private static final int SCAN_BATCH = 4096;
+    private static ResultStore sInstance = null;
+
+    private final FileChannel mCasesChannel;
+    private final FileChannel mDictChannel;
+    private final FileChannel mTracesChannel;
+    private final List<String> mStrings = new ArrayList<>();
+    private final Map<String, Integer> mStringIds = new HashMap<>();
+    private long mSize;
+
+    public ResultStore(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        mCasesChannel = FileChannel.open(dir.resolve(CASES_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mDictChannel = FileChannel.open(dir.resolve(DICT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        mTracesChannel = FileChannel.open(dir.resolve(TRACES_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadDict(dir.resolve(DICT_FILE));
+
+        long casesSize = mCasesChannel.size();
+        if (casesSize % RECORD_SIZE != 0) {
+            log.warn("Dropped a torn record at the end of result store");
+            casesSize -= casesSize % RECORD_SIZE;
+            mCasesChannel.truncate(casesSize);
+        }
+        mSize = casesSize / RECORD_SIZE;
+    }
+
+    /**
+     * Get the result store under the result path, or null if it cannot be opened.
+     *
+     * @return Global result store
+     */
+    public static synchronized ResultStore getInstance() {
+        if (sInstance == null) {
+            Path dir = Config.getInstance().getResultPath().resolve(DIR_NAME);
+            try {
+                sInstance = new ResultStore(dir);
+            } catch (IOException e) {
+                log.error("Failed to open result store [{}]", dir, e);
+                return null;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(sInstance::close, "ResultStoreCloser"));
+        }
+        return sInstance;
+    }
+
+    private void loadDict(Path dictPath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(dictPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                mStringIds.putIfAbsent(line, mStrings.size());
+                mStrings.add(line);
+            }
+        }
+    }
+
+    private int getStringId(String str) throws IOException {
+        if (str == null) {
+            return -1;
+        }
+        String normalized = str.replace('\n', ' ').replace('\r', ' ');
+        Integer id = mStringIds.get(normalized);
+        if (id == null) {
+            mDictChannel.write(ByteBuffer.wrap((normalized + "\n").getBytes(StandardCharsets.UTF_8)));
+            id = mStrings.size();
+            mStrings.add(normalized);
+            mStringIds.put(normalized, id);
+        }
+        return id;
+    }
+
+    /**
+     * Get the id of a string in the dictionary.
+     *
+     * @param str String to find
+     * @return Id, or -1 if the string is not in the store
+     */
+    public synchronized int findStringId(String str) {
+        return mStringIds.getOrDefault(str, -1);
+    }
+
+    public synchronized String getString(int id) {
+        return id < 0 || id >= mStrings.size() ? null : mStrings.get(id);
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public synchronized void append(CaseResult result) {
+        try {
+            long traceOffset = -1;
+            if (result.trace() != null) {
+                byte[] traceBytes = result.trace().getBytes(StandardCharsets.UTF_8);
+                traceOffset = mTracesChannel.size();
+                ByteBuffer traceBuf = ByteBuffer.allocate(4 + traceBytes.length);
+                traceBuf.putInt(traceBytes.length).put(traceBytes).flip();
+                mTracesChannel.write(traceBuf, traceOffset);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+            buf.putLong(result.timestamp());
+            buf.putInt(getStringId(result.pkgName()));
+            buf.putInt(getStringId(result.compName()));
+            buf.putInt(getStringId(result.strategy()));
+            buf.putInt(result.apkIndex());
+            buf.putInt(result.compIndex());
+            buf.putInt(result.caseIndex());
+            buf.putInt(getStringId(result.focusedActivity()));
+            buf.putLong(traceOffset);
+            buf.put((byte) result.state());
+            buf.position(RECORD_SIZE).flip();
+            mCasesChannel.write(buf, mSize * RECORD_SIZE);
+            mSize++;
+        } catch (IOException e) {
+            log.error("Failed to append case result: {}", result, e);
+        }
+    }
+
+    /**
+     * Scan all records in order, without decoding strings or traces.
+     *
+     * @param consumer Record consumer
+     */
+    public void scan(Consumer<Record> consumer) {
+        long size = size();
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE * SCAN_BATCH);
+        Record record = new Record();
+        try {
+            for (long begin = 0; begin < size; begin += SCAN_BATCH) {
+                buf.clear();
+                buf.limit((int) (Math.min(SCAN_BATCH, size - begin) * RECORD_SIZE));
+                while (buf.hasRemaining()) {
+                    if (mCasesChannel.read(buf, begin * RECORD_SIZE + buf.position()) < 0) {
+                        break;
+                    }
+                }
+                buf.flip();
+                for (long i = begin; buf.remaining() >= RECORD_SIZE; i++) {
+                    record.read(i, buf);
+                    consumer.accept(record);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to scan result store", e);
+        }
+    }
+
+    /**
+     * Decode a record into a {@link CaseResult}.
+     *
+     * @param record Record from {@link #scan(Consumer)}
+     * @return Decoded case result
+     */
+    public CaseResult decode(Record record) {
+        return new CaseResult(record.timestamp, getString(record.pkgId), getString(record.compId),
+                getString(record.strategyId), record.apkIndex, record.compIndex, record.caseIndex,
+                record.state, getString(record.focusedId), readTrace(record.traceOffset));
+    }
+
+    public CaseResult get(long index) {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        try {
+            mCasesChannel.read(buf, index * RECORD_SIZE);
+        } catch (IOException e) {
+            log.error("Failed to read case result #{}", index, e);
+            return null;
+        }
+        buf.flip();
+        Record record = new Record();
+        record.read(index, buf);
+        return decode(record);
+    }
+
+    private String readTrace(long offset) {
+        if (offset < 0) {
+            return null;
+        }
+        try {
+            ByteBuffer lenBuf = ByteBuffer.allocate(4);
+            mTracesChannel.read(lenBuf, offset);
+            ByteBuffer traceBuf = ByteBuffer.allocate(lenBuf.flip().getInt());
+            mTracesChannel.read(traceBuf, offset + 4);
+            return new String(traceBuf.array(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.error("Failed to read trace at {}", offset, e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (mCasesChannel.isOpen()) {
+                mDictChannel.force(false);
+                mTracesChannel.force(false);
+                mCasesChannel.force(false);
+            }
+            mDictChannel.close();
+            mTracesChannel.close();
+            mCasesChannel.close();
+        } catch (IOException e) {
+            log.error("Failed to close result store", e);
+        }
+    }
+
+    /**
+     * Raw record, reused during scanning.
+     */
+    public static class Record {
+        public long index;
+        public long timestamp;
+        public int pkgId;
+        public int compId;
+        public int strategyId;
+        public int apkIndex;
+        public int compIndex;
+        public int caseIndex;
+        public int focusedId;
+        public long traceOffset;
+        public int state;
+
+        private void read(long index, ByteBuffer buf) {
+            int begin = buf.position();
+            this.index = index;
+            timestamp = buf.getLong();
+            pkgId = buf.getInt();
+            compId = buf.getInt();
+            strategyId = buf.getInt();
+            apkIndex = buf.getInt();
+            compIndex = buf.getInt();
+            caseIndex = buf.getInt();
+            focusedId = buf.getInt();
+            traceOffset = buf.getLong();
+            state = buf.get();
+            buf.position(begin + RECORD_SIZE);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.square16.ictdroid.rpc;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.Constants;
+import org.square16.ictdroid.utils.ADBInterface;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks the focused activity through the events log buffer of the device,
+ * so that {@link CompStateMonitor} does not need to poll <b>dumpsys window</b>.
+ * <p>
+ * Focus changes are reported by <b>wm_set_resumed_activity</b> (or <b>am_focused_activity</b> on older systems)
+ * and <b>input_focus</b>, which also covers the "Application Error" dialog.
+ * Crashes and finished activities are reported by <b>am_crash</b> and <b>wm_finish_activity</b>.
+ */
+@Slf4j
+public class ActivityEventTracker {
+    public static final int EVENT_FOCUS = 0;
+    public static final int EVENT_CRASH = 1;
+    public static final int EVENT_FINISH = 2;
+
+    private static final String[] EVENT_TAGS = {
+            "wm_set_resumed_activity", "am_set_resumed_activity", "am_focused_activity", "input_focus",
+            "am_crash", "wm_finish_activity", "am_finish_activity"
+    };
+    private static final Pattern EVENT_PATTERN = Pattern.compile(
+            "^[VDIWEF]/(?<tag>[^(]+?)\\s*\\(\\s*\\d+\\):\\s*\\[(?<fields>.*)]\\s*$"
+    );
+    private static final Pattern INPUT_FOCUS_PATTERN = Pattern.compile(
+            "^Focus entering \\S+ (?<name>.+?)(?: \\(server\\))?(?:,reason=.*)?$"
+    );
+
+    private final ADBInterface mAdb;
+    private final CompStateMonitor mMonitor;
+    private volatile Process mProcess;
+    private volatile String mFocusedActivity;
+    private volatile long mLastFocusAt = 0;
+    private int mRestartCnt = 0;
+
+    public ActivityEventTracker(ADBInterface adb, CompStateMonitor monitor) {
+        mAdb = adb;
+        mMonitor = monitor;
+    }
+
+    /**
+     * Start the event stream if it is not running.
+     *
+     * @return true if the event stream is running, false otherwise
+     */
+    public synchronized boolean ensureStarted() {
+        if (isAlive()) {
+            return true;
+        }
+        if (mRestartCnt >= Constants.EVENT_STREAM_MAX_RESTART) {
+            return false;
+        }
+        if (mProcess != null) {
+            log.warn("Activity event stream exited, restarting");
+        }
+        mRestartCnt++;
+        Process process = mAdb.getEventLogProcess(EVENT_TAGS);
+        if (process == null) {
+            log.error("Failed to start activity event stream, use dumpsys instead");
+            return false;
+        }
+        mProcess = process;
+        Thread readerThread = new Thread(() -> readEvents(process), "ActivityEventTracker");
+        readerThread.setDaemon(true);
+        readerThread.start();
+        return true;
+    }
+
+    public boolean isAlive() {
+        Process process = mProcess;
+        return process != null && process.isAlive();
+    }
+
+    public void close() {
+        Process process = mProcess;
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Forget the focused activity, e.g. before starting a new case.
+     */
+    public void resetFocus() {
+        mFocusedActivity = null;
+        mLastFocusAt = 0;
+    }
+
+    /**
+     * @return Latest focused activity reported by the event stream, or null if unknown
+     */
+    public String getFocusedActivity() {
+        return mFocusedActivity;
+    }
+
+    /**
+     * @return Time when the latest focus change is received, or 0 if none since {@link #resetFocus()}
+     */
+    public long getLastFocusAt() {
+        return mLastFocusAt;
+    }
+
+    private void readEvents(Process process) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Event event = parse(line);
+                if (event == null) {
+                    continue;
+                }
+                log.debug("Activity event: {}", event);
+                if (event.type() == EVENT_FOCUS) {
+                    mFocusedActivity = event.name();
+                    mLastFocusAt = System.currentTimeMillis();
+                    mMonitor.onFocusEvent(event.name());
+                } else if (event.type() == EVENT_CRASH) {
+                    mMonitor.onCrashEvent(event.name());
+                } else {
+                    mMonitor.onFinishEvent(event.name());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("IOException when reading activity event stream", e);
+        }
+        process.destroy();
+    }
+
+    /**
+     * Parse an event line in <b>brief</b> format.
+     *
+     * @param line Event line
+     * @return Parsed event, or null if not interested
+     */
+    static Event parse(String line) {
+        Matcher matcher = EVENT_PATTERN.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String tag = matcher.group("tag");
+        String[] fields = matcher.group("fields").split(",");
+        switch (tag) {
+            case "wm_set_resumed_activity", "am_set_resumed_activity", "am_focused_activity" -> {
+                // [user, component, reason]
+                return fields.length >= 2 ? new Event(EVENT_FOCUS, CompStateMonitor.normalizeCompName(fields[1])) : null;
+            }
+            case "input_focus" -> {
+                Matcher focusMatcher = INPUT_FOCUS_PATTERN.matcher(matcher.group("fields"));
+                if (!focusMatcher.matches()) {
+                    // Focus leaving or focus request
+                    return null;
+                }
+                return new Event(EVENT_FOCUS, CompStateMonitor.normalizeCompName(focusMatcher.group("name")));
+            }
+            case "am_crash" -> {
+                // [user, pid, process, ...] or [pid, process, ...] on older systems
+                for (int i = 0; i < Math.min(fields.length, 3); i++) {
+                    if (!fields[i].isEmpty() && !Character.isDigit(fields[i].charAt(0))) {
+                        return new Event(EVENT_CRASH, fields[i]);
+                    }
+                }
+                return null;
+            }
+            case "wm_finish_activity", "am_finish_activity" -> {
+                // [user, token, task, component, reason]
+                for (String field : fields) {
+                    if (field.contains("/")) {
+                        return new Event(EVENT_FINISH, CompStateMonitor.normalizeCompName(field));
+                    }
+                }
+                return null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    record Event(int type, String name) {
+    }
+}
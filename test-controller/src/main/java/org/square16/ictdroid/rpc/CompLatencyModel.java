@@ -0,0 +1,253 @@
+package org.square16.ictdroid.rpc;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.Constants;
+import org.square16.ictdroid.utils.Config;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-component latency distributions learned from previous cases, used by {@link CompStateMonitor}
+ * to derive the deadlines of a case instead of the global constants.
+ * <p>
+ * Two kinds of samples are kept for each component and for each package:
+ * <ul>
+ *     <li>display latency: time from the case start to the component being displayed</li>
+ *     <li>crash delay: time from the component being displayed to the crash</li>
+ * </ul>
+ * Components with too few samples use the distribution of the package, then the global constants.
+ * The start timeout is learned from display latencies, while the display window is never shorter than
+ * {@link Constants#TIME_DISPLAY_REQUIRE_MS} and only widened by crash delays.
+ * The model is saved to {@value FILE_NAME} under result path and loaded on the next run.
+ */
+@Slf4j
+public class CompLatencyModel {
+    public static final String FILE_NAME = "latency.json";
+    private static CompLatencyModel sInstance = null;
+
+    private final Path mPath;
+    private final Map<String, Stats> mStats = new HashMap<>();
+    private boolean mIsDirty = false;
+
+    public CompLatencyModel(Path path) {
+        mPath = path;
+        if (path != null && Files.exists(path)) {
+            load();
+        }
+    }
+
+    /**
+     * Get the latency model under result path, or null if adaptive timeout is disabled.
+     *
+     * @return Global latency model
+     */
+    public static synchronized CompLatencyModel getInstance() {
+        Config config = Config.getInstance();
+        if (sInstance == null && !Boolean.TRUE.equals(config.getFixedTimeout())) {
+            Path path = config.getResultPath() != null ? config.getResultPath().resolve(FILE_NAME) : null;
+            sInstance = new CompLatencyModel(path);
+            Runtime.getRuntime().addShutdownHook(new Thread(sInstance::save, "CompLatencyModelSaver"));
+        }
+        return sInstance;
+    }
+
+    private void load() {
+        try {
+            JSONObject root = JSON.parseObject(Files.readString(mPath, StandardCharsets.UTF_8));
+            JSONObject statsObj = root.getJSONObject("stats");
+            if (statsObj == null) {
+                return;
+            }
+            for (String key : statsObj.keySet()) {
+                JSONObject obj = statsObj.getJSONObject(key);
+                Stats stats = new Stats();
+                fillSamples(stats.displayLatencies, obj.getJSONArray("display"));
+                fillSamples(stats.crashDelays, obj.getJSONArray("crash"));
+                stats.timeoutCnt = obj.getIntValue("timeout");
+                mStats.put(key, stats);
+            }
+            log.info("Loaded latency model of {} components and packages from [{}]", mStats.size(), mPath);
+        } catch (Exception e) {
+            log.warn("Failed to load latency model [{}], start from empty", mPath, e);
+            mStats.clear();
+        }
+    }
+
+    private static void fillSamples(Deque<Long> samples, JSONArray arr) {
+        if (arr == null) {
+            return;
+        }
+        for (int i = 0; i < arr.size(); i++) {
+            addSample(samples, arr.getLongValue(i));
+        }
+    }
+
+    private static void addSample(Deque<Long> samples, long sample) {
+        samples.addLast(sample);
+        while (samples.size() > Constants.LATENCY_SAMPLE_NUM) {
+            samples.removeFirst();
+        }
+    }
+
+    /**
+     * Save the model to result path if changed.
+     */
+    public synchronized void save() {
+        if (mPath == null || !mIsDirty) {
+            return;
+        }
+        JSONObject statsObj = new JSONObject();
+        for (Map.Entry<String, Stats> entry : mStats.entrySet()) {
+            JSONObject obj = new JSONObject();
+            obj.put("display", entry.getValue().displayLatencies);
+            obj.put("crash", entry.getValue().crashDelays);
+            obj.put("timeout", entry.getValue().timeoutCnt);
+            statsObj.put(entry.getKey(), obj);
+        }
+        JSONObject root = new JSONObject();
+        root.put("stats", statsObj);
+        Path tmpPath = mPath.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            Files.writeString(tmpPath, root.toJSONString(), StandardCharsets.UTF_8);
+            Files.move(tmpPath, mPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            mIsDirty = false;
+        } catch (IOException e) {
+            log.error("Failed to save latency model [{}]", mPath, e);
+        }
+    }
+
+    private Stats getStats(String key) {
+        return mStats.computeIfAbsent(key, k -> new Stats());
+    }
+
+    private static String getPkgName(String compName) {
+        int idx = compName.indexOf('/');
+        return idx >= 0 ? compName.substring(0, idx) : compName;
+    }
+
+    public synchronized void onDisplayed(String compName, long latencyMs) {
+        addSample(getStats(compName).displayLatencies, latencyMs);
+        addSample(getStats(getPkgName(compName)).displayLatencies, latencyMs);
+        mIsDirty = true;
+    }
+
+    public synchronized void onCrashAfterDisplayed(String compName, long delayMs) {
+        addSample(getStats(compName).crashDelays, delayMs);
+        addSample(getStats(getPkgName(compName)).crashDelays, delayMs);
+        mIsDirty = true;
+    }
+
+    /**
+     * Record a case which is not displayed within its learned start timeout.
+     * Each one doubles the learned start timeout of the component, up to the default one,
+     * so a slow start does not repeat on the following cases.
+     *
+     * @param compName Component name
+     */
+    public synchronized void onTimeout(String compName) {
+        getStats(compName).timeoutCnt++;
+        mIsDirty = true;
+    }
+
+    /**
+     * Record a case which succeeds within its learned start timeout,
+     * so the start timeout widened by {@link #onTimeout(String)} shrinks back one step.
+     *
+     * @param compName Component name
+     */
+    public synchronized void onSuccess(String compName) {
+        Stats stats = mStats.get(compName);
+        if (stats != null && stats.timeoutCnt > 0) {
+            stats.timeoutCnt--;
+            mIsDirty = true;
+        }
+    }
+
+    /**
+     * Compute the deadlines of a component from its latency distribution.
+     *
+     * @param compName Component name, in <b>package/class</b> format
+     * @return Deadlines of the component, or the default one if not enough samples
+     */
+    public synchronized Deadlines getDeadlines(String compName) {
+        Stats stats = mStats.get(compName);
+        if (stats == null || stats.displayLatencies.size() < Constants.LATENCY_MIN_SAMPLE_NUM) {
+            stats = mStats.get(getPkgName(compName));
+        }
+        if (stats == null || stats.displayLatencies.size() < Constants.LATENCY_MIN_SAMPLE_NUM) {
+            return Deadlines.DEFAULT;
+        }
+        long[] displayLatencies = toSortedArray(stats.displayLatencies);
+        long startTimeout = (long) (percentile(displayLatencies, Constants.LATENCY_PERCENTILE)
+                * Constants.LATENCY_MARGIN) + Constants.COMP_CHECK_INTERVAL;
+        startTimeout = clamp(startTimeout, Constants.TIMEOUT_START_MIN_MS, Constants.TIMEOUT_START_MAX_MS);
+        Stats compStats = mStats.get(compName);
+        if (compStats != null && compStats.timeoutCnt > 0 && startTimeout < Constants.TIMEOUT_START_MS) {
+            startTimeout = Math.min(startTimeout << Math.min(compStats.timeoutCnt, 8), Constants.TIMEOUT_START_MS);
+        }
+
+        // The display window is for observing crashes, it is only widened by learned crash delays
+        long displayRequire = Constants.TIME_DISPLAY_REQUIRE_MS;
+        if (!stats.crashDelays.isEmpty()) {
+            long crashDelay = (long) (percentile(toSortedArray(stats.crashDelays), Constants.LATENCY_CRASH_PERCENTILE)
+                    * Constants.LATENCY_MARGIN);
+            displayRequire = clamp(crashDelay, Constants.TIME_DISPLAY_REQUIRE_MS, Constants.TIME_DISPLAY_REQUIRE_MAX_MS);
+        }
+
+        long checkInterval = clamp(percentile(displayLatencies, 0.5) / 4, Constants.COMP_CHECK_INTERVAL_MIN,
+                Constants.COMP_CHECK_INTERVAL);
+        return new Deadlines(startTimeout, displayRequire, checkInterval);
+    }
+
+    private static long[] toSortedArray(Deque<Long> samples) {
+        long[] arr = samples.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(arr);
+        return arr;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted samples.
+     */
+    static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static long clamp(long val, long min, long max) {
+        return Math.max(min, Math.min(max, val));
+    }
+
+    /**
+     * Deadlines of a case.
+     *
+     * @param startTimeoutMs   Max time to wait for the component being displayed
+     * @param displayRequireMs Time the component should keep displayed to be treated as success
+     * @param checkIntervalMs  Interval of dumpsys checks
+     */
+    public record Deadlines(long startTimeoutMs, long displayRequireMs, long checkIntervalMs) {
+        public static final Deadlines DEFAULT = new Deadlines(
+                Constants.TIMEOUT_START_MS, Constants.TIME_DISPLAY_REQUIRE_MS, Constants.COMP_CHECK_INTERVAL);
+
+        public boolean isDefault() {
+            return this.equals(DEFAULT);
+        }
+    }
+
+    private static class Stats {
+        private final Deque<Long> displayLatencies = new ArrayDeque<>();
+        private final Deque<Long> crashDelays = new ArrayDeque<>();
+        private int timeoutCnt = 0;
+    }
+}
@@ -1,7 +1,10 @@
 package org.square16.ictdroid.rpc;
 
+import com.alibaba.fastjson.JSONObject;
 import lombok.extern.slf4j.Slf4j;
 import org.square16.ictdroid.Constants;
+import org.square16.ictdroid.logcat.LogcatMonitor;
+import org.square16.ictdroid.rpc.interfaces.IRPCHandler;
 import org.square16.ictdroid.utils.ADBInterface;
 import org.square16.ictdroid.utils.CompModel;
 import org.square16.ictdroid.utils.Config;
@@ -25,20 +28,61 @@ public class CompStateMonitor {
     public static int STATE_JUMPED = 9;
     public static int STATE_SUCCESS = 10;
 
-    private final ADBInterface adb = ADBInterface.getInstance();
+    private static final Pattern CURR_FOCUS_PATTERN = Pattern.compile(
+            "(?m)^\\s*mCurrentFocus=(?<type>[^{]+)\\{(?<id>\\S+)\\s+" +
+                    "(?<user>\\S+)\\s+(?<compName>[^}]+)}$"
+    );
+    private static final Pattern FOCUSED_APP_PATTERN = Pattern.compile(
+            "(?m)^\\s*mFocusedApp=(?<tokenType>[^{]+)\\{(?<outTokenId>\\S+)\\s+" +
+                    "token=Token\\{(?<tokenId>\\S+)\\s+(?<recordType>[^{]+)\\{" +
+                    "(?<recordId>\\S+)\\s+(?<user>\\S+)\\s+(?<compName>\\S+)\\s+(?<tName>[^}]+)}}}$"
+    );
+    private static final Pattern LAST_CLOSING_PATTERN = Pattern.compile(
+            "(?m)^\\s*mLastClosingApp=(?<tokenType>[^{]+)\\{(?<outTokenId>\\S+)\\s+" +
+                    "token=Token\\{(?<tokenId>\\S+)\\s+(?<recordType>[^{]+)\\{" +
+                    "(?<recordId>\\S+)\\s+(?<user>\\S+)\\s+(?<compName>\\S+)\\s+(?<tName>[^}]+)}}}$"
+    );
+
+    private final ADBInterface adb;
+    private final LogcatMonitor logcatMonitor;
     private final Config GlobalConfig = Config.getInstance();
+    private final CompLatencyModel latencyModel;
+    private final ActivityEventTracker eventTracker;
+    private CompLatencyModel.Deadlines deadlines = CompLatencyModel.Deadlines.DEFAULT;
     private String pkgName;
     private String compName;
     private String compType;
     private String focusedActivity;
-    private Integer compState = STATE_UNK;
+    private volatile Integer compState = STATE_UNK;
     private Long startedAt;
     private Long displayedAt;
     private int jumpCnt;
     private int launcherCnt;
-    private boolean isStarted = false;
+    private volatile boolean isStarted = false;
+    private int caseId = -1;
+    private volatile Long returnedAt;
+    private volatile Integer resultCode;
+    private boolean isLatencyRecorded = false;
+    /**
+     * Set once the case runs past its learned start timeout
+     */
+    private boolean isLate = false;
+    private volatile boolean isCrashRecorded = false;
+    /**
+     * Increased by every start, so that the poll thread of a previous case exits
+     */
+    private volatile int generation = 0;
 
-    public CompStateMonitor() {
+    /**
+     * @param adb           ADB interface of the device
+     * @param logcatMonitor Logcat monitor of the device, drained before passing a returned case
+     */
+    public CompStateMonitor(ADBInterface adb, LogcatMonitor logcatMonitor) {
+        this.adb = adb;
+        this.logcatMonitor = logcatMonitor;
+        this.latencyModel = CompLatencyModel.getInstance();
+        this.eventTracker = Boolean.FALSE.equals(GlobalConfig.getEventStream()) ?
+                null : new ActivityEventTracker(adb, this);
     }
 
     public Integer getCompState() {
@@ -49,29 +93,79 @@ public class CompStateMonitor {
         if (state < STATE_UNK || state > STATE_SUCCESS) {
             throw new IllegalArgumentException("Invalid component state: " + state);
         }
+        updateState(state);
+    }
+
+    /**
+     * Report a result of a case, only if the case is still running without a result.
+     *
+     * @param caseId Index of the case
+     * @param state  Result state
+     * @return true if the result is set, false if the case is finished or not running
+     */
+    public synchronized boolean setResultIfRunning(int caseId, int state) {
+        if (caseId != this.caseId || compState >= STATE_RESULT) {
+            return false;
+        }
+        updateState(state);
+        return true;
+    }
+
+    private synchronized void updateState(int state) {
+        if (state == STATE_SUCCESS && compState < STATE_RESULT && !isLate && latencyModel != null) {
+            latencyModel.onSuccess(compName);
+        }
         this.compState = state;
+        notifyAll();
+    }
+
+    /**
+     * Wait until the component state reaches a result.
+     *
+     * @param timeoutMs Max time to wait
+     * @return true if a result is reached, false if timeout
+     */
+    public synchronized boolean waitForResult(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (compState < STATE_RESULT) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return compState >= STATE_RESULT;
+            }
+        }
+        return true;
     }
 
     public String getCompStateName() {
-        if (compState.equals(STATE_UNK)) {
+        return getStateName(compState);
+    }
+
+    public static String getStateName(int compState) {
+        if (compState == STATE_UNK) {
             return "UNK";
-        } else if (compState.equals(STATE_DISPLAYED)) {
+        } else if (compState == STATE_DISPLAYED) {
             return "DISPLAYED";
-        } else if (compState.equals(STATE_CLIENT_ERROR)) {
+        } else if (compState == STATE_CLIENT_ERROR) {
             return "CLIENT_ERROR";
-        } else if (compState.equals(STATE_INTENT_ERR)) {
+        } else if (compState == STATE_INTENT_ERR) {
             return "INTENT_ERROR";
-        } else if (compState.equals(STATE_SYS_ERR)) {
+        } else if (compState == STATE_SYS_ERR) {
             return "SYS_ERROR";
-        } else if (compState.equals(STATE_APP_CRASHED)) {
+        } else if (compState == STATE_APP_CRASHED) {
             return "APP_CRASHED";
-        } else if (compState.equals(STATE_TIMEOUT)) {
+        } else if (compState == STATE_TIMEOUT) {
             return "TIMEOUT";
-        } else if (compState.equals(STATE_DISPLAYED_TIMEOUT)) {
+        } else if (compState == STATE_DISPLAYED_TIMEOUT) {
             return "DISPLAYED_TIMEOUT";
-        } else if (compState.equals(STATE_JUMPED)) {
+        } else if (compState == STATE_JUMPED) {
             return "JUMPED";
-        } else if (compState.equals(STATE_SUCCESS)) {
+        } else if (compState == STATE_SUCCESS) {
             return "SUCCESS";
         } else {
             return "INVALID";
@@ -83,48 +177,148 @@ public class CompStateMonitor {
     }
 
     public void start() {
+        start(-1);
+    }
+
+    /**
+     * Start monitoring a case.
+     *
+     * @param caseId Index of the case, used to match lifecycle events from test bridge. -1 to match any
+     */
+    public void start(int caseId) {
+        this.caseId = caseId;
+        this.returnedAt = null;
+        this.resultCode = null;
         this.startedAt = System.currentTimeMillis();
         this.displayedAt = null;
         this.jumpCnt = 0;
         this.launcherCnt = 0;
         this.isStarted = false;
-        this.compState = STATE_UNK;
+        this.isLatencyRecorded = false;
+        this.isLate = false;
+        this.isCrashRecorded = false;
+        if (latencyModel != null) {
+            deadlines = latencyModel.getDeadlines(compName);
+        }
+        if (eventTracker != null && CompModel.TYPE_ACTIVITY.equals(compType) && eventTracker.ensureStarted()) {
+            eventTracker.resetFocus();
+        }
+        int currGeneration;
+        synchronized (this) {
+            currGeneration = ++generation;
+        }
+        updateState(STATE_UNK);
         log.info("Started component state monitor for compoent [" + compName + "]");
+        if (!deadlines.isDefault()) {
+            log.debug("Learned deadlines for component [{}]: {}", compName, deadlines);
+        }
         new Thread("CompStateMonitor") {
             @Override
             public void run() {
-                while (compState < STATE_RESULT) {
-                    checkOnce();
+                while (currGeneration == generation && compState < STATE_RESULT) {
+                    checkOnce(currGeneration);
                 }
             }
         }.start();
     }
 
-    private void checkOnce() {
+    private void checkOnce(int currGeneration) {
+        if (currGeneration != generation) {
+            return;
+        }
         long st = System.currentTimeMillis();
         // logcat is checking by ActivityDisplayedHandler
         // Check current focused activity
-        checkByDumpSys();
+        if (isEventStreamUsable()) {
+            checkByEvents();
+        } else {
+            checkByDumpSys();
+        }
+        // Check whether the component has returned to test bridge
+        checkReturned(currGeneration);
         // Check timeout
         checkTimeout();
-        while (System.currentTimeMillis() - st < Constants.COMP_CHECK_INTERVAL) {
-            Thread.yield();
+        // Sleep until the next check, or wake up at once when a result is reported by other threads
+        synchronized (this) {
+            long remaining;
+            while (currGeneration == generation && compState < STATE_RESULT &&
+                    (remaining = deadlines.checkIntervalMs() - (System.currentTimeMillis() - st)) > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void checkReturned(int currGeneration) {
+        Long returned = returnedAt;
+        if (returned == null || compState >= STATE_RESULT) {
+            return;
+        }
+        // Crashes are reported a bit later than the focus change, wait for them before passing the case
+        if (System.currentTimeMillis() - returned < Constants.BRIDGE_RETURN_SETTLE_MS) {
+            return;
+        }
+        // The crash log may still be queued, pass the case only after all lines before the return are handled
+        if (!logcatMonitor.drain(Constants.TIMEOUT_LOG_DRAIN_MS)) {
+            log.debug("Logcat not drained after component [{}] returned, check again later", compName);
+            return;
+        }
+        synchronized (this) {
+            if (currGeneration != generation || compState >= STATE_RESULT) {
+                return;
+            }
+            log.info("Component [{}] returned to test bridge, resultCode={}", compName, resultCode);
+            updateState(STATE_SUCCESS);
         }
     }
 
     private void checkTimeout() {
-        Long currTime = System.currentTimeMillis();
-        if (currTime - startedAt > Constants.TIMEOUT_START_MS && compState < STATE_DISPLAYED) {
+        if (compState >= STATE_DISPLAYED || displayedAt != null) {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - startedAt;
+        // The learned deadline is only a hint, keep waiting up to the default one before giving up
+        if (!isLate && elapsed > deadlines.startTimeoutMs() && deadlines.startTimeoutMs() < Constants.TIMEOUT_START_MS) {
+            isLate = true;
+            log.debug("Component [{}] not displayed in learned start timeout {} ms", compName, deadlines.startTimeoutMs());
+            if (latencyModel != null) {
+                latencyModel.onTimeout(compName);
+            }
+        }
+        if (elapsed > Math.max(deadlines.startTimeoutMs(), Constants.TIMEOUT_START_MS)) {
             if (!isStarted) {
                 log.warn("Component [{}] start timeout", compName);
-                compState = STATE_TIMEOUT;
+                updateState(STATE_TIMEOUT);
             } else {
                 log.info("Component [{}] exited normally", compName);
-                compState = STATE_SUCCESS;
+                updateState(STATE_SUCCESS);
             }
         }
     }
 
+    /**
+     * The event stream is used once it reports a focus change of the current case.
+     * Fall back to dumpsys if it is dead or silent, e.g. the events are not available on the system.
+     */
+    private boolean isEventStreamUsable() {
+        if (eventTracker == null || !CompModel.TYPE_ACTIVITY.equals(compType) || !eventTracker.isAlive()) {
+            return false;
+        }
+        return eventTracker.getLastFocusAt() != 0 ||
+                System.currentTimeMillis() - startedAt < Constants.EVENT_STREAM_GRACE_MS;
+    }
+
+    private void checkByEvents() {
+        String focusName = eventTracker.getFocusedActivity();
+        if (focusName != null) {
+            checkFocus(focusName);
+        }
+    }
+
     private void checkByDumpSys() {
         String dumpSysType = switch (this.compType) {
             case CompModel.TYPE_ACTIVITY -> "window";
@@ -141,36 +335,17 @@ public class CompStateMonitor {
             return;
         }
         String focusName = null;
-        Pattern mCurrFocusPattern = Pattern.compile(
-                "(?m)^\\s*mCurrentFocus=(?<type>[^{]+)\\{(?<id>\\S+)\\s+" +
-                        "(?<user>\\S+)\\s+(?<compName>[^}]+)}$"
-        );
-        Matcher currFocusMatcher = mCurrFocusPattern.matcher(res);
-        Pattern focusedAppPattern = Pattern.compile(
-                "(?m)^\\s*mFocusedApp=(?<tokenType>[^{]+)\\{(?<outTokenId>\\S+)\\s+" +
-                        "token=Token\\{(?<tokenId>\\S+)\\s+(?<recordType>[^{]+)\\{" +
-                        "(?<recordId>\\S+)\\s+(?<user>\\S+)\\s+(?<compName>\\S+)\\s+(?<tName>[^}]+)}}}$"
-        );
-        Matcher focusedAppMatcher = focusedAppPattern.matcher(res);
-        Pattern mLastClosingPattern = Pattern.compile(
-                "(?m)^\\s*mLastClosingApp=(?<tokenType>[^{]+)\\{(?<outTokenId>\\S+)\\s+" +
-                        "token=Token\\{(?<tokenId>\\S+)\\s+(?<recordType>[^{]+)\\{" +
-                        "(?<recordId>\\S+)\\s+(?<user>\\S+)\\s+(?<compName>\\S+)\\s+(?<tName>[^}]+)}}}$"
-        );
-        Matcher lastClosingMatcher = mLastClosingPattern.matcher(res);
+        Matcher currFocusMatcher = CURR_FOCUS_PATTERN.matcher(res);
+        Matcher focusedAppMatcher = FOCUSED_APP_PATTERN.matcher(res);
+        Matcher lastClosingMatcher = LAST_CLOSING_PATTERN.matcher(res);
 
         if (currFocusMatcher.find()) {
             String currFocusCompName = currFocusMatcher.group("compName");
             if (currFocusCompName.startsWith("Application Error")) {
-                if (!currFocusCompName.contains(pkgName)) {
-                    log.warn("Application Error that not belongs to target app detected! name={}", currFocusCompName);
-                }
-                compState = STATE_APP_CRASHED;
-                focusedActivity = currFocusCompName;
+                checkFocus(currFocusCompName);
                 return;
             } else if (currFocusCompName.contains("/")) {
-                String[] focusNames = currFocusCompName.split("/");
-                focusName = focusNames[0] + "/" + focusNames[1].replace(focusNames[0], "");
+                focusName = normalizeCompName(currFocusCompName);
             } else {
                 log.warn("Unrecognized component name format of mCurrentFocus: {}", currFocusCompName);
                 if ("DeprecatedTargetSdkVersionDialog".equals(currFocusCompName)) {
@@ -186,38 +361,72 @@ public class CompStateMonitor {
             log.error("mCurrentFocus/mFocusedApp not detected in dumpsys result");
             return;
         }
+        checkFocus(focusName);
+
+        // Detect mLastClosingApp
+        if (lastClosingMatcher.find()) {
+            String lastClosingCompName = lastClosingMatcher.group("compName");
+            if (lastClosingCompName.equals(compName) || lastClosingCompName.contains(pkgName)) {
+                isStarted = true;
+            }
+        }
+    }
+
+    /**
+     * Update the component state with the focused activity, once per check.
+     *
+     * @param focusName Focused activity
+     */
+    private void checkFocus(String focusName) {
+        if (focusName.startsWith("Application Error")) {
+            if (!focusName.contains(pkgName)) {
+                log.warn("Application Error that not belongs to target app detected! name={}", focusName);
+            }
+            recordCrash();
+            updateState(STATE_APP_CRASHED);
+            focusedActivity = focusName;
+            return;
+        }
         focusedActivity = focusName;
         if (compName.equals(focusedActivity)) {
             long nowTime = System.currentTimeMillis();
             if (displayedAt != null) {
-                if (nowTime - displayedAt >= Constants.TIME_DISPLAY_REQUIRE_MS) {
-                    compState = STATE_SUCCESS;
+                if (nowTime - displayedAt >= deadlines.displayRequireMs()) {
+                    updateState(STATE_SUCCESS);
                 }
             } else {
                 displayedAt = nowTime;
+                recordDisplayed(nowTime - startedAt);
             }
         } else if (focusedActivity.contains(GlobalConfig.getAndroidLauncherPkgName())) {
             launcherCnt++;
             if (launcherCnt > 3 && !isStarted) {
                 // JUMPED to launcher, identify as crash
-                compState = STATE_APP_CRASHED;
+                updateState(STATE_APP_CRASHED);
             }
         } else if (!focusedActivity.equals(Constants.CLIENT_COMP_NAME)) {
             // mFocusedActivity is neither component nor test client.
             // It may indicate that the component is redirected to another one.
             jumpCnt++;
             if (jumpCnt > 3) {
-                compState = STATE_JUMPED;
+                updateState(STATE_JUMPED);
             }
         }
+    }
 
-        // Detect mLastClosingApp
-        if (lastClosingMatcher.find()) {
-            String lastClosingCompName = lastClosingMatcher.group("compName");
-            if (lastClosingCompName.equals(compName) || lastClosingCompName.contains(pkgName)) {
-                isStarted = true;
-            }
+    /**
+     * Normalize a component name to the form of <b>package/.Class</b> if the class is in the package.
+     *
+     * @param name Flattened component name
+     * @return Normalized component name
+     */
+    static String normalizeCompName(String name) {
+        int idx = name.indexOf('/');
+        if (idx < 0) {
+            return name;
         }
+        String pkg = name.substring(0, idx);
+        return pkg + "/" + name.substring(idx + 1).replace(pkg, "");
     }
 
     public void setComponent(String pkgName, String compName, String compType) {
@@ -229,11 +438,20 @@ public class CompStateMonitor {
                 compName = pkgName + compName.replace(pkgName, "/");
             }
         }
+        if (latencyModel != null && this.compName != null && !this.compName.equals(compName)) {
+            latencyModel.save();
+        }
         this.compName = compName;
         this.compType = compType;
     }
 
-    public void onActivityDisplayed(String logCompName) {
+    /**
+     * Called when ActivityManager reports the component is displayed.
+     *
+     * @param logCompName  Component name in log
+     * @param startDelayMs Launch delay reported by ActivityManager, or -1 if unknown
+     */
+    public void onActivityDisplayed(String logCompName, long startDelayMs) {
         if (!logCompName.equals(this.compName)) {
             return;
         }
@@ -241,13 +459,116 @@ public class CompStateMonitor {
             log.warn("Component state not UNK, ignored");
             return;
         }
-        compState = STATE_DISPLAYED;
+        updateState(STATE_DISPLAYED);
         displayedAt = System.currentTimeMillis();
-        log.info("Activity displayed! Waiting for TIME_DISPLAY_REQUIRE");
+        recordDisplayed(startedAt != null ? Math.max(displayedAt - startedAt, startDelayMs) : startDelayMs);
+        log.info("Activity displayed! Waiting for {} ms", deadlines.displayRequireMs());
+    }
+
+    /**
+     * Called by {@link ActivityEventTracker} when the focused activity changes.
+     * Results which do not need confirming are reported at once, others are left to the next check.
+     *
+     * @param focusName Focused activity
+     */
+    void onFocusEvent(String focusName) {
+        if (startedAt == null || compState >= STATE_RESULT) {
+            return;
+        }
+        if (focusName.startsWith("Application Error")) {
+            checkFocus(focusName);
+        } else if (focusName.equals(compName) && displayedAt == null) {
+            displayedAt = System.currentTimeMillis();
+            recordDisplayed(displayedAt - startedAt);
+        }
+    }
+
+    /**
+     * Called by {@link ActivityEventTracker} when a process crashes.
+     *
+     * @param processName Name of the crashed process
+     */
+    void onCrashEvent(String processName) {
+        if (startedAt == null || pkgName == null) {
+            return;
+        }
+        if (processName.equals(pkgName) || processName.startsWith(pkgName + ":")) {
+            recordCrash();
+            if (compState >= STATE_RESULT) {
+                log.warn("Crash of process [{}] detected after the result {}", processName, getCompStateName());
+                return;
+            }
+            log.warn("Crash of process [{}] detected in event log", processName);
+            updateState(STATE_APP_CRASHED);
+        }
+    }
+
+    /**
+     * Called by {@link ActivityEventTracker} when an activity is finishing.
+     *
+     * @param finishName Finishing activity
+     */
+    void onFinishEvent(String finishName) {
+        if (pkgName != null && (finishName.equals(compName) || finishName.contains(pkgName))) {
+            isStarted = true;
+        }
+    }
+
+    /**
+     * Called when test bridge reports a lifecycle event of the running case.
+     *
+     * @param eventObj Event object, with <b>event</b>, <b>caseId</b> and optional <b>data</b>
+     */
+    public void onBridgeEvent(JSONObject eventObj) {
+        Integer event = eventObj.getInteger("event");
+        Integer eventCaseId = eventObj.getInteger("caseId");
+        if (event == null || startedAt == null || compState >= STATE_RESULT ||
+                (caseId >= 0 && !Integer.valueOf(caseId).equals(eventCaseId))) {
+            log.debug("Ignored bridge event: {}", eventObj.toJSONString());
+            return;
+        }
+        JSONObject dataObj = eventObj.getJSONObject("data");
+        if (event == IRPCHandler.EVENT_LAUNCHED) {
+            log.debug("Test bridge launched case #{}", eventCaseId);
+        } else if (event == IRPCHandler.EVENT_START_FAILED) {
+            log.error("Test bridge failed to start component: {}: {}",
+                    dataObj != null ? dataObj.getString("exception") : null,
+                    dataObj != null ? dataObj.getString("message") : null);
+            updateState(STATE_INTENT_ERR);
+        } else if (event == IRPCHandler.EVENT_RESULT) {
+            resultCode = dataObj != null ? dataObj.getInteger("resultCode") : null;
+            isStarted = true;
+        } else if (event == IRPCHandler.EVENT_BRIDGE_FOCUSED) {
+            isStarted = true;
+            returnedAt = System.currentTimeMillis();
+            synchronized (this) {
+                notifyAll();
+            }
+        }
     }
 
     public void onBeginOfCrash() {
         log.warn("Beginning of crash detected!!");
-        compState = STATE_APP_CRASHED;
+        recordCrash();
+        updateState(STATE_APP_CRASHED);
+    }
+
+    private void recordDisplayed(long latencyMs) {
+        if (latencyModel != null && latencyMs >= 0 && !isLatencyRecorded && compState < STATE_RESULT) {
+            isLatencyRecorded = true;
+            latencyModel.onDisplayed(compName, latencyMs);
+        }
+    }
+
+    /**
+     * Record the crash delay of the case, also for crashes after the result,
+     * so that the display window is widened for the following cases.
+     */
+    private void recordCrash() {
+        Long displayed = displayedAt;
+        if (latencyModel != null && displayed != null && !isCrashRecorded) {
+            isCrashRecorded = true;
+            latencyModel.onCrashAfterDisplayed(compName, System.currentTimeMillis() - displayed);
+        }
     }
 }
@@ -12,37 +12,68 @@ import org.square16.ictdroid.rpc.handler.LoadRecvHandler;
 import org.square16.ictdroid.rpc.handler.RunCaseRecvHandler;
 import org.square16.ictdroid.rpc.interfaces.IRPCHandler;
 import org.square16.ictdroid.utils.ADBInterface;
-import org.square16.ictdroid.utils.SortedArrayList;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
 
+/**
+ * RPC client of the test bridge.
+ * <p>
+ * Every request carries a seq, and the reply echoes it. Pending requests are kept in a map by seq,
+ * so requests are sent without waiting for the replies of previous ones, replies may arrive in any order,
+ * and each request has its own timeout. The bridge handles requests of a connection in the order of sending.
+ * <p>
+ * Requests other than init are held until the RPC is ready, and run requests are held until testcases are loaded,
+ * so that a run request issued while reconnecting is sent after the testcases are reloaded.
+ * Held requests do not block the caller, and they fail by their own timeout if the gate is never opened.
+ */
 @Slf4j
 public class RPCController {
-    private static final ADBInterface adb = ADBInterface.getInstance();
     private static final int MAX_RETRY = 3;
     private final TestController mTestController;
-    private final SortedArrayList<IRPCHandler> mSeqHandlerList;
+    private final ADBInterface mAdb;
+    private final Map<Integer, PendingRequest> mPendingRequests = new ConcurrentHashMap<>();
+    private final Object mSendLock = new Object();
     private Socket mSoc;
     private DataInputStream mDis;
-    private DataOutputStream mDos;
+    private volatile DataOutputStream mDos;
     private int mForwardPort;
     private int mSeq;
     private int mRetryCnt;
-    private boolean mIsReady;
-    private boolean mIsLoaded;
+    private volatile boolean mIsReady;
+    private volatile boolean mIsLoaded;
+    /**
+     * Completed when the RPC is ready or testcases are loaded, replaced by a new one when it is closed again
+     */
+    private volatile CompletableFuture<Void> mReadyGate = new CompletableFuture<>();
+    private volatile CompletableFuture<Void> mLoadedGate = new CompletableFuture<>();
     // For unexpected reconnect
     private JSONObject mLoadCaseCommand;
 
     public RPCController(TestController testController, int forwardPort) {
+        this(testController, testController.getAdb(), forwardPort);
+    }
+
+    /**
+     * @param testController Test controller of the device, may be null when there is no device, e.g. in tests
+     * @param adb            ADB interface of the device
+     * @param forwardPort    Local port forwarded to the test bridge
+     */
+    RPCController(TestController testController, ADBInterface adb, int forwardPort) {
         mTestController = testController;
+        mAdb = adb;
         mForwardPort = forwardPort;
         mSeq = 0;
         mRetryCnt = 0;
         mIsReady = false;
-        mSeqHandlerList = new SortedArrayList<>();
     }
 
     public TestController getTestController() {
@@ -79,43 +110,127 @@ public class RPCController {
         }
     }*/
 
-    private void registerSeqHandler(IRPCHandler handler) {
-        mSeqHandlerList.add(handler);
+    /**
+     * Wait until the condition becomes true. Waiters are woken up by any change of the connection state.
+     *
+     * @param condition Condition to wait for
+     * @param timeoutMs Max time to wait
+     * @return true if the condition becomes true, false if timeout
+     */
+    private synchronized boolean waitUntil(BooleanSupplier condition, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return condition.getAsBoolean();
+            }
+        }
+        return true;
+    }
+
+    private synchronized void notifyStateChanged() {
+        notifyAll();
+    }
+
+    /**
+     * Wait until the RPC is ready.
+     *
+     * @param timeoutMs Max time to wait
+     * @return true if ready, false if timeout
+     */
+    public boolean waitReady(long timeoutMs) {
+        return waitUntil(() -> mIsReady, timeoutMs);
+    }
+
+    public CompletableFuture<JSONObject> send(JSONObject dataObj) {
+        return send(dataObj, null, Constants.TIMEOUT_RPC_MS);
+    }
+
+    public CompletableFuture<JSONObject> send(JSONObject dataObj, IRPCHandler handler) {
+        return send(dataObj, handler, Constants.TIMEOUT_RPC_MS);
     }
 
-    public void send(JSONObject dataObj) {
-        while (mDos == null) {
-            Thread.yield();
+    /**
+     * Send a request without waiting for the replies of previous requests.
+     * The request is held until the RPC is ready, and a run request until testcases are loaded.
+     *
+     * @param dataObj   Request object, its seq is assigned when it is written
+     * @param handler   Handler called with the reply on the receive thread, or null
+     * @param timeoutMs Max time to wait for the reply, including the time held
+     * @return Future of the reply, completed exceptionally if failed to send, timeout or disconnected
+     */
+    public CompletableFuture<JSONObject> send(JSONObject dataObj, IRPCHandler handler, long timeoutMs) {
+        CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        Integer action = dataObj.getInteger("action");
+        CompletableFuture<Void> gate;
+        if (Integer.valueOf(IRPCHandler.ACTION_INIT).equals(action)) {
+            gate = CompletableFuture.completedFuture(null);
+        } else if (Integer.valueOf(IRPCHandler.ACTION_RUN_CASE).equals(action)) {
+            gate = mLoadedGate;
+        } else {
+            gate = mReadyGate;
         }
-        try {
-            Integer action = dataObj.getInteger("action");
-            if (action != null) {
-                if (!action.equals(IRPCHandler.ACTION_INIT)) {
-                    while (!mIsReady) {
-                        Thread.yield();
-                    }
+        if (Integer.valueOf(IRPCHandler.ACTION_LOAD).equals(action)) {
+            mLoadCaseCommand = dataObj;
+            // Following run requests wait for this load
+            setLoaded(false);
+        }
+        future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((res, e) -> {
+            PendingRequest request = removePendingRequest(future);
+            if (e instanceof TimeoutException) {
+                if (request != null) {
+                    log.error("RPC request #{} timeout in {} ms, action={}", request.seq(), timeoutMs, action);
+                } else {
+                    log.error("RPC request not sent in {} ms, action={}", timeoutMs, action);
                 }
-                if (action.equals(IRPCHandler.ACTION_LOAD)) {
-                    mLoadCaseCommand = dataObj;
-                } else if (action.equals(IRPCHandler.ACTION_RUN_CASE)) {
-                    while (!mIsLoaded) {
-                        Thread.yield();
-                    }
+            }
+        });
+        // Written at once if the gate is open, otherwise by the thread which opens it
+        gate.thenRun(() -> write(dataObj, handler, future));
+        return future;
+    }
+
+    private void write(JSONObject dataObj, IRPCHandler handler, CompletableFuture<JSONObject> future) {
+        if (future.isDone()) {
+            // Timeout when held
+            return;
+        }
+        try {
+            // The bridge only accepts increasing seq, so assigning and writing must not be interleaved
+            synchronized (mSendLock) {
+                DataOutputStream dos = mDos;
+                if (dos == null) {
+                    throw new IOException("RPC is not connected");
                 }
+                int seq = ++mSeq;
+                // Register before writing, the reply may arrive before writeUTF returns
+                mPendingRequests.put(seq, new PendingRequest(seq, dataObj.getInteger("action"), handler, future));
+                dataObj.put("seq", seq);
+                String data = dataObj.toJSONString();
+                dos.writeUTF(data);
+                log.debug("Socket send: {}", data);
             }
-            dataObj.put("seq", ++mSeq);
-            String data = dataObj.toJSONString();
-            mDos.writeUTF(data);
-            log.debug("Socket send: {}", data);
         } catch (IOException e) {
-            log.error("IOException when sending rpc data", e);
+            log.error("IOException when sending rpc data: {}", dataObj.toJSONString(), e);
+            removePendingRequest(future);
+            future.completeExceptionally(e);
             disconnect(true);
         }
     }
 
-    public void send(JSONObject dataObj, IRPCHandler handler) {
-        this.registerSeqHandler(handler);
-        this.send(dataObj);
+    private PendingRequest removePendingRequest(CompletableFuture<JSONObject> future) {
+        for (PendingRequest request : mPendingRequests.values()) {
+            if (request.future() == future && mPendingRequests.remove(request.seq(), request)) {
+                return request;
+            }
+        }
+        return null;
     }
 
     private void receive() {
@@ -128,15 +243,22 @@ public class RPCController {
         } catch (IOException e) {
             log.error("IOException when receiving data from socket", e);
             disconnect(true);
+        } catch (RuntimeException e) {
+            log.error("Exception when handling data from socket", e);
+            disconnect(true);
         }
     }
 
     public void init() {
-        mSeq = 0;
+        failPendingRequests("RPC reconnected");
+        synchronized (mSendLock) {
+            mSeq = 0;
+        }
         try {
             mSoc = new Socket("127.0.0.1", mForwardPort);
             mDis = new DataInputStream(mSoc.getInputStream());
             mDos = new DataOutputStream(mSoc.getOutputStream());
+            notifyStateChanged();
             Thread recvThread = new Thread("RPCReceiveThread") {
                 @Override
                 public void run() {
@@ -165,11 +287,14 @@ public class RPCController {
         if (!mIsReady) {
             return;
         }
-        mIsReady = false;
-        mIsLoaded = false;
+        // Requests held from now on are sent after reconnecting
+        setReady(false);
+        setLoaded(false);
 
         // Announce the CompStateMonitor
-        mTestController.getCompStateMonitor().setCompState(CompStateMonitor.STATE_CLIENT_ERROR);
+        if (mTestController != null) {
+            mTestController.getCompStateMonitor().setCompState(CompStateMonitor.STATE_CLIENT_ERROR);
+        }
 
         try {
             mDis.close();
@@ -178,10 +303,11 @@ public class RPCController {
         } catch (IOException ignored) {
 
         }
-        mSeqHandlerList.clear();
+        failPendingRequests("RPC disconnected");
         mDis = null;
         mDos = null;
         mSoc = null;
+        notifyStateChanged();
         if (isRetry && mRetryCnt < MAX_RETRY) {
             mRetryCnt++;
             log.error("Disconnected from RPC unexpectedly, reconnect after 3 seconds...");
@@ -191,57 +317,89 @@ public class RPCController {
                 log.error("InterruptedException when reconnecting", e);
             }
             // Restart test bridge
-            adb.forceStopApp(Constants.CLIENT_PKG_NAME);
-            adb.startActivity(Constants.CLIENT_PKG_NAME, Constants.CLIENT_ACT_NAME);
+            mAdb.forceStopApp(Constants.CLIENT_PKG_NAME);
+            mAdb.startActivity(Constants.CLIENT_PKG_NAME, Constants.CLIENT_ACT_NAME);
 
             if (mLoadCaseCommand != null) {
-                while (!mIsReady) {
-                    Thread.yield();
-                }
-                this.send(mLoadCaseCommand, new LoadRecvHandler());
+                // Held until the RPC is ready again
+                reloadTestcase();
             }
         }
     }
 
     private void handle(String recvData) {
         try {
-            JSONObject dataObj = (JSONObject) JSON.parse(recvData);
+            if (!(JSON.parse(recvData) instanceof JSONObject dataObj)) {
+                log.error("Invalid received data: {}", recvData);
+                this.disconnect(true);
+                return;
+            }
+            if (Integer.valueOf(IRPCHandler.ACTION_EVENT).equals(dataObj.getInteger("action"))) {
+                // Unsolicited lifecycle event from test bridge, not bound to any request
+                if (mTestController != null) {
+                    mTestController.getCompStateMonitor().onBridgeEvent(dataObj);
+                }
+                return;
+            }
             if (!dataObj.containsKey("code") || !dataObj.containsKey("seq")) {
                 log.error("Invalid received data: {}", dataObj.toJSONString());
                 this.disconnect(true);
+                return;
             }
 
-            // Verify sequence number
+            // Find the request of the reply
             int rSeq = dataObj.getIntValue("seq");
-            if (rSeq != mSeq) {
-                // Sequence number not match, reconnect
-                log.error("Invalid received seq! rSeq={}, mSeq={}", rSeq, mSeq);
-                this.disconnect(true);
+            PendingRequest request = mPendingRequests.remove(rSeq);
+            if (request == null) {
+                log.warn("Received reply of unknown or expired request #{}: {}", rSeq, recvData);
+                return;
+            }
+            if (dataObj.getIntValue("code") == IRPCHandler.CODE_ERROR_INVALID_SEQ) {
+                log.error("RPC request #{} is rejected by invalid seq, action={}", rSeq, request.action());
             }
 
-            // Call handlers
-            for (IRPCHandler handler : mSeqHandlerList) {
-                RPCHandler handlerInfo = handler.getClass().getAnnotation(RPCHandler.class);
+            // Call handler
+            IRPCHandler handler = request.handler();
+            if (handler != null) {
                 try {
                     handler.handle(this, dataObj);
                 } catch (Exception e) {
-                    log.error("Exception when calling rpc handler [{}]", handlerInfo.name(), e);
-                }
-                if (handlerInfo.autoRemove()) {
-                    mSeqHandlerList.remove(handler);
+                    log.error("Exception when calling rpc handler [{}]",
+                            handler.getClass().getAnnotation(RPCHandler.class).name(), e);
                 }
             }
+            request.future().complete(dataObj);
         } catch (JSONException e) {
             log.error("JSONException when parsing received data", e);
         }
     }
 
+    private void failPendingRequests(String reason) {
+        int failedCnt = 0;
+        for (Integer seq : mPendingRequests.keySet()) {
+            PendingRequest request = mPendingRequests.remove(seq);
+            if (request != null) {
+                request.future().completeExceptionally(new IOException(reason));
+                failedCnt++;
+            }
+        }
+        if (failedCnt > 0) {
+            log.warn("{}, {} pending requests failed", reason, failedCnt);
+        }
+    }
+
+    public int getPendingCount() {
+        return mPendingRequests.size();
+    }
+
     public boolean isReady() {
         return mIsReady;
     }
 
     public void setReady(boolean isReady) {
         mIsReady = isReady;
+        mReadyGate = updateGate(mReadyGate, isReady);
+        notifyStateChanged();
     }
 
     public boolean isLoaded() {
@@ -250,9 +408,27 @@ public class RPCController {
 
     public void setLoaded(boolean isLoaded) {
         mIsLoaded = isLoaded;
+        mLoadedGate = updateGate(mLoadedGate, isLoaded);
+        notifyStateChanged();
     }
 
-    public void loadTestcase(String pkgName, String compName, String compType, String strategy) {
+    /**
+     * Open or close a gate. Requests held by a closed gate are kept when it is closed again.
+     *
+     * @param gate   Current gate
+     * @param isOpen Whether to open the gate
+     * @return The gate to use from now on
+     */
+    private static CompletableFuture<Void> updateGate(CompletableFuture<Void> gate, boolean isOpen) {
+        if (isOpen) {
+            // Held requests are written on this thread
+            gate.complete(null);
+            return gate;
+        }
+        return gate.isDone() ? new CompletableFuture<>() : gate;
+    }
+
+    public CompletableFuture<JSONObject> loadTestcase(String pkgName, String compName, String compType, String strategy) {
         JSONObject loadReq = new JSONObject();
         loadReq.put("action", IRPCHandler.ACTION_LOAD);
         JSONObject loadReqData = new JSONObject();
@@ -261,23 +437,29 @@ public class RPCController {
         loadReqData.put("compType", compType);
         loadReqData.put("strategy", strategy);
         loadReq.put("data", loadReqData);
-        send(loadReq, new LoadRecvHandler());
+        return send(loadReq, new LoadRecvHandler(), Constants.TIMEOUT_LOAD_TESTCASE_MS);
     }
 
-    public void reloadTestcase() {
+    public CompletableFuture<JSONObject> reloadTestcase() {
         if (mLoadCaseCommand == null) {
             log.error("Cannot reload testcases! Missing mLoadCaseCommand");
-            return;
+            return CompletableFuture.failedFuture(new IllegalStateException("No testcases loaded before"));
         }
-        send(mLoadCaseCommand, new LoadRecvHandler());
+        JSONObject loadReq = (JSONObject) mLoadCaseCommand.clone();
+        loadReq.remove("seq");
+        return send(loadReq, new LoadRecvHandler(), Constants.TIMEOUT_LOAD_TESTCASE_MS);
     }
 
-    public void runTestcase(int caseId) {
+    public CompletableFuture<JSONObject> runTestcase(int caseId) {
         JSONObject runReq = new JSONObject();
         runReq.put("action", IRPCHandler.ACTION_RUN_CASE);
         JSONObject runReqData = new JSONObject();
         runReqData.put("caseId", caseId);
         runReq.put("data", runReqData);
-        send(runReq, new RunCaseRecvHandler());
+        return send(runReq, new RunCaseRecvHandler());
+    }
+
+    private record PendingRequest(int seq, Integer action, IRPCHandler handler,
+                                  CompletableFuture<JSONObject> future) {
     }
 }
@@ -23,7 +23,9 @@ public class RunCaseRecvHandler implements IRPCHandler {
                 controller.setLoaded(false);
                 compStateMonitor.setCompState(CompStateMonitor.STATE_CLIENT_ERROR);
                 log.error("Remote report not load! Reload testcase required");
+                // The case is run again after reloading, it is not an Intent error
                 controller.reloadTestcase();
+                return;
             } else {
                 log.error("Failed to start component! result code={}", code);
             }
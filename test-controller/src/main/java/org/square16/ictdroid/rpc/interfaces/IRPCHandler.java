@@ -9,6 +9,12 @@ public interface IRPCHandler extends Comparable<IRPCHandler> {
     public static final int ACTION_LOAD = 2;
     public static final int ACTION_RUN_CASE = 3;
     public static final int ACTION_RUN_CASE_RESULT = 4;
+    public static final int ACTION_EVENT = 5;
+
+    public static final int EVENT_LAUNCHED = 1;
+    public static final int EVENT_RESULT = 2;
+    public static final int EVENT_BRIDGE_FOCUSED = 3;
+    public static final int EVENT_START_FAILED = 4;
 
     public static final int CODE_SUCCESS = 0;
     public static final int CODE_ERROR_INVALID_SEQ = 1;
@@ -13,7 +13,7 @@ import java.util.Set;
 
 @Slf4j
 public class FlattenerExtra extends BaseFlattener {
-    private static int nodeId;
+    private int nodeId;
 
     public static String encodeExtraName(String name) {
         return b32encode(name);
@@ -0,0 +1,262 @@
+package org.square16.ictdroid.testcase;
+
+import com.opencsv.CSVReader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.square16.ictdroid.Constants;
+
+import java.io.FileReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Canonical fingerprint of the Intent built from a testcase row.
+ * <p>
+ * It mirrors <b>CSVTestCaseMgr.getTestCaseIntent</b> of test bridge, so two rows get the same fingerprint
+ * if and only if the bridge sends the same Intent for them, e.g. rows that only differ in
+ * scheme/authority/path when data is null, in category_* when category is not notEmpty,
+ * in extra_* when extra is not notEmpty, or in values which are dropped by the bridge.
+ */
+@Slf4j
+public class IntentFingerprint {
+    /**
+     * Number of comment lines before the header in testcase CSV.
+     */
+    public static final int CSV_COMMENT_LINES = 6;
+    private static final String NULL = "\u0000null";
+    private static final Pattern EXTRA_PATTERN = Pattern.compile("^extra_(?<parentId>\\d+)_(?<nodeId>\\d+)_" +
+            "(?<nodeName>[A-Za-z\\d]+)_(?<nodeType>[A-Za-z\\d_$.]+)$");
+    private static final Set<String> OBJECT_TYPES = Set.of("String", "CharSequence", "byteArray", "shortArray",
+            "intArray", "longArray", "doubleArray", "booleanArray", "floatArray", "charArray", "ParcelableArray",
+            "StringArray", "CharSequenceArray", "IntegerArrayList", "ParcelableArrayList", "CharSequenceArrayList",
+            "StringArrayList", "Bundle", "Serializable", "Parcelable");
+    private static final Set<String> ARR_LIST_TYPES = Set.of("IntegerArrayList", "ParcelableArrayList",
+            "CharSequenceArrayList", "StringArrayList");
+    /**
+     * Types without a matching Bundle.put* method, which are dropped by the bridge.
+     */
+    private static final Set<String> NO_PUT_METHOD_TYPES = Set.of("Integer");
+
+    private IntentFingerprint() {
+    }
+
+    /**
+     * Load the fingerprints of all rows in a testcase CSV.
+     *
+     * @param csvPath Path to testcase CSV
+     * @return Fingerprints indexed by case index, or null if failed to load
+     */
+    public static List<String> load(Path csvPath) {
+        List<String> fingerprints = new ArrayList<>();
+        try (CSVReader csvReader = new CSVReader(new FileReader(csvPath.toFile(), StandardCharsets.UTF_8))) {
+            csvReader.skip(CSV_COMMENT_LINES);
+            String[] fieldNames = csvReader.readNext();
+            if (fieldNames == null) {
+                return fingerprints;
+            }
+            String[] row;
+            while ((row = csvReader.readNext()) != null) {
+                fingerprints.add(of(fieldNames, row));
+            }
+        } catch (Exception e) {
+            log.error("Failed to load testcases for fingerprints: {}", csvPath, e);
+            return null;
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Compute the fingerprint of a testcase row.
+     *
+     * @param fieldNames Header of testcase CSV
+     * @param row        Testcase row
+     * @return SHA-1 of the canonical Intent
+     */
+    public static String of(String[] fieldNames, String[] row) {
+        return DigestUtils.sha1Hex(canonicalize(fieldNames, row));
+    }
+
+    static String canonicalize(String[] fieldNames, String[] row) {
+        String action = null;
+        Set<String> categories = new TreeSet<>();
+        String type = null;
+        String data = null;
+        String flags = null;
+        String extras = null;
+        boolean hasData = false;
+        boolean hasExtra = false;
+        boolean hasCategory = false;
+        Map<String, String> unprocessed = new LinkedHashMap<>();
+
+        for (int idx = 0; idx < fieldNames.length && idx < row.length; idx++) {
+            String fieldName = fieldNames[idx];
+            String fieldValStr = row[idx];
+            switch (fieldName) {
+                case "action" -> action = getFieldValue(fieldValStr, "String");
+                case "category" -> {
+                    if (Constants.VAL_NOT_EMPTY.equals(fieldValStr)) {
+                        hasCategory = true;
+                    } else {
+                        categories.add(nullToken(getFieldValue(fieldValStr, "String")));
+                    }
+                }
+                case "type" -> {
+                    // Intent.setType() clears data, and the bridge restores data by Intent.setData()
+                    // which clears type again.
+                    type = data != null ? null : getFieldValue(fieldValStr, "String");
+                }
+                case "flag" -> {
+                    String flagVal = getFieldValue(fieldValStr, "Integer");
+                    if (flagVal != null) {
+                        flags = flagVal;
+                    }
+                }
+                case "data" -> {
+                    if (Constants.VAL_NOT_EMPTY.equals(fieldValStr)) {
+                        hasData = true;
+                    } else if (Constants.VAL_EMPTY.equals(fieldValStr)) {
+                        data = "";
+                        type = null;
+                    }
+                }
+                case "extra" -> {
+                    if (Constants.VAL_NOT_EMPTY.equals(fieldValStr)) {
+                        hasExtra = true;
+                    } else if (Constants.VAL_EMPTY.equals(fieldValStr)) {
+                        extras = "{}";
+                    }
+                }
+                default -> unprocessed.put(fieldName, fieldValStr);
+            }
+        }
+
+        // Data, String concatenation turns null into "null"
+        String scheme = unprocessed.remove("scheme");
+        String authority = unprocessed.remove("authority");
+        String path = unprocessed.remove("path");
+        if (hasData) {
+            scheme = scheme != null ? getFieldValue(scheme, "String") : "";
+            authority = authority != null ? getFieldValue(authority, "String") : "";
+            path = path != null ? getFieldValue(path, "String") : "";
+            data = scheme + ":" + authority + path;
+            type = null;
+        }
+
+        // Category flags
+        if (hasCategory) {
+            for (Map.Entry<String, String> item : unprocessed.entrySet()) {
+                if (item.getKey().startsWith("category_") && Boolean.parseBoolean(item.getValue())) {
+                    categories.add(new String(new Base32().decode(item.getKey().replace("category_", "")),
+                            StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        // Extras
+        if (hasExtra) {
+            Map<String, Map<String, String>> bundleMap = new HashMap<>();
+            for (Map.Entry<String, String> item : unprocessed.entrySet()) {
+                if (!item.getKey().startsWith("extra_")) {
+                    continue;
+                }
+                Matcher matcher = EXTRA_PATTERN.matcher(item.getKey());
+                if (!matcher.find()) {
+                    throw new RuntimeException("Extra name pattern match failed: " + item.getKey());
+                }
+                String id = matcher.group("nodeId");
+                String name = matcher.group("nodeName");
+                String valType = new String(new Base32().decode(matcher.group("nodeType")), StandardCharsets.UTF_8);
+                Map<String, String> parentBd = bundleMap.computeIfAbsent(matcher.group("parentId"),
+                        k -> new TreeMap<>());
+                if (Constants.VAL_NULL.equals(item.getValue())) {
+                    parentBd.put(name, NULL);
+                } else if ("Bundle".equals(valType)) {
+                    bundleMap.computeIfAbsent(id, k -> new TreeMap<>());
+                    parentBd.put(name, "#" + id);
+                } else if (!NO_PUT_METHOD_TYPES.contains(valType)) {
+                    String val = getFieldValue(item.getValue(), valType);
+                    if (val != null) {
+                        parentBd.put(name, valType + ":" + val);
+                    }
+                }
+            }
+            if (bundleMap.containsKey("0")) {
+                extras = bundleToString(bundleMap, "0", 0);
+            }
+        }
+
+        return "action=" + nullToken(action) + "\ncategories=" + categories + "\ntype=" + nullToken(type) +
+                "\ndata=" + nullToken(data) + "\nflags=" + nullToken(flags) + "\nextras=" + nullToken(extras);
+    }
+
+    private static String bundleToString(Map<String, Map<String, String>> bundleMap, String id, int depth) {
+        Map<String, String> bundle = bundleMap.get(id);
+        if (bundle == null || depth > bundleMap.size()) {
+            return "{}";
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, String> entry : bundle.entrySet()) {
+            String val = entry.getValue();
+            if (val.startsWith("#")) {
+                val = bundleToString(bundleMap, val.substring(1), depth + 1);
+            }
+            sb.append(entry.getKey()).append('=').append(val).append(';');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String nullToken(String val) {
+        return val == null ? NULL : val;
+    }
+
+    /**
+     * Canonical form of <b>CSVTestCaseMgr.getFieldValue</b>.
+     *
+     * @return Canonical value, or null if the bridge gets null
+     */
+    private static String getFieldValue(String s, String type) {
+        switch (s) {
+            case Constants.VAL_NULL:
+                return null;
+            case Constants.VAL_EMPTY:
+                if (!OBJECT_TYPES.contains(type)) {
+                    return null;
+                }
+                return "String".equals(type) || "CharSequence".equals(type) ? "" : "EMPTY";
+            case Constants.VAL_NOT_EMPTY:
+                return OBJECT_TYPES.contains(type) ? "NOT_EMPTY" : null;
+            case Constants.VAL_NOT_EMPTY_ARR_NULL_ELEM:
+            case Constants.VAL_NOT_EMPTY_ARR_EMPTY_ELEM:
+            case Constants.VAL_NOT_EMPTY_ARR_NOT_EMPTY_ELEM:
+                return ARR_LIST_TYPES.contains(type) ? s : null;
+            default:
+                try {
+                    return switch (type) {
+                        case "byte", "Byte" -> String.valueOf(Byte.parseByte(s));
+                        case "short", "Short" -> String.valueOf(Short.parseShort(s));
+                        case "int", "Integer" -> String.valueOf(Integer.parseInt(s));
+                        case "float", "Float" -> String.valueOf(Float.parseFloat(s));
+                        case "double", "Double" -> String.valueOf(Double.parseDouble(s));
+                        case "long", "Long" -> String.valueOf(Long.parseLong(s));
+                        case "boolean", "Boolean" -> String.valueOf(Boolean.parseBoolean(s));
+                        case "char" -> String.valueOf(Integer.parseInt(s));
+                        case "String", "CharSequence" -> s;
+                        default -> null;
+                    };
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.square16.ictdroid.testcase;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.square16.ictdroid.utils.ADBInterface;
+import org.square16.ictdroid.utils.ADBShellSession;
+import org.square16.ictdroid.utils.TarWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Delivers testcase CSVs to the device in batches.
+ * <p>
+ * All pending CSVs of a package are packed into one tar, pushed in one transfer and extracted on device
+ * in one shell command, then verified by md5 in one shell command. The md5 of delivered files are cached,
+ * so delivering a file which is already on device costs nothing.
+ */
+@Slf4j
+public class TestcaseDeliverer {
+    private static final int MD5_BATCH_SIZE = 200;
+
+    private final ADBInterface mAdb;
+    private final Path mLocalRoot;
+    private final String mRemoteRoot;
+    /**
+     * Relative path -> md5 of files on device
+     */
+    private final Map<String, String> mDelivered = new HashMap<>();
+    private boolean mIsTarSupported = true;
+    private int mBatchCnt = 0;
+
+    /**
+     * @param adb        ADB interface of the device
+     * @param localRoot  Local testcase root, containing a directory for each package
+     * @param remoteRoot Testcase root on device
+     */
+    public TestcaseDeliverer(ADBInterface adb, Path localRoot, String remoteRoot) {
+        mAdb = adb;
+        mLocalRoot = localRoot;
+        mRemoteRoot = remoteRoot;
+    }
+
+    private String getRelativePath(Path localPath) {
+        return mLocalRoot.relativize(localPath).toString().replace('\\', '/');
+    }
+
+    private static String md5(Path path) throws IOException {
+        try (InputStream is = Files.newInputStream(path)) {
+            return DigestUtils.md5Hex(is);
+        }
+    }
+
+    /**
+     * Check whether the same content of a local file is already on device.
+     */
+    public boolean isDelivered(Path localPath) {
+        String remoteMd5 = mDelivered.get(getRelativePath(localPath));
+        try {
+            return remoteMd5 != null && remoteMd5.equals(md5(localPath));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Forget delivered files, e.g. when the device is reset.
+     */
+    public void reset() {
+        mDelivered.clear();
+    }
+
+    /**
+     * Deliver the given files, together with other pending CSVs of the same packages.
+     *
+     * @param localPaths Files which must be delivered
+     * @return true if all given files are on device
+     */
+    public boolean deliver(Collection<Path> localPaths) {
+        Map<String, Path> pending = new LinkedHashMap<>();
+        try {
+            for (Path localPath : localPaths) {
+                addIfPending(pending, localPath);
+            }
+            if (pending.isEmpty()) {
+                return true;
+            }
+            // Piggyback the other CSVs already generated for the packages
+            for (Path localPath : new ArrayList<>(pending.values())) {
+                try (Stream<Path> siblings = Files.list(localPath.getParent())) {
+                    for (Path sibling : siblings.filter(p -> p.toString().endsWith(".csv")).toList()) {
+                        addIfPending(pending, sibling);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to collect testcases to deliver", e);
+            return false;
+        }
+
+        if (mIsTarSupported && pending.size() > 1) {
+            deliverByTar(pending);
+        }
+        // Push one by one anything still undelivered, e.g. names not supported by the archive
+        for (Path localPath : localPaths) {
+            String relPath = getRelativePath(localPath);
+            if (!pending.containsKey(relPath) || isDelivered(localPath)) {
+                continue;
+            }
+            if (!mAdb.pushSync(localPath.toString(), mRemoteRoot + "/" + relPath)) {
+                log.error("Failed to push testcase [{}]", localPath);
+                return false;
+            }
+            try {
+                mDelivered.put(relPath, md5(localPath));
+            } catch (IOException e) {
+                log.warn("Failed to calculate md5 of [{}]", localPath, e);
+            }
+        }
+        return true;
+    }
+
+    private void addIfPending(Map<String, Path> pending, Path localPath) {
+        String relPath = getRelativePath(localPath);
+        if (!pending.containsKey(relPath) && !isDelivered(localPath)) {
+            pending.put(relPath, localPath);
+        }
+    }
+
+    /**
+     * Deliver pending files in one archive.
+     * Files which are not delivered, e.g. with names not supported by the archive, are left to be pushed one by one.
+     */
+    private void deliverByTar(Map<String, Path> pending) {
+        Path tarPath = null;
+        String remoteTarPath = mRemoteRoot + "/.batch-" + (++mBatchCnt) + ".tar";
+        try {
+            tarPath = Files.createTempFile("ictdroid-testcases-", ".tar");
+            Map<String, String> md5Map = new HashMap<>();
+            try (TarWriter tar = new TarWriter(new BufferedOutputStream(Files.newOutputStream(tarPath)))) {
+                for (Map.Entry<String, Path> entry : pending.entrySet()) {
+                    if (!TarWriter.isNameSupported(entry.getKey())) {
+                        continue;
+                    }
+                    md5Map.put(entry.getKey(), md5(entry.getValue()));
+                    tar.addFile(entry.getKey(), entry.getValue());
+                }
+            }
+            long st = System.currentTimeMillis();
+            if (!mAdb.pushSync(tarPath.toString(), remoteTarPath)) {
+                log.warn("Failed to push testcase archive");
+                return;
+            }
+            // A successful extraction prints nothing, so it is judged by the exit code
+            ADBShellSession.Result res = mAdb.shellResult("cd \"" + mRemoteRoot + "\" && tar -xf \""
+                    + remoteTarPath + "\"; ret=$?; rm -f \"" + remoteTarPath + "\"; exit $ret");
+            if (res == null || !res.isSucceeded()) {
+                log.warn("Failed to extract testcase archive on device, fallback to push one by one: {}",
+                        res != null ? res.err().trim() : null);
+                mIsTarSupported = false;
+                return;
+            }
+            int verifiedCnt = verify(md5Map);
+            log.info("Delivered {}/{} testcases in one batch ({} bytes) in {} ms", verifiedCnt, md5Map.size(),
+                    Files.size(tarPath), System.currentTimeMillis() - st);
+        } catch (IOException e) {
+            log.error("Failed to deliver testcases by archive", e);
+        } finally {
+            if (tarPath != null) {
+                try {
+                    Files.deleteIfExists(tarPath);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify md5 of extracted files and record the matched ones.
+     *
+     * @return Number of matched files
+     */
+    private int verify(Map<String, String> md5Map) {
+        List<String> relPaths = new ArrayList<>(md5Map.keySet());
+        int matchedCnt = 0;
+        for (int i = 0; i < relPaths.size(); i += MD5_BATCH_SIZE) {
+            List<String> batch = relPaths.subList(i, Math.min(relPaths.size(), i + MD5_BATCH_SIZE));
+            StringBuilder cmd = new StringBuilder("cd \"" + mRemoteRoot + "\" && md5sum");
+            for (String relPath : batch) {
+                cmd.append(" \"").append(relPath).append('"');
+            }
+            // Missing files are reported to stderr, the others are still verified
+            ADBShellSession.Result res = mAdb.shellResult(cmd.toString());
+            if (res == null || res.out().isEmpty()) {
+                log.warn("Failed to verify md5 of delivered testcases: {}", res != null ? res.err().trim() : null);
+                continue;
+            }
+            for (String line : res.out().split("\n")) {
+                String[] parts = line.trim().split("\\s+", 2);
+                if (parts.length == 2 && parts[0].equalsIgnoreCase(md5Map.get(parts[1]))) {
+                    mDelivered.put(parts[1], parts[0].toLowerCase());
+                    matchedCnt++;
+                }
+            }
+        }
+        return matchedCnt;
+    }
+}
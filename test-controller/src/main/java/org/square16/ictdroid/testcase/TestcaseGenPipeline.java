@@ -0,0 +1,121 @@
+package org.square16.ictdroid.testcase;
+
+import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.utils.CompModel;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Bounded producer/consumer pipeline which prepares testcases of upcoming components in background,
+ * so that the device does not idle while testcases are being generated.
+ * <p>
+ * At most {@code lookahead} components are prepared ahead of the component under test,
+ * which keeps the generator from running away from the executor.
+ */
+@Slf4j
+public class TestcaseGenPipeline {
+    private final Function<CompModel, Collection<String>> mGenerator;
+    private final int mLookahead;
+    private final ExecutorService mExecutor;
+    private final Map<String, Future<Collection<String>>> mPendingTasks = new LinkedHashMap<>();
+
+    private long mTakeCnt = 0;
+    private long mWaitCnt = 0;
+    private long mWaitTotalMs = 0;
+    private long mWaitMaxMs = 0;
+
+    /**
+     * @param generator Function which prepares testcases of a component and returns the ready strategies
+     * @param lookahead Max number of components to prepare ahead
+     */
+    public TestcaseGenPipeline(Function<CompModel, Collection<String>> generator, int lookahead) {
+        mGenerator = generator;
+        mLookahead = Math.max(lookahead, 0);
+        // ACTS generation is serialized globally, more threads will not help
+        mExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "TestcaseGenerator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int getLookahead() {
+        return mLookahead;
+    }
+
+    /**
+     * Schedule testcase preparation of upcoming components.
+     * Components which are already scheduled will be ignored.
+     *
+     * @param compModels Upcoming components, in the order of testing
+     */
+    public void schedule(List<CompModel> compModels) {
+        for (CompModel compModel : compModels) {
+            if (mPendingTasks.size() > mLookahead) {
+                // Back pressure: the current component + lookahead
+                break;
+            }
+            mPendingTasks.computeIfAbsent(compModel.getClassName(),
+                    k -> mExecutor.submit(() -> mGenerator.apply(compModel)));
+        }
+    }
+
+    /**
+     * Take the ready strategies of a component, waiting for its generation if necessary.
+     * The component will be prepared in place if it has not been scheduled.
+     *
+     * @param compModel Component model
+     * @return Ready strategies
+     */
+    public Collection<String> take(CompModel compModel) {
+        mTakeCnt++;
+        Future<Collection<String>> task = mPendingTasks.remove(compModel.getClassName());
+        if (task == null) {
+            task = mExecutor.submit(() -> mGenerator.apply(compModel));
+        }
+        long beginTime = System.currentTimeMillis();
+        boolean waited = !task.isDone();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted when waiting for testcase generation", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to generate testcases for " + compModel.getClassName(), e.getCause());
+        } finally {
+            if (waited) {
+                long waitMs = System.currentTimeMillis() - beginTime;
+                mWaitCnt++;
+                mWaitTotalMs += waitMs;
+                mWaitMaxMs = Math.max(mWaitMaxMs, waitMs);
+                log.debug("Waited {} ms for testcases of [{}]", waitMs, compModel.getClassName());
+            }
+        }
+    }
+
+    /**
+     * Cancel all scheduled tasks, e.g. when switching to another APK.
+     */
+    public void clear() {
+        for (Future<Collection<String>> task : mPendingTasks.values()) {
+            task.cancel(false);
+        }
+        mPendingTasks.clear();
+    }
+
+    public void logStats() {
+        log.info("Testcase generation pipeline: lookahead={}, taken={}, waited={}, waitTotal={} ms, waitMax={} ms",
+                mLookahead, mTakeCnt, mWaitCnt, mWaitTotalMs, mWaitMaxMs);
+    }
+
+    public void shutdown() {
+        clear();
+        mExecutor.shutdown();
+        logStats();
+    }
+}
@@ -0,0 +1,67 @@
+package org.square16.ictdroid.testcase;
+
+import org.square16.ictdroid.Constants;
+import org.square16.ictdroid.testcase.provider.ValueProviderICCBot;
+import org.square16.ictdroid.testcase.provider.ValueProviderPreset;
+import org.square16.ictdroid.testcase.provider.ValueProviderRandomWithStruct;
+import org.square16.ictdroid.utils.CompModel;
+import org.square16.ictdroid.utils.Config;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Generate testcases of one component with the default value providers.
+ * <p>
+ * This class is also the entry of isolated generation: when it is loaded by an isolated class loader,
+ * ACTS and all classes in this package get their own static state, and only JDK types and types from
+ * {@code org.square16.ictdroid.utils} are allowed to cross the boundary.
+ */
+public class TestcaseGenTask {
+    private static ScopeConfig isolatedScopeConfig = null;
+
+    /**
+     * Entry of isolated generation, with the scope config loaded from global config.
+     *
+     * @param compModel  Component model
+     * @param outputPath Path to the output CSV
+     * @return true if the CSV is generated
+     */
+    public static boolean generate(CompModel compModel, String outputPath) {
+        if (isolatedScopeConfig == null) {
+            Config config = Config.getInstance();
+            boolean hasPath = config.getScopeConfigPath() != null;
+            ScopeConfig scopeConfig = new ScopeConfig();
+            scopeConfig.loadScopeConfig(
+                    hasPath ? config.getScopeConfigPath().toString() : Constants.DEFAULT_SCOPE_CONFIG, hasPath
+            );
+            isolatedScopeConfig = scopeConfig;
+        }
+        return generate(compModel, isolatedScopeConfig, outputPath);
+    }
+
+    /**
+     * Generate testcases of a component.
+     *
+     * @param compModel   Component model
+     * @param scopeConfig Scope config
+     * @param outputPath  Path to the output CSV
+     * @return true if the CSV is generated
+     */
+    public static boolean generate(CompModel compModel, ScopeConfig scopeConfig, String outputPath) {
+        Config config = Config.getInstance();
+        BaseTestcaseBuilder builder = new ACTSTestcaseBuilder(compModel, scopeConfig);
+        builder.addValueProvider(new ValueProviderPreset(compModel));
+        builder.addValueProvider(new ValueProviderICCBot(
+                compModel, compModel.getFullValueSet(), scopeConfig
+        ));
+        builder.addValueProvider(new ValueProviderRandomWithStruct(
+                compModel, compModel.getFullValueSet(),
+                scopeConfig, config.getRandValNum(),
+                config.getStrMinLength(), config.getStrMaxLength()
+        ));
+        builder.collect();
+        builder.build(outputPath);
+        return Files.exists(Paths.get(outputPath));
+    }
+}
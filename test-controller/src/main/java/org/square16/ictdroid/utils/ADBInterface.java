@@ -1,23 +1,50 @@
 package org.square16.ictdroid.utils;
 
 import lombok.extern.slf4j.Slf4j;
+import org.square16.ictdroid.Constants;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 @Slf4j
 public class ADBInterface {
+    private static final Pattern DEVICE_LOST_PATTERN = Pattern.compile(
+            "error: device .* not found|device offline|no devices/emulators found|device unauthorized"
+    );
     private Path adbExecPath;
     private String deviceSerial;
-    private boolean isConnected = false;
-    private ADBInterface() {
+    private volatile boolean isConnected = false;
+    private boolean isShellSessionEnabled = true;
+    private ADBWireClient wireClient = new ADBWireClient();
+    private final Deque<ADBShellSession> idleShellSessions = new ArrayDeque<>();
+    private final List<ADBShellSession> shellSessions = new ArrayList<>();
+    /**
+     * Snapshot of <b>pm list packages</b>, kept up to date by install and uninstall
+     */
+    private Set<String> installedPackages = null;
+    private volatile Integer sdkVersion = null;
+    private volatile Boolean isShellV2 = null;
+
+    /**
+     * Use {@link #getInstance()} or {@link #newInstance()}, tests may extend it to fake a device.
+     */
+    protected ADBInterface() {
 
     }
 
@@ -25,6 +52,16 @@ public class ADBInterface {
         return ADBInterfaceHolder.INSTANCE;
     }
 
+    /**
+     * Create a standalone interface which is not shared with {@link #getInstance()}.
+     * Used when more than one device is driven at the same time.
+     *
+     * @return New ADBInterface instance
+     */
+    public static ADBInterface newInstance() {
+        return new ADBInterface();
+    }
+
     private Process callADB(String[] args) {
         List<String> cmd = new ArrayList<>();
         cmd.add(this.adbExecPath.toString());
@@ -46,38 +83,220 @@ public class ADBInterface {
         return null;
     }
 
+    /**
+     * Start a process of <b>adb shell</b> for {@link ADBShellSession}.
+     */
+    private Process startShellProcess() {
+        if (!this.isConnected) {
+            return null;
+        }
+        return this.callADB(new String[]{"shell"});
+    }
+
+    /**
+     * Whether the device supports shell_v2, which keeps stderr of <b>adb shell</b> as a separate stream.
+     */
+    private boolean isShellV2() {
+        Boolean res = this.isShellV2;
+        if (res != null) {
+            return res;
+        }
+        if (this.wireClient != null) {
+            try {
+                res = this.wireClient.getFeatures(this.deviceSerial).contains("shell_v2");
+            } catch (IOException e) {
+                this.onWireUnavailable("features", e);
+            }
+        }
+        if (res == null) {
+            ADBResult features = this.callADBSync("features");
+            res = features != null && features.out != null && features.out.contains("shell_v2");
+        }
+        log.debug("adb shell_v2 {}supported by the device", res ? "" : "not ");
+        this.isShellV2 = res;
+        return res;
+    }
+
+    private ADBShellSession acquireShellSession() {
+        synchronized (idleShellSessions) {
+            while (idleShellSessions.isEmpty()) {
+                if (shellSessions.size() < Constants.ADB_SHELL_SESSION_MAX) {
+                    ADBShellSession session = new ADBShellSession(this::startShellProcess, this::isShellV2);
+                    shellSessions.add(session);
+                    return session;
+                }
+                try {
+                    idleShellSessions.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return idleShellSessions.pop();
+        }
+    }
+
+    private void releaseShellSession(ADBShellSession session) {
+        synchronized (idleShellSessions) {
+            idleShellSessions.push(session);
+            idleShellSessions.notifyAll();
+        }
+    }
+
+    private void closeShellSessions() {
+        synchronized (idleShellSessions) {
+            shellSessions.forEach(ADBShellSession::close);
+        }
+    }
+
+    /**
+     * Run a shell command, through a persistent shell session if possible.
+     */
+    private ADBResult callShell(String command) {
+        if (this.isShellSessionEnabled && this.isConnected) {
+            ADBShellSession session = acquireShellSession();
+            if (session != null) {
+                ADBShellSession.Result sessionRes;
+                boolean isCommandSent;
+                String lastError;
+                try {
+                    sessionRes = session.exec(command, Constants.TIMEOUT_ADB_SHELL_MS);
+                    isCommandSent = session.isCommandSent();
+                    lastError = session.getLastError();
+                } finally {
+                    releaseShellSession(session);
+                }
+                if (sessionRes != null) {
+                    ADBResult result = new ADBResult();
+                    result.out = sessionRes.out().isBlank() ? null : sessionRes.out().trim();
+                    result.err = sessionRes.err().isBlank() ? null : sessionRes.err().trim();
+                    result.exitCode = sessionRes.exitCode();
+                    return result;
+                }
+                if (isCommandSent) {
+                    // The command may have run on the device, do not run it again
+                    ADBResult result = new ADBResult();
+                    result.err = "error: adb shell session failed: " + lastError;
+                    this.checkDeviceLost(result.err);
+                    return result;
+                }
+            }
+            log.debug("adb shell session unavailable, fallback to adb process: {}", command);
+        }
+        if (this.wireClient != null && this.isConnected) {
+            try {
+                ADBShellSession.Result wireRes = this.wireClient.shell(this.deviceSerial, command,
+                        Constants.TIMEOUT_ADB_SHELL_MS);
+                ADBResult result = new ADBResult();
+                result.out = wireRes.out().isBlank() ? null : wireRes.out().trim();
+                result.err = wireRes.err().isBlank() ? null : wireRes.err().trim();
+                result.exitCode = wireRes.exitCode() >= 0 ? wireRes.exitCode() : null;
+                return result;
+            } catch (ADBWireClient.ADBWireException e) {
+                return this.getWireFailResult(e);
+            } catch (IOException e) {
+                this.onWireUnavailable("shell", e);
+            }
+        }
+        return this.callADBSync(Constants.TIMEOUT_ADB_SHELL_MS, null, "shell", command);
+    }
+
     private Process callADBAsync(String... args) {
         return this.callADB(args);
     }
 
     private ADBResult callADBSync(String... args) {
+        return this.callADBSync(Constants.TIMEOUT_ADB_MS, null, args);
+    }
+
+    /**
+     * Run adb and wait for it to exit.
+     * stdout and stderr are drained at the same time, and adb is killed if it does not exit in time.
+     *
+     * @param timeoutMs    Max time to wait for adb
+     * @param lineCallback Called with each stdout line as soon as it is read, can be null
+     * @param args         adb arguments
+     * @return Result of adb, or null if failed to start adb
+     */
+    private ADBResult callADBSync(long timeoutMs, Consumer<String> lineCallback, String... args) {
         Process p = this.callADB(args);
         if (p == null) {
             return null;
         }
-        StringBuilder stdoutBuffer = new StringBuilder();
-        StringBuilder stderrBuffer = new StringBuilder();
         try {
-            BufferedReader stdout = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            BufferedReader stderr = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-
-            int b;
-            while ((b = stdout.read()) != -1) {
-                stdoutBuffer.append((char) b);
-            }
-            while ((b = stderr.read()) != -1) {
-                stderrBuffer.append((char) b);
+            // adb never reads stdin here, and some commands wait for it to be closed
+            p.getOutputStream().close();
+        } catch (IOException ignored) {
+        }
+        CompletableFuture<StreamDrainer.Output> stdout = StreamDrainer.start(
+                p.getInputStream(), Constants.ADB_OUTPUT_MAX_BYTES, lineCallback);
+        CompletableFuture<StreamDrainer.Output> stderr = StreamDrainer.start(
+                p.getErrorStream(), Constants.ADB_OUTPUT_MAX_BYTES, null);
+        boolean isTimeout = false;
+        try {
+            if (!p.waitFor(timeoutMs, TimeUnit.MILLISECONDS)) {
+                isTimeout = true;
+                log.error("adb command timeout after {} ms, killed: {}", timeoutMs, Arrays.toString(args));
+                p.destroy();
+                if (!p.waitFor(1, TimeUnit.SECONDS)) {
+                    p.destroyForcibly();
+                }
             }
-        } catch (IOException e) {
-            log.error("IOException when reading adb result", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            p.destroyForcibly();
+            isTimeout = true;
         }
         ADBResult result = new ADBResult();
-        result.out = stdoutBuffer.length() > 0 ? stdoutBuffer.toString().trim() : null;
-        result.err = stderrBuffer.length() > 0 ? stderrBuffer.toString().trim() : null;
+        try {
+            // Streams are closed after adb exits, but the children of adb may still hold them
+            StreamDrainer.Output out = stdout.get(Constants.TIMEOUT_ADB_DRAIN_MS, TimeUnit.MILLISECONDS);
+            StreamDrainer.Output err = stderr.get(Constants.TIMEOUT_ADB_DRAIN_MS, TimeUnit.MILLISECONDS);
+            if (out.isTruncated() || err.isTruncated()) {
+                log.warn("adb output exceeds {} bytes and is truncated: {}", Constants.ADB_OUTPUT_MAX_BYTES,
+                        Arrays.toString(args));
+            }
+            result.out = out.content().isEmpty() ? null : out.content().trim();
+            result.err = err.content().isEmpty() ? null : err.content().trim();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.error("Failed to read adb result: {}", Arrays.toString(args), e);
+        }
+        if (isTimeout) {
+            result.err = "error: timeout after " + timeoutMs + " ms" + (result.err != null ? "\n" + result.err : "");
+        } else if (!p.isAlive()) {
+            result.exitCode = p.exitValue();
+        }
+        this.checkDeviceLost(result.err);
         // log.debug("ADB result\n=== adb result start\n{}\n=== adb result end", result);
         return result;
     }
 
+    private void checkDeviceLost(String err) {
+        if (err != null && this.isConnected && DEVICE_LOST_PATTERN.matcher(err).find()) {
+            log.error("Device{} is lost: {}", this.deviceSerial != null ? " [" + this.deviceSerial + "]" : "", err);
+            this.isConnected = false;
+        }
+    }
+
+    /**
+     * Convert a rejected request of adb server to the result of adb executable.
+     */
+    private ADBResult getWireFailResult(ADBWireClient.ADBWireException e) {
+        ADBResult result = new ADBResult();
+        result.err = "error: " + e.getMessage();
+        this.checkDeviceLost(result.err);
+        return result;
+    }
+
+    /**
+     * Called when the adb server is not reachable through socket, the adb executable will be used.
+     */
+    private void onWireUnavailable(String request, IOException e) {
+        log.debug("adb server is not reachable for [{}], fallback to adb executable: {}", request, e.getMessage());
+    }
+
     public Path getADBExecPath() {
         return this.adbExecPath;
     }
@@ -95,16 +314,46 @@ public class ADBInterface {
         return this.adbExecPath == null ? null : this.adbExecPath.toString();
     }
 
+    public String getDeviceSerial() {
+        return this.deviceSerial;
+    }
+
     public boolean isConnected() {
         return this.isConnected;
     }
 
+    /**
+     * Whether to talk to adb server through socket directly.
+     * If disabled, or the server is not reachable, the adb executable is used.
+     */
+    public void setWireClientEnabled(boolean enabled) {
+        this.wireClient = enabled ? new ADBWireClient() : null;
+    }
+
     public void disconnect() {
         this.isConnected = false;
+        this.closeShellSessions();
+    }
+
+    /**
+     * Whether to run shell commands through persistent shell sessions.
+     * If disabled, an adb process is forked for every command.
+     */
+    public void setShellSessionEnabled(boolean enabled) {
+        this.isShellSessionEnabled = enabled;
+        if (!enabled) {
+            this.closeShellSessions();
+        }
     }
 
     public boolean connect(String deviceSerial) {
+        if (this.deviceSerial != null && !this.deviceSerial.equals(deviceSerial)) {
+            this.closeShellSessions();
+        }
         this.deviceSerial = deviceSerial;
+        this.sdkVersion = null;
+        this.isShellV2 = null;
+        this.invalidatePackageCache();
         return this.connect();
     }
 
@@ -113,6 +362,25 @@ public class ADBInterface {
             log.error("ADB executable path is not specified");
             return false;
         }
+        if (this.wireClient != null) {
+            try {
+                String state = this.wireClient.getState(this.deviceSerial);
+                if (!"device".equals(state)) {
+                    log.error("adb get-state returned error! state={}", state);
+                    return false;
+                }
+                log.info("adb connected to device{} through adb server",
+                        this.deviceSerial != null ? " [" + this.deviceSerial + "]" : "");
+                this.isConnected = true;
+                return true;
+            } catch (ADBWireClient.ADBWireException e) {
+                log.error("adb get-state returned error! {}", e.getMessage());
+                return false;
+            } catch (IOException e) {
+                // adb server may be not started yet, adb executable will start it
+                this.onWireUnavailable("get-state", e);
+            }
+        }
         ADBResult res = this.callADBSync("devices");
         if (res == null) {
             log.error("adb devices returned error! res:\n{}", res);
@@ -128,9 +396,25 @@ public class ADBInterface {
         return true;
     }
 
+    /**
+     * Run a shell command with a forked adb process, and handle its output line by line.
+     *
+     * @param command      Shell command
+     * @param timeoutMs    Max time to wait for the command
+     * @param lineCallback Called with each stdout line as soon as it is read
+     * @return true if the command finished in time without error, false otherwise
+     */
+    public boolean shellSync(String command, long timeoutMs, Consumer<String> lineCallback) {
+        ADBResult res = this.callADBSync(timeoutMs, lineCallback, "shell", command);
+        if (res == null || res.err != null) {
+            log.error("Failed to call adb shell, res={}", res);
+            return false;
+        }
+        return true;
+    }
+
     public String shellSync(String command) {
-        String[] shellCommand = Arrays.asList("shell", command).toArray(String[]::new);
-        ADBResult res = this.callADBSync(shellCommand);
+        ADBResult res = this.callShell(command);
         if (res == null) {
             log.error("Failed to call adb shell: no result");
             return null;
@@ -142,6 +426,23 @@ public class ADBInterface {
         return res.out;
     }
 
+    /**
+     * Run a shell command and keep its stdout, stderr and exit code.
+     * Unlike {@link #shellSync(String)}, a command which prints nothing or prints to stderr is not a failure.
+     *
+     * @param command Shell command
+     * @return Result of the command, the exit code is -1 if unknown, or null if failed to run the command
+     */
+    public ADBShellSession.Result shellResult(String command) {
+        ADBResult res = this.callShell(command);
+        if (res == null) {
+            log.error("Failed to call adb shell: no result");
+            return null;
+        }
+        return new ADBShellSession.Result(res.out != null ? res.out : "", res.err != null ? res.err : "",
+                res.exitCode != null ? res.exitCode : -1);
+    }
+
     public Integer forward(Integer remotePort) {
         return this.forward("tcp:0", "tcp:" + remotePort);
     }
@@ -153,6 +454,17 @@ public class ADBInterface {
     private Integer forward(String local, String remote) {
         String localParam = local.startsWith("tcp:") ? local : "tcp:" + local;
         String remoteParam = remote.startsWith("tcp:") ? remote : "tcp:" + remote;
+        if (this.wireClient != null) {
+            try {
+                return this.wireClient.forward(this.deviceSerial, localParam, remoteParam);
+            } catch (ADBWireClient.ADBWireException e) {
+                log.error("Failed to forward [{}] to [{}]: {}", localParam, remoteParam, e.getMessage());
+                this.checkDeviceLost("error: " + e.getMessage());
+                return null;
+            } catch (IOException e) {
+                this.onWireUnavailable("forward", e);
+            }
+        }
         ADBResult res = this.callADBSync("forward", localParam, remoteParam);
         if (res == null || res.err != null) {
             log.error("Failed to call adb forward, res={}", res);
@@ -173,6 +485,18 @@ public class ADBInterface {
 
     private boolean removeForward(String local) {
         String localParam = local.startsWith("tcp:") ? local : "tcp:" + local;
+        if (this.wireClient != null) {
+            try {
+                this.wireClient.removeForward(this.deviceSerial, localParam);
+                log.info("Removed port forwarding on [{}]", localParam);
+                return true;
+            } catch (ADBWireClient.ADBWireException e) {
+                log.warn("Failed to remove port forwarding on [{}]: {}", localParam, e.getMessage());
+                return false;
+            } catch (IOException e) {
+                this.onWireUnavailable("killforward", e);
+            }
+        }
         ADBResult res = this.callADBSync("forward", "--remove", localParam);
         if (res == null || res.err != null) {
             log.warn("Failed to call adb forward --remove, res={}", res);
@@ -191,11 +515,123 @@ public class ADBInterface {
     }
 
     public Process getLogcatProcess(String verbosity) {
-        this.callADBSync("logcat", "-c");
-        return this.callADBAsync("logcat", "-v", verbosity);
+        return this.getLogcatProcess(verbosity, null, null);
+    }
+
+    /**
+     * Start streaming logcat in text format.
+     *
+     * @param verbosity Logcat verbosity
+     * @param uids      Only lines of these uids are output (requires Android 9), or null for all
+     * @param since     Start from lines at this time without clearing the buffer,
+     *                  or null to clear the buffer first
+     * @return Logcat process, or null if failed
+     */
+    public Process getLogcatProcess(String verbosity, Collection<Integer> uids, String since) {
+        List<String> args = getLogcatArgs(uids, since);
+        args.add("-v");
+        args.add(verbosity);
+        return this.startLogcat(args, false);
+    }
+
+    /**
+     * Start streaming logcat in binary format, which is parsed by
+     * {@link org.square16.ictdroid.logcat.parser.BinaryLogParser}.
+     * The output is not passed through PTY, so that binary entries are not corrupted.
+     *
+     * @return Logcat process, or null if failed
+     */
+    public Process getBinaryLogcatProcess() {
+        return this.getBinaryLogcatProcess(null, null);
+    }
+
+    /**
+     * Start streaming logcat in binary format.
+     *
+     * @param uids  Only entries of these uids are output (requires Android 9), or null for all
+     * @param since Start from entries at this time without clearing the buffer, preferably as
+     *              <b>sssss.mmm</b> seconds since epoch, or null to clear the buffer first
+     * @return Logcat process, or null if failed
+     */
+    public Process getBinaryLogcatProcess(Collection<Integer> uids, String since) {
+        List<String> args = getLogcatArgs(uids, since);
+        args.add("-B");
+        return this.startLogcat(args, true);
+    }
+
+    private static List<String> getLogcatArgs(Collection<Integer> uids, String since) {
+        List<String> args = new ArrayList<>(List.of("logcat"));
+        if (uids != null && !uids.isEmpty()) {
+            args.add("--uid=" + String.join(",", uids.stream().map(String::valueOf).toList()));
+        }
+        if (since != null) {
+            args.add("-T");
+            args.add("'" + since + "'");
+        }
+        return args;
+    }
+
+    private Process startLogcat(List<String> args, boolean isBinary) {
+        boolean isClear = !args.contains("-T");
+        if (this.wireClient != null) {
+            try {
+                if (isClear) {
+                    this.callShell("logcat -c");
+                }
+                String command = String.join(" ", args);
+                return isBinary ? this.wireClient.execStream(this.deviceSerial, command)
+                        : this.wireClient.shellStream(this.deviceSerial, command);
+            } catch (IOException e) {
+                this.onWireUnavailable("logcat", e);
+            }
+        }
+        if (isClear) {
+            this.callADBSync("logcat", "-c");
+        }
+        List<String> adbArgs = new ArrayList<>(args);
+        if (isBinary) {
+            adbArgs.add(0, "exec-out");
+        }
+        return this.callADBAsync(adbArgs.toArray(new String[0]));
+    }
+
+    /**
+     * Start streaming the events log buffer, with only the given tags.
+     * Existing events are skipped and the buffer is not cleared.
+     *
+     * @param tags Event tags
+     * @return Logcat process, or null if failed
+     */
+    public Process getEventLogProcess(String... tags) {
+        List<String> args = new ArrayList<>(List.of("logcat", "-b", "events", "-v", "brief", "-T", "1"));
+        for (String tag : tags) {
+            args.add(tag + ":I");
+        }
+        args.add("*:S");
+        if (this.wireClient != null) {
+            try {
+                return this.wireClient.shellStream(this.deviceSerial, String.join(" ", args));
+            } catch (IOException e) {
+                this.onWireUnavailable("logcat", e);
+            }
+        }
+        return this.callADBAsync(args.toArray(new String[0]));
     }
 
     public boolean pushSync(String localPath, String remotePath) {
+        if (this.wireClient != null) {
+            try {
+                long size = this.wireClient.push(this.deviceSerial, Paths.get(localPath), remotePath);
+                log.debug("Pushed {} bytes to [{}]", size, remotePath);
+                return true;
+            } catch (ADBWireClient.ADBWireException e) {
+                log.error("Failed to push [{}] to [{}]: {}", localPath, remotePath, e.getMessage());
+                this.checkDeviceLost("error: " + e.getMessage());
+                return false;
+            } catch (IOException e) {
+                this.onWireUnavailable("sync", e);
+            }
+        }
         String[] pushCommand = Arrays.asList("push", localPath, remotePath).toArray(String[]::new);
         ADBResult res = this.callADBSync(pushCommand);
         if (res == null || res.err != null) {
@@ -205,6 +641,100 @@ public class ADBInterface {
         return res.out.contains("pushed,");
     }
 
+    /**
+     * Get installed packages on the device.
+     * The result of <b>pm list packages</b> is cached until {@link #invalidatePackageCache()}.
+     *
+     * @return Package IDs, or null if failed
+     */
+    public Set<String> getInstalledPackages() {
+        synchronized (this) {
+            if (installedPackages != null) {
+                return Set.copyOf(installedPackages);
+            }
+        }
+        ADBResult res = this.callShell("pm list packages");
+        if (res == null || res.out == null || (res.exitCode != null && res.exitCode != 0)) {
+            log.error("Failed to list installed packages, res={}", res);
+            return null;
+        }
+        Set<String> packages = new HashSet<>();
+        for (String line : res.out.split("\n")) {
+            line = line.trim();
+            if (line.startsWith("package:")) {
+                packages.add(line.substring("package:".length()));
+            }
+        }
+        synchronized (this) {
+            installedPackages = packages;
+        }
+        log.debug("Found {} installed packages", packages.size());
+        return Set.copyOf(packages);
+    }
+
+    /**
+     * Get the uid of an installed package (using <b>pm list packages -U</b>).
+     *
+     * @param packageId Package ID
+     * @return uid, or null if not installed or failed
+     */
+    public Integer getPackageUid(String packageId) {
+        ADBResult res = this.callShell("pm list packages -U " + packageId);
+        if (res == null || res.out == null) {
+            log.error("Failed to get uid of package [{}], res={}", packageId, res);
+            return null;
+        }
+        String prefix = "package:" + packageId + " uid:";
+        for (String line : res.out.split("\n")) {
+            line = line.trim();
+            if (line.startsWith(prefix)) {
+                try {
+                    // Multiple uids are separated by comma for multiple users
+                    return Integer.parseInt(line.substring(prefix.length()).split(",")[0]);
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+        log.warn("Cannot find uid of package [{}]", packageId);
+        return null;
+    }
+
+    /**
+     * Get SDK version of the device (using <b>getprop</b>).
+     *
+     * @return SDK version, or null if failed
+     */
+    public Integer getSdkVersion() {
+        if (sdkVersion == null) {
+            String res = this.shellSync("getprop ro.build.version.sdk");
+            try {
+                sdkVersion = res != null ? Integer.parseInt(res.trim()) : null;
+            } catch (NumberFormatException e) {
+                log.error("Invalid SDK version: {}", res);
+            }
+        }
+        return sdkVersion;
+    }
+
+    /**
+     * Drop the cached package list, e.g. when packages are changed outside.
+     */
+    public synchronized void invalidatePackageCache() {
+        installedPackages = null;
+    }
+
+    private synchronized void updatePackageCache(String packageId, boolean isInstalled) {
+        if (installedPackages == null || packageId == null) {
+            return;
+        }
+        if (isInstalled) {
+            installedPackages.add(packageId);
+        } else {
+            installedPackages.remove(packageId);
+        }
+    }
+
     /**
      * Check whether a package is installed or not.
      *
@@ -212,9 +742,8 @@ public class ADBInterface {
      * @return true if installed, false otherwise
      */
     public boolean isPackageInstalled(String packageId) {
-        String command = "pm list packages | grep \"" + packageId + "\"";
-        String res = this.shellSync(command);
-        return res != null && !"".equals(res.trim());
+        Set<String> packages = this.getInstalledPackages();
+        return packages != null && packages.contains(packageId);
     }
 
     /**
@@ -224,8 +753,29 @@ public class ADBInterface {
      * @return true if installed, false otherwise
      */
     public boolean installSync(String apkPath) {
+        return this.installSync(apkPath, null);
+    }
+
+    /**
+     * Install APK sync
+     *
+     * @param apkPath   Path to apk file
+     * @param packageId Package ID of the apk, used to keep the package cache up to date. Nullable
+     * @return true if installed, false otherwise
+     */
+    public boolean installSync(String apkPath, String packageId) {
+        boolean isInstalled = this.callInstall(apkPath);
+        if (isInstalled && packageId != null) {
+            this.updatePackageCache(packageId, true);
+        } else if (isInstalled) {
+            this.invalidatePackageCache();
+        }
+        return isInstalled;
+    }
+
+    private boolean callInstall(String apkPath) {
         String[] command = Arrays.asList("install", "-g", apkPath).toArray(String[]::new);
-        ADBResult res = this.callADBSync(command);
+        ADBResult res = this.callADBSync(Constants.TIMEOUT_ADB_INSTALL_MS, null, command);
         if (res == null) {
             return false;
         }
@@ -247,8 +797,15 @@ public class ADBInterface {
      * @return true if uninstalled, false otherwise
      */
     public boolean uninstallSync(String packageId) {
-        String[] shellCommand = Arrays.asList("shell", "pm uninstall \"" + packageId + "\"").toArray(String[]::new);
-        ADBResult res = this.callADBSync(shellCommand);
+        boolean isUninstalled = this.callUninstall(packageId);
+        if (isUninstalled) {
+            this.updatePackageCache(packageId, false);
+        }
+        return isUninstalled;
+    }
+
+    private boolean callUninstall(String packageId) {
+        ADBResult res = this.callShell("pm uninstall \"" + packageId + "\"");
         if (res == null) {
             log.error("Failed to uninstall package [{}]: no result", packageId);
             return false;
@@ -274,6 +831,25 @@ public class ADBInterface {
         this.shellSync(command);
     }
 
+    /**
+     * Force stop applications with as few shell commands as possible.
+     *
+     * @param pkgIds App Package IDs
+     */
+    public void forceStopApps(Collection<String> pkgIds) {
+        List<String> commands = new ArrayList<>();
+        for (String pkgId : pkgIds) {
+            commands.add("am force-stop \"" + pkgId + "\"");
+            if (commands.size() >= Constants.ADB_BATCH_CMD_NUM) {
+                this.shellSync(String.join("; ", commands));
+                commands.clear();
+            }
+        }
+        if (!commands.isEmpty()) {
+            this.shellSync(String.join("; ", commands));
+        }
+    }
+
     /**
      * Close all system dialogs to avoid window stack overflow.
      */
@@ -282,6 +858,20 @@ public class ADBInterface {
         this.shellSync(command);
     }
 
+    /**
+     * Write a line to the device log (using <b>log</b>).
+     *
+     * @param tag Log tag
+     * @param msg Log message
+     * @return true if succeed, false otherwise
+     */
+    public boolean writeLog(String tag, String msg) {
+        String command = "log -t \"" + tag + "\" \"" + msg + "\"";
+        // log prints nothing on success, so judge by the result instead of the output
+        ADBShellSession.Result res = this.shellResult(command);
+        return res != null && res.isSucceeded();
+    }
+
     /**
      * Force stop an application (using <b>am start</b>).
      *
@@ -296,16 +886,17 @@ public class ADBInterface {
     private static class ADBResult {
         private String out;
         private String err;
+        private Integer exitCode;
 
         @Override
         public String toString() {
             return String.format("""
-                    ADBResult dump
+                    ADBResult dump, exitCode=%s
                     ======== STDOUT ========
                     %s
                     ======== STDERR ========
                     %s
-                    ========================""", out, err);
+                    ========================""", exitCode, out, err);
         }
     }
 
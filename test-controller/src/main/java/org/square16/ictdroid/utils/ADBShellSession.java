@@ -0,0 +1,264 @@
+package org.square16.ictdroid.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A long-lived <b>adb shell</b> session, which runs commands one by one without forking a new adb process.
+ * <p>
+ * After each command, a unique sentinel with the exit code is echoed to stdout, and the same sentinel
+ * is echoed to stderr if stderr is a separate stream, so the output of each command can be split from the streams.
+ * Without the shell_v2 feature of adb (Android 7.0 and below), stderr of the device is merged into stdout,
+ * then only the stdout sentinel is used and the stderr of commands is a part of stdout.
+ * <p>
+ * The session is restarted automatically if the shell process exits. A command is never run twice:
+ * it is only retried if the session is broken before the command is written.
+ */
+@Slf4j
+public class ADBShellSession implements Closeable {
+    private static final String SENTINEL_PREFIX = "__ICTDROID_EOC_";
+    /**
+     * Marks the end of a stream in the line queues.
+     */
+    private static final String EOF = new String("EOF");
+
+    private final Supplier<Process> mProcessSupplier;
+    private final BooleanSupplier mStderrSeparateSupplier;
+    private final String mSessionId;
+    private Process mProcess;
+    private boolean mIsStderrSeparate;
+    private boolean mIsCommandSent;
+    private String mLastError;
+    private BufferedWriter mStdin;
+    private BlockingQueue<String> mStdoutLines;
+    private BlockingQueue<String> mStderrLines;
+    private long mSeq = 0;
+
+    /**
+     * @param processSupplier Starts the shell process, returns null if failed
+     */
+    public ADBShellSession(Supplier<Process> processSupplier) {
+        this(processSupplier, () -> true);
+    }
+
+    /**
+     * @param processSupplier        Starts the shell process, returns null if failed
+     * @param stderrSeparateSupplier Whether stderr of the shell is a separate stream, checked on each start
+     */
+    public ADBShellSession(Supplier<Process> processSupplier, BooleanSupplier stderrSeparateSupplier) {
+        mProcessSupplier = processSupplier;
+        mStderrSeparateSupplier = stderrSeparateSupplier;
+        mSessionId = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    }
+
+    private boolean ensureStarted() {
+        if (mProcess != null && mProcess.isAlive()) {
+            return true;
+        }
+        close();
+        Process process = mProcessSupplier.get();
+        if (process == null) {
+            return false;
+        }
+        mProcess = process;
+        mIsStderrSeparate = mStderrSeparateSupplier.getAsBoolean();
+        mStdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        mStdoutLines = startReader(process.getInputStream(), "stdout");
+        mStderrLines = startReader(process.getErrorStream(), "stderr");
+        log.debug("Started adb shell session {}", mSessionId);
+        return true;
+    }
+
+    private BlockingQueue<String> startReader(InputStream is, String name) {
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    lines.add(line);
+                }
+            } catch (IOException e) {
+                log.debug("adb shell session {} {} closed: {}", mSessionId, name, e.getMessage());
+            } finally {
+                lines.add(EOF);
+            }
+        }, "ADBShellSession-" + name);
+        reader.setDaemon(true);
+        reader.start();
+        return lines;
+    }
+
+    /**
+     * Run a command in the session.
+     * If null is returned, check {@link #isCommandSent()} before running the command in other ways.
+     *
+     * @param command   Shell command, should be in a single line
+     * @param timeoutMs Max time to wait for the command
+     * @return Result of the command, or null if failed or timeout
+     */
+    public synchronized Result exec(String command, long timeoutMs) {
+        mIsCommandSent = false;
+        mLastError = null;
+        if (command.contains("\n")) {
+            log.debug("Multi-line command is not supported by adb shell session");
+            return null;
+        }
+        // Retry once if the session is broken before writing, as it may be broken since the last command
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (!ensureStarted()) {
+                return null;
+            }
+            String sentinel = SENTINEL_PREFIX + mSessionId + "_" + (++mSeq);
+            try {
+                // stdin of the command is redirected so that it never eats the following commands
+                mStdin.write("{ " + command + "\n} </dev/null; echo \"" + sentinel + " $?\""
+                        + (mIsStderrSeparate ? "; echo \"" + sentinel + "\" >&2\n" : "\n"));
+                mStdin.flush();
+            } catch (IOException e) {
+                log.warn("Failed to write to adb shell session {}: {}", mSessionId, e.getMessage());
+                close();
+                continue;
+            }
+            mIsCommandSent = true;
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            StringBuilder out = new StringBuilder();
+            StringBuilder err = new StringBuilder();
+            try {
+                String exitCode = readUntil(mStdoutLines, sentinel, out, deadline);
+                String errEnd = exitCode != null && exitCode != EOF && mIsStderrSeparate ?
+                        readUntil(mStderrLines, sentinel, err, deadline) : "";
+                if (exitCode == EOF || errEnd == EOF) {
+                    // The command may have run, it is not run again
+                    mLastError = drainLines(mStderrLines, err);
+                    log.warn("adb shell session {} exited after sending command, err={}", mSessionId, mLastError);
+                    close();
+                    return null;
+                }
+                if (exitCode == null || errEnd == null) {
+                    log.warn("Command timeout in adb shell session after {} ms: {}", timeoutMs, command);
+                    mLastError = "timeout after " + timeoutMs + " ms";
+                    close();
+                    return null;
+                }
+                return new Result(out.toString(), err.toString(), parseExitCode(exitCode));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the last command is written to the shell, it may have run even if no result is returned
+     */
+    public synchronized boolean isCommandSent() {
+        return mIsCommandSent;
+    }
+
+    /**
+     * @return Error of the last failed command, e.g. stderr of adb, or null if not available
+     */
+    public synchronized String getLastError() {
+        return mLastError;
+    }
+
+    private static String drainLines(BlockingQueue<String> lines, StringBuilder sb) {
+        String line;
+        while ((line = lines.poll()) != null) {
+            if (line != EOF) {
+                sb.append(line).append('\n');
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Read lines into the buffer until the sentinel.
+     *
+     * @return Remaining text after the sentinel, {@link #EOF} if the stream ended, or null if timeout
+     */
+    private static String readUntil(BlockingQueue<String> lines, String sentinel, StringBuilder sb, long deadline)
+            throws InterruptedException {
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            String line = remaining > 0 ? lines.poll(remaining, TimeUnit.MILLISECONDS) : null;
+            if (line == null || line == EOF) {
+                return line;
+            }
+            int idx = line.indexOf(sentinel);
+            if (idx >= 0) {
+                // Output without trailing newline is followed by the sentinel directly
+                sb.append(line, 0, idx);
+                return line.substring(idx + sentinel.length()).trim();
+            }
+            sb.append(line).append('\n');
+        }
+    }
+
+    private static int parseExitCode(String str) {
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public synchronized boolean isAlive() {
+        return mProcess != null && mProcess.isAlive();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mProcess == null) {
+            return;
+        }
+        try {
+            mStdin.close();
+        } catch (IOException ignored) {
+        }
+        mProcess.destroy();
+        try {
+            if (!mProcess.waitFor(500, TimeUnit.MILLISECONDS)) {
+                mProcess.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mProcess.destroyForcibly();
+        }
+        mProcess = null;
+    }
+
+    /**
+     * Result of a command.
+     *
+     * @param out      stdout
+     * @param err      stderr
+     * @param exitCode Exit code, -1 if unknown
+     */
+    public record Result(String out, String err, int exitCode) {
+        /**
+         * The exit code is unknown on adb without shell_v2, then any error output is a failure.
+         *
+         * @return true if the command succeeded
+         */
+        public boolean isSucceeded() {
+            return exitCode >= 0 ? exitCode == 0 : err.isBlank();
+        }
+    }
+}
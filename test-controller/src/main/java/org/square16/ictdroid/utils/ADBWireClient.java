@@ -0,0 +1,385 @@
+package org.square16.ictdroid.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client of the adb host protocol, which talks to the local adb server directly instead of running adb.
+ * <p>
+ * A request is a 4-digit hex length followed by the payload, and the server answers
+ * <b>OKAY</b> or <b>FAIL</b> followed by a length-prefixed message. Device services
+ * (shell, sync) are requested on the same socket after <b>host:transport</b>.
+ * <p>
+ * A {@link ADBWireException} means the server rejected the request, other {@link IOException}s
+ * mean the server is not reachable and the caller may fall back to the adb executable.
+ */
+@Slf4j
+public class ADBWireClient {
+    public static final int DEFAULT_PORT = 5037;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int SYNC_DATA_MAX = 64 * 1024;
+    private static final int SHELL_ID_STDOUT = 1;
+    private static final int SHELL_ID_STDERR = 2;
+    private static final int SHELL_ID_EXIT = 3;
+
+    private final InetSocketAddress mAddress;
+    private final Map<String, Set<String>> mFeatures = new ConcurrentHashMap<>();
+
+    public ADBWireClient() {
+        this("127.0.0.1", getDefaultPort());
+    }
+
+    public ADBWireClient(String host, int port) {
+        mAddress = new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Port of adb server, can be changed by <b>ANDROID_ADB_SERVER_PORT</b> like adb.
+     */
+    public static int getDefaultPort() {
+        String port = System.getenv("ANDROID_ADB_SERVER_PORT");
+        if (port != null) {
+            try {
+                return Integer.parseInt(port.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid ANDROID_ADB_SERVER_PORT: {}", port);
+            }
+        }
+        return DEFAULT_PORT;
+    }
+
+    private Socket open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(mAddress, CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private static void sendRequest(OutputStream os, String request) throws IOException {
+        byte[] payload = request.getBytes(StandardCharsets.UTF_8);
+        os.write(String.format("%04x", payload.length).getBytes(StandardCharsets.US_ASCII));
+        os.write(payload);
+        os.flush();
+    }
+
+    private static String readString(InputStream is, int len) throws IOException {
+        return new String(readFully(is, len), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readFully(InputStream is, int len) throws IOException {
+        byte[] buf = new byte[len];
+        new DataInputStream(is).readFully(buf);
+        return buf;
+    }
+
+    private static String readProtocolString(InputStream is) throws IOException {
+        String lenHex = readString(is, 4);
+        try {
+            return readString(is, Integer.parseInt(lenHex, 16));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid length from adb server: " + lenHex);
+        }
+    }
+
+    private static void readStatus(InputStream is) throws IOException {
+        String status = readString(is, 4);
+        if ("OKAY".equals(status)) {
+            return;
+        }
+        if ("FAIL".equals(status)) {
+            throw new ADBWireException(readProtocolString(is));
+        }
+        throw new IOException("Unexpected status from adb server: " + status);
+    }
+
+    private static String getHostPrefix(String serial) {
+        return serial != null ? "host-serial:" + serial + ":" : "host:";
+    }
+
+    /**
+     * Send a host request and read the length-prefixed response.
+     *
+     * @param request Host request, e.g. <b>host:version</b>
+     * @return Response string
+     */
+    public String query(String request) throws IOException {
+        try (Socket socket = open()) {
+            sendRequest(socket.getOutputStream(), request);
+            readStatus(socket.getInputStream());
+            return readProtocolString(socket.getInputStream());
+        }
+    }
+
+    public String getState(String serial) throws IOException {
+        return query(getHostPrefix(serial) + "get-state");
+    }
+
+    /**
+     * Get features of the device, cached by serial.
+     */
+    public Set<String> getFeatures(String serial) throws IOException {
+        String key = serial != null ? serial : "";
+        Set<String> features = mFeatures.get(key);
+        if (features == null) {
+            features = Set.of(query(getHostPrefix(serial) + "features").split(","));
+            mFeatures.put(key, features);
+        }
+        return features;
+    }
+
+    private Socket openService(String serial, String service) throws IOException {
+        Socket socket = open();
+        try {
+            sendRequest(socket.getOutputStream(), serial != null ? "host:transport:" + serial : "host:transport-any");
+            readStatus(socket.getInputStream());
+            sendRequest(socket.getOutputStream(), service);
+            readStatus(socket.getInputStream());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Run a shell command and wait for its output.
+     * The shell protocol is used if supported, so that stderr and exit code are available.
+     *
+     * @param serial    Device serial, or null for the only device
+     * @param command   Shell command
+     * @param timeoutMs Max time to wait for the command
+     * @return Result of the command, exit code is -1 if the device does not support shell protocol
+     */
+    public ADBShellSession.Result shell(String serial, String command, long timeoutMs) throws IOException {
+        boolean isShellV2 = getFeatures(serial).contains("shell_v2");
+        try (Socket socket = openService(serial, (isShellV2 ? "shell,v2,raw:" : "shell:") + command)) {
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMs));
+            InputStream is = socket.getInputStream();
+            if (!isShellV2) {
+                return new ADBShellSession.Result(new String(is.readAllBytes(), StandardCharsets.UTF_8), "", -1);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int exitCode = -1;
+            DataInputStream dis = new DataInputStream(is);
+            byte[] header = new byte[5];
+            while (true) {
+                try {
+                    dis.readFully(header);
+                } catch (EOFException e) {
+                    break;
+                }
+                int len = ByteBuffer.wrap(header, 1, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                byte[] data = readFully(dis, len);
+                switch (header[0]) {
+                    case SHELL_ID_STDOUT -> out.write(data);
+                    case SHELL_ID_STDERR -> err.write(data);
+                    case SHELL_ID_EXIT -> exitCode = len > 0 ? data[0] & 0xff : 0;
+                    default -> log.debug("Ignored shell packet id={}", header[0]);
+                }
+                if (header[0] == SHELL_ID_EXIT) {
+                    break;
+                }
+            }
+            return new ADBShellSession.Result(out.toString(StandardCharsets.UTF_8),
+                    err.toString(StandardCharsets.UTF_8), exitCode);
+        } catch (SocketTimeoutException e) {
+            throw new ADBWireException("Shell command timeout in " + timeoutMs + " ms: " + command);
+        }
+    }
+
+    /**
+     * Start a shell command and stream its output, e.g. <b>logcat</b>.
+     * stdout and stderr are merged in the returned process.
+     *
+     * @return Process whose input stream is the command output
+     */
+    public Process shellStream(String serial, String command) throws IOException {
+        return new SocketProcess(openService(serial, "shell:" + command));
+    }
+
+    /**
+     * Start a command without PTY and stream its raw output, e.g. <b>logcat -B</b>.
+     * Unlike {@link #shellStream(String, String)}, no line ending is translated.
+     *
+     * @return Process whose input stream is the command output
+     */
+    public Process execStream(String serial, String command) throws IOException {
+        return new SocketProcess(openService(serial, "exec:" + command));
+    }
+
+    /**
+     * Forward a local socket to device.
+     *
+     * @return Local port, resolved by the server if local is <b>tcp:0</b>
+     */
+    public Integer forward(String serial, String local, String remote) throws IOException {
+        try (Socket socket = open()) {
+            InputStream is = socket.getInputStream();
+            sendRequest(socket.getOutputStream(), getHostPrefix(serial) + "forward:norebind:" + local + ";" + remote);
+            readStatus(is);
+            // The second status is for the forwarding itself, followed by the resolved port if any
+            readStatus(is);
+            byte[] rest = is.readAllBytes();
+            if (rest.length >= 4) {
+                return Integer.parseInt(new String(rest, 4, Integer.parseInt(
+                        new String(rest, 0, 4, StandardCharsets.US_ASCII), 16), StandardCharsets.UTF_8));
+            }
+            return Integer.parseInt(local.substring(local.lastIndexOf(':') + 1));
+        }
+    }
+
+    public void removeForward(String serial, String local) throws IOException {
+        try (Socket socket = open()) {
+            sendRequest(socket.getOutputStream(), getHostPrefix(serial) + "killforward:" + local);
+            readStatus(socket.getInputStream());
+            readStatus(socket.getInputStream());
+        }
+    }
+
+    /**
+     * Push a file with the sync service.
+     *
+     * @param serial     Device serial, or null for the only device
+     * @param localPath  Local file
+     * @param remotePath Remote file path
+     * @return Number of bytes pushed
+     */
+    public long push(String serial, Path localPath, String remotePath) throws IOException {
+        try (Socket socket = openService(serial, "sync:"); InputStream fis = Files.newInputStream(localPath)) {
+            OutputStream os = socket.getOutputStream();
+            InputStream is = socket.getInputStream();
+            byte[] spec = (remotePath + ",0644").getBytes(StandardCharsets.UTF_8);
+            writeSyncHeader(os, "SEND", spec.length);
+            os.write(spec);
+            byte[] buf = new byte[SYNC_DATA_MAX];
+            long total = 0;
+            int n;
+            while ((n = fis.readNBytes(buf, 0, buf.length)) > 0) {
+                writeSyncHeader(os, "DATA", n);
+                os.write(buf, 0, n);
+                total += n;
+            }
+            writeSyncHeader(os, "DONE", (int) (Files.getLastModifiedTime(localPath).toMillis() / 1000));
+            os.flush();
+
+            byte[] resp = readFully(is, 8);
+            String id = new String(resp, 0, 4, StandardCharsets.US_ASCII);
+            int len = ByteBuffer.wrap(resp, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            if ("FAIL".equals(id)) {
+                throw new ADBWireException(readString(is, len));
+            } else if (!"OKAY".equals(id)) {
+                throw new IOException("Unexpected sync response: " + id);
+            }
+            writeSyncHeader(os, "QUIT", 0);
+            os.flush();
+            return total;
+        }
+    }
+
+    private static void writeSyncHeader(OutputStream os, String id, int len) throws IOException {
+        os.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .put(id.getBytes(StandardCharsets.US_ASCII)).putInt(len).array());
+    }
+
+    /**
+     * The adb server rejected a request with <b>FAIL</b>.
+     */
+    public static class ADBWireException extends IOException {
+        public ADBWireException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A device service stream exposed as {@link Process}, so it can replace the adb process.
+     */
+    private static class SocketProcess extends Process {
+        private final Socket mSocket;
+        private final CountDownLatch mClosed = new CountDownLatch(1);
+
+        private SocketProcess(Socket socket) {
+            mSocket = socket;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            try {
+                return mSocket.getOutputStream();
+            } catch (IOException e) {
+                return OutputStream.nullOutputStream();
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            try {
+                return mSocket.getInputStream();
+            } catch (IOException e) {
+                return InputStream.nullInputStream();
+            }
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            mClosed.await();
+            return 0;
+        }
+
+        @Override
+        public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+            return mClosed.await(timeout, unit);
+        }
+
+        @Override
+        public int exitValue() {
+            if (isAlive()) {
+                throw new IllegalThreadStateException("Stream is not closed");
+            }
+            return 0;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return !mSocket.isClosed();
+        }
+
+        @Override
+        public void destroy() {
+            try {
+                mSocket.close();
+            } catch (IOException ignored) {
+            }
+            mClosed.countDown();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package org.square16.ictdroid.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import net.dongliu.apk.parser.ApkFile;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Persistent summary of the APKs under test, so that startup does not have to parse every APK
+ * and its ICCBot model just to get the package name.
+ * <p>
+ * Entries are keyed by APK path and invalidated when the size or modification time of the APK,
+ * or the modification time of its ICCBot component model changes.
+ * Stale entries are rebuilt in parallel by {@link #update(List)}.
+ * The catalog is saved to {@value FILE_NAME} under result path and loaded on the next run.
+ */
+@Slf4j
+public class ApkCatalog {
+    public static final String FILE_NAME = "apk-catalog.json";
+    private static ApkCatalog sInstance = null;
+
+    private final Path mPath;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private volatile boolean mIsDirty = false;
+
+    public ApkCatalog(Path path) {
+        mPath = path;
+        if (path != null && Files.exists(path)) {
+            load();
+        }
+    }
+
+    /**
+     * Get the APK catalog under result path.
+     *
+     * @return Global APK catalog
+     */
+    public static synchronized ApkCatalog getInstance() {
+        if (sInstance == null) {
+            Config config = Config.getInstance();
+            Path path = config.getResultPath() != null ? config.getResultPath().resolve(FILE_NAME) : null;
+            sInstance = new ApkCatalog(path);
+            Runtime.getRuntime().addShutdownHook(new Thread(sInstance::save, "ApkCatalogSaver"));
+        }
+        return sInstance;
+    }
+
+    private void load() {
+        try {
+            JSONObject entriesObj = JSON.parseObject(Files.readString(mPath, StandardCharsets.UTF_8))
+                    .getJSONObject("entries");
+            if (entriesObj == null) {
+                return;
+            }
+            for (String key : entriesObj.keySet()) {
+                JSONObject obj = entriesObj.getJSONObject(key);
+                List<CompInfo> comps = null;
+                JSONArray compsArr = obj.getJSONArray("comps");
+                if (compsArr != null) {
+                    comps = new ArrayList<>();
+                    for (int i = 0; i < compsArr.size(); i++) {
+                        JSONObject compObj = compsArr.getJSONObject(i);
+                        comps.add(new CompInfo(compObj.getString("name"), compObj.getString("type"),
+                                compObj.getBoolean("exported"), compObj.getBoolean("enabled")));
+                    }
+                }
+                mEntries.put(key, new Entry(obj.getLongValue("mtime"), obj.getLongValue("size"),
+                        obj.getLongValue("modelMtime"), obj.getString("pkg"), obj.getString("sha256"), comps));
+            }
+            log.info("Loaded APK catalog of {} APKs from [{}]", mEntries.size(), mPath);
+        } catch (Exception e) {
+            log.warn("Failed to load APK catalog [{}], start from empty", mPath, e);
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Save the catalog to result path if changed.
+     */
+    public synchronized void save() {
+        if (mPath == null || !mIsDirty) {
+            return;
+        }
+        JSONObject entriesObj = new JSONObject();
+        for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            JSONObject obj = new JSONObject();
+            obj.put("mtime", entry.mtime());
+            obj.put("size", entry.size());
+            obj.put("modelMtime", entry.modelMtime());
+            obj.put("pkg", entry.pkgName());
+            obj.put("sha256", entry.sha256());
+            if (entry.comps() != null) {
+                JSONArray compsArr = new JSONArray();
+                for (CompInfo comp : entry.comps()) {
+                    JSONObject compObj = new JSONObject();
+                    compObj.put("name", comp.className());
+                    compObj.put("type", comp.type());
+                    compObj.put("exported", comp.exported());
+                    compObj.put("enabled", comp.enabled());
+                    compsArr.add(compObj);
+                }
+                obj.put("comps", compsArr);
+            }
+            entriesObj.put(mapEntry.getKey(), obj);
+        }
+        JSONObject root = new JSONObject();
+        root.put("entries", entriesObj);
+        Path tmpPath = mPath.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            Files.writeString(tmpPath, root.toJSONString(), StandardCharsets.UTF_8);
+            Files.move(tmpPath, mPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            mIsDirty = false;
+        } catch (IOException e) {
+            log.error("Failed to save APK catalog [{}]", mPath, e);
+        }
+    }
+
+    private static String getKey(Path apkPath) {
+        return apkPath.toAbsolutePath().normalize().toString();
+    }
+
+    private static long getModelMtime(Path apkPath) {
+        if (Config.getInstance().getIccResultPath() == null) {
+            return -1;
+        }
+        try {
+            return Files.getLastModifiedTime(AppModel.getICCBotModelPath(apkPath)).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the entry of an APK if it is up to date.
+     *
+     * @param apkPath Path to the APK
+     * @return Catalog entry, or null if not cataloged or stale
+     */
+    public Entry get(Path apkPath) {
+        Entry entry = mEntries.get(getKey(apkPath));
+        if (entry == null) {
+            return null;
+        }
+        try {
+            if (entry.mtime() != Files.getLastModifiedTime(apkPath).toMillis()
+                    || entry.size() != Files.size(apkPath)
+                    || entry.modelMtime() != getModelMtime(apkPath)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Get the package name of an APK, cataloging the APK if necessary.
+     *
+     * @param apkPath Path to the APK
+     * @return Package name, or null if the APK cannot be parsed
+     */
+    public String getPackageName(Path apkPath) {
+        Entry entry = get(apkPath);
+        if (entry == null) {
+            entry = build(apkPath);
+            if (entry == null) {
+                return null;
+            }
+            mEntries.put(getKey(apkPath), entry);
+            mIsDirty = true;
+        }
+        return entry.pkgName();
+    }
+
+    /**
+     * Rebuild stale entries of the given APKs in parallel and save the catalog.
+     *
+     * @param apkPaths Paths of APKs
+     */
+    public synchronized void update(List<Path> apkPaths) {
+        List<Path> stalePaths = apkPaths.stream().filter(apkPath -> get(apkPath) == null).toList();
+        if (stalePaths.isEmpty()) {
+            log.info("APK catalog is up to date with {} APKs", apkPaths.size());
+            return;
+        }
+        long beginTime = System.currentTimeMillis();
+        int threadNum = Math.min(stalePaths.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum, r -> {
+            Thread t = new Thread(r, "ApkCataloger");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<Entry>> tasks = new ArrayList<>();
+        for (Path apkPath : stalePaths) {
+            tasks.add(executor.submit(() -> build(apkPath)));
+        }
+        int builtCnt = 0;
+        try {
+            for (int i = 0; i < stalePaths.size(); i++) {
+                Entry entry;
+                try {
+                    entry = tasks.get(i).get();
+                } catch (ExecutionException e) {
+                    // Skip the broken APK only, the others are still cataloged
+                    log.error("Failed to catalog APK [{}]", stalePaths.get(i), e.getCause());
+                    continue;
+                }
+                if (entry != null) {
+                    mEntries.put(getKey(stalePaths.get(i)), entry);
+                    builtCnt++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        mIsDirty = mIsDirty || builtCnt > 0;
+        log.info("Cataloged {}/{} APKs in {} ms, {} APKs are up to date", builtCnt, stalePaths.size(),
+                System.currentTimeMillis() - beginTime, apkPaths.size() - stalePaths.size());
+        save();
+    }
+
+    private static Entry build(Path apkPath) {
+        long mtime;
+        long size;
+        String sha256;
+        try (InputStream is = Files.newInputStream(apkPath)) {
+            mtime = Files.getLastModifiedTime(apkPath).toMillis();
+            size = Files.size(apkPath);
+            sha256 = DigestUtils.sha256Hex(is);
+        } catch (IOException e) {
+            log.error("Failed to read APK [{}]", apkPath, e);
+            return null;
+        }
+        long modelMtime = getModelMtime(apkPath);
+        String pkgName = null;
+        List<CompInfo> comps = null;
+        if (modelMtime >= 0) {
+            try {
+                AppModel appModel = new AppModel(apkPath);
+                pkgName = appModel.getPackageName();
+                comps = new ArrayList<>();
+                for (int i = 0; i < appModel.getCompCount(); i++) {
+                    CompModel compModel = appModel.getCompModelByIndex(i);
+                    comps.add(new CompInfo(compModel.getClassName(), compModel.getType(),
+                            compModel.getExported(), compModel.getEnabled()));
+                }
+            } catch (Exception e) {
+                log.warn("{} when loading model of APK [{}]", e.getClass().getSimpleName(), apkPath);
+                comps = null;
+            }
+        }
+        if (pkgName == null) {
+            // No ICCBot model, the package name is still useful
+            try (ApkFile apkFile = new ApkFile(apkPath.toFile())) {
+                pkgName = apkFile.getApkMeta().getPackageName();
+            } catch (Exception e) {
+                log.error("{} when parsing APK [{}]", e.getClass().getSimpleName(), apkPath, e);
+                return null;
+            }
+        }
+        return new Entry(mtime, size, modelMtime, pkgName, sha256, comps);
+    }
+
+    /**
+     * @param comps Components in the ICCBot model, or null if the model is not available
+     */
+    public record Entry(long mtime, long size, long modelMtime, String pkgName, String sha256,
+                        List<CompInfo> comps) {
+        public boolean hasModel() {
+            return comps != null;
+        }
+
+        public int getCompCount() {
+            return comps != null ? comps.size() : 0;
+        }
+
+        public long getExportedCount() {
+            return comps != null ? comps.stream().filter(c -> Boolean.TRUE.equals(c.exported())).count() : 0;
+        }
+
+        public long getEnabledCount() {
+            return comps != null ? comps.stream().filter(c -> !Boolean.FALSE.equals(c.enabled())).count() : 0;
+        }
+    }
+
+    public record CompInfo(String className, String type, Boolean exported, Boolean enabled) {
+    }
+}
@@ -0,0 +1,252 @@
+package org.square16.ictdroid.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Installs upcoming APKs in background while the current one is being tested,
+ * and uninstalls finished ones to keep the installed test APKs under a storage budget.
+ * <p>
+ * Only APKs installed by the pipeline are counted and uninstalled,
+ * packages which are already on the device before testing are left untouched.
+ * The budget is estimated by the size of the APK files.
+ */
+@Slf4j
+public class ApkInstallPipeline {
+    private final ADBInterface mAdb;
+    private final int mLookahead;
+    private final long mBudgetBytes;
+    private final ExecutorService mExecutor;
+    private final Map<Path, Future<Boolean>> mPendingTasks = new LinkedHashMap<>();
+    private final Map<Path, String> mPkgNames = new ConcurrentHashMap<>();
+    /**
+     * APK path -> APK size, for APKs installed by the pipeline, in the order of installation
+     */
+    private final Map<Path, Long> mInstalled = new LinkedHashMap<>();
+    private final Set<Path> mFinished = new HashSet<>();
+    /**
+     * APK under testing, the last one required
+     */
+    private Path mCurrent;
+
+    private long mInstallCnt = 0;
+    private long mUninstallCnt = 0;
+    private long mWaitCnt = 0;
+    private long mWaitTotalMs = 0;
+
+    /**
+     * @param adb         ADB interface of the device
+     * @param lookahead   Max number of APKs to install ahead
+     * @param budgetBytes Max total size of the installed test APKs, 0 for unlimited
+     */
+    public ApkInstallPipeline(ADBInterface adb, int lookahead, long budgetBytes) {
+        mAdb = adb;
+        mLookahead = Math.max(lookahead, 0);
+        mBudgetBytes = Math.max(budgetBytes, 0);
+        mExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ApkInstaller");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int getLookahead() {
+        return mLookahead;
+    }
+
+    /**
+     * Schedule installation of upcoming APKs.
+     * APKs which are already scheduled will be ignored,
+     * and scheduled APKs which are no longer upcoming will be cancelled.
+     * APKs installed ahead but no longer upcoming, e.g. taken by another device in the device pool,
+     * are marked as finished.
+     *
+     * @param apkPaths Upcoming APKs, in the order of testing
+     */
+    public synchronized void schedule(List<Path> apkPaths) {
+        mPendingTasks.entrySet().removeIf(entry -> {
+            if (apkPaths.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().cancel(false);
+            return true;
+        });
+        for (Path apkPath : mInstalled.keySet()) {
+            if (!apkPaths.contains(apkPath) && !apkPath.equals(mCurrent) && mFinished.add(apkPath)) {
+                log.debug("APK [{}] installed ahead is no longer upcoming", apkPath);
+            }
+        }
+        for (Path apkPath : apkPaths) {
+            if (mPendingTasks.size() >= mLookahead) {
+                break;
+            }
+            if (mInstalled.containsKey(apkPath)) {
+                continue;
+            }
+            mPendingTasks.computeIfAbsent(apkPath, k -> mExecutor.submit(() -> install(apkPath, false)));
+        }
+    }
+
+    /**
+     * Make sure an APK is installed before testing it,
+     * waiting for its background installation if necessary.
+     *
+     * @param apkPath Path to the APK
+     * @param pkgName Package name of the APK
+     * @return true if installed, false otherwise
+     */
+    public boolean require(Path apkPath, String pkgName) {
+        mPkgNames.putIfAbsent(apkPath, pkgName);
+        Future<Boolean> task;
+        synchronized (this) {
+            mCurrent = apkPath;
+            mFinished.remove(apkPath);
+            task = mPendingTasks.remove(apkPath);
+        }
+        if (task == null) {
+            return install(apkPath, true);
+        }
+        long beginTime = System.currentTimeMillis();
+        boolean waited = !task.isDone();
+        try {
+            // Installed ahead only if it fits in the budget
+            return Boolean.TRUE.equals(task.get()) || install(apkPath, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | CancellationException e) {
+            log.error("Failed to install APK [{}] in background", apkPath, e);
+            return install(apkPath, true);
+        } finally {
+            if (waited) {
+                long waitMs = System.currentTimeMillis() - beginTime;
+                synchronized (this) {
+                    mWaitCnt++;
+                    mWaitTotalMs += waitMs;
+                }
+                log.debug("Waited {} ms for installation of APK [{}]", waitMs, apkPath);
+            }
+        }
+    }
+
+    /**
+     * Mark an APK as finished, so that it can be uninstalled when the budget runs out.
+     *
+     * @param apkPath Path to the APK
+     */
+    public synchronized void finish(Path apkPath) {
+        mFinished.add(apkPath);
+    }
+
+    private boolean install(Path apkPath, boolean isRequired) {
+        String pkgName = getPackageName(apkPath);
+        if (pkgName == null) {
+            return false;
+        }
+        Set<String> installedPkgs = mAdb.getInstalledPackages();
+        if (installedPkgs != null && installedPkgs.contains(pkgName)) {
+            return true;
+        }
+        long apkSize;
+        try {
+            apkSize = Files.size(apkPath);
+        } catch (IOException e) {
+            log.error("Failed to get size of APK [{}]", apkPath, e);
+            return false;
+        }
+        if (!reserve(apkSize) && !isRequired) {
+            log.debug("No budget to install APK [{}] ahead", apkPath);
+            return false;
+        }
+        if (isRequired) {
+            log.info("APK [{}] ({}) is not installed! Installing...", pkgName, apkPath);
+        } else {
+            log.info("Installing APK [{}] ({}) ahead", pkgName, apkPath);
+        }
+        if (!mAdb.installSync(apkPath.toString(), pkgName)) {
+            return false;
+        }
+        synchronized (this) {
+            mInstalled.put(apkPath, apkSize);
+            mInstallCnt++;
+        }
+        return true;
+    }
+
+    /**
+     * Uninstall finished APKs until the APK to install fits in the budget.
+     *
+     * @param apkSize Size of the APK to install
+     * @return true if the APK fits in the budget, false otherwise
+     */
+    private boolean reserve(long apkSize) {
+        if (mBudgetBytes == 0) {
+            return true;
+        }
+        List<Path> victims = new ArrayList<>();
+        long usedBytes = 0;
+        synchronized (this) {
+            for (long size : mInstalled.values()) {
+                usedBytes += size;
+            }
+            Iterator<Map.Entry<Path, Long>> it = mInstalled.entrySet().iterator();
+            while (usedBytes + apkSize > mBudgetBytes && it.hasNext()) {
+                Map.Entry<Path, Long> entry = it.next();
+                if (mFinished.remove(entry.getKey())) {
+                    victims.add(entry.getKey());
+                    usedBytes -= entry.getValue();
+                    it.remove();
+                }
+            }
+        }
+        for (Path victim : victims) {
+            String pkgName = getPackageName(victim);
+            if (pkgName != null && mAdb.uninstallSync(pkgName)) {
+                log.info("Uninstalled finished APK [{}] ({})", pkgName, victim);
+                synchronized (this) {
+                    mUninstallCnt++;
+                }
+            }
+        }
+        return usedBytes + apkSize <= mBudgetBytes;
+    }
+
+    private String getPackageName(Path apkPath) {
+        String pkgName = mPkgNames.get(apkPath);
+        if (pkgName != null) {
+            return pkgName;
+        }
+        pkgName = ApkCatalog.getInstance().getPackageName(apkPath);
+        if (pkgName == null) {
+            return null;
+        }
+        mPkgNames.put(apkPath, pkgName);
+        return pkgName;
+    }
+
+    /**
+     * Cancel all scheduled installations.
+     */
+    public synchronized void clear() {
+        for (Future<Boolean> task : mPendingTasks.values()) {
+            task.cancel(false);
+        }
+        mPendingTasks.clear();
+    }
+
+    public synchronized void logStats() {
+        log.info("APK install pipeline: lookahead={}, installed={}, uninstalled={}, waited={}, waitTotal={} ms",
+                mLookahead, mInstallCnt, mUninstallCnt, mWaitCnt, mWaitTotalMs);
+    }
+
+    public void shutdown() {
+        clear();
+        mExecutor.shutdown();
+        logStats();
+    }
+}
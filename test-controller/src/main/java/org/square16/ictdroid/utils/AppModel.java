@@ -68,13 +68,25 @@ public class AppModel {
         }
     }
 
-    private void loadICCBotModel() throws IOException {
-        // Load ICCBot component model
+    /**
+     * Get the path of ICCBot component model of an APK.
+     *
+     * @param apkPath Path to the APK
+     * @return Path to ComponentModel.json
+     */
+    public static Path getICCBotModelPath(Path apkPath) {
         String apkFileName = apkPath.getFileName().toString();
         String apkFileBaseName = apkFileName.substring(0, apkFileName.lastIndexOf("."));
-        Path appModelJsonPath = Paths.get(
+        return Paths.get(
                 Config.getInstance().getIccResultPath().toString(),
                 apkFileBaseName + "/ICCSpecification/ComponentModel.json");
+    }
+
+    private void loadICCBotModel() throws IOException {
+        // Load ICCBot component model
+        String apkFileName = apkPath.getFileName().toString();
+        String apkFileBaseName = apkFileName.substring(0, apkFileName.lastIndexOf("."));
+        Path appModelJsonPath = getICCBotModelPath(apkPath);
         appModelJson = JSON.parseObject(Files.readString(appModelJsonPath));
         modelVersion = appModelJson.getString("version");
 
@@ -4,11 +4,15 @@ import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.cli.*;
 import org.square16.ictdroid.Constants;
+import org.square16.ictdroid.logcat.LogcatQueue;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
 
 @Slf4j
 public class ArgParser {
@@ -77,6 +81,20 @@ public class ArgParser {
         config.setRunApksInDescOrder(cmd.hasOption("rd"));
         config.setSeed(cmd.hasOption("s") ? Long.parseLong(cmd.getOptionValue("s")) : System.currentTimeMillis());
         config.setDeviceSerial(cmd.getOptionValue("d"));
+        if (cmd.hasOption("ds")) {
+            List<String> serials = Arrays.stream(cmd.getOptionValue("ds").split(","))
+                    .map(String::trim).filter(Predicate.not(String::isBlank)).distinct().toList();
+            if (serials.isEmpty()) {
+                log.error("Invalid device serial list: {}", cmd.getOptionValue("ds"));
+                return false;
+            }
+            config.setDeviceSerials(serials);
+            if (config.getDeviceSerial() == null) {
+                config.setDeviceSerial(serials.get(0));
+            }
+        } else {
+            config.setDeviceSerials(config.getDeviceSerial() == null ? List.of() : List.of(config.getDeviceSerial()));
+        }
 
         if (cmd.hasOption("mr")) {
             Path mistResultPath = Paths.get(cmd.getOptionValue("mr")).toAbsolutePath();
@@ -114,6 +132,24 @@ public class ArgParser {
         config.setStartCompIndex(cmd.hasOption("ic") ? Integer.parseInt(cmd.getOptionValue("ic")) : 0);
         config.setStartCaseIndex(cmd.hasOption("it") ? Integer.parseInt(cmd.getOptionValue("it")) : 0);
         config.setStartStrategy(cmd.getOptionValue("is"));
+        config.setResume(cmd.hasOption("re"));
+        config.setFixedTimeout(cmd.hasOption("ft"));
+        config.setIntentDedup(!cmd.hasOption("nd"));
+        config.setShellSession(!cmd.hasOption("ns"));
+        config.setEventStream(!cmd.hasOption("ne"));
+        config.setAdbWire(!cmd.hasOption("nw"));
+        config.setLogcatBinary(cmd.hasOption("lb"));
+        config.setLogcatFilter(!cmd.hasOption("nf"));
+        config.setLogArchive(!cmd.hasOption("na"));
+
+        Path resultPath = Paths.get(cmd.getOptionValue("rp", Constants.DEFAULT_RESULT_PATH)).toAbsolutePath();
+        try {
+            Files.createDirectories(resultPath);
+        } catch (IOException e) {
+            log.error("Failed to create result directory: {}", resultPath);
+            return false;
+        }
+        config.setResultPath(resultPath);
 
         config.setRandValNum(cmd.hasOption("r") ?
                 Integer.parseInt(cmd.getOptionValue("r")) :
@@ -124,6 +160,31 @@ public class ArgParser {
         config.setStrMaxLength(cmd.hasOption("smax") ?
                 Integer.parseInt(cmd.getOptionValue("smax")) :
                 Constants.DEFAULT_RAND_STR_MAX_LENGTH);
+        config.setGenWorkers(cmd.hasOption("gw") ?
+                Integer.parseInt(cmd.getOptionValue("gw")) :
+                Constants.DEFAULT_GEN_WORKERS);
+        config.setGenLookahead(cmd.hasOption("gl") ?
+                Integer.parseInt(cmd.getOptionValue("gl")) :
+                Constants.DEFAULT_GEN_LOOKAHEAD);
+        config.setInstallLookahead(cmd.hasOption("il") ?
+                Integer.parseInt(cmd.getOptionValue("il")) :
+                Constants.DEFAULT_INSTALL_LOOKAHEAD);
+        config.setInstallBudgetMB(cmd.hasOption("ib") ?
+                Integer.parseInt(cmd.getOptionValue("ib")) :
+                Constants.DEFAULT_INSTALL_BUDGET_MB);
+        config.setLogcatQueueSize(cmd.hasOption("lq") ?
+                Integer.parseInt(cmd.getOptionValue("lq")) :
+                Constants.DEFAULT_LOGCAT_QUEUE_SIZE);
+        String queuePolicy = cmd.getOptionValue("lp", "drop");
+        switch (queuePolicy) {
+            case "block" -> config.setLogcatQueuePolicy(LogcatQueue.Policy.BLOCK);
+            case "drop" -> config.setLogcatQueuePolicy(LogcatQueue.Policy.DROP_OLDEST_NON_CRITICAL);
+            case "spill" -> config.setLogcatQueuePolicy(LogcatQueue.Policy.SPILL_TO_DISK);
+            default -> {
+                log.error("Invalid logcat queue policy: {}", queuePolicy);
+                return false;
+            }
+        }
 
         if (cmd.hasOption("ag")) {
             config.setTestGenMode(TestGenMode.AUTO);
@@ -189,6 +250,12 @@ public class ArgParser {
         genGroup.setRequired(true);
         options.addOptionGroup(genGroup);
 
+        options.addOption("gw", "gen-workers", true,
+                "Number of worker threads to generate testcases in parallel with -og. Default=" +
+                        Constants.DEFAULT_GEN_WORKERS);
+        options.addOption("gl", "gen-lookahead", true,
+                "Number of components to generate testcases ahead while testing (0 to disable). Default=" +
+                        Constants.DEFAULT_GEN_LOOKAHEAD);
         options.addOption("ss", "strength-strategy", true,
                 "Default comb-strength strategy (0 for dynamic, 1~6 for fixed. Default is 0)");
         options.addOption("o", "scope-config", true,
@@ -222,6 +289,8 @@ public class ArgParser {
                 "Android default launcher package name. Example: com.android.launcher3");
         options.addOption("d", "device", true,
                 "Serial number of Android device. Default=null");
+        options.addOption("ds", "devices", true,
+                "Comma-separated serial numbers of Android devices to run in parallel. Example: emulator-5554,emulator-5556");
         options.addOption("bp", "bridge-port", true,
                 "Port number of test bridge. Default to auto-detect.");
         options.addOption("ce", "continue-if-error", false,
@@ -235,6 +304,38 @@ public class ArgParser {
                 "The start index of testcase. Default=0");
         options.addOption("is", "start-strategy", true,
                 "The name of start strategy. Default is null");
+        options.addOption("re", "resume", false,
+                "Resume from the progress journal under result path, finished testcases will be skipped");
+        options.addOption("il", "install-lookahead", true,
+                "Number of APKs to install ahead while testing (0 to disable). Default=" +
+                        Constants.DEFAULT_INSTALL_LOOKAHEAD);
+        options.addOption("ib", "install-budget", true,
+                "Max total size (in MB) of the installed test APKs, finished ones will be uninstalled " +
+                        "when exceeded (0 for unlimited). Default=" + Constants.DEFAULT_INSTALL_BUDGET_MB);
+        options.addOption("lq", "logcat-queue-size", true,
+                "Max number of logcat lines waiting for handlers. Default=" + Constants.DEFAULT_LOGCAT_QUEUE_SIZE);
+        options.addOption("lp", "logcat-queue-policy", true,
+                "What to do when the logcat queue is full: block (throttle logcat), " +
+                        "drop (drop oldest lines not needed for crash detection) or spill (spill to disk). " +
+                        "Default=drop");
+        options.addOption("ft", "fixed-timeout", false,
+                "Use the fixed launch timeouts instead of the ones learned from previous cases");
+        options.addOption("nd", "no-dedup", false,
+                "Run testcases even if the same Intent is already sent to the component");
+        options.addOption("ns", "no-shell-session", false,
+                "Fork an adb process for every shell command instead of using persistent adb shell sessions");
+        options.addOption("nw", "no-wire", false,
+                "Run the adb executable for every request instead of talking to adb server through socket");
+        options.addOption("ne", "no-event-stream", false,
+                "Poll dumpsys window for the focused activity instead of tracking the events log buffer");
+        options.addOption("lb", "logcat-binary", false,
+                "Read logcat in binary format instead of parsing text lines");
+        options.addOption("nf", "no-logcat-filter", false,
+                "Read the whole logcat instead of only lines of the app under test, test bridge and system_server");
+        options.addOption("na", "no-log-archive", false,
+                "Write all logcat lines to the logcat log file instead of the per-testcase log archive under result path");
+        options.addOption("rp", "result-path", true,
+                "Path to result directory. Default=" + Constants.DEFAULT_RESULT_PATH);
 
         return options;
     }
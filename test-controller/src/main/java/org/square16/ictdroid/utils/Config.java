@@ -2,8 +2,10 @@ package org.square16.ictdroid.utils;
 
 import com.alibaba.fastjson.JSONObject;
 import lombok.Data;
+import org.square16.ictdroid.logcat.LogcatQueue;
 
 import java.nio.file.Path;
+import java.util.List;
 
 @Data
 public class Config {
@@ -15,6 +17,7 @@ public class Config {
     private Path testcasePath;
     private Path scopeConfigPath;
     private String deviceSerial;
+    private List<String> deviceSerials;
     private Long seed;
     private TestGenMode testGenMode;
     private int randValNum;
@@ -28,7 +31,23 @@ public class Config {
     private Integer startCompIndex;
     private Integer startCaseIndex;
     private String startStrategy;
+    private Path resultPath;
+    private Boolean resume;
+    private Boolean fixedTimeout;
+    private Boolean intentDedup;
+    private Boolean shellSession;
+    private Boolean adbWire;
+    private Boolean eventStream;
+    private Boolean logcatBinary;
+    private Boolean logcatFilter;
+    private Boolean logArchive;
+    private int logcatQueueSize;
+    private LogcatQueue.Policy logcatQueuePolicy;
     private int defaultStrength;
+    private int genLookahead;
+    private int genWorkers;
+    private int installLookahead;
+    private int installBudgetMB;
 
     private Boolean withManifest;
     private Boolean withRandom;
@@ -3,6 +3,12 @@ package org.square16.ictdroid.utils;
 import java.util.Random;
 
 public class GlobalRandom {
+    /**
+     * Get a new random generator seeded by the global seed.
+     * Each caller owns its generator, so generating concurrently does not change the sequence of values.
+     *
+     * @return New random generator
+     */
     public static Random getInstance() {
         return new Random(Config.getInstance().getSeed());
     }
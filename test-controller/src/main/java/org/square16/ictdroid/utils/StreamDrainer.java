@@ -0,0 +1,93 @@
+package org.square16.ictdroid.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Reads a process stream in bulk on a background thread, so stdout and stderr are drained at the same time
+ * and neither of them can fill up its pipe and block the process.
+ * <p>
+ * At most {@code limit} bytes are kept, the rest are read and dropped.
+ */
+class StreamDrainer {
+    private static final int BUFFER_SIZE = 8192;
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "StreamDrainer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final InputStream mInputStream;
+    private final int mLimit;
+    private final Consumer<String> mLineCallback;
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mLineBuffer = new ByteArrayOutputStream();
+    private long mTotalBytes = 0;
+
+    private StreamDrainer(InputStream is, int limit, Consumer<String> lineCallback) {
+        mInputStream = is;
+        mLimit = limit;
+        mLineCallback = lineCallback;
+    }
+
+    /**
+     * Start to drain a stream.
+     *
+     * @param is           Stream to drain
+     * @param limit        Max bytes to keep
+     * @param lineCallback Called with each line as soon as it is read, can be null
+     * @return Future of the drained content, completed when the stream is closed
+     */
+    static CompletableFuture<Output> start(InputStream is, int limit, Consumer<String> lineCallback) {
+        StreamDrainer drainer = new StreamDrainer(is, limit, lineCallback);
+        return CompletableFuture.supplyAsync(drainer::drain, EXECUTOR);
+    }
+
+    private Output drain() {
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream is = mInputStream) {
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                int keep = (int) Math.max(0, Math.min(n, mLimit - mTotalBytes));
+                mBuffer.write(buf, 0, keep);
+                mTotalBytes += n;
+                if (mLineCallback != null) {
+                    feedLines(buf, n);
+                }
+            }
+        } catch (IOException e) {
+            // Stream is closed when the process is killed
+        }
+        if (mLineCallback != null && mLineBuffer.size() > 0) {
+            mLineCallback.accept(mLineBuffer.toString(StandardCharsets.UTF_8));
+        }
+        return new Output(mBuffer.toString(StandardCharsets.UTF_8), mTotalBytes > mLimit);
+    }
+
+    private void feedLines(byte[] buf, int n) {
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            if (buf[i] == '\n') {
+                mLineBuffer.write(buf, start, i - start);
+                String line = mLineBuffer.toString(StandardCharsets.UTF_8);
+                mLineCallback.accept(line.endsWith("\r") ? line.substring(0, line.length() - 1) : line);
+                mLineBuffer.reset();
+                start = i + 1;
+            }
+        }
+        mLineBuffer.write(buf, start, n - start);
+    }
+
+    /**
+     * @param content     Content kept
+     * @param isTruncated Whether the content exceeds the limit
+     */
+    record Output(String content, boolean isTruncated) {
+    }
+}
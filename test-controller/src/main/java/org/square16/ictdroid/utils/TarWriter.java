@@ -0,0 +1,112 @@
+package org.square16.ictdroid.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Minimal writer of <b>ustar</b> archives with regular files only, which can be extracted by toybox tar on device.
+ */
+public class TarWriter implements Closeable {
+    private static final int BLOCK_SIZE = 512;
+    private static final int NAME_MAX = 100;
+    private static final int PREFIX_MAX = 155;
+
+    private final OutputStream mOutputStream;
+
+    public TarWriter(OutputStream os) {
+        mOutputStream = os;
+    }
+
+    /**
+     * Check whether a name can be stored in ustar header.
+     *
+     * @param name Entry name, separated by '/'
+     * @return true if supported
+     */
+    public static boolean isNameSupported(String name) {
+        return splitName(name.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    /**
+     * @return Index of '/' to split name into prefix and name, 0 if no need to split, -1 if not supported
+     */
+    private static int splitName(byte[] name) {
+        if (name.length <= NAME_MAX) {
+            return 0;
+        }
+        for (int i = name.length - 1; i > 0; i--) {
+            if (name[i] == '/' && i <= PREFIX_MAX && name.length - i - 1 <= NAME_MAX) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Append a regular file.
+     *
+     * @param name Entry name, separated by '/'
+     * @param file Local file
+     */
+    public void addFile(String name, Path file) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = splitName(nameBytes);
+        if (split < 0) {
+            throw new IOException("Name too long for tar: " + name);
+        }
+        long size = Files.size(file);
+        byte[] header = new byte[BLOCK_SIZE];
+        if (split == 0) {
+            System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        } else {
+            System.arraycopy(nameBytes, split + 1, header, 0, nameBytes.length - split - 1);
+            System.arraycopy(nameBytes, 0, header, 345, split);
+        }
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, Files.getLastModifiedTime(file).toMillis() / 1000);
+        header[156] = '0';
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        // Checksum is calculated with the checksum field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        mOutputStream.write(header);
+
+        long copied = Files.copy(file, mOutputStream);
+        if (copied != size) {
+            throw new IOException("File changed while archiving: " + file);
+        }
+        int padding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+        mOutputStream.write(new byte[padding]);
+    }
+
+    private static void putOctal(byte[] header, int offset, int len, long value) {
+        String octal = Long.toOctalString(value);
+        // Zero padded, terminated by NUL
+        String padded = "0".repeat(Math.max(0, len - 1 - octal.length())) + octal;
+        byte[] bytes = padded.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, len - 1));
+        header[offset + len - 1] = 0;
+    }
+
+    /**
+     * Write the end-of-archive blocks and close the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        mOutputStream.write(new byte[BLOCK_SIZE * 2]);
+        mOutputStream.close();
+    }
+}
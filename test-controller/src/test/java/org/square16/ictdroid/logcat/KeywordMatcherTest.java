@@ -0,0 +1,46 @@
+package org.square16.ictdroid.logcat;
+
+import org.junit.jupiter.api.Test;
+import org.square16.ictdroid.logcat.utils.KeywordMatcher;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeywordMatcherTest {
+    @Test
+    void testMatch() {
+        KeywordMatcher matcher = new KeywordMatcher(List.of("he", "she", "his", "hers"));
+        BitSet found = new BitSet();
+        assertTrue(matcher.match("ushers", found));
+        assertTrue(found.get(0));
+        assertTrue(found.get(1));
+        assertFalse(found.get(2));
+        assertTrue(found.get(3));
+
+        assertFalse(matcher.match("a hash", found));
+        assertTrue(found.isEmpty());
+
+        assertTrue(matcher.match("this", found));
+        assertEquals(1, found.cardinality());
+        assertTrue(found.get(2));
+    }
+
+    @Test
+    void testOverlappedKeywords() {
+        KeywordMatcher matcher = new KeywordMatcher(List.of("Caused by:", "by", "RPCServer started at port"));
+        BitSet found = new BitSet();
+        assertTrue(matcher.match("W System.err: Caused by: java.lang.NullPointerException", found));
+        assertTrue(found.get(0));
+        assertTrue(found.get(1));
+        assertFalse(found.get(2));
+
+        assertTrue(matcher.match("I TestService: Test RPCServer started at port 53110", found));
+        assertEquals(1, found.cardinality());
+        assertTrue(found.get(2));
+
+        assertFalse(new KeywordMatcher(List.of()).match("anything", found));
+        assertFalse(matcher.match(null, found));
+    }
+}
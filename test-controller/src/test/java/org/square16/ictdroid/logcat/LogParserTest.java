@@ -1,11 +1,26 @@
 package org.square16.ictdroid.logcat;
 
+import org.square16.ictdroid.logcat.interfaces.IBinaryLogcatParser;
 import org.square16.ictdroid.logcat.interfaces.ILogcatParser;
 import org.square16.ictdroid.logcat.utils.LogInfo;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class LogParserTest {
     @Test
@@ -22,4 +37,137 @@ class LogParserTest {
         assertEquals(result.msg, "java.lang.Throwable");
         assertEquals(result.original, log);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testYearParser2() {
+        ILogcatParser parser = LogcatParserFactory.getParser(ILogcatParser.LOGCAT_V_YEAR);
+        assertNotNull(parser);
+        LogInfo result = parser.parse("2022-05-07 13:45:39.597   733   733 I art     : Starting a blocking GC Alloc");
+        assertEquals(result.tag, "art");
+        assertEquals(result.msg, "Starting a blocking GC Alloc");
+
+        result = parser.parse("2022-05-07 13:45:39.597   733   745 I chromium: [INFO:CONSOLE(1)] \"a: b\"");
+        assertEquals(result.tag, "chromium");
+        assertEquals(result.msg, "[INFO:CONSOLE(1)] \"a: b\"");
+
+        // Not recognized by the scanner, handled by the regular expression
+        result = parser.parse("2022-05-07 13:45:39.597  1310  1812 W Tag:x y: z");
+        assertSameLogInfo(legacyParse("2022-05-07 13:45:39.597  1310  1812 W Tag:x y: z"), result);
+
+        result = parser.parse("--------- beginning of crash");
+        assertNull(result.tag);
+        assertEquals(result.original, "--------- beginning of crash");
+    }
+
+    @Test
+    void testYearParserSamples() {
+        String[] samples = {
+                "2022-05-07 13:45:39.597  1310  1812 E ActivityManager: java.lang.Throwable",
+                "2022-05-07 13:45:39.598  1310  1812 E ActivityManager: \tat com.android.server.am.ActivityManagerService.handleApplicationCrashInner(ActivityManagerService.java:8436)",
+                "2022-05-07 13:45:39.601   733   733 I art     : Starting a blocking GC Alloc",
+                "2022-05-07 13:45:39.602  4521  4521 D ICTDroid: Received testcase 12",
+                "2022-05-07 13:45:39.610  4521  4540 E AndroidRuntime: FATAL EXCEPTION: main",
+        };
+        ILogcatParser parser = LogcatParserFactory.getParser(ILogcatParser.LOGCAT_V_YEAR);
+        assertNotNull(parser);
+        for (String sample : samples) {
+            assertSameLogInfo(legacyParse(sample), parser.parse(sample));
+        }
+    }
+
+    @Test
+    void testBinaryParser() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        // v4 header with log id of main buffer
+        writeEntry(bos, 28, 1310, 1812, 1651902339L, 597000000L, 0, 6, "ActivityManager", "java.lang.Throwable\n");
+        // Multi-line message
+        writeEntry(bos, 28, 4521, 4540, 1651902339L, 5000000L, 0, 6, "AndroidRuntime", "FATAL EXCEPTION: main\nProcess: a.b");
+        // v1 header without header size
+        writeEntry(bos, 0, 733, 733, 1651902340L, 0L, 0, 4, "art", "Starting a blocking GC Alloc");
+        // Crash buffer
+        writeEntry(bos, 28, 4521, 4521, 1651902340L, 10000000L, 4, 3, "ICTDroid", "Received testcase 12");
+
+        assertTrue(LogcatParserFactory.isBinary(ILogcatParser.LOGCAT_BINARY));
+        assertNull(LogcatParserFactory.getParser(ILogcatParser.LOGCAT_BINARY));
+        IBinaryLogcatParser parser = LogcatParserFactory.getBinaryParser(ILogcatParser.LOGCAT_BINARY);
+        assertNotNull(parser);
+        List<LogInfo> results = new ArrayList<>();
+        InputStream is = new ByteArrayInputStream(bos.toByteArray());
+        while (parser.read(is, results::add)) {
+            continue;
+        }
+        assertEquals(7, results.size());
+        assertEquals("--------- beginning of main", results.get(0).original);
+
+        String time = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault())
+                .format(Instant.ofEpochSecond(1651902339L));
+        LogInfo result = results.get(1);
+        assertEquals(time + ".597", result.time);
+        assertEquals("1651902339.597", result.epochTime);
+        assertEquals("1310", result.pid);
+        assertEquals("1812", result.tid);
+        assertEquals("E", result.level);
+        assertEquals("ActivityManager", result.tag);
+        assertEquals("java.lang.Throwable", result.msg);
+        assertEquals(time + ".597  1310  1812 E ActivityManager: java.lang.Throwable", result.original);
+        // Same as parsing text output
+        assertSameLogInfo(LogcatParserFactory.getParser(ILogcatParser.LOGCAT_V_YEAR).parse(result.original), result);
+
+        assertEquals(time + ".005", results.get(2).time);
+        assertEquals("1651902339.005", results.get(2).epochTime);
+        assertEquals("FATAL EXCEPTION: main", results.get(2).msg);
+        assertEquals("Process: a.b", results.get(3).msg);
+        assertEquals("AndroidRuntime", results.get(3).tag);
+
+        assertEquals("I", results.get(4).level);
+        assertEquals("art", results.get(4).tag);
+
+        assertEquals("--------- beginning of crash", results.get(5).original);
+        assertEquals("D", results.get(6).level);
+        assertEquals("Received testcase 12", results.get(6).msg);
+    }
+
+    private static void assertSameLogInfo(LogInfo expected, LogInfo actual) {
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.original, actual.original);
+    }
+
+    private static void writeEntry(ByteArrayOutputStream bos, int hdrSize, int pid, int tid, long sec, long nsec,
+                                   int lid, int prio, String tag, String msg) {
+        byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        byte[] msgBytes = msg.getBytes(StandardCharsets.UTF_8);
+        int payloadLen = 1 + tagBytes.length + 1 + msgBytes.length + 1;
+        int headerLen = hdrSize == 0 ? 20 : hdrSize;
+        ByteBuffer buf = ByteBuffer.allocate(headerLen + payloadLen).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putShort((short) payloadLen).putShort((short) hdrSize);
+        buf.putInt(pid).putInt(tid).putInt((int) sec).putInt((int) nsec);
+        if (headerLen > 20) {
+            buf.putInt(lid);
+            buf.position(headerLen);
+        }
+        buf.put((byte) prio).put(tagBytes).put((byte) 0).put(msgBytes).put((byte) 0);
+        bos.write(buf.array(), 0, buf.capacity());
+    }
+
+    /**
+     * Parser before the scanner, which compiles the regular expression for every line.
+     */
+    private static LogInfo legacyParse(String logLine) {
+        LogInfo res = new LogInfo();
+        Pattern pattern = Pattern.compile("(?<time>[\\d-]+\\s[\\d:.]+)\\s+" +
+                "(?<pid>\\d+)\\s+(?<tid>\\d+)\\s+(?<level>[A-Z])\\s+(?<tag>\\S*)\\s*:\\s");
+        Matcher matcher = pattern.matcher(logLine);
+        if (!matcher.find()) {
+            res.original = logLine;
+            return res;
+        }
+        res.time = matcher.group("time");
+        res.pid = matcher.group("pid");
+        res.tid = matcher.group("tid");
+        res.level = matcher.group("level");
+        res.tag = matcher.group("tag");
+        res.msg = matcher.replaceFirst("");
+        res.original = logLine;
+        return res;
+    }
+}
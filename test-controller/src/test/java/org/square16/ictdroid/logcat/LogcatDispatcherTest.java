@@ -0,0 +1,90 @@
+package org.square16.ictdroid.logcat;
+
+import org.junit.jupiter.api.Test;
+import org.square16.ictdroid.logcat.annotations.LogcatHandler;
+import org.square16.ictdroid.logcat.interfaces.ILogcatHandler;
+import org.square16.ictdroid.logcat.interfaces.ILogcatParser;
+import org.square16.ictdroid.logcat.utils.LogInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogcatDispatcherTest {
+    private static final List<String> CALLS = new ArrayList<>();
+
+    @LogcatHandler(name = "Any", regex = ".*")
+    static class AnyHandler implements ILogcatHandler {
+        @Override
+        public void handle(LogcatMonitor monitor, LogInfo logInfo) {
+            CALLS.add("Any");
+        }
+    }
+
+    @LogcatHandler(name = "Literal", regex = "I ActivityManager: Displayed")
+    static class LiteralHandler implements ILogcatHandler {
+        @Override
+        public void handle(LogcatMonitor monitor, LogInfo logInfo) {
+            CALLS.add("Literal");
+        }
+    }
+
+    @LogcatHandler(name = "Regex", regex = ": (\\t|Caused by:).*")
+    static class RegexHandler implements ILogcatHandler {
+        @Override
+        public void handle(LogcatMonitor monitor, LogInfo logInfo) {
+            CALLS.add("Regex");
+        }
+    }
+
+    @LogcatHandler(name = "Keywords", keywords = {"RPCServer", "port"}, regex = "port \\d+$")
+    static class KeywordsHandler implements ILogcatHandler {
+        @Override
+        public void handle(LogcatMonitor monitor, LogInfo logInfo) {
+            CALLS.add("Keywords");
+        }
+    }
+
+    @LogcatHandler(name = "Tag", tag = "ICTDroidMarker", keywords = {"mark-"})
+    static class TagHandler implements ILogcatHandler {
+        @Override
+        public void handle(LogcatMonitor monitor, LogInfo logInfo) {
+            CALLS.add("Tag");
+        }
+    }
+
+    private static List<String> dispatch(LogcatDispatcher dispatcher, String logLine) {
+        ILogcatParser parser = LogcatParserFactory.getParser(ILogcatParser.LOGCAT_V_YEAR);
+        assertNotNull(parser);
+        CALLS.clear();
+        dispatcher.dispatch(null, parser.parse(logLine));
+        return new ArrayList<>(CALLS);
+    }
+
+    @Test
+    void testDispatch() {
+        LogcatDispatcher dispatcher = new LogcatDispatcher(List.of(new TagHandler(), new KeywordsHandler(),
+                new RegexHandler(), new LiteralHandler(), new AnyHandler()));
+
+        assertEquals(List.of("Any"),
+                dispatch(dispatcher, "2022-04-12 22:37:27.392 11115 11115 I TestService: TestService started"));
+        assertEquals(List.of("Literal", "Any"), dispatch(dispatcher,
+                "2022-04-12 22:37:27.392  1310  1330 I ActivityManager: Displayed a.b/.Main: +210ms"));
+        assertEquals(List.of("Regex", "Any"), dispatch(dispatcher,
+                "2022-04-12 22:37:27.395 11115 11115 W System.err: \tat android.os.Looper.loop(Looper.java:154)"));
+        assertEquals(List.of("Keywords", "Any"), dispatch(dispatcher,
+                "2022-04-12 22:37:27.392 11115 11115 I TestService: Test RPCServer started at port 53110"));
+        // Keywords found but regex not matched
+        assertEquals(List.of("Any"), dispatch(dispatcher,
+                "2022-04-12 22:37:27.392 11115 11115 I TestService: Test RPCServer port unknown"));
+        assertEquals(List.of("Tag", "Any"),
+                dispatch(dispatcher, "2022-04-12 22:37:27.392  4000  4000 I ICTDroidMarker: mark-1a-3"));
+        // Keyword without the tag
+        assertEquals(List.of("Any"),
+                dispatch(dispatcher, "2022-04-12 22:37:27.392  4000  4000 I Other: mark-1a-3"));
+        // Tag without the keyword
+        assertEquals(List.of("Any"),
+                dispatch(dispatcher, "2022-04-12 22:37:27.392  4000  4000 I ICTDroidMarker: other"));
+    }
+}
@@ -0,0 +1,110 @@
+package org.square16.ictdroid.logcat;
+
+import org.junit.jupiter.api.Test;
+import org.square16.ictdroid.logcat.utils.LogInfo;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogcatQueueTest {
+    private static LogInfo line(String level, String tag, String msg) {
+        LogInfo logInfo = new LogInfo();
+        logInfo.time = "2022-05-07 13:45:39.597";
+        logInfo.pid = "1310";
+        logInfo.tid = "1812";
+        logInfo.level = level;
+        logInfo.tag = tag;
+        logInfo.msg = msg;
+        logInfo.original = logInfo.time + "  1310  1812 " + level + " " + tag + ": " + msg;
+        return logInfo;
+    }
+
+    @Test
+    void testDropOldestNonCritical() throws InterruptedException {
+        LogcatQueue queue = new LogcatQueue(16, LogcatQueue.Policy.DROP_OLDEST_NON_CRITICAL);
+        assertTrue(queue.offer(line("E", "AndroidRuntime", "FATAL EXCEPTION: main")));
+        for (int i = 0; i < 15; i++) {
+            assertTrue(queue.offer(line("D", "Noisy", "line " + i)));
+        }
+        // Full, the oldest non-critical lines are dropped
+        assertTrue(queue.offer(line("D", "Noisy", "line 15")));
+        assertTrue(queue.offer(line("W", "System.err", "\tat a.b.C.d(C.java:1)")));
+        assertEquals(2, queue.getDropCount());
+        assertEquals(16, queue.size());
+
+        assertEquals("FATAL EXCEPTION: main", queue.take().msg);
+        assertEquals("line 2", queue.take().msg);
+        for (int i = 3; i < 16; i++) {
+            assertEquals("line " + i, queue.take().msg);
+        }
+        assertEquals("System.err", queue.take().tag);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void testDropOnlyNonCritical() {
+        LogcatQueue queue = new LogcatQueue(16, LogcatQueue.Policy.DROP_OLDEST_NON_CRITICAL);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(queue.offer(line("E", "AndroidRuntime", "line " + i)));
+        }
+        // Nothing can be evicted, the non-critical line is dropped instead of blocking
+        assertFalse(queue.offer(line("I", "Noisy", "dropped")));
+        assertEquals(1, queue.getDropCount());
+        assertTrue(LogcatQueue.isCritical(line("I", "ActivityManager", "Displayed a.b/.Main: +210ms")));
+        assertFalse(LogcatQueue.isCritical(line("I", "Noisy", "x")));
+    }
+
+    @Test
+    void testSpillToDisk() throws InterruptedException {
+        LogcatQueue queue = new LogcatQueue(16, LogcatQueue.Policy.SPILL_TO_DISK);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.offer(line("D", "Noisy", "line " + i)));
+            if (i % 30 == 29) {
+                // Lines offered while spilled lines are being read back keep the order
+                assertEquals("line " + (i / 30), queue.take().msg);
+            }
+        }
+        assertEquals(97, queue.size());
+        assertEquals(0, queue.getDropCount());
+        assertTrue(queue.getSpillCount() > 0);
+        for (int i = 3; i < 100; i++) {
+            LogInfo logInfo = queue.take();
+            assertEquals("line " + i, logInfo.msg);
+            assertEquals("Noisy", logInfo.tag);
+        }
+        assertEquals(0, queue.size());
+        assertTrue(queue.offer(line("D", "Noisy", "after")));
+        assertEquals("after", queue.take().msg);
+    }
+
+    @Test
+    void testBlock() throws InterruptedException {
+        LogcatQueue queue = new LogcatQueue(16, LogcatQueue.Policy.BLOCK);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(queue.offer(line("D", "Noisy", "line " + i)));
+        }
+        Thread producer = new Thread(() -> queue.offer(line("D", "Noisy", "blocked")));
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertEquals("line 0", queue.take().msg);
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(16, queue.size());
+        assertEquals(0, queue.getDropCount());
+    }
+
+    @Test
+    void testParseDeviceTime() {
+        LogcatQueue queue = new LogcatQueue(16, LogcatQueue.Policy.BLOCK);
+        long expected = LocalDateTime.of(2022, 5, 7, 13, 45, 39)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        assertEquals(expected + 597, queue.parseDeviceTime("2022-05-07 13:45:39.597"));
+        assertEquals(expected + 5, queue.parseDeviceTime("2022-05-07 13:45:39.005"));
+        assertEquals(expected + 1005, queue.parseDeviceTime("2022-05-07 13:45:40.005"));
+        assertEquals(-1, queue.parseDeviceTime(null));
+        assertEquals(-1, queue.parseDeviceTime("05-07 13:45:39.597"));
+    }
+}
@@ -3,6 +3,7 @@ package org.square16.ictdroid.logcat;
 import org.square16.ictdroid.logcat.handler.StackTraceHandler;
 import org.square16.ictdroid.logcat.interfaces.ILogcatParser;
 import org.square16.ictdroid.logcat.utils.LogInfo;
+import org.square16.ictdroid.logcat.utils.StackFrame;
 import org.square16.ictdroid.logcat.utils.TraceBlock;
 import org.junit.jupiter.api.Test;
 
@@ -136,4 +137,65 @@ class StackTraceHandlerTest {
 
         assertNull(handler.getTraceBlock());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testInterleavedPids() {
+        String log = """
+                2022-04-12 22:38:28.123 11185 11185 E AndroidRuntime: java.lang.IllegalStateException: Not attached
+                2022-04-12 22:38:28.123 11185 11185 E AndroidRuntime: \tat com.a.Main.onClick(Main.java:10)
+                2022-04-12 22:38:28.124 11200 11200 W System.err: java.io.IOException: Broken pipe
+                2022-04-12 22:38:28.124 11200 11200 W System.err: \tat com.b.Net.send(Net.java:5)
+                2022-04-12 22:38:28.125 11185 11185 E AndroidRuntime: \tat android.view.View.performClick(View.java:5637)
+                2022-04-12 22:38:28.126 11200 11210 I art     : Starting a blocking GC HeapTrim
+                2022-04-12 22:38:28.127 11185 11185 E AndroidRuntime: Caused by: java.lang.NullPointerException
+                2022-04-12 22:38:28.127 11185 11185 E AndroidRuntime: \tat com.a.Main.getView(Main.java:20)
+                2022-04-12 22:38:28.127 11185 11185 E AndroidRuntime: \t... 2 more
+                2022-04-12 22:38:28.128 11200 11210 I art     : Starting a blocking GC Alloc
+                2022-04-12 22:38:28.128 11185 11185 E AndroidRuntime: Caused by: java.lang.IllegalArgumentException: Bad id
+                2022-04-12 22:38:28.128 11185 11185 E AndroidRuntime: \tat com.a.Db.query(Db.java:7)
+                2022-04-12 22:38:28.128 11185 11185 E AndroidRuntime: \t... 3 more""";
+        ILogcatParser parser = LogcatParserFactory.getParser(ILogcatParser.LOGCAT_V_YEAR);
+        assertNotNull(parser);
+        StackTraceHandler handler = new StackTraceHandler();
+        for (String logLine : log.split("\n")) {
+            LogInfo logInfo = parser.parse(logLine);
+            handler.handle(null, logInfo);
+            handler.setLastLineInfo(logInfo);
+        }
+
+        TraceBlock traceBlock1 = handler.getTraceBlock();
+        assertNotNull(traceBlock1);
+        assertEquals("11200", traceBlock1.pid);
+        assertEquals("java.io.IOException: Broken pipe\n\tat com.b.Net.send(Net.java:5)", traceBlock1.body);
+
+        // The trace of 11185 is not ended by lines of other processes
+        assertNull(handler.getTraceBlock());
+        handler.flush();
+        TraceBlock traceBlock2 = handler.getTraceBlock();
+        assertNotNull(traceBlock2);
+        assertEquals("11185", traceBlock2.pid);
+        assertEquals("java.lang.IllegalStateException", traceBlock2.exception.type);
+        assertEquals(2, traceBlock2.exception.frames.size());
+        assertEquals("java.lang.NullPointerException", traceBlock2.exception.cause.type);
+        assertNull(traceBlock2.exception.cause.message);
+        // Causes after "... N more" lines are kept in the trace
+        assertEquals("java.lang.IllegalArgumentException", traceBlock2.exception.getRootCause().type);
+        assertEquals("Bad id", traceBlock2.exception.getRootCause().message);
+        StackFrame frame = traceBlock2.exception.cause.frames.get(0);
+        assertEquals("com.a.Main", frame.className());
+        assertEquals("getView", frame.methodName());
+        assertEquals("Main.java", frame.fileName());
+        assertEquals(20, frame.lineNumber());
+        assertSame(frame, StackFrame.parse("com.a.Main.getView(Main.java:20)"));
+        assertTrue(traceBlock2.exception.mentions("com.a"));
+        assertFalse(traceBlock2.exception.mentions("com.b"));
+        assertEquals(String.join("\n",
+                "java.lang.IllegalStateException: Not attached",
+                "\tat com.a.Main.onClick(Main.java:10)",
+                "\tat android.view.View.performClick(View.java:5637)",
+                "Caused by: java.lang.NullPointerException",
+                "\tat com.a.Main.getView(Main.java:20)",
+                "Caused by: java.lang.IllegalArgumentException: Bad id",
+                "\tat com.a.Db.query(Db.java:7)"), traceBlock2.body);
+    }
+}
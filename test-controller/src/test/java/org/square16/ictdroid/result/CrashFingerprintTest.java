@@ -0,0 +1,84 @@
+package org.square16.ictdroid.result;
+
+import org.junit.jupiter.api.Test;
+import org.square16.ictdroid.logcat.utils.StackFrame;
+import org.square16.ictdroid.logcat.utils.ThrowableInfo;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrashFingerprintTest {
+    private static final String TRACE_A = """
+            W System.err: java.lang.RuntimeException: Unable to start activity ComponentInfo{com.a/com.a.Main}
+            W System.err: \tat android.app.ActivityThread.performLaunchActivity(ActivityThread.java:2698)
+            W System.err: \tat android.app.ActivityThread.handleLaunchActivity(ActivityThread.java:2759)
+            W System.err: Caused by: java.lang.NullPointerException: Attempt to invoke virtual method on 0x1a2b
+            W System.err: \tat com.a.Main.parseExtras(Main.java:42)
+            W System.err: \tat com.a.Main.lambda$onCreate$0(Main.java:30)
+            W System.err: \tat com.a.Main$$Lambda$1.run(Unknown Source:2)
+            W System.err: \tat android.app.Activity.performCreate(Activity.java:6679)""";
+    private static final String TRACE_B = """
+            W System.err: java.lang.RuntimeException: Unable to start activity ComponentInfo{com.a/com.a.Main}
+            W System.err: \tat android.app.ActivityThread.performLaunchActivity(ActivityThread.java:2700)
+            W System.err: Caused by: java.lang.NullPointerException: Attempt to invoke virtual method on 0x3c4d
+            W System.err: \tat com.a.Main.parseExtras(Main.java:45)
+            W System.err: \tat com.a.Main.lambda$onCreate$0(Main.java:31)
+            W System.err: \tat com.a.Main$$Lambda$7.run(Unknown Source:4)
+            W System.err: \tat android.app.Activity.performCreate(Activity.java:6679)""";
+
+    @Test
+    void testRootCause() {
+        CrashFingerprint fingerprint = CrashFingerprint.of(TRACE_A);
+        assertEquals("java.lang.NullPointerException", fingerprint.exceptionType());
+        assertEquals(3, fingerprint.frames().size());
+        assertEquals("com.a.Main.parseExtras", fingerprint.frames().get(0));
+    }
+
+    @Test
+    void testSameCrashSameHash() {
+        assertEquals(CrashFingerprint.of(TRACE_A).hash(), CrashFingerprint.of(TRACE_B).hash());
+    }
+
+    @Test
+    void testDifferentCrashDifferentHash() {
+        String trace = TRACE_A.replace("parseExtras", "parseData");
+        assertNotEquals(CrashFingerprint.of(TRACE_A).hash(), CrashFingerprint.of(trace).hash());
+    }
+
+    @Test
+    void testFrameworkOnly() {
+        CrashFingerprint fingerprint = CrashFingerprint.of("""
+                E AndroidRuntime: java.lang.IllegalStateException: Fragment not attached
+                E AndroidRuntime: \tat android.app.Fragment.getResources(Fragment.java:100)""");
+        assertEquals("java.lang.IllegalStateException", fingerprint.exceptionType());
+        assertEquals(1, fingerprint.frames().size());
+    }
+
+    @Test
+    void testStructuredSameAsBody() {
+        List<ThrowableInfo> exceptions = List.of(parse(TRACE_A), parse(TRACE_B));
+        CrashFingerprint fingerprint = CrashFingerprint.of(exceptions);
+        assertEquals(CrashFingerprint.of(TRACE_A + "\n" + TRACE_B), fingerprint);
+        assertEquals(CrashFingerprint.of(List.of(parse(TRACE_A))), CrashFingerprint.of(TRACE_A));
+        assertEquals(TRACE_A.replace("W System.err: ", ""), exceptions.get(0).toString());
+    }
+
+    private static ThrowableInfo parse(String trace) {
+        ThrowableInfo res = null;
+        ThrowableInfo current = null;
+        for (String line : trace.split("\n")) {
+            String msg = line.substring(line.indexOf(": ") + 2);
+            if (msg.startsWith("\tat ")) {
+                current.frames.add(StackFrame.parse(msg.substring(4)));
+            } else if (res == null) {
+                res = ThrowableInfo.ofHeader(msg);
+                current = res;
+            } else {
+                current.cause = ThrowableInfo.ofHeader(msg.substring("Caused by: ".length()));
+                current = current.cause;
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,112 @@
+package org.square16.ictdroid.result;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.square16.ictdroid.logcat.utils.LogInfo;
+import org.square16.ictdroid.logcat.utils.LogSegment;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogArchiveTest {
+    @TempDir
+    Path tempDir;
+
+    private static LogInfo line(LogSegment segment, String msg) {
+        LogInfo logInfo = new LogInfo();
+        logInfo.original = "2022-05-07 13:45:39.597  1310  1812 I Tag: " + msg;
+        logInfo.segment = segment;
+        return logInfo;
+    }
+
+    @Test
+    void testAppendAndReopen() throws IOException {
+        LogSegment case0 = new LogSegment(0, "com.a", "com.a.Main", "base", 0);
+        LogSegment between = new LogSegment(0, "com.a", "com.a.Main", "base", -1);
+        LogSegment case1 = new LogSegment(0, "com.a", "com.a.Main", "base", 1);
+        try (LogArchive archive = new LogArchive(tempDir)) {
+            archive.append(line(null, "before"));
+            archive.append(line(case0, "case 0 line 0"));
+            archive.append(line(case0, "case 0 line 1"));
+            archive.append(line(between, "between"));
+            archive.append(line(case1, "case 1"));
+            // Pending block is flushed when reading
+            assertEquals("2022-05-07 13:45:39.597  1310  1812 I Tag: case 1\n",
+                    archive.read("com.a", "com.a.Main", "base", 1));
+            // Retry of case 0
+            archive.append(line(case0, "case 0 retry"));
+        }
+        try (LogArchive archive = new LogArchive(tempDir)) {
+            String caseLog = archive.read("com.a", "com.a.Main", "base", 0);
+            assertNotNull(caseLog);
+            assertEquals(3, caseLog.lines().count());
+            assertTrue(caseLog.lines().allMatch(l -> l.contains("case 0")));
+            assertTrue(caseLog.endsWith("case 0 retry\n"));
+            assertTrue(archive.read("com.a", "com.a.Main", "base", -1).contains("between"));
+            assertTrue(archive.read(LogArchive.UNSEGMENTED_KEY).contains("before"));
+            assertNull(archive.read("com.a", "com.a.Main", "base", 2));
+        }
+    }
+
+    @Test
+    void testTornBlock() throws IOException {
+        LogSegment case0 = new LogSegment(0, "com.a", "com.a.Main", "base", 0);
+        LogSegment case1 = new LogSegment(0, "com.a", "com.a.Main", "base", 1);
+        try (LogArchive archive = new LogArchive(tempDir)) {
+            archive.append(line(case0, "case 0"));
+            archive.append(line(case1, "case 1"));
+        }
+        // Crash when writing the last block
+        try (FileChannel channel = FileChannel.open(tempDir.resolve(LogArchive.DATA_FILE), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+        Files.writeString(tempDir.resolve(LogArchive.INDEX_FILE), "com.a/com.a.Main/base/2\t12",
+                StandardOpenOption.APPEND);
+        try (LogArchive archive = new LogArchive(tempDir)) {
+            assertTrue(archive.read("com.a", "com.a.Main", "base", 0).contains("case 0"));
+            assertNull(archive.read("com.a", "com.a.Main", "base", 1));
+            assertNull(archive.read("com.a", "com.a.Main", "base", 2));
+        }
+    }
+
+    @Test
+    void testInterleavedSegments() throws IOException {
+        // Two devices run cases at the same time
+        LogSegment caseA = new LogSegment(0, "com.a", "com.a.Main", "base", 0);
+        LogSegment caseB = new LogSegment(1, "com.b", "com.b.Main", "base", 0);
+        try (LogArchive archive = new LogArchive(tempDir)) {
+            for (int i = 0; i < 100; i++) {
+                archive.append(line(caseA, "a " + i));
+                archive.append(line(caseB, "b " + i));
+                archive.append(line(null, "unsegmented " + i));
+            }
+        }
+        assertEquals(3, Files.readAllLines(tempDir.resolve(LogArchive.INDEX_FILE)).size());
+        try (LogArchive archive = new LogArchive(tempDir)) {
+            String caseLog = archive.read("com.a", "com.a.Main", "base", 0);
+            assertEquals(100, caseLog.lines().count());
+            assertTrue(caseLog.lines().allMatch(l -> l.contains(": a ")));
+            assertTrue(caseLog.endsWith("a 99\n"));
+            assertEquals(100, archive.read("com.b", "com.b.Main", "base", 0).lines().count());
+        }
+    }
+
+    @Test
+    void testLargeSegment() throws IOException {
+        LogSegment case0 = new LogSegment(0, "com.a", "com.a.Main", "base", 0);
+        try (LogArchive archive = new LogArchive(tempDir)) {
+            for (int i = 0; i < 30000; i++) {
+                archive.append(line(case0, "line " + i + " of a log storm"));
+            }
+            String caseLog = archive.read("com.a", "com.a.Main", "base", 0);
+            assertEquals(30000, caseLog.lines().count());
+            assertTrue(caseLog.endsWith("line 29999 of a log storm\n"));
+        }
+        assertTrue(Files.size(tempDir.resolve(LogArchive.DATA_FILE)) < 30000 * 40 / 4);
+    }
+}
@@ -0,0 +1,81 @@
+package org.square16.ictdroid.result;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.square16.ictdroid.rpc.CompStateMonitor;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultStoreTest {
+    @TempDir
+    Path tempDir;
+
+    private static CaseResult newResult(String pkgName, String compName, int caseIndex, int state, String trace) {
+        return new CaseResult(caseIndex, pkgName, compName, "base", 0, 0, caseIndex, state,
+                pkgName + "/" + compName, trace);
+    }
+
+    @Test
+    void testAppendAndReopen() throws IOException {
+        try (ResultStore store = new ResultStore(tempDir)) {
+            store.append(newResult("com.a", "com.a.Main", 0, CompStateMonitor.STATE_SUCCESS, null));
+            store.append(newResult("com.a", "com.a.Main", 1, CompStateMonitor.STATE_APP_CRASHED,
+                    "E AndroidRuntime: java.lang.NullPointerException\nE AndroidRuntime: \tat com.a.Main.onCreate"));
+            store.append(newResult("com.b", "com.b.Main", 0, CompStateMonitor.STATE_JUMPED, null));
+        }
+        try (ResultStore store = new ResultStore(tempDir)) {
+            assertEquals(3, store.size());
+            CaseResult result = store.get(1);
+            assertEquals("com.a", result.pkgName());
+            assertEquals("com.a.Main", result.compName());
+            assertEquals(1, result.caseIndex());
+            assertEquals(CompStateMonitor.STATE_APP_CRASHED, result.state());
+            assertTrue(result.trace().endsWith("com.a.Main.onCreate"));
+            assertNull(store.get(0).trace());
+        }
+    }
+
+    @Test
+    void testDropTornRecord() throws IOException {
+        try (ResultStore store = new ResultStore(tempDir)) {
+            store.append(newResult("com.a", "com.a.Main", 0, CompStateMonitor.STATE_SUCCESS, null));
+            store.append(newResult("com.a", "com.a.Main", 1, CompStateMonitor.STATE_SUCCESS, null));
+        }
+        try (FileChannel channel = FileChannel.open(tempDir.resolve(ResultStore.CASES_FILE), StandardOpenOption.WRITE)) {
+            channel.truncate(ResultStore.RECORD_SIZE + 10);
+        }
+        try (ResultStore store = new ResultStore(tempDir)) {
+            assertEquals(1, store.size());
+            store.append(newResult("com.a", "com.a.Main", 2, CompStateMonitor.STATE_SUCCESS, null));
+            assertEquals(2, store.get(1).caseIndex());
+        }
+    }
+
+    @Test
+    void testQuery() throws IOException {
+        try (ResultStore store = new ResultStore(tempDir)) {
+            for (int i = 0; i < 10000; i++) {
+                int state = i % 10 == 0 ? CompStateMonitor.STATE_APP_CRASHED : CompStateMonitor.STATE_SUCCESS;
+                store.append(newResult(i % 2 == 0 ? "com.a" : "com.b", "Comp" + (i % 4), i, state,
+                        state == CompStateMonitor.STATE_APP_CRASHED ? "trace " + i : null));
+            }
+            ResultQuery query = new ResultQuery(store);
+            List<CaseResult> crashes = query.findCrashes("com.a");
+            assertEquals(1000, crashes.size());
+            assertEquals("trace 0", crashes.get(0).trace());
+            assertTrue(query.findCrashes("com.none").isEmpty());
+
+            Map<String, Map<String, Long>> histogram = query.getStateHistogram("com.b");
+            assertEquals(2, histogram.size());
+            assertEquals(2500L, histogram.get("Comp1").get("SUCCESS"));
+            assertNull(histogram.get("Comp1").get("APP_CRASHED"));
+        }
+    }
+}
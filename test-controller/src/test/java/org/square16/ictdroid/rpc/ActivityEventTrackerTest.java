@@ -0,0 +1,55 @@
+package org.square16.ictdroid.rpc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ActivityEventTrackerTest {
+    @Test
+    void testParseFocus() {
+        ActivityEventTracker.Event event = ActivityEventTracker.parse(
+                "I/wm_set_resumed_activity( 1234): [0,com.example.app/.MainActivity,resumeTopActivityInnerLocked]");
+        assertNotNull(event);
+        assertEquals(ActivityEventTracker.EVENT_FOCUS, event.type());
+        assertEquals("com.example.app/.MainActivity", event.name());
+
+        event = ActivityEventTracker.parse("I/am_focused_activity(  567): [0,com.example.app/com.example.app.ui.Login]");
+        assertNotNull(event);
+        assertEquals("com.example.app/.ui.Login", event.name());
+
+        event = ActivityEventTracker.parse(
+                "I/input_focus( 1234): [Focus entering 3b7f7d1 com.example.app/com.example.app.MainActivity (server),reason=Window became focusable]");
+        assertNotNull(event);
+        assertEquals(ActivityEventTracker.EVENT_FOCUS, event.type());
+        assertEquals("com.example.app/.MainActivity", event.name());
+
+        event = ActivityEventTracker.parse(
+                "I/input_focus( 1234): [Focus entering 9a2c1e0 Application Error: com.example.app (server),reason=setFocusedWindow]");
+        assertNotNull(event);
+        assertEquals("Application Error: com.example.app", event.name());
+
+        assertNull(ActivityEventTracker.parse(
+                "I/input_focus( 1234): [Focus leaving 3b7f7d1 com.example.app/com.example.app.MainActivity (server),reason=NO_WINDOW]"));
+        assertNull(ActivityEventTracker.parse("--------- beginning of events"));
+    }
+
+    @Test
+    void testParseCrashAndFinish() {
+        ActivityEventTracker.Event event = ActivityEventTracker.parse(
+                "I/am_crash( 1234): [0,8765,com.example.app,952745540,java.lang.NullPointerException,msg,Main.java,42]");
+        assertNotNull(event);
+        assertEquals(ActivityEventTracker.EVENT_CRASH, event.type());
+        assertEquals("com.example.app", event.name());
+
+        event = ActivityEventTracker.parse(
+                "I/am_crash(  567): [8765,com.example.app:remote,952745540,java.lang.IllegalStateException,msg,A.java,1]");
+        assertNotNull(event);
+        assertEquals("com.example.app:remote", event.name());
+
+        event = ActivityEventTracker.parse(
+                "I/wm_finish_activity( 1234): [0,143826011,25,com.example.app/.MainActivity,app-request]");
+        assertNotNull(event);
+        assertEquals(ActivityEventTracker.EVENT_FINISH, event.type());
+        assertEquals("com.example.app/.MainActivity", event.name());
+    }
+}
@@ -0,0 +1,92 @@
+package org.square16.ictdroid.rpc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.square16.ictdroid.Constants;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompLatencyModelTest {
+    private static final String COMP = "com.a/.Main";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testDefaultWithoutSamples() {
+        CompLatencyModel model = new CompLatencyModel(null);
+        model.onDisplayed(COMP, 100);
+        assertTrue(model.getDeadlines(COMP).isDefault());
+    }
+
+    @Test
+    void testFastComponent() {
+        CompLatencyModel model = new CompLatencyModel(null);
+        for (int i = 0; i < 20; i++) {
+            model.onDisplayed(COMP, 100 + i * 5);
+        }
+        CompLatencyModel.Deadlines deadlines = model.getDeadlines(COMP);
+        assertEquals(Constants.TIMEOUT_START_MIN_MS, deadlines.startTimeoutMs());
+        assertEquals(Constants.TIME_DISPLAY_REQUIRE_MS, deadlines.displayRequireMs());
+        assertTrue(deadlines.checkIntervalMs() < Constants.COMP_CHECK_INTERVAL);
+        // Other components in the same package share the package distribution
+        assertEquals(deadlines, model.getDeadlines("com.a/.Other"));
+        assertTrue(model.getDeadlines("com.b/.Main").isDefault());
+    }
+
+    @Test
+    void testCrashDelayWidensDisplayWindow() {
+        CompLatencyModel model = new CompLatencyModel(null);
+        for (int i = 0; i < 20; i++) {
+            model.onDisplayed(COMP, 100);
+        }
+        model.onCrashAfterDisplayed(COMP, 500);
+        assertEquals(Constants.TIME_DISPLAY_REQUIRE_MS, model.getDeadlines(COMP).displayRequireMs());
+        model.onCrashAfterDisplayed(COMP, 2000);
+        assertEquals(3000, model.getDeadlines(COMP).displayRequireMs());
+        model.onCrashAfterDisplayed(COMP, 60000);
+        assertEquals(Constants.TIME_DISPLAY_REQUIRE_MAX_MS, model.getDeadlines(COMP).displayRequireMs());
+    }
+
+    @Test
+    void testSlowComponentAndTimeout() {
+        CompLatencyModel model = new CompLatencyModel(null);
+        for (int i = 0; i < 20; i++) {
+            model.onDisplayed(COMP, 6000);
+        }
+        assertTrue(model.getDeadlines(COMP).startTimeoutMs() > Constants.TIMEOUT_START_MS);
+
+        for (int i = 0; i < 20; i++) {
+            model.onDisplayed("com.b/.Main", 800);
+        }
+        long learned = model.getDeadlines("com.b/.Main").startTimeoutMs();
+        model.onTimeout("com.b/.Main");
+        assertEquals(Math.min(learned * 2, Constants.TIMEOUT_START_MS),
+                model.getDeadlines("com.b/.Main").startTimeoutMs());
+
+        model.onSuccess("com.b/.Main");
+        assertEquals(learned, model.getDeadlines("com.b/.Main").startTimeoutMs());
+    }
+
+    @Test
+    void testSaveAndLoad() {
+        Path path = tempDir.resolve(CompLatencyModel.FILE_NAME);
+        CompLatencyModel model = new CompLatencyModel(path);
+        for (int i = 0; i < 10; i++) {
+            model.onDisplayed(COMP, 400);
+        }
+        model.onCrashAfterDisplayed(COMP, 700);
+        model.save();
+        assertEquals(model.getDeadlines(COMP), new CompLatencyModel(path).getDeadlines(COMP));
+    }
+
+    @Test
+    void testPercentile() {
+        long[] samples = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertEquals(10, CompLatencyModel.percentile(samples, 0.95));
+        assertEquals(5, CompLatencyModel.percentile(samples, 0.5));
+        assertEquals(1, CompLatencyModel.percentile(samples, 0));
+    }
+}
@@ -0,0 +1,217 @@
+package org.square16.ictdroid.rpc;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.square16.ictdroid.rpc.interfaces.IRPCHandler;
+import org.square16.ictdroid.utils.ADBInterface;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RPCControllerTest {
+    private static final int ACTION_ECHO = 100;
+
+    private FakeBridge bridge;
+    private RPCController rpc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        bridge = new FakeBridge();
+        rpc = new RPCController(null, new FakeADB(), bridge.getPort());
+        rpc.init();
+        // Init is replied by the bridge at once
+        assertTrue(rpc.waitReady(5000));
+        assertEquals(IRPCHandler.ACTION_INIT, bridge.take().getIntValue("action"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        bridge.close();
+    }
+
+    private static JSONObject request(int action, String data) {
+        JSONObject dataObj = new JSONObject();
+        dataObj.put("action", action);
+        dataObj.put("data", data);
+        return dataObj;
+    }
+
+    @Test
+    void testOutOfOrderReplies() throws Exception {
+        CompletableFuture<JSONObject> first = rpc.send(request(ACTION_ECHO, "first"));
+        CompletableFuture<JSONObject> second = rpc.send(request(ACTION_ECHO, "second"));
+        JSONObject firstReq = bridge.take();
+        JSONObject secondReq = bridge.take();
+        assertEquals(2, rpc.getPendingCount());
+
+        bridge.reply(secondReq);
+        assertEquals("second", second.get(5, TimeUnit.SECONDS).getString("data"));
+        assertFalse(first.isDone());
+        bridge.reply(firstReq);
+        assertEquals("first", first.get(5, TimeUnit.SECONDS).getString("data"));
+        assertEquals(0, rpc.getPendingCount());
+    }
+
+    @Test
+    void testRequestTimeout() throws Exception {
+        CompletableFuture<JSONObject> lost = rpc.send(request(ACTION_ECHO, "lost"), null, 200);
+        CompletableFuture<JSONObject> replied = rpc.send(request(ACTION_ECHO, "replied"), null, 5000);
+        JSONObject lostReq = bridge.take();
+        bridge.reply(bridge.take());
+        assertEquals("replied", replied.get(5, TimeUnit.SECONDS).getString("data"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertEquals(0, rpc.getPendingCount());
+        // A late reply of the expired request is ignored
+        bridge.reply(lostReq);
+        CompletableFuture<JSONObject> next = rpc.send(request(ACTION_ECHO, "next"));
+        bridge.reply(bridge.take());
+        assertEquals("next", next.get(5, TimeUnit.SECONDS).getString("data"));
+    }
+
+    @Test
+    void testRunHeldUntilLoaded() throws Exception {
+        CompletableFuture<JSONObject> load = rpc.send(request(IRPCHandler.ACTION_LOAD, "load"));
+        CompletableFuture<JSONObject> run = rpc.send(request(IRPCHandler.ACTION_RUN_CASE, "run"));
+        assertEquals(IRPCHandler.ACTION_LOAD, bridge.take().getIntValue("action"));
+        // Not sent before the testcases are loaded
+        assertNull(bridge.poll(200));
+        assertFalse(run.isDone());
+
+        rpc.setLoaded(true);
+        JSONObject runReq = bridge.take();
+        assertEquals("run", runReq.getString("data"));
+        bridge.reply(runReq);
+        assertEquals("run", run.get(5, TimeUnit.SECONDS).getString("data"));
+        assertFalse(load.isDone());
+    }
+
+    @Test
+    void testDisconnectFailsPending() throws Exception {
+        CompletableFuture<JSONObject> pending = rpc.send(request(ACTION_ECHO, "pending"));
+        bridge.take();
+        bridge.closeClient();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> pending.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertEquals(0, rpc.getPendingCount());
+        assertFalse(rpc.isReady());
+
+        // Held until the RPC is ready again
+        CompletableFuture<JSONObject> held = rpc.send(request(ACTION_ECHO, "held"), null, 200);
+        e = assertThrows(ExecutionException.class, () -> held.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+    }
+
+    @Test
+    void testUnexpectedData() throws Exception {
+        // Events are dropped without a test controller
+        bridge.write("{\"action\":" + IRPCHandler.ACTION_EVENT + "}");
+        CompletableFuture<JSONObject> echo = rpc.send(request(ACTION_ECHO, "echo"));
+        bridge.reply(bridge.take());
+        assertEquals("echo", echo.get(5, TimeUnit.SECONDS).getString("data"));
+
+        // Data which is not an object breaks the connection instead of the receive thread
+        CompletableFuture<JSONObject> pending = rpc.send(request(ACTION_ECHO, "pending"));
+        bridge.take();
+        bridge.write("[]");
+        assertThrows(ExecutionException.class, () -> pending.get(5, TimeUnit.SECONDS));
+        assertFalse(rpc.isReady());
+    }
+
+    private static class FakeADB extends ADBInterface {
+        @Override
+        public void forceStopApp(String pkgId) {
+        }
+
+        @Override
+        public boolean startActivity(String pkgId, String actId) {
+            return true;
+        }
+    }
+
+    /**
+     * Test bridge which replies to init at once, and to other requests when told.
+     */
+    private static class FakeBridge {
+        private final ServerSocket mServer = new ServerSocket(0);
+        private final BlockingQueue<JSONObject> mRequests = new LinkedBlockingQueue<>();
+        private volatile Socket mClient;
+        private volatile DataOutputStream mDos;
+
+        FakeBridge() throws IOException {
+            Thread acceptThread = new Thread(this::serve, "FakeBridge");
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        int getPort() {
+            return mServer.getLocalPort();
+        }
+
+        private void serve() {
+            try {
+                mClient = mServer.accept();
+                DataInputStream dis = new DataInputStream(mClient.getInputStream());
+                mDos = new DataOutputStream(mClient.getOutputStream());
+                while (true) {
+                    JSONObject req = (JSONObject) JSON.parse(dis.readUTF());
+                    if (req.getIntValue("action") == IRPCHandler.ACTION_INIT) {
+                        reply(req);
+                    }
+                    mRequests.add(req);
+                }
+            } catch (IOException ignored) {
+                // Closed
+            }
+        }
+
+        JSONObject take() throws InterruptedException {
+            JSONObject req = mRequests.poll(5, TimeUnit.SECONDS);
+            assertNotNull(req, "No request received");
+            return req;
+        }
+
+        JSONObject poll(long timeoutMs) throws InterruptedException {
+            return mRequests.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void reply(JSONObject req) throws IOException {
+            JSONObject res = new JSONObject();
+            res.put("seq", req.getIntValue("seq"));
+            res.put("code", IRPCHandler.CODE_SUCCESS);
+            res.put("data", req.get("data"));
+            mDos.writeUTF(res.toJSONString());
+        }
+
+        synchronized void write(String data) throws IOException {
+            mDos.writeUTF(data);
+        }
+
+        void closeClient() throws IOException {
+            mClient.close();
+        }
+
+        void close() throws IOException {
+            mServer.close();
+            if (mClient != null) {
+                mClient.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.square16.ictdroid.testcase;
+
+import org.junit.jupiter.api.Test;
+import org.square16.ictdroid.Constants;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntentFingerprintTest {
+    // extra_<parentId>_<nodeId>_<Base32(name)>_<Base32(type)>, name="id", type="int" / "String"
+    private static final String[] FIELD_NAMES = {"action", "category", "data", "scheme", "authority", "path",
+            "extra", "extra_0_1_NFSA_NFXHI", "extra_0_2_NZQW2ZI_KN2HE2LOM4", "category_MFRGG"};
+
+    private static String fp(String... row) {
+        return IntentFingerprint.of(FIELD_NAMES, row);
+    }
+
+    @Test
+    void testIgnoredDataColumns() {
+        String n = Constants.VAL_NULL;
+        assertEquals(fp("a", n, n, "http", "host", "/p", n, "1", "x", "true"),
+                fp("a", n, n, "ftp", "*", "/q", n, "2", "y", "false"));
+        assertNotEquals(fp("a", n, Constants.VAL_NOT_EMPTY, "http", "host", "/p", n, "1", "x", "true"),
+                fp("a", n, Constants.VAL_NOT_EMPTY, "ftp", "host", "/p", n, "1", "x", "true"));
+    }
+
+    @Test
+    void testCategoryFlags() {
+        String n = Constants.VAL_NULL;
+        String ne = Constants.VAL_NOT_EMPTY;
+        assertNotEquals(fp("a", ne, n, n, n, n, n, n, n, "true"), fp("a", ne, n, n, n, n, n, n, n, "false"));
+        assertEquals(fp("a", ne, n, n, n, n, n, n, n, "false"), fp("a", ne, n, n, n, n, n, n, n, "*"));
+    }
+
+    @Test
+    void testExtraValues() {
+        String n = Constants.VAL_NULL;
+        String ne = Constants.VAL_NOT_EMPTY;
+        assertNotEquals(fp("a", n, n, n, n, n, ne, "1", "x", n), fp("a", n, n, n, n, n, ne, "2", "x", n));
+        // Unparsable int is dropped by the bridge
+        assertEquals(fp("a", n, n, n, n, n, ne, "*", "x", n), fp("a", n, n, n, n, n, ne, "abc", "x", n));
+        assertEquals(fp("a", n, n, n, n, n, ne, "01", "x", n), fp("a", n, n, n, n, n, ne, "1", "x", n));
+        // Empty extras is not the same as no extras
+        assertNotEquals(fp("a", n, n, n, n, n, n, "1", "x", n),
+                fp("a", n, n, n, n, n, Constants.VAL_EMPTY, "1", "x", n));
+    }
+
+    @Test
+    void testAction() {
+        String n = Constants.VAL_NULL;
+        assertNotEquals(fp("a", n, n, n, n, n, n, n, n, n), fp("b", n, n, n, n, n, n, n, n, n));
+        assertNotEquals(fp(n, n, n, n, n, n, n, n, n, n), fp("", n, n, n, n, n, n, n, n, n));
+        assertEquals(fp(Constants.VAL_EMPTY, n, n, n, n, n, n, n, n, n), fp("", n, n, n, n, n, n, n, n, n));
+    }
+}
@@ -0,0 +1,128 @@
+package org.square16.ictdroid.testcase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.square16.ictdroid.utils.ADBInterface;
+import org.square16.ictdroid.utils.ADBShellSession;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Delivers testcases to a fake device, which is a local directory served by a local <b>sh</b>.
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class TestcaseDelivererTest {
+    @TempDir
+    Path tempDir;
+
+    private static class FakeDevice extends ADBInterface {
+        private final boolean isTarBroken;
+        private int pushCnt = 0;
+
+        private FakeDevice(boolean isTarBroken) {
+            this.isTarBroken = isTarBroken;
+        }
+
+        @Override
+        public boolean pushSync(String localPath, String remotePath) {
+            pushCnt++;
+            try {
+                Path target = Path.of(remotePath);
+                Files.createDirectories(target.getParent());
+                Files.copy(Path.of(localPath), target, StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public ADBShellSession.Result shellResult(String command) {
+            if (isTarBroken && command.contains("tar -xf")) {
+                return new ADBShellSession.Result("", "tar: not found", 127);
+            }
+            try {
+                Process p = new ProcessBuilder("sh", "-c", command).start();
+                p.getOutputStream().close();
+                String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                String err = new String(p.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
+                return new ADBShellSession.Result(out, err, p.waitFor());
+            } catch (IOException | InterruptedException e) {
+                return null;
+            }
+        }
+    }
+
+    private List<Path> createTestcases() throws IOException {
+        Path pkgDir = Files.createDirectories(tempDir.resolve("local").resolve("com.a"));
+        return List.of(
+                Files.writeString(pkgDir.resolve("com.a.Main_base.csv"), "action,category\nA,B\n"),
+                Files.writeString(pkgDir.resolve("com.a.Main_all.csv"), "action,category\nC,D\n"),
+                Files.writeString(pkgDir.resolve("com.a.Other_base.csv"), "action,category\nE,F\n"));
+    }
+
+    @Test
+    void testDeliverByTar() throws IOException {
+        List<Path> testcases = createTestcases();
+        Path remoteRoot = Files.createDirectories(tempDir.resolve("remote"));
+        FakeDevice device = new FakeDevice(false);
+        TestcaseDeliverer deliverer = new TestcaseDeliverer(device, tempDir.resolve("local"), remoteRoot.toString());
+
+        // The extraction prints nothing on success
+        assertTrue(deliverer.deliver(List.of(testcases.get(0))));
+        assertEquals(1, device.pushCnt);
+        for (Path testcase : testcases) {
+            assertTrue(deliverer.isDelivered(testcase));
+            assertEquals(Files.readString(testcase),
+                    Files.readString(remoteRoot.resolve("com.a").resolve(testcase.getFileName())));
+        }
+        try (var files = Files.list(remoteRoot)) {
+            assertEquals(List.of(remoteRoot.resolve("com.a")), files.toList());
+        }
+
+        // Piggybacked testcases are not pushed again
+        assertTrue(deliverer.deliver(List.of(testcases.get(1), testcases.get(2))));
+        assertEquals(1, device.pushCnt);
+    }
+
+    @Test
+    void testFallbackWithoutTar() throws IOException {
+        List<Path> testcases = createTestcases();
+        Path remoteRoot = Files.createDirectories(tempDir.resolve("remote"));
+        FakeDevice device = new FakeDevice(true);
+        TestcaseDeliverer deliverer = new TestcaseDeliverer(device, tempDir.resolve("local"), remoteRoot.toString());
+
+        assertTrue(deliverer.deliver(List.of(testcases.get(0))));
+        assertEquals(2, device.pushCnt);
+        assertTrue(deliverer.isDelivered(testcases.get(0)));
+        assertFalse(deliverer.isDelivered(testcases.get(1)));
+
+        // Archive is not tried again
+        assertTrue(deliverer.deliver(List.of(testcases.get(1))));
+        assertEquals(3, device.pushCnt);
+    }
+
+    @Test
+    void testPushUnsupportedNameInTar() throws IOException {
+        List<Path> testcases = createTestcases();
+        Path longName = Files.writeString(testcases.get(0).resolveSibling("com.a." + "L".repeat(120) + "_base.csv"),
+                "action,category\nG,H\n");
+        Path remoteRoot = Files.createDirectories(tempDir.resolve("remote"));
+        FakeDevice device = new FakeDevice(false);
+        TestcaseDeliverer deliverer = new TestcaseDeliverer(device, tempDir.resolve("local"), remoteRoot.toString());
+
+        assertTrue(deliverer.deliver(List.of(testcases.get(0), longName)));
+        assertEquals(2, device.pushCnt);
+        assertTrue(deliverer.isDelivered(testcases.get(0)));
+        assertTrue(deliverer.isDelivered(longName));
+    }
+}
@@ -76,4 +76,30 @@ class ADBInterfaceTest {
         assertTrue(adb.isPackageInstalled("c.c"));
         assertTrue(adb.uninstallSync("c.c"));
     }
-}
\ No newline at end of file
+
+    @org.junit.jupiter.api.Test
+    void testShellSession() {
+        ADBInterface adb = ADBInterface.getInstance();
+        assertTrue(this.connectIfNot());
+        String[] commands = {
+                "echo hello; echo world",
+                "printf abc",
+                "echo out; echo err >&2",
+                "dumpsys window | grep mCurrentFocus",
+        };
+        String[] processResults = new String[commands.length];
+        adb.setShellSessionEnabled(false);
+        for (int i = 0; i < commands.length; i++) {
+            processResults[i] = adb.shellSync(commands[i]);
+        }
+        // The session splits the output of each command as a forked adb process does
+        adb.setShellSessionEnabled(true);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < commands.length; i++) {
+                assertEquals(processResults[i], adb.shellSync(commands[i]));
+            }
+        }
+        assertEquals("hello\nworld", adb.shellSync("echo hello; echo world"));
+        assertNotNull(adb.shellSync("echo alive"));
+    }
+}
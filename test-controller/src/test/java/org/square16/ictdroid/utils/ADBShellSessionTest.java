@@ -0,0 +1,118 @@
+package org.square16.ictdroid.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the session on a local <b>sh</b>, which speaks the same protocol as <b>adb shell</b>.
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class ADBShellSessionTest {
+    private ADBShellSession session;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        session = new ADBShellSession(() -> {
+            try {
+                return new ProcessBuilder("sh").start();
+            } catch (IOException e) {
+                return null;
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.close();
+    }
+
+    @Test
+    void testOutputAndExitCode() {
+        ADBShellSession.Result res = session.exec("echo hello; echo world", 5000);
+        assertNotNull(res);
+        assertEquals("hello\nworld\n", res.out());
+        assertEquals("", res.err());
+        assertEquals(0, res.exitCode());
+
+        res = session.exec("printf abc", 5000);
+        assertNotNull(res);
+        assertEquals("abc", res.out());
+
+        res = session.exec("echo oops >&2; false", 5000);
+        assertNotNull(res);
+        assertEquals("oops\n", res.err());
+        assertEquals(1, res.exitCode());
+    }
+
+    @Test
+    void testStdinNotConsumed() {
+        ADBShellSession.Result res = session.exec("cat", 5000);
+        assertNotNull(res);
+        assertEquals(0, res.exitCode());
+        res = session.exec("echo next", 5000);
+        assertNotNull(res);
+        assertEquals("next\n", res.out());
+    }
+
+    @Test
+    void testRestartAfterExit() {
+        assertNull(session.exec("exit 3", 5000));
+        ADBShellSession.Result res = session.exec("echo alive", 5000);
+        assertNotNull(res);
+        assertEquals("alive\n", res.out());
+    }
+
+    @Test
+    void testNotRunAgainAfterExit() throws IOException {
+        Path counter = tempDir.resolve("counter");
+        assertNull(session.exec("echo run >> '" + counter + "'; exit 3", 5000));
+        assertTrue(session.isCommandSent());
+        assertEquals(1, Files.readAllLines(counter).size());
+    }
+
+    @Test
+    void testMergedStreams() {
+        // Without shell_v2, stderr of the device is merged into stdout
+        ADBShellSession merged = new ADBShellSession(() -> {
+            try {
+                return new ProcessBuilder("sh").redirectErrorStream(true).start();
+            } catch (IOException e) {
+                return null;
+            }
+        }, () -> false);
+        try {
+            ADBShellSession.Result res = merged.exec("echo out; echo oops >&2; false", 5000);
+            assertNotNull(res);
+            assertEquals("out\noops\n", res.out());
+            assertEquals("", res.err());
+            assertEquals(1, res.exitCode());
+            res = merged.exec("echo next", 5000);
+            assertNotNull(res);
+            assertEquals("next\n", res.out());
+            assertEquals(0, res.exitCode());
+        } finally {
+            merged.close();
+        }
+    }
+
+    @Test
+    void testTimeout() {
+        assertNull(session.exec("sleep 5", 200));
+        ADBShellSession.Result res = session.exec("echo alive", 5000);
+        assertNotNull(res);
+        assertEquals("alive\n", res.out());
+    }
+}
@@ -0,0 +1,239 @@
+package org.square16.ictdroid.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ADBWireClientTest {
+    private static final String SERIAL = "emulator-5554";
+
+    @TempDir
+    Path tempDir;
+    private FakeADBServer server;
+    private ADBWireClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeADBServer();
+        client = new ADBWireClient("127.0.0.1", server.getPort());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void testGetState() throws IOException {
+        assertEquals("device", client.getState(SERIAL));
+        ADBWireClient.ADBWireException e = assertThrows(ADBWireClient.ADBWireException.class,
+                () -> client.getState("emulator-0000"));
+        assertEquals("device 'emulator-0000' not found", e.getMessage());
+    }
+
+    @Test
+    void testShell() throws IOException {
+        ADBShellSession.Result res = client.shell(SERIAL, "echo hello", 5000);
+        assertEquals("hello\n", res.out());
+        assertEquals("", res.err());
+        assertEquals(0, res.exitCode());
+
+        res = client.shell(SERIAL, "fail", 5000);
+        assertEquals("", res.out());
+        assertEquals("failed\n", res.err());
+        assertEquals(1, res.exitCode());
+    }
+
+    @Test
+    void testShellStream() throws IOException {
+        Process p = client.shellStream(SERIAL, "logcat -v year");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        assertEquals("line 0 of logcat -v year", reader.readLine());
+        assertEquals("line 1 of logcat -v year", reader.readLine());
+        assertNull(reader.readLine());
+        p.destroy();
+        assertFalse(p.isAlive());
+    }
+
+    @Test
+    void testPush() throws IOException {
+        // Larger than a sync DATA chunk
+        byte[] content = new byte[200 * 1024 + 7];
+        new Random(0).nextBytes(content);
+        Path localPath = tempDir.resolve("case.csv");
+        Files.write(localPath, content);
+        assertEquals(content.length, client.push(SERIAL, localPath, "/sdcard/ICTDroid/case.csv"));
+        assertArrayEquals(content, server.files.get("/sdcard/ICTDroid/case.csv,0644"));
+    }
+
+    @Test
+    void testForward() throws IOException {
+        assertEquals(FakeADBServer.RESOLVED_PORT, client.forward(SERIAL, "tcp:0", "tcp:1234"));
+        assertEquals(5678, client.forward(SERIAL, "tcp:5678", "tcp:1235"));
+        assertThrows(ADBWireClient.ADBWireException.class, () -> client.forward(SERIAL, "tcp:5678", "tcp:1236"));
+        client.removeForward(SERIAL, "tcp:5678");
+        assertEquals(5678, client.forward(SERIAL, "tcp:5678", "tcp:1236"));
+    }
+
+    @Test
+    void testServerUnavailable() throws IOException {
+        server.close();
+        IOException e = assertThrows(IOException.class, () -> client.getState(SERIAL));
+        assertFalse(e instanceof ADBWireClient.ADBWireException);
+    }
+
+    /**
+     * A fake adb server which speaks the framing of adb host protocol.
+     */
+    private static class FakeADBServer implements AutoCloseable {
+        private static final int RESOLVED_PORT = 45678;
+        private final ServerSocket serverSocket;
+        private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+        private final Set<String> forwards = ConcurrentHashMap.newKeySet();
+
+        FakeADBServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            Thread thread = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try (Socket socket = serverSocket.accept()) {
+                        handle(socket.getInputStream(), socket.getOutputStream());
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private static String readRequest(InputStream is) throws IOException {
+            DataInputStream dis = new DataInputStream(is);
+            byte[] len = new byte[4];
+            dis.readFully(len);
+            byte[] payload = new byte[Integer.parseInt(new String(len, StandardCharsets.US_ASCII), 16)];
+            dis.readFully(payload);
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+
+        private static void writeString(OutputStream os, String status, String msg) throws IOException {
+            os.write(status.getBytes(StandardCharsets.US_ASCII));
+            if (msg != null) {
+                os.write(String.format("%04x", msg.length()).getBytes(StandardCharsets.US_ASCII));
+                os.write(msg.getBytes(StandardCharsets.UTF_8));
+            }
+            os.flush();
+        }
+
+        private static void writePacket(OutputStream os, int id, byte[] data) throws IOException {
+            os.write(ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN).put((byte) id).putInt(data.length).array());
+            os.write(data);
+        }
+
+        private void handle(InputStream is, OutputStream os) throws IOException {
+            String request = readRequest(is);
+            String prefix = "host-serial:" + SERIAL + ":";
+            if (request.startsWith("host-serial:") && !request.startsWith(prefix)
+                    || request.startsWith("host:transport:") && !request.equals("host:transport:" + SERIAL)) {
+                String serial = request.split(":")[request.startsWith("host:transport:") ? 2 : 1];
+                writeString(os, "FAIL", "device '" + serial + "' not found");
+            } else if (request.equals(prefix + "get-state")) {
+                writeString(os, "OKAY", "device");
+            } else if (request.equals(prefix + "features")) {
+                writeString(os, "OKAY", "shell_v2,cmd,stat_v2");
+            } else if (request.startsWith(prefix + "forward:norebind:")) {
+                String[] spec = request.substring((prefix + "forward:norebind:").length()).split(";");
+                writeString(os, "OKAY", null);
+                if ("tcp:0".equals(spec[0])) {
+                    writeString(os, "OKAY", String.valueOf(RESOLVED_PORT));
+                } else if (!forwards.add(spec[0])) {
+                    writeString(os, "FAIL", "cannot rebind existing socket");
+                } else {
+                    writeString(os, "OKAY", null);
+                }
+            } else if (request.startsWith(prefix + "killforward:")) {
+                forwards.remove(request.substring((prefix + "killforward:").length()));
+                writeString(os, "OKAY", null);
+                writeString(os, "OKAY", null);
+            } else if (request.startsWith("host:transport:")) {
+                writeString(os, "OKAY", null);
+                handleService(readRequest(is), is, os);
+            } else {
+                writeString(os, "FAIL", "unknown host service");
+            }
+        }
+
+        private void handleService(String service, InputStream is, OutputStream os) throws IOException {
+            writeString(os, "OKAY", null);
+            if (service.startsWith("shell,v2,raw:")) {
+                String command = service.substring("shell,v2,raw:".length());
+                if (command.startsWith("echo ")) {
+                    writePacket(os, 1, (command.substring(5) + "\n").getBytes(StandardCharsets.UTF_8));
+                    writePacket(os, 3, new byte[]{0});
+                } else {
+                    writePacket(os, 2, "failed\n".getBytes(StandardCharsets.UTF_8));
+                    writePacket(os, 3, new byte[]{1});
+                }
+            } else if (service.startsWith("shell:")) {
+                for (int i = 0; i < 2; i++) {
+                    os.write(("line " + i + " of " + service.substring(6) + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            } else if (service.equals("sync:")) {
+                DataInputStream dis = new DataInputStream(is);
+                String path = null;
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] header = new byte[8];
+                while (true) {
+                    dis.readFully(header);
+                    String id = new String(header, 0, 4, StandardCharsets.US_ASCII);
+                    int len = ByteBuffer.wrap(header, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                    if ("QUIT".equals(id)) {
+                        break;
+                    } else if ("DONE".equals(id)) {
+                        files.put(path, content.toByteArray());
+                        os.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                                .put("OKAY".getBytes(StandardCharsets.US_ASCII)).putInt(0).array());
+                        continue;
+                    }
+                    byte[] data = new byte[len];
+                    dis.readFully(data);
+                    if ("SEND".equals(id)) {
+                        path = new String(data, StandardCharsets.UTF_8);
+                    } else if ("DATA".equals(id)) {
+                        content.write(data);
+                    }
+                }
+            }
+            os.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.square16.ictdroid.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamDrainerTest {
+    @Test
+    void testLineCallback() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("line ").append(i).append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        sb.append("last");
+        List<String> lines = new ArrayList<>();
+        StreamDrainer.Output output = StreamDrainer.start(
+                new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)), 1 << 20, lines::add).get();
+        assertEquals(sb.toString(), output.content());
+        assertFalse(output.isTruncated());
+        assertEquals(5001, lines.size());
+        assertEquals("line 1", lines.get(1));
+        assertEquals("line 4999", lines.get(4999));
+        assertEquals("last", lines.get(5000));
+    }
+
+    @Test
+    void testLimit() throws Exception {
+        byte[] content = new byte[100000];
+        StreamDrainer.Output output = StreamDrainer.start(new ByteArrayInputStream(content), 1000, null).get();
+        assertEquals(1000, output.content().length());
+        assertTrue(output.isTruncated());
+    }
+}
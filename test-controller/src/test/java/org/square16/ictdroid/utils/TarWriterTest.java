@@ -0,0 +1,46 @@
+package org.square16.ictdroid.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TarWriterTest {
+    private static final String LONG_NAME = "com.example.app/" + "com.example.app.ui.".repeat(4) + "MainActivity_base.csv";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testNameSupported() {
+        assertTrue(TarWriter.isNameSupported("com.a/com.a.Main_base.csv"));
+        assertTrue(TarWriter.isNameSupported(LONG_NAME));
+        assertFalse(TarWriter.isNameSupported("a".repeat(101)));
+    }
+
+    @Test
+    @EnabledOnOs({OS.LINUX, OS.MAC})
+    void testExtractByTar() throws IOException, InterruptedException {
+        Path src = Files.createDirectory(tempDir.resolve("src"));
+        Path a = Files.writeString(src.resolve("a.csv"), "action,category\nA,B\n");
+        Path b = Files.write(src.resolve("b.csv"), new byte[1024]);
+        Path tarPath = tempDir.resolve("batch.tar");
+        try (TarWriter tar = new TarWriter(Files.newOutputStream(tarPath))) {
+            tar.addFile("com.a/a.csv", a);
+            tar.addFile(LONG_NAME, b);
+        }
+        assertEquals(0, Files.size(tarPath) % 512);
+
+        Path dst = Files.createDirectory(tempDir.resolve("dst"));
+        Process p = new ProcessBuilder("tar", "-xf", tarPath.toString()).directory(dst.toFile()).start();
+        assertEquals(0, p.waitFor());
+        assertEquals(Files.readString(a), Files.readString(dst.resolve("com.a/a.csv")));
+        assertArrayEquals(Files.readAllBytes(b), Files.readAllBytes(dst.resolve(LONG_NAME)));
+    }
+}